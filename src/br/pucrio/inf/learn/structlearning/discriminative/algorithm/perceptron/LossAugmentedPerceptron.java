@@ -1,8 +1,12 @@
 package br.pucrio.inf.learn.structlearning.discriminative.algorithm.perceptron;
 
+import java.util.concurrent.ExecutorService;
+
 import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleInput;
 import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleInputArray;
 import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleOutput;
+import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleOutputPool;
+import br.pucrio.inf.learn.structlearning.discriminative.data.ShardedExampleStream;
 import br.pucrio.inf.learn.structlearning.discriminative.task.Inference;
 import br.pucrio.inf.learn.structlearning.discriminative.task.Model;
 
@@ -81,6 +85,17 @@ public class LossAugmentedPerceptron extends Perceptron {
 		return loss;
 	}
 
+	@Override
+	protected double trainOneEpoch(ShardedExampleStream stream,
+			int[] blockOrder, ExampleOutputPool pool, ExecutorService reader) {
+		double loss = super.trainOneEpoch(stream, blockOrder, pool, reader);
+		if (lossNonAnnotatedWeight >= 0d && lossNonAnnotatedWeightInc != 0d)
+			// Increment the loss weight for non-annotated elements.
+			lossNonAnnotatedWeight = Math.min(lossWeight,
+					lossNonAnnotatedWeight + lossNonAnnotatedWeightInc);
+		return loss;
+	}
+
 	@Override
 	public double trainOneEpoch(ExampleInputArray inputsA,
 			ExampleOutput[] outputsA, ExampleOutput[] predictedsA,
@@ -1,6 +1,12 @@
 package br.pucrio.inf.learn.structlearning.discriminative.algorithm.perceptron;
 
+import java.io.IOException;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -17,8 +23,12 @@ import br.pucrio.inf.learn.structlearning.discriminative.application.sequence.da
 import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleInput;
 import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleInputArray;
 import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleOutput;
+import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleOutputPool;
+import br.pucrio.inf.learn.structlearning.discriminative.data.ShardedExampleStream;
 import br.pucrio.inf.learn.structlearning.discriminative.task.Inference;
+import br.pucrio.inf.learn.structlearning.discriminative.task.LengthBucketSchedule;
 import br.pucrio.inf.learn.structlearning.discriminative.task.Model;
+import br.pucrio.inf.learn.structlearning.discriminative.task.WorkspaceInference;
 import br.pucrio.inf.learn.util.DebugUtil;
 
 /**
@@ -135,6 +145,35 @@ public class Perceptron implements OnlineStructuredAlgorithm {
 	 */
 	protected int[] indexTrainingOrder;
 
+	/**
+	 * Number of consecutive examples (in storage order) of each block used by
+	 * the block shuffle. If this value is zero, the full permutation is used.
+	 */
+	protected int shuffleBlockSize;
+
+	/**
+	 * Size of the window within which examples are shuffled after the block
+	 * shuffle.
+	 */
+	protected int shuffleWindowSize;
+
+	/**
+	 * Number of consecutive lengths within each length bucket. If this value
+	 * is zero, examples are not grouped by length.
+	 */
+	protected int lengthBucketWidth;
+
+	/**
+	 * Examples longer than this value are processed as outliers by the length
+	 * bucket schedule. If this value is zero, there is no outlier.
+	 */
+	protected int outlierLength;
+
+	/**
+	 * Length bucket schedule of the current training examples.
+	 */
+	protected LengthBucketSchedule lengthBuckets;
+
 	/**
 	 * Create a perceptron to train the given initial model using the default
 	 * Collins' learning rate (1) and the default number of iterations (10).
@@ -223,6 +262,55 @@ public class Perceptron implements OnlineStructuredAlgorithm {
 		randomize = b;
 	}
 
+	/**
+	 * Use a two-level shuffle instead of the full permutation when the order of
+	 * the training examples is randomized. First, blocks of
+	 * <code>blockSize</code> consecutive examples (in storage order) are
+	 * shuffled. Then, each example is swapped with a random example within the
+	 * next <code>windowSize</code> positions. Disk-backed example arrays are
+	 * then read almost sequentially, while the order is still close to a full
+	 * permutation when the window spans a few blocks.
+	 * 
+	 * @param blockSize
+	 *            number of examples in each block or zero to use the full
+	 *            permutation.
+	 * @param windowSize
+	 *            size of the shuffling window (at least one).
+	 */
+	public void setBlockShuffle(int blockSize, int windowSize) {
+		if (blockSize < 0 || (blockSize > 0 && windowSize < 1))
+			throw new IllegalArgumentException(
+					"Invalid block shuffle parameters: " + blockSize + ", "
+							+ windowSize);
+		this.shuffleBlockSize = blockSize;
+		this.shuffleWindowSize = windowSize;
+	}
+
+	/**
+	 * Group the training examples by length (number of tokens) so that the
+	 * inference workspace is sized by the longest example of each group (see
+	 * <code>LengthBucketSchedule</code>). It requires an inference algorithm
+	 * that implements <code>WorkspaceInference</code>. When randomization is
+	 * enabled, the order of the groups and the order of the examples within
+	 * each group are shuffled (instead of the full permutation or the block
+	 * shuffle).
+	 * 
+	 * @param bucketWidth
+	 *            number of consecutive lengths within each group or zero to
+	 *            turn off grouping.
+	 * @param outlierLength
+	 *            examples longer than this value are processed one at a time
+	 *            with an exactly sized workspace. Use zero for no outlier.
+	 */
+	public void setLengthBuckets(int bucketWidth, int outlierLength) {
+		if (bucketWidth < 0 || outlierLength < 0)
+			throw new IllegalArgumentException(
+					"Invalid length bucket parameters: " + bucketWidth + ", "
+							+ outlierLength);
+		this.lengthBucketWidth = bucketWidth;
+		this.outlierLength = outlierLength;
+	}
+
 	/**
 	 * Set a listener object to observe the training process.
 	 * 
@@ -270,6 +358,18 @@ public class Perceptron implements OnlineStructuredAlgorithm {
 		for (int idx = 0; idx < numbersExamples; ++idx)
 			indexTrainingOrder[idx] = idx;
 
+		// Group the examples by length, if required.
+		lengthBuckets = null;
+		if (lengthBucketWidth > 0) {
+			if (inferenceImpl instanceof WorkspaceInference)
+				lengthBuckets = new LengthBucketSchedule(
+						(WorkspaceInference) inferenceImpl, inputs,
+						lengthBucketWidth, outlierLength);
+			else
+				LOG.warn("Length buckets are ignored since the inference "
+						+ "workspace cannot be reallocated");
+		}
+
 		if (listener != null)
 			if (!listener.beforeTraining(inferenceImpl, model))
 				return;
@@ -332,15 +432,19 @@ public class Perceptron implements OnlineStructuredAlgorithm {
 		if (reportProgressInterval > 0)
 			System.out.print("Progress: ");
 
-		if (randomize) {
+		// Length buckets are bound to the training examples.
+		LengthBucketSchedule buckets = (inputs == this.inputs ? lengthBuckets
+				: null);
+
+		if (buckets != null)
+			// Group the examples by length (shuffled if randomize is set).
+			buckets.order(indexTrainingOrder, randomize ? random : null);
+		else if (randomize) {
 			// Randomize the order to process the training examples.
-			int len = indexTrainingOrder.length;
-			for (int idx = len - 1; idx >= 0; --idx) {
-				int idxSwp = random.nextInt(len - idx);
-				int tmp = indexTrainingOrder[idxSwp];
-				indexTrainingOrder[idxSwp] = indexTrainingOrder[idx];
-				indexTrainingOrder[idx] = tmp;
-			}
+			if (shuffleBlockSize > 0)
+				blockShuffle(indexTrainingOrder);
+			else
+				shuffle(indexTrainingOrder);
 		}
 
 		inputs.load(indexTrainingOrder);
@@ -349,6 +453,10 @@ public class Perceptron implements OnlineStructuredAlgorithm {
 		for (int idx = 0; idx < inputs.getNumberExamples(); ++idx) {
 
 			indexCurrentExample = indexTrainingOrder[idx];
+
+			// Size the inference workspace for this example bucket.
+			if (buckets != null)
+				buckets.prepare(idx);
 			/*
 			 * Update the current model weights according with the predicted
 			 * output for this training example.
@@ -374,12 +482,247 @@ public class Perceptron implements OnlineStructuredAlgorithm {
 			}
 		}
 
+		// Release the workspace of the last bucket.
+		if (buckets != null)
+			buckets.finish();
+
+		// Progress report.
+		if (reportProgressInterval > 0)
+			System.out.println("done.");
+
+		return loss;
+
+	}
+
+	/**
+	 * Randomly permute the given array of indexes.
+	 * 
+	 * @param order
+	 */
+	protected void shuffle(int[] order) {
+		int len = order.length;
+		for (int idx = len - 1; idx >= 0; --idx) {
+			int idxSwp = random.nextInt(len - idx);
+			int tmp = order[idxSwp];
+			order[idxSwp] = order[idx];
+			order[idx] = tmp;
+		}
+	}
+
+	/**
+	 * Fill the given array with a block-shuffled order of the examples (see
+	 * <code>setBlockShuffle(int, int)</code>). The previous content of the
+	 * array is ignored, so that blocks are always made of examples that are
+	 * consecutive in storage.
+	 * 
+	 * @param order
+	 */
+	protected void blockShuffle(int[] order) {
+		int len = order.length;
+		int numBlocks = (len + shuffleBlockSize - 1) / shuffleBlockSize;
+		int[] blocks = new int[numBlocks];
+		for (int idx = 0; idx < numBlocks; ++idx)
+			blocks[idx] = idx;
+		shuffle(blocks);
+
+		// Concatenate the blocks in the shuffled order.
+		int pos = 0;
+		for (int block : blocks) {
+			int end = Math.min(len, (block + 1) * shuffleBlockSize);
+			for (int idx = block * shuffleBlockSize; idx < end; ++idx)
+				order[pos++] = idx;
+		}
+
+		// Shuffle within a sliding window.
+		for (int idx = 0; idx < len - 1; ++idx) {
+			int idxSwp = idx
+					+ random.nextInt(Math.min(shuffleWindowSize, len - idx));
+			int tmp = order[idxSwp];
+			order[idxSwp] = order[idx];
+			order[idx] = tmp;
+		}
+	}
+
+	/**
+	 * Train on a sharded dataset that is streamed from disk, one block (shard)
+	 * at a time. Gold outputs are read along with the inputs and prediction
+	 * objects are taken from a pool, so that memory usage is bounded by the
+	 * block size instead of the dataset size.
+	 * 
+	 * When randomization is enabled, the order of the blocks is shuffled in
+	 * every epoch, as well as the order of the examples within each block.
+	 * 
+	 * @param stream
+	 */
+	public void train(ShardedExampleStream stream) {
+		int numbersExamples = stream.getNumberOfExamples();
+		ExampleOutputPool pool = new ExampleOutputPool(stream.getOutputCodec());
+
+		// Blocks training order.
+		int numBlocks = stream.getNumberOfBlocks();
+		int[] blockOrder = new int[numBlocks];
+		for (int idx = 0; idx < numBlocks; ++idx)
+			blockOrder[idx] = idx;
+
+		if (listener != null)
+			if (!listener.beforeTraining(inferenceImpl, model))
+				return;
+
+		// Next block is read by a background thread.
+		ExecutorService reader = Executors.newSingleThreadExecutor();
+		try {
+			iteration = 0;
+			for (epoch = 0; epoch < numberOfEpochs; ++epoch) {
+
+				LOG.info("Perceptron epoch: " + epoch + "...");
+
+				if (listener != null)
+					if (!listener.beforeEpoch(inferenceImpl, model, epoch,
+							iteration))
+						// Stop training.
+						break;
+
+				// Train one epoch and get the accumulated loss.
+				double loss = trainOneEpoch(stream, blockOrder, pool, reader);
+
+				LOG.info("Training loss: " + loss);
+				LOG.info("Normalized training loss: "
+						+ (loss / numbersExamples));
+
+				if (listener != null) {
+					if (!listener.afterEpoch(inferenceImpl, model, epoch,
+							loss, iteration)) {
+						// Account the current epoch since it is concluded.
+						++epoch;
+						// Stop training.
+						break;
+					}
+				}
+			}
+		} finally {
+			reader.shutdownNow();
+		}
+
+		LOG.info("Prediction objects allocated: " + pool.getNumberOfObjects());
+
+		if (listener != null)
+			listener.afterTraining(inferenceImpl, model);
+
+		// Averaged-Perceptron: average the final weights.
+		if (averageWeights)
+			model.average(iteration);
+	}
+
+	/**
+	 * Train one epoch over the blocks of the given stream. While the examples
+	 * of one block are processed, the next block is read in background, so
+	 * that at most two blocks are in memory.
+	 * 
+	 * @param stream
+	 * @param blockOrder
+	 *            order to process the blocks (shuffled if randomization is
+	 *            enabled)
+	 * @param pool
+	 *            pool of prediction objects
+	 * @param reader
+	 *            single-thread executor used to read blocks in background
+	 * @return the sum of the losses over all examples through this epoch
+	 */
+	protected double trainOneEpoch(final ShardedExampleStream stream,
+			int[] blockOrder, ExampleOutputPool pool, ExecutorService reader) {
+
+		// Accumulate the loss over all examples in this epoch.
+		double loss = 0d;
+
+		// Progress report.
+		int numExamples = stream.getNumberOfExamples();
+		int reportProgressInterval = (int) (numExamples * reportProgressRate);
+		if (reportProgressInterval > 0)
+			System.out.print("Progress: ");
+
+		if (randomize)
+			// Randomize the order to process the blocks.
+			shuffle(blockOrder);
+
+		int count = 0;
+		Future<ShardedExampleStream.Block> next = null;
+		if (blockOrder.length > 0)
+			next = readBlock(stream, blockOrder[0], reader);
+		for (int idxBlock = 0; idxBlock < blockOrder.length; ++idxBlock) {
+			ShardedExampleStream.Block block;
+			try {
+				block = next.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Reading training block", e);
+			} catch (ExecutionException e) {
+				throw new RuntimeException("Reading training block",
+						e.getCause());
+			}
+
+			// Prefetch the next block.
+			if (idxBlock + 1 < blockOrder.length)
+				next = readBlock(stream, blockOrder[idxBlock + 1], reader);
+
+			// Examples order within the block.
+			int size = block.inputs.length;
+			int[] order = new int[size];
+			for (int idx = 0; idx < size; ++idx)
+				order[idx] = idx;
+			if (randomize)
+				shuffle(order);
+
+			for (int idx = 0; idx < size; ++idx) {
+				int idxExample = order[idx];
+				indexCurrentExample = block.start + idxExample;
+				ExampleOutput correct = block.outputs[idxExample];
+				ExampleOutput predicted = pool.acquire(correct);
+
+				/*
+				 * Update the current model weights according with the
+				 * predicted output for this training example.
+				 */
+				loss += train(block.inputs[idxExample], correct, predicted);
+
+				pool.release(predicted);
+
+				// Progress report.
+				++count;
+				if (reportProgressInterval > 0
+						&& count % reportProgressInterval == 0) {
+					LOG.info(Math.round(count * 100d / numExamples) + "% ");
+					// Progress report listener.
+					if (listener != null)
+						listener.progressReport(inferenceImpl, model, epoch,
+								loss, iteration);
+				}
+			}
+		}
+
 		// Progress report.
 		if (reportProgressInterval > 0)
 			System.out.println("done.");
 
 		return loss;
+	}
 
+	/**
+	 * Submit the reading of the given block to the given executor.
+	 * 
+	 * @param stream
+	 * @param block
+	 * @param reader
+	 * @return
+	 */
+	private static Future<ShardedExampleStream.Block> readBlock(
+			final ShardedExampleStream stream, final int block,
+			ExecutorService reader) {
+		return reader.submit(new Callable<ShardedExampleStream.Block>() {
+			@Override
+			public ShardedExampleStream.Block call() throws IOException {
+				return stream.readBlock(block);
+			}
+		});
 	}
 
 	@Override
@@ -1,11 +1,15 @@
 package br.pucrio.inf.learn.structlearning.discriminative.application.bisection;
 
+import java.io.IOException;
 import java.util.Collection;
 import java.util.Iterator;
 
 import sun.reflect.generics.reflectiveObjects.NotImplementedException;
 import br.pucrio.inf.learn.structlearning.discriminative.data.DatasetException;
 import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleInput;
+import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleInputCodec;
+import br.pucrio.inf.learn.util.BinaryInput;
+import br.pucrio.inf.learn.util.BinaryOutput;
 
 /**
  * Bisection input structure. Represent an author and her candidate papers. Each
@@ -18,6 +22,23 @@ import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleInput;
  */
 public class BisectionInput implements ExampleInput {
 
+	/**
+	 * Binary codec of this input type (see <code>write(BinaryOutput)</code>).
+	 */
+	public static final ExampleInputCodec CODEC = new ExampleInputCodec(
+			ExampleInputCodec.TYPE_BISECTION) {
+		@Override
+		public void encode(ExampleInput input, BinaryOutput out)
+				throws IOException {
+			((BisectionInput) input).write(out);
+		}
+
+		@Override
+		public ExampleInput decode(BinaryInput in) throws IOException {
+			return read(in);
+		}
+	};
+
 	/**
 	 * Author id.
 	 */
@@ -56,6 +77,13 @@ public class BisectionInput implements ExampleInput {
 	 */
 	private double[][][] featureValues;
 
+	/**
+	 * Create an empty input structure to be filled by
+	 * <code>read(BinaryInput)</code>.
+	 */
+	private BisectionInput() {
+	}
+
 	/**
 	 * Create a new input structure with the given properties.
 	 * 
@@ -264,4 +292,64 @@ public class BisectionInput implements ExampleInput {
 	public long getPaperId(int paper) {
 		return papersIds[paper];
 	}
+
+	/**
+	 * Write this input to the given output. Each feature matrix is written as
+	 * one array per arc (non-existing arcs take one byte).
+	 * 
+	 * @param out
+	 */
+	public void write(BinaryOutput out) {
+		out.writeVarLong(authorId);
+		int numPapers = papersIds.length;
+		out.writeVarInt(numPapers);
+		for (long paperId : papersIds)
+			out.writeVarLong(paperId);
+		for (int paper1 = 0; paper1 < numPapers; ++paper1)
+			for (int paper2 = 0; paper2 < numPapers; ++paper2) {
+				out.writeCodes(basicCategoricalFeatures[paper1][paper2]);
+				out.writeDoubles(basicNumericalFeatures[paper1][paper2]);
+			}
+		out.writeBoolean(featureCodes != null);
+		if (featureCodes != null)
+			for (int paper1 = 0; paper1 < numPapers; ++paper1)
+				for (int paper2 = 0; paper2 < numPapers; ++paper2) {
+					out.writeCodes(featureCodes[paper1][paper2]);
+					out.writeDoubles(featureValues[paper1][paper2]);
+				}
+	}
+
+	/**
+	 * Read an input written by <code>write(BinaryOutput)</code>.
+	 * 
+	 * @param in
+	 * @return
+	 * @throws IOException
+	 */
+	public static BisectionInput read(BinaryInput in) throws IOException {
+		BisectionInput input = new BisectionInput();
+		input.authorId = in.readVarLong();
+		int numPapers = in.readVarInt();
+		input.papersIds = new long[numPapers];
+		for (int paper = 0; paper < numPapers; ++paper)
+			input.papersIds[paper] = in.readVarLong();
+		input.basicCategoricalFeatures = new int[numPapers][numPapers][];
+		input.basicNumericalFeatures = new double[numPapers][numPapers][];
+		for (int paper1 = 0; paper1 < numPapers; ++paper1)
+			for (int paper2 = 0; paper2 < numPapers; ++paper2) {
+				input.basicCategoricalFeatures[paper1][paper2] = in
+						.readCodes();
+				input.basicNumericalFeatures[paper1][paper2] = in
+						.readDoubles();
+			}
+		if (in.readBoolean()) {
+			input.allocFeatureArray();
+			for (int paper1 = 0; paper1 < numPapers; ++paper1)
+				for (int paper2 = 0; paper2 < numPapers; ++paper2) {
+					input.featureCodes[paper1][paper2] = in.readCodes();
+					input.featureValues[paper1][paper2] = in.readDoubles();
+				}
+		}
+		return input;
+	}
 }
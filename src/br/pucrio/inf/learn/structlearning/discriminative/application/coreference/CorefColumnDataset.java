@@ -39,6 +39,12 @@ public class CorefColumnDataset extends DPColumnDataset {
 	 */
 	private boolean checkMultipleTrueEdges;
 
+	/**
+	 * Optional candidate generation stage. If given, only the mention pairs
+	 * accepted by this filter are stored.
+	 */
+	private MentionPairFilter candidateFilter;
+
 	/**
 	 * Create an empty dataset.
 	 */
@@ -82,6 +88,25 @@ public class CorefColumnDataset extends DPColumnDataset {
 		this.checkMultipleTrueEdges = check;
 	}
 
+	/**
+	 * Set the candidate generation stage used to discard mention pairs while
+	 * loading examples. If <code>null</code>, all pairs are stored.
+	 * 
+	 * @param filter
+	 */
+	public void setCandidateFilter(MentionPairFilter filter) {
+		this.candidateFilter = filter;
+	}
+
+	/**
+	 * Return the candidate generation stage used to discard mention pairs.
+	 * 
+	 * @return
+	 */
+	public MentionPairFilter getCandidateFilter() {
+		return candidateFilter;
+	}
+
 	@Override
 	protected boolean parseExample(BufferedReader reader,
 			Set<Integer> multiValuedFeatureIndexes, String valueSeparator,
@@ -128,6 +153,9 @@ public class CorefColumnDataset extends DPColumnDataset {
 		// Maximum token index.
 		int maxIndex = -1;
 
+		if (candidateFilter != null)
+			candidateFilter.bind(featureLabels);
+
 		// Read next line.
 		while ((line = reader.readLine()) != null) {
 
@@ -157,6 +185,29 @@ public class CorefColumnDataset extends DPColumnDataset {
 			if (idxMentionRight > maxIndex)
 				maxIndex = idxMentionRight;
 
+			// The last value is the correct edge flag (TRUE or FALSE).
+			String isCorrectEdge = ftrValues[ftrValues.length - 1];
+			if (isCorrectEdge.equals("Y")) {
+				correctRightMentions.add(idxMentionRight);
+				correctLeftMentions.add(idxMentionLeft);
+			} else if (!isCorrectEdge.equals("N")) {
+				throw new DatasetException(
+						"Last feature value must be Y or N to indicate "
+								+ "the correct edge. However, for token "
+								+ idxMentionRight + " and head "
+								+ idxMentionLeft + " this feature value is "
+								+ isCorrectEdge);
+			}
+
+			/*
+			 * Skip edges discarded by the candidate generation stage. Their
+			 * correct flags are still considered in the output structure.
+			 */
+			if (candidateFilter != null
+					&& !candidateFilter.accept(idxMentionLeft,
+							idxMentionRight, ftrValues))
+				continue;
+
 			// List of feature codes.
 			LinkedList<Integer> edgeFeatures = new LinkedList<Integer>();
 			features.add(edgeFeatures);
@@ -190,23 +241,10 @@ public class CorefColumnDataset extends DPColumnDataset {
 				int code = basicEncoding.put(new String(str));
 				edgeFeatures.add(code);
 			}
-
-			// The last value is the correct edge flag (TRUE or FALSE).
-			String isCorrectEdge = ftrValues[ftrValues.length - 1];
-			if (isCorrectEdge.equals("Y")) {
-				correctRightMentions.add(idxMentionRight);
-				correctLeftMentions.add(idxMentionLeft);
-			} else if (!isCorrectEdge.equals("N")) {
-				throw new DatasetException(
-						"Last feature value must be Y or N to indicate "
-								+ "the correct edge. However, for token "
-								+ idxMentionRight + " and head "
-								+ idxMentionLeft + " this feature value is "
-								+ isCorrectEdge);
-			}
 		}
 
-		if (features.size() == 0 && (line == null || !line.equals("-")))
+		if (features.size() == 0 && maxIndex < 0
+				&& (line == null || !line.equals("-")))
 			return line != null;
 
 		if (numTokens == -1)
@@ -237,6 +275,10 @@ public class CorefColumnDataset extends DPColumnDataset {
 			// Using mention 0 as the root (artificial mention).
 			output.computeClusteringFromTree(0);
 
+		if (candidateFilter != null)
+			// Account for the gold links that kept edges can recover.
+			candidateFilter.accountRecall(output, features);
+
 		/*
 		 * Create a new string to store the input id to avoid memory leaks,
 		 * since the id string keeps a reference to the line string.
@@ -269,66 +311,89 @@ public class CorefColumnDataset extends DPColumnDataset {
 	 */
 	public void save(BufferedWriter writer, DPOutput[] predictedOuputs)
 			throws IOException, DatasetException {
-		// Header.
-		writer.write("[features = id");
-		for (int idxFtr = 0; idxFtr < featureLabels.length; ++idxFtr)
-			writer.write(", " + featureLabels[idxFtr]);
-		writer.write(", correct, predicted]\n\n");
+		saveHeader(writer);
 		
 		inputs.loadInOrder();
 
 		// Examples.
-		for (int idxEx = 0; idxEx < inputs.getNumberExamples(); ++idxEx) {
-			DPInput input = (DPInput) inputs.get(idxEx);
-			CorefOutput correctOutput = (CorefOutput) outputs[idxEx];
-			CorefOutput predictedOutput = (CorefOutput) predictedOuputs[idxEx];
-
-			// Edge features.
-			int numMentions = input.getNumberOfTokens();
-			for (int idxLeft = 0; idxLeft < numMentions; ++idxLeft) {
-				for (int idxRight = 0; idxRight < numMentions; ++idxRight) {
-					int[] ftrs = input.getBasicFeatures(idxLeft, idxRight);
-					if (ftrs == null)
-						continue;
-
-					// Id.
-					writer.write(idxLeft + ">" + idxRight);
-
-					/*
-					 * The first 6 values are not encoded, they are the integer
-					 * values themselver.
-					 */
-					for (int idxFtr = 0; idxFtr < 6; ++idxFtr)
-						writer.write(" " + ftrs[idxFtr]);
-
-					// Ordinary encoded features.
-					for (int idxFtr = 6; idxFtr < ftrs.length; ++idxFtr)
-						writer.write(" "
-								+ basicEncoding.getValueByCode(ftrs[idxFtr]));
-
-					// Correct flag.
-					if (correctOutput.getClusterId(idxLeft) == correctOutput
-							.getClusterId(idxRight))
-						writer.write(" Y");
-					else
-						writer.write(" N");
+		for (int idxEx = 0; idxEx < inputs.getNumberExamples(); ++idxEx)
+			saveExample(writer, (DPInput) inputs.get(idxEx),
+					(CorefOutput) outputs[idxEx],
+					(CorefOutput) predictedOuputs[idxEx]);
+	}
 
-					// Predicted feature.
-					if (predictedOutput.getClusterId(idxLeft) == predictedOutput
-							.getClusterId(idxRight))
-						writer.write(" Y");
-					else
-						writer.write(" N");
+	/**
+	 * Write the header of a dataset with the correct and the predicted
+	 * columns.
+	 * 
+	 * @param writer
+	 * @throws IOException
+	 */
+	public void saveHeader(BufferedWriter writer) throws IOException {
+		writer.write("[features = id");
+		for (int idxFtr = 0; idxFtr < featureLabels.length; ++idxFtr)
+			writer.write(", " + featureLabels[idxFtr]);
+		writer.write(", correct, predicted]\n\n");
+	}
 
-					writer.write("\n");
-				}
+	/**
+	 * Write the given example along with a column with the given predicted
+	 * output. All intra-cluster edges are tagged as correct (or predicted).
+	 * 
+	 * @param writer
+	 * @param input
+	 * @param correctOutput
+	 * @param predictedOutput
+	 * @throws IOException
+	 */
+	public void saveExample(BufferedWriter writer, DPInput input,
+			CorefOutput correctOutput, CorefOutput predictedOutput)
+			throws IOException {
+		// Edge features.
+		int numMentions = input.getNumberOfTokens();
+		for (int idxLeft = 0; idxLeft < numMentions; ++idxLeft) {
+			for (int idxRight = 0; idxRight < numMentions; ++idxRight) {
+				int[] ftrs = input.getBasicFeatures(idxLeft, idxRight);
+				if (ftrs == null)
+					continue;
+
+				// Id.
+				writer.write(idxLeft + ">" + idxRight);
+
+				/*
+				 * The first 6 values are not encoded, they are the integer
+				 * values themselver.
+				 */
+				for (int idxFtr = 0; idxFtr < 6; ++idxFtr)
+					writer.write(" " + ftrs[idxFtr]);
+
+				// Ordinary encoded features.
+				for (int idxFtr = 6; idxFtr < ftrs.length; ++idxFtr)
+					writer.write(" "
+							+ basicEncoding.getValueByCode(ftrs[idxFtr]));
+
+				// Correct flag.
+				if (correctOutput.getClusterId(idxLeft) == correctOutput
+						.getClusterId(idxRight))
+					writer.write(" Y");
+				else
+					writer.write(" N");
+
+				// Predicted feature.
+				if (predictedOutput.getClusterId(idxLeft) == predictedOutput
+						.getClusterId(idxRight))
+					writer.write(" Y");
+				else
+					writer.write(" N");
+
+				writer.write("\n");
 			}
+		}
 
-			if (numMentions == 0)
-				writer.write("-\n");
+		if (numMentions == 0)
+			writer.write("-\n");
 
-			writer.write("\n");
-		}
+		writer.write("\n");
 	}
 
 	/**
@@ -382,75 +447,87 @@ public class CorefColumnDataset extends DPColumnDataset {
 	public void saveCorefTrees(BufferedWriter writer,
 			DPOutput[] predictedOuputs, int root, boolean saveGoldTrees)
 			throws IOException, DatasetException {
-		// Header.
-		writer.write("[features = id");
-		for (int idxFtr = 0; idxFtr < featureLabels.length; ++idxFtr)
-			writer.write(", " + featureLabels[idxFtr]);
-		writer.write(", correct, predicted]\n\n");
+		saveHeader(writer);
 
 		inputs.loadInOrder();
 		
 		// Examples.
-		for (int idxEx = 0; idxEx < inputs.getNumberExamples(); ++idxEx) {
-			DPInput input = (DPInput) inputs.get(idxEx);
-			CorefOutput correctOutput = (CorefOutput) outputs[idxEx];
-			CorefOutput predictedOutput = (CorefOutput) predictedOuputs[idxEx];
-
-			// Edge features.
-			int numMentions = input.getNumberOfTokens();
-			for (int idxLeft = 0; idxLeft < numMentions; ++idxLeft) {
-				for (int idxRight = 0; idxRight < numMentions; ++idxRight) {
-					int[] ftrs = input.getBasicFeatures(idxLeft, idxRight);
-					if (ftrs == null)
-						continue;
-					// Id.
-					writer.write(idxLeft + ">" + idxRight);
-
-					/*
-					 * The first 6 values are not encoded, they are the integer
-					 * values themselver.
-					 */
-					for (int idxFtr = 0; idxFtr < 6; ++idxFtr)
-						writer.write(" " + ftrs[idxFtr]);
-
-					// Features.
-					for (int idxFtr = 6; idxFtr < ftrs.length; ++idxFtr)
-						writer.write(" "
-								+ basicEncoding.getValueByCode(ftrs[idxFtr]));
-
-					// Append correct flag feature.
-					if (saveGoldTrees) {
-						// Only consider the tree.
-						if (idxLeft != root && idxRight != root
-								&& correctOutput.getHead(idxRight) == idxLeft)
-							writer.write(" Y");
-						else
-							writer.write(" N");
-					} else {
-						// Consider the cluster, not the tree.
-						if (correctOutput.getClusterId(idxLeft) == correctOutput
-								.getClusterId(idxRight))
-							writer.write(" Y");
-						else
-							writer.write(" N");
-					}
-
-					// Predicted feature. Only consider the tree.
+		for (int idxEx = 0; idxEx < inputs.getNumberExamples(); ++idxEx)
+			saveCorefTreesExample(writer, (DPInput) inputs.get(idxEx),
+					(CorefOutput) outputs[idxEx],
+					(CorefOutput) predictedOuputs[idxEx], root, saveGoldTrees);
+	}
+
+	/**
+	 * Write the given example along with a column with the given predicted
+	 * output, tagging as predicted only the edges in the predicted tree (see
+	 * <code>saveCorefTrees(...)</code>).
+	 * 
+	 * @param writer
+	 * @param input
+	 * @param correctOutput
+	 * @param predictedOutput
+	 * @param root
+	 * @param saveGoldTrees
+	 * @throws IOException
+	 */
+	public void saveCorefTreesExample(BufferedWriter writer, DPInput input,
+			CorefOutput correctOutput, CorefOutput predictedOutput, int root,
+			boolean saveGoldTrees) throws IOException {
+		// Edge features.
+		int numMentions = input.getNumberOfTokens();
+		for (int idxLeft = 0; idxLeft < numMentions; ++idxLeft) {
+			for (int idxRight = 0; idxRight < numMentions; ++idxRight) {
+				int[] ftrs = input.getBasicFeatures(idxLeft, idxRight);
+				if (ftrs == null)
+					continue;
+				// Id.
+				writer.write(idxLeft + ">" + idxRight);
+
+				/*
+				 * The first 6 values are not encoded, they are the integer
+				 * values themselver.
+				 */
+				for (int idxFtr = 0; idxFtr < 6; ++idxFtr)
+					writer.write(" " + ftrs[idxFtr]);
+
+				// Features.
+				for (int idxFtr = 6; idxFtr < ftrs.length; ++idxFtr)
+					writer.write(" "
+							+ basicEncoding.getValueByCode(ftrs[idxFtr]));
+
+				// Append correct flag feature.
+				if (saveGoldTrees) {
+					// Only consider the tree.
 					if (idxLeft != root && idxRight != root
-							&& predictedOutput.getHead(idxRight) == idxLeft)
+							&& correctOutput.getHead(idxRight) == idxLeft)
+						writer.write(" Y");
+					else
+						writer.write(" N");
+				} else {
+					// Consider the cluster, not the tree.
+					if (correctOutput.getClusterId(idxLeft) == correctOutput
+							.getClusterId(idxRight))
 						writer.write(" Y");
 					else
 						writer.write(" N");
-
-					writer.write("\n");
 				}
-			}
 
-			if (numMentions == 0)
-				writer.write("-\n");
+				// Predicted feature. Only consider the tree.
+				if (idxLeft != root && idxRight != root
+						&& predictedOutput.getHead(idxRight) == idxLeft)
+					writer.write(" Y");
+				else
+					writer.write(" N");
 
-			writer.write("\n");
+				writer.write("\n");
+			}
 		}
+
+		if (numMentions == 0)
+			writer.write("-\n");
+
+		writer.write("\n");
 	}
 
 }
@@ -13,7 +13,7 @@ import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleInput;
 import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleOutput;
 import br.pucrio.inf.learn.structlearning.discriminative.task.Inference;
 import br.pucrio.inf.learn.structlearning.discriminative.task.Model;
-import br.pucrio.inf.learn.util.maxbranching.DirectedMaxBranchAlgorithm;
+import br.pucrio.inf.learn.util.maxbranching.AdaptiveMaxBranchAlgorithm;
 import br.pucrio.inf.learn.util.maxbranching.MaximumBranchingAlgorithm;
 import br.pucrio.inf.learn.util.maxbranching.UndirectedMaxBranchAlgorithm;
 
@@ -112,7 +112,7 @@ public class CoreferenceMaxBranchInference implements Inference {
 			InferenceStrategy inferenceStrategy) {
 		this.root = root;
 		if (inferenceStrategy != InferenceStrategy.LKRUSKAL)
-			maxBranchingAlgorithm = new DirectedMaxBranchAlgorithm(
+			maxBranchingAlgorithm = new AdaptiveMaxBranchAlgorithm(
 					maxNumberOfTokens);
 		else
 			maxBranchingAlgorithm = new UndirectedMaxBranchAlgorithm(
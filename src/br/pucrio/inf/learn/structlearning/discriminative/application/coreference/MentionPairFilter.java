@@ -0,0 +1,490 @@
+package br.pucrio.inf.learn.structlearning.discriminative.application.coreference;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import br.pucrio.inf.learn.structlearning.discriminative.data.DatasetException;
+import br.pucrio.inf.learn.util.maxbranching.DisjointSets;
+
+/**
+ * Candidate generation stage for mention-pair coreference datasets. It decides
+ * which mention pairs (edges) of a document are kept when the dataset is
+ * loaded, so that features are only materialized for the kept pairs and the
+ * resulting <code>DPInput</code> structures are sparse. Missing edges are
+ * ignored by the inference algorithms (which use the sparse branching path for
+ * such graphs).
+ *
+ * An edge is kept if all the following conditions hold:
+ * <ul>
+ * <li>the distance between its mentions is not greater than the maximum
+ * antecedent distance or the edge matches some blocking key (e.g., a string
+ * match feature);</li>
+ * <li>the edge does not match any exclusion key (e.g., incompatible entity
+ * types);</li>
+ * <li>the score given by the (optional) pre-filter linear model is not less
+ * than its threshold.</li>
+ * </ul>
+ * Edges incident to the artificial root mention are always kept.
+ *
+ * Keys and pre-filter weights refer to basic features (dataset columns) by
+ * means of strings like <code>label=value</code>.
+ *
+ * The filter also accounts for the recall ceiling on gold clusters, that is the
+ * fraction of gold coreference links (cluster size minus one for each cluster)
+ * that can still be recovered using only the kept edges.
+ *
+ * @author eraldo
+ *
+ */
+public class MentionPairFilter {
+
+	/**
+	 * Regular expression pattern to parse spaces.
+	 */
+	private static final Pattern REGEX_SPACE = Pattern.compile("[ \t]+");
+
+	/**
+	 * Index of the artificial root mention.
+	 */
+	private int root;
+
+	/**
+	 * Maximum distance between the two mentions of a kept edge. A negative
+	 * value means no limit.
+	 */
+	private int maxDistance;
+
+	/**
+	 * Blocking keys (<code>label=value</code>). An edge that matches some of
+	 * these keys is kept regardless of its distance.
+	 */
+	private List<String> blockingKeys;
+
+	/**
+	 * Exclusion keys (<code>label=value</code>). An edge that matches some of
+	 * these keys is discarded.
+	 */
+	private List<String> exclusionKeys;
+
+	/**
+	 * Pre-filter model weights (<code>label=value</code> to weight).
+	 */
+	private Map<String, Double> preFilterWeights;
+
+	/**
+	 * Minimum pre-filter score of a kept edge.
+	 */
+	private double preFilterThreshold;
+
+	/**
+	 * Feature labels whose indexes were resolved.
+	 */
+	private String[] boundLabels;
+
+	/**
+	 * Column index of each blocking key.
+	 */
+	private int[] blockingColumns;
+
+	/**
+	 * Value of each blocking key.
+	 */
+	private String[] blockingValues;
+
+	/**
+	 * Column index of each exclusion key.
+	 */
+	private int[] exclusionColumns;
+
+	/**
+	 * Value of each exclusion key.
+	 */
+	private String[] exclusionValues;
+
+	/**
+	 * Pre-filter weights resolved to column indexes. For each column, map a
+	 * value to its weight.
+	 */
+	private Map<String, Double>[] preFilterColumns;
+
+	/**
+	 * Number of edges given to the filter.
+	 */
+	private long numberOfCandidates;
+
+	/**
+	 * Number of kept edges.
+	 */
+	private long numberOfKept;
+
+	/**
+	 * Number of gold links, i.e., sum of cluster sizes minus one.
+	 */
+	private long numberOfGoldLinks;
+
+	/**
+	 * Number of gold links that can be recovered by the kept edges.
+	 */
+	private long numberOfReachableLinks;
+
+	/**
+	 * Auxiliary partition to compute reachable links.
+	 */
+	private DisjointSets reachable;
+
+	/**
+	 * Create a filter that keeps every edge.
+	 *
+	 * @param root
+	 *            index of the artificial root mention.
+	 */
+	public MentionPairFilter(int root) {
+		this.root = root;
+		this.maxDistance = -1;
+		this.blockingKeys = new LinkedList<String>();
+		this.exclusionKeys = new LinkedList<String>();
+		this.preFilterThreshold = Double.NEGATIVE_INFINITY;
+		this.reachable = new DisjointSets(1);
+	}
+
+	/**
+	 * Set the maximum distance between the two mentions of a kept edge. A
+	 * negative value means no limit.
+	 *
+	 * @param maxDistance
+	 */
+	public void setMaxDistance(int maxDistance) {
+		this.maxDistance = maxDistance;
+	}
+
+	/**
+	 * @return the maximum distance between the mentions of a kept edge.
+	 */
+	public int getMaxDistance() {
+		return maxDistance;
+	}
+
+	/**
+	 * Add a blocking key. Edges whose given basic feature has the given value
+	 * are kept regardless of the distance between their mentions.
+	 *
+	 * @param key
+	 *            string like <code>label=value</code>.
+	 */
+	public void addBlockingKey(String key) {
+		blockingKeys.add(key);
+		boundLabels = null;
+	}
+
+	/**
+	 * Add the given blocking keys.
+	 *
+	 * @param keys
+	 */
+	public void addBlockingKeys(Collection<String> keys) {
+		for (String key : keys)
+			addBlockingKey(key);
+	}
+
+	/**
+	 * Add an exclusion key. Edges whose given basic feature has the given value
+	 * are discarded.
+	 *
+	 * @param key
+	 *            string like <code>label=value</code>.
+	 */
+	public void addExclusionKey(String key) {
+		exclusionKeys.add(key);
+		boundLabels = null;
+	}
+
+	/**
+	 * Add the given exclusion keys.
+	 *
+	 * @param keys
+	 */
+	public void addExclusionKeys(Collection<String> keys) {
+		for (String key : keys)
+			addExclusionKey(key);
+	}
+
+	/**
+	 * Load the pre-filter linear model from the given file. Each line
+	 * comprises a key (<code>label=value</code>) and its weight separated by
+	 * space. Lines starting with <code>#</code> are ignored.
+	 *
+	 * @param fileName
+	 * @param threshold
+	 *            minimum score of a kept edge.
+	 * @throws IOException
+	 * @throws DatasetException
+	 */
+	public void loadPreFilter(String fileName, double threshold)
+			throws IOException, DatasetException {
+		Map<String, Double> weights = new HashMap<String, Double>();
+		BufferedReader reader = new BufferedReader(new FileReader(fileName));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.length() == 0 || line.startsWith("#"))
+					continue;
+				String[] vals = REGEX_SPACE.split(line);
+				if (vals.length != 2)
+					throw new DatasetException(
+							"Pre-filter lines must comprise a key and a "
+									+ "weight. Error in line: " + line);
+				weights.put(vals[0], Double.parseDouble(vals[1]));
+			}
+		} finally {
+			reader.close();
+		}
+		setPreFilter(weights, threshold);
+	}
+
+	/**
+	 * Set the pre-filter linear model.
+	 *
+	 * @param weights
+	 *            map from keys (<code>label=value</code>) to weights.
+	 * @param threshold
+	 *            minimum score of a kept edge.
+	 */
+	public void setPreFilter(Map<String, Double> weights, double threshold) {
+		this.preFilterWeights = weights;
+		this.preFilterThreshold = threshold;
+		this.boundLabels = null;
+	}
+
+	/**
+	 * Resolve the feature labels of the keys and pre-filter weights to column
+	 * indexes. The index of a label within the given array plus one is the
+	 * position of the corresponding value within an edge line.
+	 *
+	 * @param featureLabels
+	 * @throws DatasetException
+	 *             if some key refers to an unknown label.
+	 */
+	public void bind(String[] featureLabels) throws DatasetException {
+		if (boundLabels == featureLabels)
+			return;
+
+		blockingColumns = new int[blockingKeys.size()];
+		blockingValues = new String[blockingKeys.size()];
+		int idx = 0;
+		for (String key : blockingKeys) {
+			blockingColumns[idx] = resolveColumn(featureLabels, key);
+			blockingValues[idx] = key.substring(key.indexOf('=') + 1);
+			++idx;
+		}
+
+		exclusionColumns = new int[exclusionKeys.size()];
+		exclusionValues = new String[exclusionKeys.size()];
+		idx = 0;
+		for (String key : exclusionKeys) {
+			exclusionColumns[idx] = resolveColumn(featureLabels, key);
+			exclusionValues[idx] = key.substring(key.indexOf('=') + 1);
+			++idx;
+		}
+
+		preFilterColumns = null;
+		if (preFilterWeights != null) {
+			@SuppressWarnings({ "rawtypes", "unchecked" })
+			Map<String, Double>[] columns = new Map[featureLabels.length + 1];
+			preFilterColumns = columns;
+			for (Map.Entry<String, Double> entry : preFilterWeights.entrySet()) {
+				String key = entry.getKey();
+				int column = resolveColumn(featureLabels, key);
+				if (preFilterColumns[column] == null)
+					preFilterColumns[column] = new HashMap<String, Double>();
+				preFilterColumns[column].put(
+						key.substring(key.indexOf('=') + 1), entry.getValue());
+			}
+		}
+
+		boundLabels = featureLabels;
+	}
+
+	/**
+	 * Return the position, within an edge line, of the value of the feature
+	 * whose label is given in the given key.
+	 *
+	 * @param featureLabels
+	 * @param key
+	 * @return
+	 * @throws DatasetException
+	 */
+	private static int resolveColumn(String[] featureLabels, String key)
+			throws DatasetException {
+		int sep = key.indexOf('=');
+		if (sep < 0)
+			throw new DatasetException("Key " + key
+					+ " does not follow the format label=value");
+		String label = key.substring(0, sep);
+		for (int idx = 0; idx < featureLabels.length; ++idx)
+			if (featureLabels[idx].equals(label))
+				return idx + 1;
+		throw new DatasetException("Unknown feature label " + label
+				+ " in key " + key);
+	}
+
+	/**
+	 * Return <code>true</code> if the given edge shall be kept.
+	 *
+	 * @param leftMention
+	 * @param rightMention
+	 * @param values
+	 *            values in the edge line. The first one is the edge id.
+	 * @return
+	 */
+	public boolean accept(int leftMention, int rightMention, String[] values) {
+		++numberOfCandidates;
+		if (leftMention == root || rightMention == root) {
+			++numberOfKept;
+			return true;
+		}
+
+		// Maximum distance and blocking keys.
+		int distance = Math.abs(rightMention - leftMention);
+		if (maxDistance >= 0 && distance > maxDistance
+				&& !matchesAny(values, blockingColumns, blockingValues))
+			return false;
+
+		// Exclusion keys.
+		if (matchesAny(values, exclusionColumns, exclusionValues))
+			return false;
+
+		// Pre-filter model.
+		if (preFilterColumns != null) {
+			double score = 0d;
+			for (int column = 0; column < preFilterColumns.length; ++column) {
+				Map<String, Double> weights = preFilterColumns[column];
+				if (weights == null || column >= values.length)
+					continue;
+				Double w = weights.get(values[column]);
+				if (w != null)
+					score += w;
+			}
+			if (score < preFilterThreshold)
+				return false;
+		}
+
+		++numberOfKept;
+		return true;
+	}
+
+	/**
+	 * Return <code>true</code> if the given values match some of the given
+	 * keys.
+	 *
+	 * @param values
+	 * @param columns
+	 * @param keyValues
+	 * @return
+	 */
+	private static boolean matchesAny(String[] values, int[] columns,
+			String[] keyValues) {
+		if (columns == null)
+			return false;
+		for (int idx = 0; idx < columns.length; ++idx) {
+			int column = columns[idx];
+			if (column < values.length && values[column].equals(keyValues[idx]))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Account for the gold links of the given document that can be recovered
+	 * by the kept edges.
+	 *
+	 * @param output
+	 *            gold output whose clustering is already computed.
+	 * @param keptEdges
+	 *            kept edges. The two first values of each edge are the left
+	 *            and right mention indexes.
+	 */
+	public void accountRecall(CorefOutput output,
+			Collection<? extends List<Integer>> keptEdges) {
+		int numMentions = output.size();
+		if (reachable.size() < numMentions)
+			reachable = new DisjointSets(numMentions);
+		reachable.clear(numMentions);
+
+		// Gold links: cluster size minus one for each cluster.
+		for (int mention = 0; mention < numMentions; ++mention)
+			if (mention != root && output.getClusterId(mention) != mention)
+				++numberOfGoldLinks;
+
+		// Gold links that are recovered by kept intra-cluster edges.
+		for (List<Integer> edge : keptEdges) {
+			int left = edge.get(0);
+			int right = edge.get(1);
+			if (left == root || right == root)
+				continue;
+			if (output.getClusterId(left) != output.getClusterId(right))
+				continue;
+			if (reachable.unionElements(left, right))
+				++numberOfReachableLinks;
+		}
+	}
+
+	/**
+	 * @return the number of edges given to this filter.
+	 */
+	public long getNumberOfCandidates() {
+		return numberOfCandidates;
+	}
+
+	/**
+	 * @return the number of kept edges.
+	 */
+	public long getNumberOfKept() {
+		return numberOfKept;
+	}
+
+	/**
+	 * @return the ratio of kept edges.
+	 */
+	public double getKeptRatio() {
+		if (numberOfCandidates == 0)
+			return 1d;
+		return (double) numberOfKept / numberOfCandidates;
+	}
+
+	/**
+	 * @return the fraction of gold links that can be recovered by the kept
+	 *         edges. This is an upper bound on the link recall of any model
+	 *         trained on the filtered dataset.
+	 */
+	public double getRecallCeiling() {
+		if (numberOfGoldLinks == 0)
+			return 1d;
+		return (double) numberOfReachableLinks / numberOfGoldLinks;
+	}
+
+	/**
+	 * Reset the statistics (number of candidates, kept edges and links).
+	 */
+	public void resetStatistics() {
+		numberOfCandidates = 0;
+		numberOfKept = 0;
+		numberOfGoldLinks = 0;
+		numberOfReachableLinks = 0;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("kept %d of %d edges (%.2f%%), "
+				+ "gold link recall ceiling %.2f%%", numberOfKept,
+				numberOfCandidates, 100 * getKeptRatio(),
+				100 * getRecallCeiling());
+	}
+}
@@ -46,6 +46,11 @@ public class DPBasicModel implements DPModel {
 	 */
 	private Set<AveragedParameter> updatedWeights;
 
+	/**
+	 * Log of updated feature codes.
+	 */
+	private FeatureUpdateLog updateLog;
+
 	/**
 	 * Create a model with the given total number of features.
 	 * 
@@ -53,6 +58,7 @@ public class DPBasicModel implements DPModel {
 	public DPBasicModel() {
 		featureWeights = new HashMap<Integer, AveragedParameter>();
 		updatedWeights = new HashSet<AveragedParameter>();
+		updateLog = new FeatureUpdateLog();
 	}
 
 	/**
@@ -73,6 +79,7 @@ public class DPBasicModel implements DPModel {
 				LOG.error("Cloning DP basic model", e);
 			}
 		}
+		this.updateLog = new FeatureUpdateLog();
 	}
 
 	/**
@@ -152,6 +159,7 @@ public class DPBasicModel implements DPModel {
 				AveragedParameter param = getFeatureWeightOrCreate(ftr);
 				param.update(learningRate);
 				updatedWeights.add(param);
+				updateLog.updated(ftr);
 			}
 
 			if (idxPredictedHead == -1) {
@@ -167,6 +175,7 @@ public class DPBasicModel implements DPModel {
 				AveragedParameter param = getFeatureWeightOrCreate(ftr);
 				param.update(-learningRate);
 				updatedWeights.add(param);
+				updateLog.updated(ftr);
 			}
 
 			// Increment (per-token) loss value.
@@ -181,12 +190,14 @@ public class DPBasicModel implements DPModel {
 		for (AveragedParameter parm : updatedWeights)
 			parm.sum(iteration);
 		updatedWeights.clear();
+		updateLog.commit();
 	}
 
 	@Override
 	public void average(int numberOfIterations) {
 		for (AveragedParameter parm : featureWeights.values())
 			parm.average(numberOfIterations);
+		updateLog.invalidateAll();
 	}
 
 	@Override
@@ -221,4 +232,9 @@ public class DPBasicModel implements DPModel {
 		return featureWeights.size();
 	}
 
+	@Override
+	public FeatureUpdateLog getFeatureUpdateLog() {
+		return updateLog;
+	}
+
 }
@@ -28,4 +28,13 @@ public interface DPModel extends Model {
 	 */
 	public int getNumberOfUpdatedParameters();
 
+	/**
+	 * Return the log of feature updates of this model, which can be used to
+	 * invalidate cached edge scores, or <code>null</code> if this model does
+	 * not keep track of its updates.
+	 * 
+	 * @return
+	 */
+	public FeatureUpdateLog getFeatureUpdateLog();
+
 }
@@ -77,6 +77,11 @@ public class DPTemplateEvolutionModel implements DPModel {
 	 */
 	protected Set<AveragedParameter> updatedParameters;
 
+	/**
+	 * Log of updated feature codes.
+	 */
+	protected FeatureUpdateLog updateLog;
+
 	/**
 	 * Create a new model with the given template partitions.
 	 * 
@@ -87,6 +92,7 @@ public class DPTemplateEvolutionModel implements DPModel {
 		this.root = root;
 		this.parameters = new HashMap<Integer, AveragedParameter>();
 		this.updatedParameters = new HashSet<AveragedParameter>();
+		this.updateLog = new FeatureUpdateLog();
 	}
 
 	/**
@@ -107,6 +113,7 @@ public class DPTemplateEvolutionModel implements DPModel {
 			throws JSONException, IOException, DatasetException {
 		this.updatedParameters = null;
 		this.parameters = new HashMap<Integer, AveragedParameter>();
+		this.updateLog = new FeatureUpdateLog();
 
 		// Model file input stream.
 		FileInputStream fis = new FileInputStream(fileName);
@@ -305,6 +312,7 @@ public class DPTemplateEvolutionModel implements DPModel {
 
 		// Updated parameters and features are NOT copied.
 		updatedParameters = new TreeSet<AveragedParameter>();
+		updateLog = new FeatureUpdateLog();
 	}
 
 	/**
@@ -524,6 +532,7 @@ public class DPTemplateEvolutionModel implements DPModel {
 
 		// Keep track of updated parameter within this example.
 		updatedParameters.add(param);
+		updateLog.updated(code);
 	}
 
 	@Override
@@ -531,12 +540,14 @@ public class DPTemplateEvolutionModel implements DPModel {
 		for (AveragedParameter parm : updatedParameters)
 			parm.sum(iteration);
 		updatedParameters.clear();
+		updateLog.commit();
 	}
 
 	@Override
 	public void average(int numberOfIterations) {
 		for (AveragedParameter parm : parameters.values())
 			parm.average(numberOfIterations);
+		updateLog.invalidateAll();
 	}
 
 	@Override
@@ -549,6 +560,11 @@ public class DPTemplateEvolutionModel implements DPModel {
 		return parameters.size();
 	}
 
+	@Override
+	public FeatureUpdateLog getFeatureUpdateLog() {
+		return updateLog;
+	}
+
 	@Override
 	public void save(String fileName, Dataset dataset) throws IOException,
 			FileNotFoundException {
@@ -650,5 +666,6 @@ public class DPTemplateEvolutionModel implements DPModel {
 			}
 			param.increment(val * weight);
 		}
+		updateLog.invalidateAll();
 	}
 }
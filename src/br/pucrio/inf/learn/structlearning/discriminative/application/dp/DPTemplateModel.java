@@ -316,4 +316,8 @@ public class DPTemplateModel implements DPModel {
 		return parameters.size();
 	}
 
+	@Override
+	public FeatureUpdateLog getFeatureUpdateLog() {
+		return null;
+	}
 }
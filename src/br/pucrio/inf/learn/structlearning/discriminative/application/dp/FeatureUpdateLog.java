@@ -0,0 +1,136 @@
+package br.pucrio.inf.learn.structlearning.discriminative.application.dp;
+
+import java.util.Arrays;
+
+import br.pucrio.inf.learn.util.IntArrayList;
+
+/**
+ * Keep track of which feature parameters of a model have changed and when. It
+ * is used to invalidate cached edge scores (see
+ * <code>MaximumBranchingInference</code>) by means of an inverted index from
+ * feature codes to the version of the model in which they were last changed.
+ *
+ * A model version corresponds to a call to <code>commit()</code>, which is
+ * usually done in <code>Model.sumUpdates(int)</code>, when the updated
+ * parameters actually change their weights. An edge score computed at version
+ * <code>v</code> is still valid if none of its features has been changed
+ * after <code>v</code>.
+ *
+ * @author eraldo
+ *
+ */
+public class FeatureUpdateLog {
+
+	/**
+	 * Version in which each feature code has been last changed.
+	 */
+	private int[] stamps;
+
+	/**
+	 * Feature codes updated since the last commit.
+	 */
+	private IntArrayList pending;
+
+	/**
+	 * Current version of the model.
+	 */
+	private int version;
+
+	/**
+	 * Scores computed before this version are invalid regardless of their
+	 * features.
+	 */
+	private int resetVersion;
+
+	/**
+	 * Create an empty log.
+	 */
+	public FeatureUpdateLog() {
+		stamps = new int[1024];
+		pending = new IntArrayList();
+		version = 1;
+		resetVersion = 1;
+	}
+
+	/**
+	 * Register that the parameter of the given feature code has been updated.
+	 * The change is only effective after the next <code>commit()</code>.
+	 * Negative codes (unknown feature values) are ignored.
+	 *
+	 * @param code
+	 */
+	public void updated(int code) {
+		pending.add(code);
+	}
+
+	/**
+	 * Start a new version and stamp it in all features updated since the last
+	 * commit.
+	 */
+	public void commit() {
+		int size = pending.size();
+		if (size == 0)
+			return;
+		++version;
+		int[] codes = pending.getArray();
+		for (int idx = 0; idx < size; ++idx) {
+			int code = codes[idx];
+			if (code < 0)
+				// Unknown feature value (e.g., in a read-only encoding).
+				continue;
+			if (code >= stamps.length)
+				stamps = Arrays.copyOf(stamps,
+						Math.max(code + 1, 2 * stamps.length));
+			stamps[code] = version;
+		}
+		pending.clear();
+	}
+
+	/**
+	 * Invalidate every score computed so far. It must be called whenever many
+	 * (or untracked) parameters are changed, e.g., when averaging a model.
+	 */
+	public void invalidateAll() {
+		pending.clear();
+		++version;
+		resetVersion = version;
+	}
+
+	/**
+	 * Return the current version.
+	 *
+	 * @return
+	 */
+	public int getVersion() {
+		return version;
+	}
+
+	/**
+	 * Return <code>true</code> if scores computed at the given version can be
+	 * partially reused.
+	 *
+	 * @param cachedVersion
+	 * @return
+	 */
+	public boolean isValid(int cachedVersion) {
+		return cachedVersion >= resetVersion;
+	}
+
+	/**
+	 * Return <code>true</code> if any of the given features has been changed
+	 * after the given version.
+	 *
+	 * @param codes
+	 * @param cachedVersion
+	 * @return
+	 */
+	public boolean isUpdatedSince(int[] codes, int cachedVersion) {
+		for (int idx = 0; idx < codes.length; ++idx) {
+			int code = codes[idx];
+			if (code >= 0 && code < stamps.length
+					&& stamps[code] > cachedVersion)
+				return true;
+		}
+		return false;
+	}
+}
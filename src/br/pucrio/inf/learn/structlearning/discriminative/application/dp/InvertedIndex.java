@@ -1,45 +1,98 @@
 package br.pucrio.inf.learn.structlearning.discriminative.application.dp;
 
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashMap;
-import java.util.TreeSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import br.pucrio.inf.learn.structlearning.discriminative.application.dp.data.DPColumnDataset;
 import br.pucrio.inf.learn.structlearning.discriminative.application.dp.data.DPInput;
 import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleInputArray;
 import br.pucrio.inf.learn.util.HashCodeUtil;
+import br.pucrio.inf.learn.util.IntArrayList;
 
 /**
  * Represent a dependency parsing edge corpus (column format) by an inverted
- * index. That is, for each feature value, store the list of edges where this
- * feature occurs.
- * 
+ * index. That is, for each basic feature value, store the list of edges where
+ * this feature occurs.
+ *
+ * Each edge (example, head, dependent) is identified by an integer id whose
+ * order is the same as the lexicographic order of the triple. The posting
+ * lists of all basic features are stored as sorted ids in a single primitive
+ * buffer (CSR layout), which allows galloping intersections. The index can be
+ * saved to a file and later memory-mapped, so that it does not need to be
+ * rebuilt (nor fully loaded in the heap) in subsequent runs.
+ *
  * @author eraldo
- * 
+ *
  */
 public class InvertedIndex {
 
+	/**
+	 * Magic number of index files.
+	 */
+	private static final int MAGIC = 0x44504949;
+
+	/**
+	 * Version of the index file format.
+	 */
+	private static final int FORMAT_VERSION = 1;
+
 	/**
 	 * Direct index.
 	 */
 	private DPColumnDataset corpus;
 
 	/**
-	 * Inverted index.
+	 * Number of basic features (columns) in the corpus.
 	 */
-	private HashMap<BasicFeature, TreeSet<Edge>> index;
+	private int numberOfFeatures;
 
 	/**
-	 * Auxiliary basic feature.
+	 * Posting list id of each basic feature value, i.e.,
+	 * <code>lists[feature][value]</code>, or -1 if the value does not occur.
 	 */
-	final private BasicFeature auxBasicFeature = new BasicFeature(0, 0);
+	private int[][] lists;
+
+	/**
+	 * Id of the first edge of each example. The ids of an example with n
+	 * tokens range from <code>exampleOffsets[example]</code> to
+	 * <code>exampleOffsets[example] + n*n - 1</code>.
+	 */
+	private int[] exampleOffsets;
+
+	/**
+	 * Number of tokens of each example.
+	 */
+	private int[] exampleLengths;
+
+	/**
+	 * Begin of each posting list in <code>postings</code>. The end of a list
+	 * is the begin of the next one.
+	 */
+	private int[] postingOffsets;
+
+	/**
+	 * Sorted edge ids of all posting lists (heap or memory-mapped buffer).
+	 */
+	private IntBuffer postings;
 
 	/**
 	 * Create an inverted index that represents the given corpus.
-	 * 
+	 *
 	 * @param corpus
 	 */
 	public InvertedIndex(DPColumnDataset corpus) {
@@ -48,38 +101,344 @@ public class InvertedIndex {
 	}
 
 	/**
-	 * Fill the inverted index with the underlying corpus.
+	 * Create an inverted index from the given buffer, which contains an index
+	 * saved by <code>save(String)</code>.
+	 *
+	 * @param corpus
+	 * @param buffer
+	 * @throws IOException
+	 */
+	private InvertedIndex(DPColumnDataset corpus, ByteBuffer buffer)
+			throws IOException {
+		this.corpus = corpus;
+		if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION)
+			throw new IOException("Invalid inverted index file format");
+		numberOfFeatures = buffer.getInt();
+		int numExamples = buffer.getInt();
+		exampleOffsets = readArray(buffer, numExamples + 1);
+		exampleLengths = readArray(buffer, numExamples);
+		lists = new int[numberOfFeatures][];
+		for (int feature = 0; feature < numberOfFeatures; ++feature)
+			lists[feature] = readArray(buffer, buffer.getInt());
+		postingOffsets = readArray(buffer, buffer.getInt() + 1);
+		int numPostings = buffer.getInt();
+		ByteBuffer slice = buffer.slice();
+		slice.limit(4 * numPostings);
+		postings = slice.asIntBuffer();
+	}
+
+	/**
+	 * Read an array of the given length from the current position of the
+	 * given buffer and advance its position.
+	 *
+	 * @param buffer
+	 * @param length
+	 * @return
+	 */
+	private static int[] readArray(ByteBuffer buffer, int length) {
+		int[] array = new int[length];
+		buffer.asIntBuffer().get(array);
+		buffer.position(buffer.position() + 4 * length);
+		return array;
+	}
+
+	/**
+	 * Return whether this index matches its corpus, i.e., whether the corpus
+	 * has the same number of features and examples and each example has the
+	 * same number of tokens as when this index was created.
+	 *
+	 * @return
+	 */
+	private boolean matchesCorpus() {
+		if (numberOfFeatures != corpus.getNumberOfFeatures())
+			return false;
+		ExampleInputArray inputs = corpus.getInputs();
+		int numExamples = inputs.getNumberExamples();
+		if (numExamples != exampleLengths.length)
+			return false;
+		inputs.loadInOrder();
+		for (int example = 0; example < numExamples; ++example) {
+			int len = ((DPInput) inputs.get(example)).getNumberOfTokens();
+			int numEdges = exampleOffsets[example + 1] - exampleOffsets[example];
+			if (len != exampleLengths[example] || numEdges != len * len)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Memory-map the inverted index stored in the given file. The index must
+	 * have been created from the given corpus, which is checked by comparing
+	 * the number of tokens of each example.
+	 *
+	 * @param fileName
+	 * @param corpus
+	 * @return the loaded index or <code>null</code> if the stored index does
+	 *         not match the given corpus.
+	 * @throws IOException
+	 */
+	public static InvertedIndex load(String fileName, DPColumnDataset corpus)
+			throws IOException {
+		RandomAccessFile file = new RandomAccessFile(fileName, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			if (channel.size() > Integer.MAX_VALUE)
+				throw new IOException(
+						"Inverted index file is too large to be mapped");
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+					channel.size());
+			InvertedIndex index = new InvertedIndex(corpus, buffer);
+			if (!index.matchesCorpus())
+				return null;
+			return index;
+		} finally {
+			// The mapping remains valid after the file is closed.
+			file.close();
+		}
+	}
+
+	/**
+	 * Save this index in the given file, which can later be memory-mapped by
+	 * <code>load(String, DPColumnDataset)</code>.
+	 *
+	 * @param fileName
+	 * @throws IOException
+	 */
+	public void save(String fileName) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(fileName), 1 << 16));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			out.writeInt(numberOfFeatures);
+			out.writeInt(exampleLengths.length);
+			writeArray(out, exampleOffsets, exampleOffsets.length);
+			writeArray(out, exampleLengths, exampleLengths.length);
+			for (int feature = 0; feature < numberOfFeatures; ++feature) {
+				out.writeInt(lists[feature].length);
+				writeArray(out, lists[feature], lists[feature].length);
+			}
+			out.writeInt(postingOffsets.length - 1);
+			writeArray(out, postingOffsets, postingOffsets.length);
+			int numPostings = postings.limit();
+			out.writeInt(numPostings);
+			for (int idx = 0; idx < numPostings; ++idx)
+				out.writeInt(postings.get(idx));
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Write the given number of items of the given array.
+	 *
+	 * @param out
+	 * @param array
+	 * @param length
+	 * @throws IOException
+	 */
+	private static void writeArray(DataOutputStream out, int[] array,
+			int length) throws IOException {
+		for (int idx = 0; idx < length; ++idx)
+			out.writeInt(array[idx]);
+	}
+
+	/**
+	 * Fill the inverted index with the underlying corpus. The corpus is
+	 * traversed twice: the first pass computes the size of each posting list
+	 * and the second one fills them. Since edges are visited in increasing id
+	 * order, the posting lists are sorted without any additional effort.
+	 * 
+	 * The posting lists of different basic features (columns) are disjoint,
+	 * thus each pass processes the columns in parallel using the number of
+	 * threads of the corpus.
 	 */
 	private void initIndex() {
-		index = new HashMap<BasicFeature, TreeSet<Edge>>();
 		ExampleInputArray inputs = corpus.getInputs();
-		int numFtrs = corpus.getNumberOfFeatures();
-		
+		int numExamples = inputs.getNumberExamples();
+		numberOfFeatures = corpus.getNumberOfFeatures();
+		exampleOffsets = new int[numExamples + 1];
+		exampleLengths = new int[numExamples];
+
+		// Edge ids of each example.
+		final DPInput[] exs = new DPInput[numExamples];
+		long numEdges = 0;
 		inputs.loadInOrder();
-		
-		for (int example = 0; example < inputs.getNumberExamples(); ++example) {
+		for (int example = 0; example < numExamples; ++example) {
 			DPInput input = (DPInput) inputs.get(example);
 			int len = input.getNumberOfTokens();
+			exs[example] = input;
+			exampleOffsets[example] = (int) numEdges;
+			exampleLengths[example] = len;
+			numEdges += len * len;
+			if (numEdges > Integer.MAX_VALUE)
+				throw new IllegalStateException(
+						"Too many edges for the inverted index");
+		}
+		exampleOffsets[numExamples] = (int) numEdges;
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1,
+				Math.min(corpus.getNumberOfThreads(), numberOfFeatures)));
+		try {
+			// First pass: posting list ids (local to each column) and sizes.
+			lists = new int[numberOfFeatures][];
+			final IntArrayList[] sizes = new IntArrayList[numberOfFeatures];
+			List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(
+					numberOfFeatures);
+			for (int feature = 0; feature < numberOfFeatures; ++feature) {
+				final int ftr = feature;
+				tasks.add(new Callable<Object>() {
+					@Override
+					public Object call() throws Exception {
+						sizes[ftr] = countColumn(exs, ftr);
+						return null;
+					}
+				});
+			}
+			invokeAll(executor, tasks);
+
+			// Global list ids and offsets.
+			int numLists = 0;
+			for (int feature = 0; feature < numberOfFeatures; ++feature) {
+				int base = numLists;
+				int[] ids = lists[feature];
+				for (int value = 0; value < ids.length; ++value)
+					if (ids[value] != -1)
+						ids[value] += base;
+				numLists += sizes[feature].size();
+			}
+			postingOffsets = new int[numLists + 1];
+			long numPostings = 0;
+			int list = 0;
+			for (int feature = 0; feature < numberOfFeatures; ++feature) {
+				IntArrayList sizesFeature = sizes[feature];
+				for (int local = 0; local < sizesFeature.size(); ++local) {
+					postingOffsets[list++] = (int) numPostings;
+					numPostings += sizesFeature.get(local);
+					if (numPostings > Integer.MAX_VALUE)
+						throw new IllegalStateException(
+								"Too many postings for the inverted index");
+				}
+			}
+			postingOffsets[numLists] = (int) numPostings;
+
+			// Second pass: fill the posting lists.
+			final int[] array = new int[(int) numPostings];
+			final int[] next = Arrays.copyOf(postingOffsets, numLists);
+			tasks.clear();
+			for (int feature = 0; feature < numberOfFeatures; ++feature) {
+				final int ftr = feature;
+				tasks.add(new Callable<Object>() {
+					@Override
+					public Object call() throws Exception {
+						fillColumn(exs, ftr, array, next);
+						return null;
+					}
+				});
+			}
+			invokeAll(executor, tasks);
+			postings = IntBuffer.wrap(array);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Assign a (column-local) posting list id to each value of the given
+	 * basic feature and return the size of each list.
+	 * 
+	 * @param exs
+	 * @param feature
+	 * @return
+	 */
+	private IntArrayList countColumn(DPInput[] exs, int feature) {
+		IntArrayList sizes = new IntArrayList();
+		int[] ids = new int[1024];
+		Arrays.fill(ids, -1);
+		for (int example = 0; example < exs.length; ++example) {
+			DPInput input = exs[example];
+			int len = exampleLengths[example];
 			for (int head = 0; head < len; ++head) {
 				for (int dependent = 0; dependent < len; ++dependent) {
-					int[] vals = input.getFeatures(head, dependent);
-					if (vals == null || vals.length == 0)
+					int[] vals = input.getBasicFeatures(head, dependent);
+					if (vals == null)
 						continue;
-					for (int feature = 0; feature < numFtrs; ++feature)
-						put(example, head, dependent, feature, vals[feature]);
+					int value = vals[feature];
+					if (value < 0)
+						continue;
+					if (value >= ids.length) {
+						int oldLength = ids.length;
+						ids = Arrays.copyOf(ids,
+								Math.max(value + 1, 2 * oldLength));
+						Arrays.fill(ids, oldLength, ids.length, -1);
+					}
+					int list = ids[value];
+					if (list == -1) {
+						list = sizes.size();
+						ids[value] = list;
+						sizes.add(0);
+					}
+					sizes.set(list, sizes.get(list) + 1);
 				}
 			}
-			if ((example + 1) % 100 == 0) {
-				System.out.print(".");
-				System.out.flush();
+		}
+		lists[feature] = ids;
+		return sizes;
+	}
+
+	/**
+	 * Fill the posting lists of the values of the given basic feature.
+	 * 
+	 * @param exs
+	 * @param feature
+	 * @param array
+	 * @param next
+	 */
+	private void fillColumn(DPInput[] exs, int feature, int[] array,
+			int[] next) {
+		int[] ids = lists[feature];
+		for (int example = 0; example < exs.length; ++example) {
+			DPInput input = exs[example];
+			int len = exampleLengths[example];
+			int edge = exampleOffsets[example];
+			for (int head = 0; head < len; ++head) {
+				for (int dependent = 0; dependent < len; ++dependent, ++edge) {
+					int[] vals = input.getBasicFeatures(head, dependent);
+					if (vals == null)
+						continue;
+					int value = vals[feature];
+					if (value < 0)
+						continue;
+					array[next[ids[value]]++] = edge;
+				}
 			}
 		}
-		System.out.println();
 	}
 
 	/**
-	 * Return the underlying corpus.
+	 * Execute the given tasks and wait for them to finish. If any task throws
+	 * an exception, it is rethrown as an unchecked exception.
 	 * 
+	 * @param executor
+	 * @param tasks
+	 */
+	private static void invokeAll(ExecutorService executor,
+			List<Callable<Object>> tasks) {
+		try {
+			for (Future<Object> future : executor.invokeAll(tasks))
+				future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Inverted index creation interrupted",
+					e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Creating inverted index", e.getCause());
+		}
+	}
+
+	/**
+	 * Return the underlying corpus.
+	 *
 	 * @return
 	 */
 	public DPColumnDataset getCorpus() {
@@ -87,194 +446,197 @@ public class InvertedIndex {
 	}
 
 	/**
-	 * Include the given example in the list of the given feature value.
-	 * 
-	 * @param example
-	 * @param head
-	 * @param dependent
+	 * Return the posting list id of the given feature value or -1 if it never
+	 * occurs in the corpus.
+	 *
 	 * @param feature
 	 * @param value
+	 * @return
 	 */
-	public void put(int example, int head, int dependent, int feature, int value) {
-		auxBasicFeature.value = value;
-		auxBasicFeature.feature = feature;
-		TreeSet<Edge> set = index.get(auxBasicFeature);
-		if (set == null) {
-			set = new TreeSet<Edge>();
-			index.put(new BasicFeature(feature, value), set);
-		}
-		set.add(new Edge(example, head, dependent));
+	private int getList(int feature, int value) {
+		int[] ids = lists[feature];
+		if (value < 0 || value >= ids.length)
+			return -1;
+		return ids[value];
 	}
 
 	/**
-	 * Return a collection of examples where the given features occur
-	 * simultaneously.
-	 * 
+	 * Return the number of edges where the given feature value occurs.
+	 *
+	 * @param feature
+	 * @param value
+	 * @return
+	 */
+	public int getFrequency(int feature, int value) {
+		int list = getList(feature, value);
+		if (list == -1)
+			return 0;
+		return postingOffsets[list + 1] - postingOffsets[list];
+	}
+
+	/**
+	 * Fill <code>edges</code> with the ids of the edges where the given
+	 * features occur simultaneously. Posting lists are intersected in
+	 * increasing order of size and each candidate is searched by galloping
+	 * (exponential followed by binary search) in the next list.
+	 *
 	 * @param features
 	 * @param values
-	 * @return
+	 * @param edges
+	 * @return the number of edges in the intersection.
 	 */
-	@SuppressWarnings({ "rawtypes" })
-	public Collection<Edge> getExamplesWithFeatures(int[] features, int[] values) {
-		// Sort features by example list size.
-		final TreeSet[] exampleSets = new TreeSet[features.length];
-		ArrayList<Integer> sortedFeatures = new ArrayList<Integer>(
-				features.length);
-		for (int idx = 0; idx < features.length; ++idx) {
-			// Index array.
-			sortedFeatures.add(idx);
-			auxBasicFeature.feature = features[idx];
-			auxBasicFeature.value = values[idx];
-			exampleSets[idx] = index.get(auxBasicFeature);
-			if (exampleSets[idx] == null || exampleSets[idx].size() == 0)
+	public int getEdgesWithFeatures(int[] features, int[] values,
+			IntArrayList edges) {
+		edges.clear();
+		int numLists = features.length;
+		if (numLists == 0)
+			return 0;
+
+		// Sort lists by size (insertion sort since there are few lists).
+		int[] sorted = new int[numLists];
+		for (int idx = 0; idx < numLists; ++idx) {
+			int list = getList(features[idx], values[idx]);
+			if (list == -1)
 				// Some feature never occurs in the corpus.
-				return null;
+				return 0;
+			int size = postingOffsets[list + 1] - postingOffsets[list];
+			int pos = idx;
+			while (pos > 0
+					&& postingOffsets[sorted[pos - 1] + 1]
+							- postingOffsets[sorted[pos - 1]] > size) {
+				sorted[pos] = sorted[pos - 1];
+				--pos;
+			}
+			sorted[pos] = list;
 		}
 
-		Collections.sort(sortedFeatures, new Comparator<Integer>() {
-			@Override
-			public int compare(Integer idx1, Integer idx2) {
-				int size1 = exampleSets[idx1].size();
-				int size2 = exampleSets[idx2].size();
-				if (size1 == size2)
-					return 0;
-				if (size1 < size2)
-					return -1;
-				return 1;
+		// Start with the smallest list.
+		int list = sorted[0];
+		for (int idx = postingOffsets[list]; idx < postingOffsets[list + 1]; ++idx)
+			edges.add(postings.get(idx));
+
+		for (int idxList = 1; idxList < numLists && edges.size() > 0; ++idxList) {
+			list = sorted[idxList];
+			int pos = postingOffsets[list];
+			int end = postingOffsets[list + 1];
+			int numEdges = edges.size();
+			int numKept = 0;
+			for (int idx = 0; idx < numEdges && pos < end; ++idx) {
+				int edge = edges.get(idx);
+				pos = gallop(edge, pos, end);
+				if (pos < end && postings.get(pos) == edge)
+					edges.set(numKept++, edge);
 			}
-		});
+			edges.truncate(numKept);
+		}
 
-		return intersection(exampleSets, sortedFeatures);
+		return edges.size();
 	}
 
-	// @SuppressWarnings({ "unchecked", "rawtypes" })
-	// private TreeSet<Edge> intersection(TreeSet[] exampleSets,
-	// ArrayList<Integer> sortedFeatures) {
-	// TreeSet<Edge> examples = (TreeSet<Edge>) exampleSets[sortedFeatures
-	// .get(0)].clone();
-	// for (int idx = 1; idx < sortedFeatures.size(); ++idx) {
-	// Iterator<Edge> it1 = examples.iterator();
-	// Iterator<Edge> it2 = exampleSets[sortedFeatures.get(idx)]
-	// .iterator();
-	//
-	// if (!it1.hasNext() || !it2.hasNext()) {
-	// // Empty intersection.
-	// examples = null;
-	// break;
-	// }
-	//
-	// // First elements.
-	// Edge e1 = it1.next();
-	// Edge e2 = it2.next();
-	//
-	// while (true) {
-	// // Compare the two current elements.
-	// int comp = e1.compareTo(e2);
-	//
-	// if (comp == 0) {
-	// // List 1 current element is within list 2.
-	// if (it1.hasNext())
-	// e1 = it1.next();
-	// else {
-	// e1 = null;
-	// break;
-	// }
-	//
-	// if (it2.hasNext())
-	// e2 = it2.next();
-	// else
-	// break;
-	// } else if (comp < 0) {
-	// // List 1 current element is not list 2.
-	// it1.remove();
-	// if (it1.hasNext())
-	// e1 = it1.next();
-	// else {
-	// e1 = null;
-	// break;
-	// }
-	// } else if (comp > 0) {
-	// // Keep searching for list 1 current element in list 2.
-	// if (it2.hasNext())
-	// e2 = it2.next();
-	// else
-	// break;
-	// }
-	// }
-	//
-	// if (e1 != null)
-	// it1.remove();
-	//
-	// // Remove all remaining elements from list 1.
-	// while (it1.hasNext()) {
-	// it1.next();
-	// it1.remove();
-	// }
-	// }
-	//
-	// return examples;
-	// }
-
-	@SuppressWarnings({ "unchecked", "rawtypes" })
-	private TreeSet<Edge> intersection(TreeSet[] exampleSets,
-			ArrayList<Integer> sortedFeatures) {
-		TreeSet<Edge> examples = (TreeSet<Edge>) exampleSets[sortedFeatures
-				.get(0)].clone();
-		for (int idx = 1; idx < sortedFeatures.size(); ++idx)
-			examples.retainAll(exampleSets[sortedFeatures.get(idx)]);
-		return examples;
+	/**
+	 * Return the first position in <code>[begin, end)</code> whose posting is
+	 * greater than or equal to the given edge id, or <code>end</code> if
+	 * there is no such position.
+	 *
+	 * @param edge
+	 * @param begin
+	 * @param end
+	 * @return
+	 */
+	private int gallop(int edge, int begin, int end) {
+		// Exponential search for an upper bound.
+		int step = 1;
+		int hi = begin;
+		while (hi < end && postings.get(hi) < edge) {
+			begin = hi + 1;
+			hi += step;
+			step <<= 1;
+		}
+		if (hi > end)
+			hi = end;
+		// Binary search within (begin, hi].
+		while (begin < hi) {
+			int mid = (begin + hi) >>> 1;
+			if (postings.get(mid) < edge)
+				begin = mid + 1;
+			else
+				hi = mid;
+		}
+		return begin;
 	}
 
 	/**
-	 * Basic (not compound) feature. The inverted index is based on basic
-	 * feature values.
-	 * 
-	 * @author eraldo
-	 * 
+	 * Return the example of the given edge id.
+	 *
+	 * @param edge
+	 * @return
 	 */
-	private static class BasicFeature {
-		/**
-		 * Feature code.
-		 */
-		public int feature;
-
-		/**
-		 * Feature value.
-		 */
-		public int value;
+	public int getExample(int edge) {
+		int pos = Arrays.binarySearch(exampleOffsets, edge);
+		if (pos < 0)
+			return -pos - 2;
+		// Skip empty examples that share the same offset.
+		while (pos + 1 < exampleLengths.length
+				&& exampleOffsets[pos + 1] == edge)
+			++pos;
+		return pos;
+	}
 
-		/**
-		 * Intialize a basic feature object.
-		 * 
-		 * @param feature
-		 * @param value
-		 */
-		public BasicFeature(int feature, int value) {
-			this.feature = feature;
-			this.value = value;
-		}
+	/**
+	 * Return the head token of the given edge id within the given example.
+	 *
+	 * @param example
+	 * @param edge
+	 * @return
+	 */
+	public int getHead(int example, int edge) {
+		return (edge - exampleOffsets[example]) / exampleLengths[example];
+	}
 
-		@Override
-		public int hashCode() {
-			return HashCodeUtil.hash(feature, value);
-		}
+	/**
+	 * Return the dependent token of the given edge id within the given
+	 * example.
+	 *
+	 * @param example
+	 * @param edge
+	 * @return
+	 */
+	public int getDependent(int example, int edge) {
+		return (edge - exampleOffsets[example]) % exampleLengths[example];
+	}
 
-		@Override
-		public boolean equals(Object obj) {
-			if (!(obj instanceof BasicFeature))
-				return false;
-			BasicFeature other = (BasicFeature) obj;
-			return feature == other.feature && value == other.value;
+	/**
+	 * Return a collection of examples where the given features occur
+	 * simultaneously.
+	 *
+	 * @param features
+	 * @param values
+	 * @return
+	 */
+	public Collection<Edge> getExamplesWithFeatures(int[] features, int[] values) {
+		for (int idx = 0; idx < features.length; ++idx)
+			if (getList(features[idx], values[idx]) == -1)
+				// Some feature never occurs in the corpus.
+				return null;
+		IntArrayList ids = new IntArrayList();
+		getEdgesWithFeatures(features, values, ids);
+		ArrayList<Edge> edges = new ArrayList<Edge>(ids.size());
+		for (int idx = 0; idx < ids.size(); ++idx) {
+			int edge = ids.get(idx);
+			int example = getExample(edge);
+			edges.add(new Edge(example, getHead(example, edge), getDependent(
+					example, edge)));
 		}
+		return edges;
 	}
 
 	/**
 	 * Head-dependent identification along with its example index. For each
 	 * basic feature value, the inverted index stores the list of edges with
 	 * this value.
-	 * 
+	 *
 	 * @author eraldo
-	 * 
+	 *
 	 */
 	public static class Edge implements Comparable<Edge> {
 		/**
@@ -294,7 +656,7 @@ public class InvertedIndex {
 
 		/**
 		 * Initialize an edge object.
-		 * 
+		 *
 		 * @param example
 		 * @param head
 		 * @param dependent
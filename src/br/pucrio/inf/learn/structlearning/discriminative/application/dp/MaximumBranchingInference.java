@@ -1,14 +1,18 @@
 package br.pucrio.inf.learn.structlearning.discriminative.application.dp;
 
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+
 import sun.reflect.generics.reflectiveObjects.NotImplementedException;
 import br.pucrio.inf.learn.structlearning.discriminative.algorithm.passiveagressive.PassiveAgressiveUpdate;
 import br.pucrio.inf.learn.structlearning.discriminative.application.dp.data.DPInput;
 import br.pucrio.inf.learn.structlearning.discriminative.application.dp.data.DPOutput;
 import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleInput;
 import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleOutput;
-import br.pucrio.inf.learn.structlearning.discriminative.task.Inference;
 import br.pucrio.inf.learn.structlearning.discriminative.task.Model;
-import br.pucrio.inf.learn.util.maxbranching.DirectedMaxBranchAlgorithm;
+import br.pucrio.inf.learn.structlearning.discriminative.task.WorkspaceInference;
+import br.pucrio.inf.learn.util.maxbranching.AdaptiveMaxBranchAlgorithm;
+import br.pucrio.inf.learn.util.maxbranching.MaximumBranchingAlgorithm;
 
 /**
  * Inference algorithm for dependency parsing problems. It corresponds to
@@ -16,21 +20,47 @@ import br.pucrio.inf.learn.util.maxbranching.DirectedMaxBranchAlgorithm;
  * sentence and the edge weights are given by the sum of the features weights in
  * each edge (given by the model).
  * 
+ * By default, the maximum branching is found by Chu-Liu-Edmonds' algorithm
+ * (non-projective trees). Any other <code>MaximumBranchingAlgorithm</code> can
+ * be given, e.g., <code>EisnerAlgorithm</code> for projective trees.
+ * 
  * @author eraldo
  * 
  */
-public class MaximumBranchingInference implements Inference {
+public class MaximumBranchingInference implements WorkspaceInference {
 
 	/**
 	 * Algorithm and its data structures for finding maximum branching.
 	 */
-	private DirectedMaxBranchAlgorithm maxBranchingAlgorithm;
+	private MaximumBranchingAlgorithm maxBranchingAlgorithm;
 
 	/**
 	 * Input graph used to predict the maximum branching.
 	 */
 	private double[][] graph;
 
+	/**
+	 * Edge scores of the most recently used inputs (LRU). Scores are only
+	 * recomputed for edges whose features have been updated since they were
+	 * cached. It is <code>null</code> when caching is disabled.
+	 */
+	private LinkedHashMap<DPInput, CachedScores> scoreCache;
+
+	/**
+	 * Maximum number of inputs in <code>scoreCache</code>.
+	 */
+	private int scoreCacheSize;
+
+	/**
+	 * Number of edge scores taken from the cache.
+	 */
+	private long numberOfReusedScores;
+
+	/**
+	 * Total number of edge scores filled while the cache is enabled.
+	 */
+	private long numberOfScores;
+
 	/**
 	 * Create an inference implementation to deal with sentences that have the
 	 * given maximum number of tokens.
@@ -38,8 +68,21 @@ public class MaximumBranchingInference implements Inference {
 	 * @param maxNumberOfTokens
 	 */
 	public MaximumBranchingInference(int maxNumberOfTokens) {
-		maxBranchingAlgorithm = new DirectedMaxBranchAlgorithm(
-				maxNumberOfTokens);
+		this(maxNumberOfTokens, new AdaptiveMaxBranchAlgorithm(
+				maxNumberOfTokens));
+	}
+
+	/**
+	 * Create an inference implementation that uses the given algorithm to
+	 * find the maximum branching of sentences that have the given maximum
+	 * number of tokens.
+	 * 
+	 * @param maxNumberOfTokens
+	 * @param maxBranchingAlgorithm
+	 */
+	public MaximumBranchingInference(int maxNumberOfTokens,
+			MaximumBranchingAlgorithm maxBranchingAlgorithm) {
+		this.maxBranchingAlgorithm = maxBranchingAlgorithm;
 		graph = new double[maxNumberOfTokens][maxNumberOfTokens];
 	}
 
@@ -48,6 +91,17 @@ public class MaximumBranchingInference implements Inference {
 		inference((DPModel) model, (DPInput) input, (DPOutput) output);
 	}
 
+	@Override
+	public int getNumberOfTokens(ExampleInput input) {
+		return ((DPInput) input).getNumberOfTokens();
+	}
+
+	@Override
+	public void realloc(int maxNumberOfTokens) {
+		graph = new double[maxNumberOfTokens][maxNumberOfTokens];
+		maxBranchingAlgorithm.realloc(maxNumberOfTokens);
+	}
+
 	private void inference(DPModel model, DPInput input, DPOutput output) {
 		// Fill the graph weights.
 		fillGraph(model, input);
@@ -74,11 +128,118 @@ public class MaximumBranchingInference implements Inference {
 			graph = new double[numTokens][numTokens];
 			maxBranchingAlgorithm.realloc(numTokens);
 		}
-		// Fill the weight matrix.
+
+		FeatureUpdateLog log = model.getFeatureUpdateLog();
+		if (scoreCache == null || log == null) {
+			// Fill the weight matrix.
+			for (int head = 0; head < numTokens; ++head)
+				for (int dependent = 0; dependent < numTokens; ++dependent)
+					graph[head][dependent] = model.getEdgeScore(input, head,
+							dependent);
+			return;
+		}
+
+		numberOfScores += numTokens * numTokens;
+		CachedScores cached = scoreCache.get(input);
+		if (cached == null || cached.log != log
+				|| cached.scores.length != numTokens * numTokens
+				|| !log.isValid(cached.version)) {
+			// Compute all scores.
+			if (cached == null)
+				cached = new CachedScores();
+			cached.log = log;
+			cached.scores = new double[numTokens * numTokens];
+			double[] scores = cached.scores;
+			for (int head = 0; head < numTokens; ++head)
+				for (int dependent = 0; dependent < numTokens; ++dependent)
+					scores[head * numTokens + dependent] = model.getEdgeScore(
+							input, head, dependent);
+			scoreCache.put(input, cached);
+		} else {
+			// Rescore only the edges with some updated feature.
+			double[] scores = cached.scores;
+			for (int head = 0; head < numTokens; ++head) {
+				for (int dependent = 0; dependent < numTokens; ++dependent) {
+					int[] ftrs = input.getFeatures(head, dependent);
+					if (ftrs != null
+							&& log.isUpdatedSince(ftrs, cached.version))
+						scores[head * numTokens + dependent] = model
+								.getEdgeScore(input, head, dependent);
+					else
+						++numberOfReusedScores;
+				}
+			}
+		}
+		cached.version = log.getVersion();
+
+		// Copy the scores since the branching algorithm can change the graph.
+		double[] scores = cached.scores;
 		for (int head = 0; head < numTokens; ++head)
-			for (int dependent = 0; dependent < numTokens; ++dependent)
-				graph[head][dependent] = model.getEdgeScore(input, head,
-						dependent);
+			System.arraycopy(scores, head * numTokens, graph[head], 0,
+					numTokens);
+	}
+
+	/**
+	 * Enable the edge score cache for the given number of most recently used
+	 * inputs. In later epochs, only the edges whose features have been updated
+	 * since the last inference on the same input are rescored. This requires a
+	 * model that keeps track of its updates (see
+	 * <code>DPModel.getFeatureUpdateLog()</code>) and inputs whose features
+	 * do not change. Use zero to disable the cache.
+	 * 
+	 * @param size
+	 */
+	public void setEdgeScoreCache(int size) {
+		scoreCacheSize = size;
+		numberOfReusedScores = 0;
+		numberOfScores = 0;
+		if (size <= 0) {
+			scoreCache = null;
+			return;
+		}
+		scoreCache = new LinkedHashMap<DPInput, CachedScores>(16, 0.75f, true) {
+			/**
+			 * Auto-generated serial version ID.
+			 */
+			private static final long serialVersionUID = -2470915358532711036L;
+
+			@Override
+			protected boolean removeEldestEntry(
+					Entry<DPInput, CachedScores> eldest) {
+				return size() > scoreCacheSize;
+			}
+		};
+	}
+
+	/**
+	 * Return the fraction of edge scores that have been taken from the cache.
+	 * 
+	 * @return
+	 */
+	public double getEdgeScoreCacheReuseRatio() {
+		if (numberOfScores == 0)
+			return 0d;
+		return (double) numberOfReusedScores / numberOfScores;
+	}
+
+	/**
+	 * Edge scores of one input and the model version they correspond to.
+	 */
+	private static class CachedScores {
+		/**
+		 * Update log of the model used to compute the scores.
+		 */
+		FeatureUpdateLog log;
+
+		/**
+		 * Version of the model when the scores were last refreshed.
+		 */
+		int version;
+
+		/**
+		 * Flat matrix of edge scores indexed by (head * n + dependent).
+		 */
+		double[] scores;
 	}
 
 	@Override
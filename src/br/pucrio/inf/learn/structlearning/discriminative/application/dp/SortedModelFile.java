@@ -0,0 +1,643 @@
+package br.pucrio.inf.learn.structlearning.discriminative.application.dp;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.PriorityQueue;
+
+import org.json.JSONException;
+import org.json.JSONWriter;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import br.pucrio.inf.learn.structlearning.discriminative.data.DatasetException;
+
+/**
+ * Binary representation of a template-based model (see
+ * <code>DPTemplateEvolutionModel</code>) whose parameters are sorted by their
+ * textual feature (template index and basic feature values). Since parameters
+ * are identified by their textual values instead of encoding-specific codes,
+ * sorted files of models trained independently can be merged by a k-way merge
+ * that reads each file sequentially (see
+ * <code>merge(String[], double[], ParameterWriter)</code>). This is used to
+ * build committee models without loading all members into memory.
+ *
+ * The file comprises a header (magic number, format version, root node and
+ * template labels) followed by parameter records. Each record is preceded by
+ * a non-zero byte and the file ends with a zero byte.
+ *
+ * @author eraldo
+ *
+ */
+public class SortedModelFile {
+
+	/**
+	 * Magic number that identifies sorted model files ("DPSM").
+	 */
+	public static final int MAGIC = 0x4450534D;
+
+	/**
+	 * Current format version.
+	 */
+	public static final int FORMAT_VERSION = 1;
+
+	/**
+	 * Model parameter identified by its template index and textual feature
+	 * values.
+	 */
+	public static class Parameter implements Comparable<Parameter> {
+
+		/**
+		 * Template index.
+		 */
+		public int template;
+
+		/**
+		 * Basic feature values.
+		 */
+		public String[] values;
+
+		/**
+		 * Parameter weight.
+		 */
+		public double weight;
+
+		@Override
+		public int compareTo(Parameter o) {
+			return compare(template, values, o.template, o.values);
+		}
+	}
+
+	/**
+	 * Destination of merged parameters.
+	 */
+	public static interface ParameterWriter {
+
+		/**
+		 * Write the model header. It is called once, before any parameter.
+		 *
+		 * @param root
+		 * @param templates
+		 *            feature labels of each template of each level.
+		 * @throws IOException
+		 */
+		public void writeHeader(int root, String[][][] templates)
+				throws IOException;
+
+		/**
+		 * Write the given parameter.
+		 *
+		 * @param template
+		 * @param values
+		 * @param weight
+		 * @throws IOException
+		 */
+		public void writeParameter(int template, String[] values,
+				double weight) throws IOException;
+
+		/**
+		 * Finish the model and release its resources.
+		 *
+		 * @throws IOException
+		 */
+		public void close() throws IOException;
+	}
+
+	/**
+	 * Write a sorted model file. Parameters must be given in increasing order.
+	 */
+	public static class SortedWriter implements ParameterWriter {
+
+		/**
+		 * Underlying output stream.
+		 */
+		private DataOutputStream out;
+
+		/**
+		 * Create a writer for the given file.
+		 *
+		 * @param fileName
+		 * @throws IOException
+		 */
+		public SortedWriter(String fileName) throws IOException {
+			out = new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(fileName), 1 << 16));
+		}
+
+		@Override
+		public void writeHeader(int root, String[][][] templates)
+				throws IOException {
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			out.writeInt(root);
+			out.writeInt(templates.length);
+			for (String[][] level : templates) {
+				out.writeInt(level.length);
+				for (String[] template : level) {
+					out.writeInt(template.length);
+					for (String label : template)
+						out.writeUTF(label);
+				}
+			}
+		}
+
+		@Override
+		public void writeParameter(int template, String[] values,
+				double weight) throws IOException {
+			out.writeByte(1);
+			out.writeInt(template);
+			out.writeInt(values.length);
+			for (String val : values)
+				out.writeUTF(val);
+			out.writeDouble(weight);
+		}
+
+		@Override
+		public void close() throws IOException {
+			out.writeByte(0);
+			out.close();
+		}
+	}
+
+	/**
+	 * Write an ordinary JSON model file, as loaded by
+	 * <code>DPTemplateEvolutionModel</code>. The parameters are streamed, so
+	 * the model is never stored in memory.
+	 */
+	public static class JSONModelWriter implements ParameterWriter {
+
+		/**
+		 * Underlying writer.
+		 */
+		private Writer w;
+
+		/**
+		 * JSON writer.
+		 */
+		private JSONWriter jw;
+
+		/**
+		 * Create a writer for the given file.
+		 *
+		 * @param fileName
+		 * @throws IOException
+		 */
+		public JSONModelWriter(String fileName) throws IOException {
+			w = new FileWriter(fileName);
+			jw = new JSONWriter(w);
+		}
+
+		@Override
+		public void writeHeader(int root, String[][][] templates)
+				throws IOException {
+			try {
+				// Model object.
+				jw.object();
+				// Root value.
+				jw.key("root").value(root);
+				// Templates array.
+				jw.key("templates");
+				jw.array();
+				for (String[][] level : templates) {
+					jw.array();
+					for (String[] template : level) {
+						jw.array();
+						for (String label : template)
+							jw.value(label);
+						jw.endArray();
+					}
+					jw.endArray();
+				}
+				jw.endArray();
+				// Parameters array.
+				jw.key("parameters");
+				jw.array();
+			} catch (JSONException e) {
+				throw new IOException("JSON error", e);
+			}
+		}
+
+		@Override
+		public void writeParameter(int template, String[] values,
+				double weight) throws IOException {
+			try {
+				// [template_index, [feature_values_array], weight].
+				jw.array();
+				jw.value(template);
+				jw.array();
+				for (String val : values)
+					jw.value(val);
+				jw.endArray();
+				jw.value(weight);
+				jw.endArray();
+			} catch (JSONException e) {
+				throw new IOException("JSON error", e);
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				// End of parameters array and model object.
+				jw.endArray();
+				jw.endObject();
+			} catch (JSONException e) {
+				throw new IOException("JSON error", e);
+			}
+			w.close();
+		}
+	}
+
+	/**
+	 * Sequential reader of a sorted model file.
+	 */
+	public static class SortedReader implements Comparable<SortedReader> {
+
+		/**
+		 * Underlying input stream.
+		 */
+		private DataInputStream in;
+
+		/**
+		 * Root node of the model.
+		 */
+		private int root;
+
+		/**
+		 * Feature labels of each template of each level.
+		 */
+		private String[][][] templates;
+
+		/**
+		 * Current parameter, or <code>null</code> after the last one.
+		 */
+		private Parameter current;
+
+		/**
+		 * Auxiliary field used by the merge procedure.
+		 */
+		private double weight;
+
+		/**
+		 * Open the given file, read its header and its first parameter.
+		 *
+		 * @param fileName
+		 * @throws IOException
+		 * @throws DatasetException
+		 *             if the file is not a sorted model file.
+		 */
+		public SortedReader(String fileName) throws IOException,
+				DatasetException {
+			in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(fileName), 1 << 16));
+			if (in.readInt() != MAGIC) {
+				in.close();
+				throw new DatasetException(fileName
+						+ " is not a sorted model file");
+			}
+			int version = in.readInt();
+			if (version != FORMAT_VERSION) {
+				in.close();
+				throw new DatasetException(String.format(
+						"Unsupported sorted model version %d in %s", version,
+						fileName));
+			}
+			root = in.readInt();
+			templates = new String[in.readInt()][][];
+			for (int level = 0; level < templates.length; ++level) {
+				templates[level] = new String[in.readInt()][];
+				for (int idxTpl = 0; idxTpl < templates[level].length; ++idxTpl) {
+					String[] labels = new String[in.readInt()];
+					for (int idxFtr = 0; idxFtr < labels.length; ++idxFtr)
+						labels[idxFtr] = in.readUTF();
+					templates[level][idxTpl] = labels;
+				}
+			}
+			current = new Parameter();
+			next();
+		}
+
+		/**
+		 * Read the next parameter. After the last parameter, the current
+		 * parameter is <code>null</code>.
+		 *
+		 * @return the new current parameter.
+		 * @throws IOException
+		 */
+		public Parameter next() throws IOException {
+			if (current == null)
+				return null;
+			if (in.readByte() == 0) {
+				current = null;
+				return null;
+			}
+			current.template = in.readInt();
+			String[] values = new String[in.readInt()];
+			for (int idx = 0; idx < values.length; ++idx)
+				values[idx] = in.readUTF();
+			current.values = values;
+			current.weight = in.readDouble();
+			return current;
+		}
+
+		/**
+		 * @return the current parameter or <code>null</code> if there are no
+		 *         more parameters.
+		 */
+		public Parameter getCurrent() {
+			return current;
+		}
+
+		/**
+		 * @return the root node of the model.
+		 */
+		public int getRoot() {
+			return root;
+		}
+
+		/**
+		 * @return the feature labels of each template of each level.
+		 */
+		public String[][][] getTemplates() {
+			return templates;
+		}
+
+		/**
+		 * Close the underlying file.
+		 *
+		 * @throws IOException
+		 */
+		public void close() throws IOException {
+			in.close();
+		}
+
+		@Override
+		public int compareTo(SortedReader o) {
+			return current.compareTo(o.current);
+		}
+	}
+
+	/**
+	 * Compare two parameters by their template index and, then,
+	 * lexicographically by their feature values.
+	 *
+	 * @param template1
+	 * @param values1
+	 * @param template2
+	 * @param values2
+	 * @return
+	 */
+	public static int compare(int template1, String[] values1, int template2,
+			String[] values2) {
+		if (template1 != template2)
+			return template1 < template2 ? -1 : 1;
+		int len = Math.min(values1.length, values2.length);
+		for (int idx = 0; idx < len; ++idx) {
+			int cmp = values1[idx].compareTo(values2[idx]);
+			if (cmp != 0)
+				return cmp;
+		}
+		return values1.length - values2.length;
+	}
+
+	/**
+	 * Return <code>true</code> if the given file is a sorted model file.
+	 *
+	 * @param fileName
+	 * @return
+	 * @throws IOException
+	 */
+	public static boolean isSortedModelFile(String fileName)
+			throws IOException {
+		DataInputStream in = new DataInputStream(new FileInputStream(fileName));
+		try {
+			return in.readInt() == MAGIC;
+		} catch (EOFException e) {
+			return false;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Convert the given JSON model file to a sorted model file. The JSON model
+	 * is parsed by a streaming parser and only its parameters (as textual
+	 * features) are stored in memory.
+	 *
+	 * @param jsonFileName
+	 * @param sortedFileName
+	 * @throws IOException
+	 * @throws DatasetException
+	 */
+	public static void convert(String jsonFileName, String sortedFileName)
+			throws IOException, DatasetException {
+		int root = 0;
+		String[][][] templates = null;
+		ArrayList<Parameter> parameters = new ArrayList<Parameter>();
+
+		JsonFactory jf = new JsonFactory();
+		JsonParser jp = jf.createJsonParser(new File(jsonFileName));
+		try {
+			if (jp.nextToken() != JsonToken.START_OBJECT)
+				throw new DatasetException(String.format(
+						"Model file (%s) should contain an object",
+						jsonFileName));
+			while (jp.nextToken() != JsonToken.END_OBJECT) {
+				String fName = jp.getCurrentName();
+				jp.nextToken();
+				if ("root".equals(fName)) {
+					root = jp.getValueAsInt();
+				} else if ("templates".equals(fName)) {
+					templates = parseTemplates(jp);
+				} else if ("parameters".equals(fName)) {
+					parseParameters(jp, parameters);
+				} else {
+					jp.skipChildren();
+				}
+			}
+		} finally {
+			jp.close();
+		}
+
+		if (templates == null)
+			throw new DatasetException(String.format(
+					"Model file (%s) does not include templates", jsonFileName));
+
+		// Sort parameters.
+		Collections.sort(parameters);
+
+		// Write the sorted parameters, summing up repeated features.
+		SortedWriter writer = new SortedWriter(sortedFileName);
+		writer.writeHeader(root, templates);
+		Parameter last = null;
+		for (Parameter param : parameters) {
+			if (last != null && last.compareTo(param) == 0) {
+				last.weight += param.weight;
+				continue;
+			}
+			if (last != null)
+				writer.writeParameter(last.template, last.values, last.weight);
+			last = param;
+		}
+		if (last != null)
+			writer.writeParameter(last.template, last.values, last.weight);
+		writer.close();
+	}
+
+	/**
+	 * Parse the templates array of a JSON model, whose first token (array
+	 * start) has already been read.
+	 *
+	 * @param jp
+	 * @return
+	 * @throws IOException
+	 * @throws DatasetException
+	 */
+	private static String[][][] parseTemplates(JsonParser jp)
+			throws IOException, DatasetException {
+		if (jp.getCurrentToken() != JsonToken.START_ARRAY)
+			throw new DatasetException("Error parsing templates");
+		LinkedList<String[][]> levels = new LinkedList<String[][]>();
+		while (jp.nextToken() != JsonToken.END_ARRAY) {
+			LinkedList<String[]> level = new LinkedList<String[]>();
+			while (jp.nextToken() != JsonToken.END_ARRAY) {
+				LinkedList<String> labels = new LinkedList<String>();
+				while (jp.nextToken() != JsonToken.END_ARRAY)
+					labels.add(jp.getText());
+				level.add(labels.toArray(new String[labels.size()]));
+			}
+			levels.add(level.toArray(new String[level.size()][]));
+		}
+		return levels.toArray(new String[levels.size()][][]);
+	}
+
+	/**
+	 * Parse the parameters array of a JSON model, whose first token (array
+	 * start) has already been read, and append them to the given list.
+	 *
+	 * @param jp
+	 * @param parameters
+	 * @throws IOException
+	 * @throws DatasetException
+	 */
+	private static void parseParameters(JsonParser jp,
+			ArrayList<Parameter> parameters) throws IOException,
+			DatasetException {
+		if (jp.getCurrentToken() != JsonToken.START_ARRAY)
+			throw new DatasetException("Error parsing parameters");
+		LinkedList<String> values = new LinkedList<String>();
+		while (jp.nextToken() != JsonToken.END_ARRAY) {
+			// Each parameter follows the format: [ idxTpl, [vals], weight ]
+			if (jp.nextToken() != JsonToken.VALUE_NUMBER_INT)
+				throw new DatasetException("Error parsing parameters");
+			Parameter param = new Parameter();
+			param.template = jp.getIntValue();
+			if (jp.nextToken() != JsonToken.START_ARRAY)
+				throw new DatasetException(
+						"Error parsing parameter feature values");
+			values.clear();
+			while (jp.nextToken() != JsonToken.END_ARRAY)
+				values.add(jp.getText());
+			param.values = values.toArray(new String[values.size()]);
+			JsonToken tok = jp.nextToken();
+			if (tok != JsonToken.VALUE_NUMBER_FLOAT
+					&& tok != JsonToken.VALUE_NUMBER_INT)
+				throw new DatasetException("Error parsing parameter weight");
+			param.weight = jp.getDoubleValue();
+			if (jp.nextToken() != JsonToken.END_ARRAY)
+				throw new DatasetException("Error parsing parameters");
+			parameters.add(param);
+		}
+	}
+
+	/**
+	 * Merge the given sorted model files into a model whose parameters are
+	 * the weighted sum of the given models parameters. The files are read
+	 * sequentially by a k-way merge, so the memory usage does not depend on
+	 * the model sizes.
+	 *
+	 * @param sortedFileNames
+	 * @param weights
+	 *            weight of each model.
+	 * @param writer
+	 *            destination of the merged model.
+	 * @return the number of parameters in the merged model.
+	 * @throws IOException
+	 * @throws DatasetException
+	 *             if the models do not share the same root and templates.
+	 */
+	public static long merge(String[] sortedFileNames, double[] weights,
+			ParameterWriter writer) throws IOException, DatasetException {
+		SortedReader[] readers = new SortedReader[sortedFileNames.length];
+		try {
+			// Open all files and check their headers.
+			for (int idx = 0; idx < readers.length; ++idx) {
+				readers[idx] = new SortedReader(sortedFileNames[idx]);
+				readers[idx].weight = weights[idx];
+				if (readers[idx].getRoot() != readers[0].getRoot()
+						|| !Arrays.deepEquals(readers[idx].getTemplates(),
+								readers[0].getTemplates()))
+					throw new DatasetException(String.format(
+							"Model %s has different root or templates than %s",
+							sortedFileNames[idx], sortedFileNames[0]));
+			}
+
+			writer.writeHeader(readers[0].getRoot(), readers[0].getTemplates());
+
+			// Readers ordered by their current parameter.
+			PriorityQueue<SortedReader> queue = new PriorityQueue<SortedReader>(
+					Math.max(1, readers.length));
+			for (SortedReader reader : readers)
+				if (reader.getCurrent() != null)
+					queue.add(reader);
+
+			long numParameters = 0;
+			while (!queue.isEmpty()) {
+				SortedReader reader = queue.poll();
+				Parameter param = reader.getCurrent();
+				int template = param.template;
+				String[] values = param.values;
+				double sum = reader.weight * param.weight;
+				if (reader.next() != null)
+					queue.add(reader);
+
+				// Sum up the same parameter in the remaining models.
+				while (!queue.isEmpty()) {
+					SortedReader other = queue.peek();
+					Parameter otherParam = other.getCurrent();
+					if (compare(template, values, otherParam.template,
+							otherParam.values) != 0)
+						break;
+					queue.poll();
+					sum += other.weight * otherParam.weight;
+					if (other.next() != null)
+						queue.add(other);
+				}
+
+				writer.writeParameter(template, values, sum);
+				++numParameters;
+			}
+
+			writer.close();
+			return numParameters;
+		} finally {
+			for (SortedReader reader : readers)
+				if (reader != null)
+					reader.close();
+		}
+	}
+}
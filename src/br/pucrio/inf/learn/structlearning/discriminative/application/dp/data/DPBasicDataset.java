@@ -4,6 +4,8 @@ import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
@@ -13,7 +15,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.util.ArrayList;
@@ -26,10 +27,13 @@ import org.apache.commons.logging.LogFactory;
 
 import sun.reflect.generics.reflectiveObjects.NotImplementedException;
 import br.pucrio.inf.learn.structlearning.discriminative.data.DatasetException;
+import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleInputCodec;
 import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleInputArray;
 import br.pucrio.inf.learn.structlearning.discriminative.data.SimpleExampleInputArray;
 import br.pucrio.inf.learn.structlearning.discriminative.data.encoding.FeatureEncoding;
 import br.pucrio.inf.learn.structlearning.discriminative.data.encoding.StringMapEncoding;
+import br.pucrio.inf.learn.util.BinaryInput;
+import br.pucrio.inf.learn.util.BinaryOutput;
 
 /**
  * Represent a sequence of dependency parsing examples.
@@ -79,6 +83,11 @@ public class DPBasicDataset implements DPDataset {
 	 */
 	private int maxNumberOfTokens;
 
+	/**
+	 * Whether serialized examples are compressed.
+	 */
+	private boolean compressSerialization;
+
 	/**
 	 * Default constructor. Create an empty dataset with the default encoding
 	 * scheme: <code>StringMapEncoding</code>.
@@ -127,6 +136,16 @@ public class DPBasicDataset implements DPDataset {
 		return training;
 	}
 
+	/**
+	 * Set whether the examples written by <code>serialize(...)</code> are
+	 * compressed.
+	 * 
+	 * @param compress
+	 */
+	public void setSerializationCompression(boolean compress) {
+		this.compressSerialization = compress;
+	}
+
 	/**
 	 * @return the lenght of the longest sequence in this dataset.
 	 */
@@ -391,24 +410,37 @@ public class DPBasicDataset implements DPDataset {
 		return encoding;
 	}
 
+	/**
+	 * Serialize this dataset in the binary format of <code>DPInput.CODEC</code>
+	 * (see <code>serialize(String, String)</code>).
+	 */
 	@Override
 	public void serialize(String filename) throws FileNotFoundException,
 			IOException {
-		ObjectOutputStream os = new ObjectOutputStream(new FileOutputStream(
-				filename));
-		os.writeObject(inputs);
-		os.writeObject(outputs);
-		os.writeBoolean(training);
-		os.writeInt(maxNumberOfTokens);
-		os.close();
+		DataOutputStream os = openBinaryFile(filename);
+		BinaryOutput frame = new BinaryOutput();
+		for (int idx = 0; idx < outputs.length; ++idx)
+			writeBinaryExample(os, frame, (DPInput) inputs.get(idx),
+					outputs[idx]);
+		closeBinaryFile(os);
 	}
 
+	/**
+	 * Load the examples in the given file and serialize them to the output
+	 * file without keeping them in memory.
+	 * 
+	 * The output file starts with the header of <code>DPInput.CODEC</code>.
+	 * Each example is a frame with its length (four bytes), followed by the
+	 * input record and the heads of the output structure. An empty frame (of
+	 * length -1) ends the example list, and it is followed by the training
+	 * flag and the maximum number of tokens.
+	 */
 	@Override
 	public void serialize(String inFilename, String outFilename)
 			throws IOException, DatasetException {
 		BufferedReader reader = new BufferedReader(new FileReader(inFilename));
-		ObjectOutputStream os = new ObjectOutputStream(
-				new BufferedOutputStream(new FileOutputStream(outFilename)));
+		DataOutputStream os = openBinaryFile(outFilename);
+		BinaryOutput frame = new BinaryOutput();
 		List<DPInput> inputList = new LinkedList<DPInput>();
 		List<DPOutput> outputList = new LinkedList<DPOutput>();
 		int numExs = 0;
@@ -416,8 +448,7 @@ public class DPBasicDataset implements DPDataset {
 			if (inputList.size() > 0) {
 				DPInput input = inputList.remove(0);
 				DPOutput output = outputList.remove(0);
-				os.writeObject(input);
-				os.writeObject(output);
+				writeBinaryExample(os, frame, input, output);
 				++numExs;
 				if (numExs % 100 == 0) {
 					System.out.print(".");
@@ -425,18 +456,133 @@ public class DPBasicDataset implements DPDataset {
 				}
 			}
 		}
-		os.writeObject(new Boolean(training));
-		os.writeObject(new Integer(maxNumberOfTokens));
-		os.close();
+		closeBinaryFile(os);
 		reader.close();
 		LOG.info("Read " + numExs + " examples.");
 	}
 
+	/**
+	 * Create the given binary file and write its header.
+	 * 
+	 * @param filename
+	 * @return
+	 * @throws IOException
+	 */
+	private DataOutputStream openBinaryFile(String filename)
+			throws IOException {
+		DataOutputStream os = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(filename)));
+		BinaryOutput header = new BinaryOutput(ExampleInputCodec.HEADER_SIZE);
+		DPInput.CODEC.writeHeader(header, compressSerialization);
+		header.writeTo(os);
+		return os;
+	}
+
+	/**
+	 * Write one example frame to the given binary file.
+	 * 
+	 * @param os
+	 * @param frame
+	 *            buffer that is reused across examples.
+	 * @param input
+	 * @param output
+	 * @throws IOException
+	 */
+	private void writeBinaryExample(DataOutputStream os, BinaryOutput frame,
+			DPInput input, DPOutput output) throws IOException {
+		frame.clear();
+		BinaryOutput record = new BinaryOutput();
+		DPInput.CODEC.encodeRecord(input, compressSerialization, record);
+		frame.writeVarInt(record.size());
+		frame.writeBytes(record.getArray(), 0, record.size());
+		frame.writeCodes(output.getInvertedBranchingArray());
+		os.writeInt(frame.size());
+		frame.writeTo(os);
+	}
+
+	/**
+	 * Write the end of the example list and the dataset properties, and close
+	 * the given binary file.
+	 * 
+	 * @param os
+	 * @throws IOException
+	 */
+	private void closeBinaryFile(DataOutputStream os) throws IOException {
+		os.writeInt(-1);
+		os.writeBoolean(training);
+		os.writeInt(maxNumberOfTokens);
+		os.close();
+	}
+
+	/**
+	 * Load a dataset written by <code>serialize(...)</code>. Files written
+	 * with Java serialization (by previous versions) are also supported.
+	 */
 	@Override
 	public void deserialize(String filename) throws FileNotFoundException,
 			IOException, ClassNotFoundException {
-		ObjectInputStream is = new ObjectInputStream(new BufferedInputStream(
-				new FileInputStream(filename)));
+		BufferedInputStream in = new BufferedInputStream(new FileInputStream(
+				filename));
+		in.mark(4);
+		DataInputStream dis = new DataInputStream(in);
+		boolean binary = (dis.readInt() == ExampleInputCodec.MAGIC);
+		in.reset();
+		if (binary)
+			deserializeBinary(dis);
+		else
+			deserializeObjects(new ObjectInputStream(in));
+	}
+
+	/**
+	 * Load a dataset from the given binary stream.
+	 * 
+	 * @param is
+	 * @throws IOException
+	 */
+	private void deserializeBinary(DataInputStream is) throws IOException {
+		byte[] buffer = new byte[ExampleInputCodec.HEADER_SIZE];
+		is.readFully(buffer);
+		boolean compressed = DPInput.CODEC.readHeader(new BinaryInput(buffer));
+		List<DPInput> inputList = new ArrayList<DPInput>();
+		List<DPOutput> outputList = new ArrayList<DPOutput>();
+		BinaryInput frame = new BinaryInput(buffer);
+		int length;
+		while ((length = is.readInt()) >= 0) {
+			if (length > buffer.length)
+				buffer = new byte[Math.max(length, 2 * buffer.length)];
+			is.readFully(buffer, 0, length);
+			frame.reset(buffer, 0, length);
+			int recordLength = frame.readVarInt();
+			inputList.add((DPInput) DPInput.CODEC.decodeRecord(buffer,
+					frame.getPosition(), recordLength, compressed));
+			frame.reset(buffer, frame.getPosition() + recordLength, length
+					- frame.getPosition() - recordLength);
+			int[] heads = frame.readCodes();
+			DPOutput output = new DPOutput(heads.length);
+			for (int token = 0; token < heads.length; ++token)
+				output.setHead(token, heads[token]);
+			outputList.add(output);
+			if (inputList.size() % 100 == 0) {
+				System.out.print(".");
+				System.out.flush();
+			}
+		}
+		System.out.println();
+		training = is.readBoolean();
+		maxNumberOfTokens = is.readInt();
+		is.close();
+		setExamples(inputList, outputList);
+	}
+
+	/**
+	 * Load a dataset written with Java serialization.
+	 * 
+	 * @param is
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	private void deserializeObjects(ObjectInputStream is) throws IOException,
+			ClassNotFoundException {
 		List<DPInput> inputList = new LinkedList<DPInput>();
 		List<DPOutput> outputList = new LinkedList<DPOutput>();
 		int numExs = 0;
@@ -453,8 +599,22 @@ public class DPBasicDataset implements DPDataset {
 			}
 		}
 		System.out.println();
+		training = (Boolean) obj;
+		maxNumberOfTokens = (Integer) is.readObject();
+		is.close();
+		setExamples(inputList, outputList);
+	}
+
+	/**
+	 * Set the examples of this dataset.
+	 * 
+	 * @param inputList
+	 * @param outputList
+	 */
+	private void setExamples(List<DPInput> inputList, List<DPOutput> outputList)
+			throws IOException {
 		inputs = new SimpleExampleInputArray(inputList.size());
-		
+
 		for (DPInput dpInput : inputList) {
 			try {
 				inputs.put(dpInput);
@@ -464,9 +624,6 @@ public class DPBasicDataset implements DPDataset {
 			}
 		}
 		outputs = outputList.toArray(new DPOutput[0]);
-		training = (Boolean) obj;
-		maxNumberOfTokens = (Integer) is.readObject();
-		is.close();
 	}
 
 }
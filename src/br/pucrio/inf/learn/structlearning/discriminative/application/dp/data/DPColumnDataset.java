@@ -2,6 +2,7 @@ package br.pucrio.inf.learn.structlearning.discriminative.application.dp.data;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.FileWriter;
@@ -10,12 +11,19 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 
 import org.apache.commons.logging.Log;
@@ -130,6 +138,17 @@ public class DPColumnDataset implements DPDataset {
 	 */
 	private InvertedIndex invertedIndex;
 
+	/**
+	 * Number of threads used to generate features and to build the inverted
+	 * index.
+	 */
+	protected int numberOfThreads = 1;
+
+	/**
+	 * Indexes of the multi-valued features in the dataset being read.
+	 */
+	private Set<Integer> multiValuedFeatureIndexes;
+
 	/**
 	 * Punctuation file reader.
 	 */
@@ -180,6 +199,7 @@ public class DPColumnDataset implements DPDataset {
 		this.basicEncoding = sibling.basicEncoding;
 		this.explicitEncoding = sibling.explicitEncoding;
 		this.templates = sibling.templates;
+		this.numberOfThreads = sibling.numberOfThreads;
 	}
 
 	/**
@@ -229,6 +249,26 @@ public class DPColumnDataset implements DPDataset {
 		return explicitEncoding;
 	}
 
+	/**
+	 * Set the number of threads used to generate features and to build the
+	 * inverted index.
+	 * 
+	 * @param numberOfThreads
+	 */
+	public void setNumberOfThreads(int numberOfThreads) {
+		this.numberOfThreads = numberOfThreads;
+	}
+
+	/**
+	 * Return the number of threads used to generate features and to build the
+	 * inverted index.
+	 * 
+	 * @return
+	 */
+	public int getNumberOfThreads() {
+		return numberOfThreads;
+	}
+
 	/**
 	 * Return the optional inverted index that represents this corpus.
 	 * 
@@ -247,6 +287,30 @@ public class DPColumnDataset implements DPDataset {
 		this.invertedIndex = new InvertedIndex(this);
 	}
 
+	/**
+	 * Memory-map the inverted index stored in the given file. If the file does
+	 * not exist or it does not match this corpus, then create the index and
+	 * save it in this file to be reused in future runs.
+	 * 
+	 * @param fileName
+	 * @throws IOException
+	 */
+	public void createInvertedIndex(String fileName) throws IOException {
+		this.invertedIndex = null;
+		if (new File(fileName).exists()) {
+			LOG.info("Loading inverted index from " + fileName);
+			this.invertedIndex = InvertedIndex.load(fileName, this);
+			if (invertedIndex == null)
+				LOG.warn("Inverted index in " + fileName
+						+ " does not match the corpus. Rebuilding it...");
+		}
+		if (invertedIndex == null) {
+			this.invertedIndex = new InvertedIndex(this);
+			LOG.info("Saving inverted index to " + fileName);
+			this.invertedIndex.save(fileName);
+		}
+	}
+
 	/**
 	 * Return the punctuation file name.
 	 * 
@@ -311,31 +375,13 @@ public class DPColumnDataset implements DPDataset {
 	@Override
 	public void load(BufferedReader reader) throws IOException,
 			DatasetException {
-		// Punctuation file.
-		if (fileNamePunc != null)
-			readerPunc = new BufferedReader(new FileReader(fileNamePunc));
-
-		// Read feature labels in the first line of the file.
-		String line = reader.readLine();
-		reader.readLine();
-		int eq = line.indexOf('=');
-		int end = line.indexOf(']');
-		String[] labels = line.substring(eq + 1, end).split(",");
-		featureLabels = new String[labels.length - 2];
-		for (int i = 1; i < labels.length - 1; ++i)
-			featureLabels[i - 1] = labels[i].trim();
-
-		// Multi-valued features indexes.
-		Set<Integer> multiValuedFeaturesIndexes = new TreeSet<Integer>();
-		for (String label : multiValuedFeatures)
-			multiValuedFeaturesIndexes.add(getFeatureIndex(label));
+		openStream(reader);
 
 		// Examples.
 		List<DPInput> inputList = new LinkedList<DPInput>();
 		List<DPOutput> outputList = new LinkedList<DPOutput>();
 		int numExs = 0;
-		while (parseExample(reader, multiValuedFeaturesIndexes, "|", inputList,
-				outputList)) {
+		while (readExample(reader, inputList, outputList)) {
 			++numExs;
 			if ((numExs + 1) % 100 == 0) {
 				System.out.print(".");
@@ -352,11 +398,73 @@ public class DPColumnDataset implements DPDataset {
 		
 		outputs = outputList.toArray(new DPOutput[0]);
 
+		closeStream();
+
+		LOG.info("Read " + inputs.getNumberExamples() + " examples.");
+	}
+
+	/**
+	 * Read the header (feature labels) of a dataset from the given reader and
+	 * prepare this object to read its examples one by one through
+	 * <code>readExample(...)</code>. This is useful to process datasets that
+	 * do not fit in memory. The examples read in this way are not stored in
+	 * this dataset.
+	 * 
+	 * @param reader
+	 * @throws IOException
+	 */
+	public void openStream(BufferedReader reader) throws IOException {
+		// Punctuation file.
+		if (fileNamePunc != null)
+			readerPunc = new BufferedReader(new FileReader(fileNamePunc));
+
+		// Read feature labels in the first line of the file.
+		String line = reader.readLine();
+		reader.readLine();
+		int eq = line.indexOf('=');
+		int end = line.indexOf(']');
+		String[] labels = line.substring(eq + 1, end).split(",");
+		featureLabels = new String[labels.length - 2];
+		for (int i = 1; i < labels.length - 1; ++i)
+			featureLabels[i - 1] = labels[i].trim();
+
+		// Multi-valued features indexes.
+		multiValuedFeatureIndexes = new TreeSet<Integer>();
+		for (String label : multiValuedFeatures)
+			multiValuedFeatureIndexes.add(getFeatureIndex(label));
+	}
+
+	/**
+	 * Read the next example from the given reader, which must have been opened
+	 * by <code>openStream(BufferedReader)</code>, and append its input and
+	 * output structures to the given lists. If the reader contains no more
+	 * examples, the lists are not changed.
+	 * 
+	 * @param reader
+	 * @param inputList
+	 * @param outputList
+	 * @return <code>true</code> if there are more lines in the reader.
+	 * @throws IOException
+	 * @throws DatasetException
+	 */
+	public boolean readExample(BufferedReader reader,
+			List<DPInput> inputList, List<DPOutput> outputList)
+			throws IOException, DatasetException {
+		return parseExample(reader, multiValuedFeatureIndexes, "|", inputList,
+				outputList);
+	}
+
+	/**
+	 * Release the resources allocated by
+	 * <code>openStream(BufferedReader)</code>. The given reader itself is not
+	 * closed.
+	 * 
+	 * @throws IOException
+	 */
+	public void closeStream() throws IOException {
 		// Close punctuation file.
 		if (fileNamePunc != null)
 			readerPunc.close();
-
-		LOG.info("Read " + inputs.getNumberExamples() + " examples.");
 	}
 
 	@Override
@@ -816,6 +924,11 @@ public class DPColumnDataset implements DPDataset {
 	 * Generate features for the current template partition.
 	 */
 	public void generateFeatures() {
+		if (numberOfThreads > 1) {
+			generateFeaturesInParallel();
+			return;
+		}
+
 		LinkedList<Integer> ftrs = new LinkedList<Integer>();
 		FeatureTemplate[] tpls = templates[currentPartition];
 		int numExs = inputs.getNumberExamples();
@@ -878,6 +991,242 @@ public class DPColumnDataset implements DPDataset {
 		System.out.flush();
 	}
 
+	/**
+	 * Generate features for the current template partition using
+	 * <code>numberOfThreads</code> threads. Examples are split in contiguous
+	 * chunks and each chunk is featurised by one thread. Features that are not
+	 * in the explicit encoding yet receive temporary codes in a thread-local
+	 * encoding. Then, these features are included in the global encoding
+	 * following the order of the chunks, which results in exactly the same
+	 * codes as the sequential generation. Finally, the temporary codes are
+	 * replaced by the global ones, again in parallel.
+	 */
+	protected void generateFeaturesInParallel() {
+		final FeatureTemplate[] tpls = templates[currentPartition];
+		int numExs = inputs.getNumberExamples();
+		if (numExs == 0)
+			return;
+
+		// All inputs are needed at once.
+		DPInput[] exs = new DPInput[numExs];
+		inputs.loadInOrder();
+		for (int idxEx = 0; idxEx < numExs; ++idxEx)
+			exs[idxEx] = (DPInput) inputs.get(idxEx);
+
+		int numChunks = Math.min(numberOfThreads, numExs);
+		final FeaturisationChunk[] chunks = new FeaturisationChunk[numChunks];
+		for (int idxChunk = 0; idxChunk < numChunks; ++idxChunk)
+			chunks[idxChunk] = new FeaturisationChunk(exs, (int) ((long) numExs
+					* idxChunk / numChunks), (int) ((long) numExs
+					* (idxChunk + 1) / numChunks));
+
+		ExecutorService executor = Executors.newFixedThreadPool(numChunks);
+		try {
+			// Featurise each chunk with thread-local codes for new features.
+			List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(
+					numChunks);
+			for (final FeaturisationChunk chunk : chunks) {
+				tasks.add(new Callable<Object>() {
+					@Override
+					public Object call() throws Exception {
+						chunk.featurise(tpls);
+						return null;
+					}
+				});
+			}
+			invokeAll(executor, tasks);
+
+			// Merge thread-local features in the global encoding.
+			for (FeaturisationChunk chunk : chunks)
+				chunk.merge();
+
+			// Replace thread-local codes by global ones.
+			tasks.clear();
+			for (final FeaturisationChunk chunk : chunks) {
+				tasks.add(new Callable<Object>() {
+					@Override
+					public Object call() throws Exception {
+						chunk.remap();
+						return null;
+					}
+				});
+			}
+			invokeAll(executor, tasks);
+		} finally {
+			executor.shutdown();
+		}
+
+		System.out.println();
+		System.out.flush();
+	}
+
+	/**
+	 * Execute the given tasks and wait for them to finish. If any task throws
+	 * an exception, it is rethrown as an unchecked exception.
+	 * 
+	 * @param executor
+	 * @param tasks
+	 */
+	private static void invokeAll(ExecutorService executor,
+			List<Callable<Object>> tasks) {
+		try {
+			for (Future<Object> future : executor.invokeAll(tasks))
+				future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Feature generation interrupted", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Generating features", e.getCause());
+		}
+	}
+
+	/**
+	 * Contiguous range of examples featurised by one thread along with its
+	 * thread-local encoding of new features.
+	 */
+	private class FeaturisationChunk {
+		/**
+		 * All examples.
+		 */
+		private final DPInput[] exs;
+
+		/**
+		 * First example of this chunk.
+		 */
+		private final int begin;
+
+		/**
+		 * Example after the last one of this chunk.
+		 */
+		private final int end;
+
+		/**
+		 * Thread-local codes of features that are not in the global encoding.
+		 */
+		private HashMap<Feature, Integer> localCodes;
+
+		/**
+		 * Thread-local features in order of first occurrence.
+		 */
+		private ArrayList<Feature> localFeatures;
+
+		/**
+		 * Global code of each thread-local feature.
+		 */
+		private int[] globalCodes;
+
+		/**
+		 * Create a chunk for the given range of examples.
+		 * 
+		 * @param exs
+		 * @param begin
+		 * @param end
+		 */
+		public FeaturisationChunk(DPInput[] exs, int begin, int end) {
+			this.exs = exs;
+			this.begin = begin;
+			this.end = end;
+			this.localCodes = new HashMap<Feature, Integer>();
+			this.localFeatures = new ArrayList<Feature>();
+		}
+
+		/**
+		 * Generate the features of this chunk. Features that are not in the
+		 * global encoding receive the code <code>-(localCode + 2)</code>,
+		 * since -1 is reserved for unseen values.
+		 * 
+		 * @param tpls
+		 */
+		public void featurise(FeatureTemplate[] tpls) {
+			// Thread-local temporary instances of each template.
+			Feature[] tmpFtrs = new Feature[tpls.length];
+			for (int idxTpl = 0; idxTpl < tpls.length; ++idxTpl)
+				tmpFtrs[idxTpl] = new Feature(tpls[idxTpl].getIndex(),
+						new int[tpls[idxTpl].getFeatures().length]);
+
+			for (int idxEx = begin; idxEx < end; ++idxEx) {
+				DPInput input = exs[idxEx];
+				int numTkns = input.getNumberOfTokens();
+				input.allocFeatureMatrix();
+				for (int idxHead = 0; idxHead < numTkns; ++idxHead) {
+					for (int idxDep = 0; idxDep < numTkns; ++idxDep) {
+						int[] basicFtrs = input.getBasicFeatures(idxHead,
+								idxDep);
+						// Skip non-existent edges.
+						if (basicFtrs == null)
+							continue;
+						int[] ftrs = new int[tpls.length];
+						for (int idxTpl = 0; idxTpl < tpls.length; ++idxTpl) {
+							int[] tplFtrs = tpls[idxTpl].getFeatures();
+							Feature ftr = tmpFtrs[idxTpl];
+							int[] vals = ftr.getValues();
+							for (int idx = 0; idx < tplFtrs.length; ++idx)
+								vals[idx] = basicFtrs[tplFtrs[idx]];
+							// Concurrent reads only.
+							int code = explicitEncoding.getCodeByValue(ftr);
+							if (code == FeatureEncoding.UNSEEN_VALUE_CODE) {
+								Integer local = localCodes.get(ftr);
+								if (local == null) {
+									local = localFeatures.size();
+									Feature newFtr = new Feature(
+											ftr.getTemplateIndex(),
+											vals.clone());
+									localFeatures.add(newFtr);
+									localCodes.put(newFtr, local);
+								}
+								code = -(local + 2);
+							}
+							ftrs[idxTpl] = code;
+						}
+						input.setFeatures(idxHead, idxDep, ftrs);
+					}
+				}
+
+				// Progess report.
+				if ((idxEx - begin + 1) % 100 == 0) {
+					System.out.print('.');
+					System.out.flush();
+				}
+			}
+		}
+
+		/**
+		 * Include the thread-local features in the global encoding. This
+		 * method must be called sequentially for each chunk in order.
+		 */
+		public void merge() {
+			int numLocal = localFeatures.size();
+			globalCodes = new int[numLocal];
+			for (int local = 0; local < numLocal; ++local)
+				globalCodes[local] = explicitEncoding.put(localFeatures
+						.get(local));
+			localCodes = null;
+			localFeatures = null;
+		}
+
+		/**
+		 * Replace thread-local codes by global codes.
+		 */
+		public void remap() {
+			for (int idxEx = begin; idxEx < end; ++idxEx) {
+				DPInput input = exs[idxEx];
+				int numTkns = input.getNumberOfTokens();
+				for (int idxHead = 0; idxHead < numTkns; ++idxHead) {
+					for (int idxDep = 0; idxDep < numTkns; ++idxDep) {
+						int[] ftrs = input.getFeatures(idxHead, idxDep);
+						if (ftrs == null)
+							continue;
+						for (int idxFtr = 0; idxFtr < ftrs.length; ++idxFtr) {
+							int code = ftrs[idxFtr];
+							if (code < -1)
+								ftrs[idxFtr] = globalCodes[-code - 2];
+						}
+					}
+				}
+			}
+		}
+	}
+
 	/**
 	 * For testing.
 	 */
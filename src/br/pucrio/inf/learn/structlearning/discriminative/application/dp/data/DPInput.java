@@ -1,5 +1,6 @@
 package br.pucrio.inf.learn.structlearning.discriminative.application.dp.data;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.Collection;
 import java.util.Iterator;
@@ -8,7 +9,10 @@ import sun.reflect.generics.reflectiveObjects.NotImplementedException;
 import br.pucrio.inf.learn.structlearning.discriminative.application.dp.Feature;
 import br.pucrio.inf.learn.structlearning.discriminative.application.dp.FeatureTemplate;
 import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleInput;
+import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleInputCodec;
 import br.pucrio.inf.learn.structlearning.discriminative.data.encoding.FeatureEncoding;
+import br.pucrio.inf.learn.util.BinaryInput;
+import br.pucrio.inf.learn.util.BinaryOutput;
 
 /**
  * Input structure of a dependency parsing example. Represent a complete
@@ -25,6 +29,44 @@ public class DPInput implements ExampleInput, Serializable {
 	 */
 	private static final long serialVersionUID = -2050169475499863867L;
 
+	/**
+	 * Binary codec of this input type (see <code>write(BinaryOutput)</code>).
+	 */
+	public static final ExampleInputCodec CODEC = new ExampleInputCodec(
+			ExampleInputCodec.TYPE_DP) {
+		@Override
+		public void encode(ExampleInput input, BinaryOutput out)
+				throws IOException {
+			((DPInput) input).write(out);
+		}
+
+		@Override
+		public ExampleInput decode(BinaryInput in) throws IOException {
+			return read(in);
+		}
+	};
+
+	/**
+	 * Flag of the binary format indicating that derived features are present.
+	 */
+	private static final int HAS_FEATURES = 1;
+
+	/**
+	 * Flag of the binary format indicating that basic features are present.
+	 */
+	private static final int HAS_BASIC_FEATURES = 2;
+
+	/**
+	 * Flag of the binary format indicating that fixed weights are present.
+	 */
+	private static final int HAS_FIXED_WEIGHTS = 4;
+
+	/**
+	 * Flag of the binary format indicating that punctuation flags are
+	 * present.
+	 */
+	private static final int HAS_PUNCTUATION = 8;
+
 	/**
 	 * Number of tokens in this input structure.
 	 */
@@ -68,6 +110,13 @@ public class DPInput implements ExampleInput, Serializable {
 	 */
 	private int trainingIndex;
 
+	/**
+	 * Create an empty input structure to be filled by
+	 * <code>read(BinaryInput)</code>.
+	 */
+	private DPInput() {
+	}
+
 	/**
 	 * Create the input structure of a training example.
 	 * 
@@ -270,6 +319,18 @@ public class DPInput implements ExampleInput, Serializable {
 			edgeFeatures[idxFtr++] = ftr;
 	}
 
+	/**
+	 * Set the explicit features of the given edge. The given array is stored
+	 * as is (not copied).
+	 * 
+	 * @param idxHead
+	 * @param idxDep
+	 * @param edgeFeatures
+	 */
+	public void setFeatures(int idxHead, int idxDep, int[] edgeFeatures) {
+		features[idxHead][idxDep] = edgeFeatures;
+	}
+
 	/**
 	 * Generate derived features from basic features and the given templates.
 	 * 
@@ -494,4 +555,101 @@ public class DPInput implements ExampleInput, Serializable {
 		}
 	}
 
+	/**
+	 * Write this input to the given output. Feature matrices are written as
+	 * one array of delta-coded codes per edge (non-existing edges take one
+	 * byte).
+	 *
+	 * @param out
+	 */
+	public void write(BinaryOutput out) {
+		out.writeSignedVarInt(trainingIndex);
+		out.writeString(id);
+		out.writeVarInt(numberOfTokens);
+		int flags = 0;
+		if (features != null)
+			flags |= HAS_FEATURES;
+		if (basicFeatures != null)
+			flags |= HAS_BASIC_FEATURES;
+		if (fixedWeights != null)
+			flags |= HAS_FIXED_WEIGHTS;
+		if (punctuation != null)
+			flags |= HAS_PUNCTUATION;
+		out.writeByte(flags);
+		if (features != null)
+			writeMatrix(features, out);
+		if (basicFeatures != null)
+			writeMatrix(basicFeatures, out);
+		if (fixedWeights != null) {
+			for (double[] row : fixedWeights)
+				for (double weight : row)
+					out.writeDouble(weight);
+		}
+		if (punctuation != null) {
+			out.writeVarInt(punctuation.length);
+			for (boolean punc : punctuation)
+				out.writeBoolean(punc);
+		}
+	}
+
+	/**
+	 * Write the given matrix of feature codes.
+	 *
+	 * @param matrix
+	 * @param out
+	 */
+	private void writeMatrix(int[][][] matrix, BinaryOutput out) {
+		for (int idxHead = 0; idxHead < numberOfTokens; ++idxHead)
+			for (int idxDep = 0; idxDep < numberOfTokens; ++idxDep)
+				out.writeCodes(matrix[idxHead][idxDep]);
+	}
+
+	/**
+	 * Read an input written by <code>write(BinaryOutput)</code>.
+	 *
+	 * @param in
+	 * @return
+	 * @throws IOException
+	 */
+	public static DPInput read(BinaryInput in) throws IOException {
+		DPInput input = new DPInput();
+		input.trainingIndex = in.readSignedVarInt();
+		input.id = in.readString();
+		int numberOfTokens = in.readVarInt();
+		input.numberOfTokens = numberOfTokens;
+		int flags = in.readByte();
+		if ((flags & HAS_FEATURES) != 0)
+			input.features = readMatrix(numberOfTokens, in);
+		if ((flags & HAS_BASIC_FEATURES) != 0)
+			input.basicFeatures = readMatrix(numberOfTokens, in);
+		if ((flags & HAS_FIXED_WEIGHTS) != 0) {
+			input.fixedWeights = new double[numberOfTokens][numberOfTokens];
+			for (double[] row : input.fixedWeights)
+				for (int idx = 0; idx < row.length; ++idx)
+					row[idx] = in.readDouble();
+		}
+		if ((flags & HAS_PUNCTUATION) != 0) {
+			input.punctuation = new boolean[in.readVarInt()];
+			for (int idx = 0; idx < input.punctuation.length; ++idx)
+				input.punctuation[idx] = in.readBoolean();
+		}
+		return input;
+	}
+
+	/**
+	 * Read a matrix of feature codes.
+	 *
+	 * @param numberOfTokens
+	 * @param in
+	 * @return
+	 * @throws IOException
+	 */
+	private static int[][][] readMatrix(int numberOfTokens, BinaryInput in)
+			throws IOException {
+		int[][][] matrix = new int[numberOfTokens][numberOfTokens][];
+		for (int idxHead = 0; idxHead < numberOfTokens; ++idxHead)
+			for (int idxDep = 0; idxDep < numberOfTokens; ++idxDep)
+				matrix[idxHead][idxDep] = in.readCodes();
+		return matrix;
+	}
 }
@@ -1,11 +1,15 @@
 package br.pucrio.inf.learn.structlearning.discriminative.application.dp.data;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.Arrays;
 
 import sun.reflect.generics.reflectiveObjects.NotImplementedException;
 import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleInput;
 import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleOutput;
+import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleOutputCodec;
+import br.pucrio.inf.learn.util.BinaryInput;
+import br.pucrio.inf.learn.util.BinaryOutput;
 
 /**
  * Represent a branching of a complete graph of a sentence. Since each node in a
@@ -22,6 +26,35 @@ public class DPOutput implements ExampleOutput, Serializable {
 	 */
 	private static final long serialVersionUID = -8372776458147079713L;
 
+	/**
+	 * Binary codec of this output type. The heads are written as
+	 * variable-length integers.
+	 */
+	public static final ExampleOutputCodec CODEC = new ExampleOutputCodec(
+			ExampleOutputCodec.TYPE_DP) {
+		@Override
+		public void encode(ExampleOutput output, BinaryOutput out) {
+			int[] values = ((DPOutput) output).heads;
+			out.writeVarInt(values.length);
+			for (int value : values)
+				out.writeSignedVarInt(value);
+		}
+
+		@Override
+		public ExampleOutput decode(BinaryInput in) throws IOException {
+			DPOutput output = new DPOutput(in.readVarInt());
+			int[] values = output.heads;
+			for (int idx = 0; idx < values.length; ++idx)
+				values[idx] = in.readSignedVarInt();
+			return output;
+		}
+
+		@Override
+		public int size(ExampleOutput output) {
+			return ((DPOutput) output).heads.length;
+		}
+	};
+
 	/**
 	 * Indicate the head (parent) of each token in a sentence.
 	 */
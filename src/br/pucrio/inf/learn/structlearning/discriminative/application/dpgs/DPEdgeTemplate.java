@@ -1,9 +1,8 @@
 package br.pucrio.inf.learn.structlearning.discriminative.application.dpgs;
 
-import java.util.List;
-
 import br.pucrio.inf.learn.structlearning.discriminative.application.dp.Feature;
 import br.pucrio.inf.learn.structlearning.discriminative.data.encoding.MapEncoding;
+import br.pucrio.inf.learn.util.IntArrayList;
 
 public class DPEdgeTemplate extends DPGSTemplate {
 
@@ -33,7 +32,7 @@ public class DPEdgeTemplate extends DPGSTemplate {
 	 * @throws CloneNotSupportedException
 	 */
 	public void instantiateEdgeDerivedFeatures(DPGSInput input,
-			List<Integer> derivedFeatures, MapEncoding<Feature> encoding,
+			IntArrayList derivedFeatures, MapEncoding<Feature> encoding,
 			int idxHead, int idxModifier) throws CloneNotSupportedException {
 		int[][] basicFeatures = input
 				.getBasicEdgeFeatures(idxHead, idxModifier);
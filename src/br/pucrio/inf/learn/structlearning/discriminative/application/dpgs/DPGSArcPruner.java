@@ -0,0 +1,264 @@
+package br.pucrio.inf.learn.structlearning.discriminative.application.dpgs;
+
+import java.util.Arrays;
+
+/**
+ * First-order pruning of dependency arcs for grandparent/siblings models.
+ *
+ * Given the edge factor weights of a sentence, keep, for each modifier, only
+ * the <code>maxHeadsPerModifier</code> best scoring heads and, optionally,
+ * only heads whose score is not smaller than the best head score minus a
+ * margin. Higher-order (grandparent and siblings) factors are then considered
+ * only when all their (proper) arcs survive the pruning.
+ *
+ * Arcs from the root node are never pruned, which guarantees that a rooted
+ * tree always exists in the pruned graph.
+ *
+ * @author eraldo
+ *
+ */
+public class DPGSArcPruner {
+
+	/**
+	 * Index of the root node.
+	 */
+	private int root;
+
+	/**
+	 * Maximum number of candidate heads kept for each modifier.
+	 */
+	private int maxHeadsPerModifier;
+
+	/**
+	 * Heads whose score is smaller than the best head score minus this margin
+	 * are pruned. An infinite value disables this criterion.
+	 */
+	private double scoreMargin;
+
+	/**
+	 * Temporary array to select the best heads of a modifier.
+	 */
+	private double[] scores;
+
+	/**
+	 * Number of valid arcs seen by this pruner.
+	 */
+	private long numArcs;
+
+	/**
+	 * Number of valid arcs pruned by this pruner.
+	 */
+	private long numPrunedArcs;
+
+	/**
+	 * Create a pruner that keeps the given number of heads per modifier.
+	 *
+	 * @param root
+	 * @param maxHeadsPerModifier
+	 */
+	public DPGSArcPruner(int root, int maxHeadsPerModifier) {
+		this(root, maxHeadsPerModifier, Double.POSITIVE_INFINITY);
+	}
+
+	/**
+	 * Create a pruner that keeps the given number of heads per modifier and
+	 * prunes heads whose score is below the best one minus the given margin.
+	 *
+	 * @param root
+	 * @param maxHeadsPerModifier
+	 * @param scoreMargin
+	 */
+	public DPGSArcPruner(int root, int maxHeadsPerModifier, double scoreMargin) {
+		this.root = root;
+		this.maxHeadsPerModifier = maxHeadsPerModifier;
+		this.scoreMargin = scoreMargin;
+		this.scores = new double[0];
+	}
+
+	/**
+	 * Fill the array <code>allowedArcs</code> (indexed by (idxHead,
+	 * idxModifier)) with the arcs that survive pruning according to the given
+	 * edge scores. Invalid arcs (<code>NaN</code> scores) are never allowed.
+	 *
+	 * @param numTkns
+	 * @param edgeScores
+	 * @param allowedArcs
+	 */
+	public void prune(int numTkns, double[][] edgeScores,
+			boolean[][] allowedArcs) {
+		prune(numTkns, edgeScores, allowedArcs, null);
+	}
+
+	/**
+	 * Fill the array <code>allowedArcs</code> (indexed by (idxHead,
+	 * idxModifier)) with the arcs that survive pruning according to the given
+	 * edge scores. The arcs given by <code>requiredHeads</code> are never
+	 * pruned, which is needed during training, when the scores come from the
+	 * model being learned and the correct tree must remain reachable.
+	 *
+	 * @param numTkns
+	 * @param edgeScores
+	 * @param allowedArcs
+	 * @param requiredHeads
+	 *            head of each modifier whose arc is always allowed, or
+	 *            <code>null</code>.
+	 */
+	public void prune(int numTkns, double[][] edgeScores,
+			boolean[][] allowedArcs, int[] requiredHeads) {
+		if (scores.length < numTkns)
+			scores = new double[numTkns];
+
+		for (int idxModifier = 0; idxModifier < numTkns; ++idxModifier) {
+			// Collect the scores of the valid heads of this modifier.
+			int numHeads = 0;
+			double best = Double.NEGATIVE_INFINITY;
+			for (int idxHead = 0; idxHead < numTkns; ++idxHead) {
+				double score = edgeScores[idxHead][idxModifier];
+				if (idxHead == idxModifier || Double.isNaN(score))
+					continue;
+				scores[numHeads++] = score;
+				if (score > best)
+					best = score;
+			}
+
+			// Minimum score to keep a head.
+			double threshold = Double.NEGATIVE_INFINITY;
+			if (numHeads > maxHeadsPerModifier) {
+				Arrays.sort(scores, 0, numHeads);
+				threshold = scores[numHeads - maxHeadsPerModifier];
+			}
+			if (best - scoreMargin > threshold)
+				threshold = best - scoreMargin;
+
+			for (int idxHead = 0; idxHead < numTkns; ++idxHead) {
+				double score = edgeScores[idxHead][idxModifier];
+				if (idxHead == idxModifier || Double.isNaN(score)) {
+					allowedArcs[idxHead][idxModifier] = false;
+					continue;
+				}
+				boolean allowed = (idxHead == root || score >= threshold
+						|| (requiredHeads != null && requiredHeads[idxModifier] == idxHead));
+				allowedArcs[idxHead][idxModifier] = allowed;
+				++numArcs;
+				if (!allowed)
+					++numPrunedArcs;
+			}
+		}
+	}
+
+	/**
+	 * Prune the arcs of the given input according to the edge scores given by
+	 * the arc filter model <code>filterModel</code>. The edge scores are
+	 * computed from the basic features of the input, so the filter model must
+	 * be based on the same basic feature encoding.
+	 *
+	 * @param filterModel
+	 * @param input
+	 * @return an array indexed by (idxHead, idxModifier) that indicates the
+	 *         arcs that survive pruning.
+	 */
+	public boolean[][] prune(DPGSModel filterModel, DPGSInput input) {
+		return prune(filterModel, input, null);
+	}
+
+	/**
+	 * Prune the arcs of the given input according to the edge scores given by
+	 * the arc filter model <code>filterModel</code>. The arcs given by
+	 * <code>requiredHeads</code> are never pruned.
+	 *
+	 * @param filterModel
+	 * @param input
+	 * @param requiredHeads
+	 *            head of each modifier whose arc is always allowed, or
+	 *            <code>null</code>.
+	 * @return an array indexed by (idxHead, idxModifier) that indicates the
+	 *         arcs that survive pruning.
+	 */
+	public boolean[][] prune(DPGSModel filterModel, DPGSInput input,
+			int[] requiredHeads) {
+		int numTkns = input.size();
+		double[][] edgeScores = new double[numTkns][numTkns];
+		for (int idxHead = 0; idxHead < numTkns; ++idxHead)
+			for (int idxModifier = 0; idxModifier < numTkns; ++idxModifier)
+				edgeScores[idxHead][idxModifier] = filterModel
+						.getEdgeScoreFromBasicFeatures(input, idxHead,
+								idxModifier);
+		boolean[][] allowedArcs = new boolean[numTkns][numTkns];
+		prune(numTkns, edgeScores, allowedArcs, requiredHeads);
+		return allowedArcs;
+	}
+
+	/**
+	 * Fill <code>allowedArcs</code> according to the given edge factor weights
+	 * and set the weights of pruned arcs to <code>NaN</code>.
+	 *
+	 * @param numTkns
+	 * @param edgeFactorWeights
+	 * @param allowedArcs
+	 */
+	public void pruneEdgeFactorWeights(int numTkns,
+			double[][] edgeFactorWeights, boolean[][] allowedArcs) {
+		pruneEdgeFactorWeights(numTkns, edgeFactorWeights, allowedArcs, null);
+	}
+
+	/**
+	 * Fill <code>allowedArcs</code> according to the given edge factor weights
+	 * and set the weights of pruned arcs to <code>NaN</code>. The arcs given by
+	 * <code>requiredHeads</code> are never pruned.
+	 *
+	 * @param numTkns
+	 * @param edgeFactorWeights
+	 * @param allowedArcs
+	 * @param requiredHeads
+	 *            head of each modifier whose arc is always allowed, or
+	 *            <code>null</code>.
+	 */
+	public void pruneEdgeFactorWeights(int numTkns,
+			double[][] edgeFactorWeights, boolean[][] allowedArcs,
+			int[] requiredHeads) {
+		prune(numTkns, edgeFactorWeights, allowedArcs, requiredHeads);
+		for (int idxHead = 0; idxHead < numTkns; ++idxHead)
+			for (int idxModifier = 0; idxModifier < numTkns; ++idxModifier)
+				if (!allowedArcs[idxHead][idxModifier])
+					edgeFactorWeights[idxHead][idxModifier] = Double.NaN;
+	}
+
+	/**
+	 * Return whether the arc (idxHead, idxModifier) survived pruning. The
+	 * special START/END indexes used by siblings factors (<code>idxHead</code>
+	 * and <code>numTkns</code>) are always allowed. If
+	 * <code>allowedArcs</code> is <code>null</code>, no pruning is performed.
+	 *
+	 * @param allowedArcs
+	 * @param numTkns
+	 * @param idxHead
+	 * @param idxModifier
+	 * @return
+	 */
+	public static boolean isAllowed(boolean[][] allowedArcs, int numTkns,
+			int idxHead, int idxModifier) {
+		if (allowedArcs == null || idxHead == idxModifier
+				|| idxModifier == numTkns)
+			return true;
+		return allowedArcs[idxHead][idxModifier];
+	}
+
+	/**
+	 * Return the fraction of valid arcs that have been pruned so far.
+	 *
+	 * @return
+	 */
+	public double getPrunedArcsRatio() {
+		if (numArcs == 0)
+			return 0d;
+		return ((double) numPrunedArcs) / numArcs;
+	}
+
+	public int getMaxHeadsPerModifier() {
+		return maxHeadsPerModifier;
+	}
+
+	public double getScoreMargin() {
+		return scoreMargin;
+	}
+}
@@ -21,7 +21,8 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
-import java.util.regex.Matcher;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.regex.Pattern;
 
 import org.apache.commons.logging.Log;
@@ -31,6 +32,7 @@ import sun.reflect.generics.reflectiveObjects.NotImplementedException;
 import br.pucrio.inf.learn.structlearning.discriminative.data.CacheExampleInputArray;
 import br.pucrio.inf.learn.structlearning.discriminative.data.Dataset;
 import br.pucrio.inf.learn.structlearning.discriminative.data.DatasetException;
+import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleInput;
 import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleInputArray;
 import br.pucrio.inf.learn.structlearning.discriminative.data.encoding.FeatureEncoding;
 import br.pucrio.inf.learn.structlearning.discriminative.data.encoding.StringMapEncoding;
@@ -53,18 +55,6 @@ public class DPGSDataset implements Dataset {
 	 */
 	private static Log LOG = LogFactory.getLog(DPGSDataset.class);
 
-	/**
-	 * Regular expression pattern to parse spaces.
-	 */
-	protected final Pattern REGEX_SPACE = Pattern.compile("[ ]");
-
-	/**
-	 * Regular expression pattern to parse factor identification and capture its
-	 * parameters.
-	 */
-	protected final Pattern REGEX_ID = Pattern
-			.compile("^(E|G|S|LEN)\\((\\d+),(\\d+),(\\d+)\\)$");
-
 	/**
 	 * Encoding for basic textual features (column-format features).
 	 */
@@ -125,6 +115,22 @@ public class DPGSDataset implements Dataset {
 	 */
 	protected String separatorFeatureValues;
 
+	/**
+	 * Whether the examples stored in the disk cache are compressed.
+	 */
+	protected boolean compressCache;
+
+	/**
+	 * Whether the derived features of the correct arcs are generated even
+	 * when the model arc pruner would prune them.
+	 */
+	protected boolean keepCorrectArcs;
+
+	/**
+	 * Number of threads used to parse factor files.
+	 */
+	protected int numberOfLoadThreads = 1;
+
 	/**
 	 * Create an empty dataset with the given multi-valued basic features for
 	 * grandparent and siblings factors.
@@ -204,6 +210,8 @@ public class DPGSDataset implements Dataset {
 		this.multiValuedGrandparentFeatures = dataset.multiValuedGrandparentFeatures;
 		this.multiValuedSiblingsFeatures = dataset.multiValuedSiblingsFeatures;
 		this.separatorFeatureValues = dataset.separatorFeatureValues;
+		this.compressCache = dataset.compressCache;
+		this.numberOfLoadThreads = dataset.numberOfLoadThreads;
 	}
 
 	/**
@@ -213,6 +221,41 @@ public class DPGSDataset implements Dataset {
 		return featureLabelsGrandparent.length;
 	}
 
+	/**
+	 * Set whether the examples stored in the disk cache (see
+	 * <code>loadExamplesAndGenerate(...)</code>) are compressed.
+	 * 
+	 * @param compressCache
+	 */
+	public void setCacheCompression(boolean compressCache) {
+		this.compressCache = compressCache;
+	}
+
+	/**
+	 * Set whether the derived features of the correct arcs are generated by
+	 * <code>loadExamplesAndGenerate(...)</code> even when the model arc pruner
+	 * would prune them. This must be enabled for training datasets, so that
+	 * the correct structures remain reachable, and disabled for evaluation
+	 * datasets. This setting is not copied to sibling datasets.
+	 * 
+	 * @param keepCorrectArcs
+	 */
+	public void setKeepCorrectArcs(boolean keepCorrectArcs) {
+		this.keepCorrectArcs = keepCorrectArcs;
+	}
+
+	/**
+	 * Set the number of threads used to parse factor files in
+	 * <code>loadExamplesAndGenerate(...)</code>. Feature encoding and
+	 * generation are always sequential, thus the loaded examples do not
+	 * depend on this value.
+	 * 
+	 * @param numberOfLoadThreads
+	 */
+	public void setNumberOfLoadThreads(int numberOfLoadThreads) {
+		this.numberOfLoadThreads = numberOfLoadThreads;
+	}
+
 	public ExampleInputArray getDPGSInputArray() {
 		return inputs;
 	}
@@ -398,82 +441,112 @@ public class DPGSDataset implements Dataset {
 			model.loadLeftSiblingsTemplates(templatesFilename[2], this);
 			model.loadRightSiblingsTemplates(templatesFilename[3], this);
 		}
-		boolean existExample = true;
 		DPGSInput input;
 		DPGSOutput output;
 		int numberExample = 0;
 
 		if (inputs == null) {
-			inputs = new CacheExampleInputArray(cacheSize, fileNameSaveInputs);
+			CacheExampleInputArray cachedInputs = new CacheExampleInputArray(
+					cacheSize, fileNameSaveInputs,
+					CacheExampleInputArray.DEFAULT_LOOK_AHEAD, DPGSInput.CODEC,
+					compressCache);
+			// Evicted inputs must not be kept alive by the lazy cache.
+			final DPGSModel lazyModel = model;
+			cachedInputs
+					.setEvictionListener(new CacheExampleInputArray.EvictionListener() {
+						@Override
+						public void evicted(int index, ExampleInput input) {
+							lazyModel.releaseDerivedFeatures((DPGSInput) input);
+						}
+					});
+			inputs = cachedInputs;
 		}
 
 		System.out.println("Load examples");
-		do {
-			
-			numberExample = listInput.size();
-			
-			existExample &= parseExample(readerEdge,
-					multiValuedFeaturesIndexesEdge, listInput, listOutput,
-					null, null);
-			
-			if(numberExample == listInput.size()){
-				parseExample(readerGrandParent,
-						multiValuedFeaturesIndexesGrandparent, listInput,
-						listOutput, null, null);
-				
-				if (listInput.size() != numberExample) {
-					throw new DatasetException(
-							"The numbers of instances of grandparent file is different of edges file");
-				}
-				
-				parseExample(readerLeftSiblings,
-						multiValuedFeaturesIndexesGrandparent, listInput,
-						listOutput, null, null);
-
-				if (listInput.size() != numberExample) {
-					throw new DatasetException(
-							"The numbers of instances of left siblings file is different of edges file");
-				}
-				parseExample(readerRightSiblings,
-						multiValuedFeaturesIndexesGrandparent, listInput,
-						listOutput, null, null);
-
-				if (listInput.size() != numberExample) {
-					throw new DatasetException(
-							"The numbers of instances of right siblings file is different of edges file");
-				}
-
-			} else {
-
-				input = listInput.get(numberExample);
-				output = listOutput.get(numberExample);
-
-				parseExample(readerGrandParent,
-						multiValuedFeaturesIndexesGrandparent, null, null,
-						input, output);
-				
-				parseExample(readerLeftSiblings,
-						multiValuedFeaturesIndexesLS, null, null, input, output);
-				parseExample(readerRightSiblings,
-						multiValuedFeaturesIndexesRS, null, null, input, output);
 
-				model.generateFeaturesOneInput(input);
-				input.cleanBasicFeatures();
+		/*
+		 * Factor files are parsed by a pool of threads, but feature values are
+		 * encoded here, in the order of the examples, so that feature codes do
+		 * not depend on the number of threads.
+		 */
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1,
+				numberOfLoadThreads));
+		int maxPendingChunks = 2 * numberOfLoadThreads + 2;
+		DPGSFactorFileReader factorsEdge = new DPGSFactorFileReader(
+				readerEdge, multiValuedFeaturesIndexesEdge,
+				separatorFeatureValues, executor, maxPendingChunks);
+		DPGSFactorFileReader factorsGrandParent = new DPGSFactorFileReader(
+				readerGrandParent, multiValuedFeaturesIndexesGrandparent,
+				separatorFeatureValues, executor, maxPendingChunks);
+		DPGSFactorFileReader factorsLeftSiblings = new DPGSFactorFileReader(
+				readerLeftSiblings, multiValuedFeaturesIndexesLS,
+				separatorFeatureValues, executor, maxPendingChunks);
+		DPGSFactorFileReader factorsRightSiblings = new DPGSFactorFileReader(
+				readerRightSiblings, multiValuedFeaturesIndexesRS,
+				separatorFeatureValues, executor, maxPendingChunks);
+		try {
+			DPGSFactorBlock blockEdge;
+			while ((blockEdge = factorsEdge.next()) != null) {
+				DPGSFactorBlock blockGrandParent = factorsGrandParent.next();
+				DPGSFactorBlock blockLeftSiblings = factorsLeftSiblings.next();
+				DPGSFactorBlock blockRightSiblings = factorsRightSiblings
+						.next();
+
+				if (blockEdge.isEmpty()) {
+					// Extra blank line. The other files must agree.
+					if (blockGrandParent != null && !blockGrandParent.isEmpty())
+						throw new DatasetException(
+								"The numbers of instances of grandparent file is different of edges file");
+					if (blockLeftSiblings != null
+							&& !blockLeftSiblings.isEmpty())
+						throw new DatasetException(
+								"The numbers of instances of left siblings file is different of edges file");
+					if (blockRightSiblings != null
+							&& !blockRightSiblings.isEmpty())
+						throw new DatasetException(
+								"The numbers of instances of right siblings file is different of edges file");
+				} else {
+					numberExample = listInput.size();
+					input = fillExample(blockEdge, listInput, listOutput,
+							null, null);
+					output = listOutput.get(numberExample);
+
+					if (blockGrandParent != null)
+						fillExample(blockGrandParent, null, null, input,
+								output);
+					if (blockLeftSiblings != null)
+						fillExample(blockLeftSiblings, null, null, input,
+								output);
+					if (blockRightSiblings != null)
+						fillExample(blockRightSiblings, null, null, input,
+								output);
+
+					if (!model.isLazyFeatureGeneration()) {
+						model.generateFeaturesOneInput(input,
+								keepCorrectArcs ? output : null);
+						input.cleanBasicFeatures();
+					}
 
-				inputs.put(input);
+					inputs.put(input);
 
-				// Clean input of memory
-				listInput.set(numberExample, null);
-				input = null;
+					// Clean input of memory
+					listInput.set(numberExample, null);
+					input = null;
 
-				numberExample++;
+					numberExample++;
 
-				if (numberExample % 100 == 0 && numberExample != 0) {
-					System.out.print(".");
-				}	
+					if (numberExample % 100 == 0 && numberExample != 0) {
+						System.out.print(".");
+					}
+				}
 			}
-			
-		} while (existExample);
+		} finally {
+			factorsEdge.close();
+			factorsGrandParent.close();
+			factorsLeftSiblings.close();
+			factorsRightSiblings.close();
+			executor.shutdownNow();
+		}
 
 		System.out.println("");
 
@@ -783,6 +856,61 @@ public class DPGSDataset implements Dataset {
 			Set<Integer> multiValuedFeatureIndexes, List<DPGSInput> inputList,
 			List<DPGSOutput> outputList, DPGSInput input, DPGSOutput output)
 			throws IOException, DatasetException, DPGSException {
+		// Read lines up to a blank line.
+		List<String> lines = new ArrayList<String>();
+		String line;
+		while ((line = reader.readLine()) != null) {
+			line = line.trim();
+			if (line.length() == 0)
+				// Stop on blank lines.
+				break;
+			lines.add(line);
+		}
+
+		DPGSFactorBlock block = new DPGSFactorBlock(lines,
+				inputList == null ? -1 : inputList.size(),
+				DPGSFactorBlock.toFlags(multiValuedFeatureIndexes),
+				DPGSFactorBlock.toLiteral(separatorFeatureValues),
+				Pattern.compile(separatorFeatureValues));
+		fillExample(block, inputList, outputList, input, output);
+
+		// Return true if there are more lines.
+		return line != null;
+	}
+
+	/**
+	 * Encode the basic features of the given parsed example and fill the
+	 * corresponding input and output structures. Feature values are encoded
+	 * in the order of the factors in the file, thus the encoding does not
+	 * depend on how examples are parsed (see
+	 * <code>parseExample(...)</code>).
+	 * 
+	 * @param block
+	 *            the parsed example. If it is empty, nothing is done.
+	 * @param inputList
+	 *            the list of input structures to store the new input.
+	 * @param outputList
+	 *            the list of output structures to store the new output.
+	 * @param input
+	 *            if inputList and outputList are null, this value will give the
+	 *            input structure corresponding to the given example.
+	 * @param output
+	 *            if inputList and outputList are null, this value will give the
+	 *            output structure corresponding to the given example.
+	 * @return the input structure or <code>null</code> if the given example is
+	 *         empty.
+	 * @throws DatasetException
+	 *             if there is a semantic issue.
+	 * @throws DPGSException
+	 */
+	protected DPGSInput fillExample(DPGSFactorBlock block,
+			List<DPGSInput> inputList, List<DPGSOutput> outputList,
+			DPGSInput input, DPGSOutput output) throws DatasetException,
+			DPGSException {
+		if (block.isEmpty())
+			// Extra empty line or end of file.
+			return null;
+
 		/*
 		 * List of factors for one example. Each factor is a list of lists of
 		 * integer arrays. Feature values can be multi-valued. Thus, each
@@ -795,106 +923,9 @@ public class DPGSDataset implements Dataset {
 		// Parameters of correct factors.
 		LinkedList<int[]> correctFactors = new LinkedList<int[]>();
 
-		// Number of tokens in the sentence.
-		int numTokens = -1;
-
-		// Maximum token index.
-		int maxTokenIndex = -1;
-
-		// Number of features.
-		int numFeatures = -1;
-
-		// Read lines up to a blank line.
-		String line;
-		while ((line = reader.readLine()) != null) {
-
-			line = line.trim();
-			if (line.length() == 0)
-				// Stop on blank lines.
-				break;
-
-			// Split factor in feature values.
-			String[] ftrValues = REGEX_SPACE.split(line);
-
-			// Check (or set) number of features.
-			if (numFeatures == -1)
-				numFeatures = ftrValues.length;
-			else if (numFeatures != ftrValues.length)
-				throw new DatasetException(
-						String.format(
-								"Number of features in example %d is equal to %d but should be %d",
-								inputList.size(), ftrValues.length, numFeatures));
-
-			int[] idFactor = new int[4];
-			idFactor[0] = -1;
-
-			// Factor ID: type and parameters (index).
-			Matcher m = REGEX_ID.matcher(ftrValues[0]);
-			if (!m.matches())
-				throw new DatasetException(
-						String.format(
-								"ID (%s) of the factor does not match "
-										+ "expected format which is TYPE(IDX1,IDX2,IDX3)",
-								ftrValues[0]));
-
-			/*
-			 * First parameter is the factor type: E (edge), G (grandparent), S
-			 * (siblings) or LEN (sentence length).
-			 */
-			String type = m.group(1);
-			if ("E".equals(type))
-				idFactor[0] = 0;
-			else if ("G".equals(type))
-				idFactor[0] = 1;
-			else if ("S".equals(type))
-				idFactor[0] = 2;
-			else if ("LEN".equals(type))
-				// Special factor just to indicate the length of the sentence.
-				idFactor[0] = -1;
-			else
-				throw new DatasetException(String.format(
-						"Factor type should be E, G, S or LEN, but it is %s",
-						type));
-
-			// Factor remaining parameters.
-			idFactor[1] = Integer.parseInt(m.group(2));
-			idFactor[2] = Integer.parseInt(m.group(3));
-			idFactor[3] = Integer.parseInt(m.group(4));
-
-			if (idFactor[0] == -1) {
-				/*
-				 * For LEN factors, all parameters are equal to the sentence
-				 * length.
-				 */
-				if (idFactor[1] - 1 > maxTokenIndex)
-					maxTokenIndex = idFactor[1] - 1;
-				// LEN factor is useful only to indicate the sentence length.
-				continue;
-			} else if (idFactor[0] == 0) {
-				// For E factors, the last parameter is the sentence length.
-				if (idFactor[3] - 1 > maxTokenIndex)
-					maxTokenIndex = idFactor[3] - 1;
-			} else if (idFactor[0] == 1) {
-				// For G factors, all parameters are ordinary token indexes.
-				if (idFactor[1] > maxTokenIndex)
-					maxTokenIndex = idFactor[1];
-				if (idFactor[2] > maxTokenIndex)
-					maxTokenIndex = idFactor[2];
-				if (idFactor[3] > maxTokenIndex)
-					maxTokenIndex = idFactor[3];
-			} else if (idFactor[0] == 2) {
-				/*
-				 * For S factors, the first parameter is an ordinary token index
-				 * but the remaining parameters can be equal to the sentence
-				 * lenght.
-				 */
-				if (idFactor[1] > maxTokenIndex)
-					maxTokenIndex = idFactor[1];
-				if (idFactor[2] - 1 > maxTokenIndex)
-					maxTokenIndex = idFactor[2] - 1;
-				if (idFactor[3] - 1 > maxTokenIndex)
-					maxTokenIndex = idFactor[3] - 1;
-			}
+		int numFactors = block.getNumberOfFactors();
+		for (int idxFactor = 0; idxFactor < numFactors; ++idxFactor) {
+			int[] idFactor = block.getParams(idxFactor);
 
 			// Factor features.
 			LinkedList<int[]> factor = new LinkedList<int[]>();
@@ -903,49 +934,23 @@ public class DPGSDataset implements Dataset {
 			factor.add(idFactor);
 
 			// Encode the factor basic features.
-			for (int idxFtr = 1; idxFtr < numFeatures - 1; ++idxFtr) {
-				int[] vals;
-				String str = ftrValues[idxFtr];
-				if (multiValuedFeatureIndexes.contains(idxFtr)) {
-					// Split multi-valued feature.
-					String[] valsStr = str.split(separatorFeatureValues);
-					vals = new int[valsStr.length];
-					for (int idxVal = 0; idxVal < vals.length; ++idxVal)
-						vals[idxVal] = basicEncoding.put(new String(
-								valsStr[idxVal]));
-				} else {
-					// Single-valued feature.
-					vals = new int[1];
-					vals[0] = basicEncoding.put(new String(str));
-				}
+			for (String[] valsStr : block.getValues(idxFactor)) {
+				int[] vals = new int[valsStr.length];
+				for (int idxVal = 0; idxVal < vals.length; ++idxVal)
+					vals[idxVal] = basicEncoding.put(valsStr[idxVal]);
 				factor.add(vals);
 			}
 
-			// The last value is the correct factor flag: Y or N.
-			String isCorrectEdge = ftrValues[numFeatures - 1];
-			if (isCorrectEdge.equals("Y")) {
-				// Add factor parameters to the list of correct factors.
+			// Add factor parameters to the list of correct factors.
+			if (block.isCorrect(idxFactor))
 				correctFactors.add(idFactor);
-			} else if (!isCorrectEdge.equals("N")) {
-				// Flag is neither Y nor N.
-				throw new DatasetException(String.format(
-						"Last feature value must be Y or N to indicate "
-								+ "the correct edge. However, for factor "
-								+ " %s(%d,%d,%d) this feature value is %s ",
-						type, idFactor[1], idFactor[2], idFactor[3],
-						isCorrectEdge));
-			}
 
 			// Add built factor.
 			factors.add(factor);
 		}
 
-		if (maxTokenIndex == -1)
-			// Extra empty line or end of file (when line == null).
-			return line != null;
-
-		if (numTokens == -1)
-			numTokens = maxTokenIndex + 1;
+		// Number of tokens in the sentence.
+		int numTokens = block.getMaxTokenIndex() + 1;
 
 		if (input == null) {
 			// Id is just the example index.
@@ -1016,8 +1021,7 @@ public class DPGSDataset implements Dataset {
 			outputList.add(output);
 		}
 
-		// Return true if there are more lines.
-		return line != null;
+		return input;
 	}
 
 	/**
@@ -15,8 +15,8 @@ import br.pucrio.inf.learn.structlearning.discriminative.algorithm.passiveagress
 import br.pucrio.inf.learn.structlearning.discriminative.application.sequence.AveragedParameter;
 import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleInput;
 import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleOutput;
-import br.pucrio.inf.learn.structlearning.discriminative.task.Inference;
 import br.pucrio.inf.learn.structlearning.discriminative.task.Model;
+import br.pucrio.inf.learn.structlearning.discriminative.task.WorkspaceInference;
 import br.pucrio.inf.learn.util.gsmaxbranching.MaximumGrandparentSiblingsAlgorithm;
 import br.pucrio.inf.learn.util.maxbranching.DirectedMaxBranchAlgorithm;
 
@@ -35,12 +35,48 @@ import br.pucrio.inf.learn.util.maxbranching.DirectedMaxBranchAlgorithm;
  * @author eraldo
  * 
  */
-public class DPGSDualInference implements Inference {
+public class DPGSDualInference implements WorkspaceInference {
 	/**
 	 * Log object.
 	 */
 	private final static Log LOG = LogFactory.getLog(DPGSDualInference.class);
 
+	/**
+	 * Available strategies to set the step size of the subgradient method.
+	 */
+	public static enum StepSizeStrategy {
+		/**
+		 * The step size is equal to lambda / (1 + k), where lambda is the
+		 * initial step size and k is the number of times that the dual
+		 * objective has increased so far. This is the original rule of this
+		 * class.
+		 */
+		DUAL_INCREMENTS,
+
+		/**
+		 * Polyak step size: (dual - primal) / ||g||^2, where primal is the
+		 * weight of the best parse found so far (a known lower bound on the
+		 * optimum) and g is the current subgradient.
+		 */
+		POLYAK,
+
+		/**
+		 * The step size starts equal to lambda and is multiplied by a
+		 * decrease factor whenever the dual objective does not improve
+		 * (decrease) in a step.
+		 */
+		ADAPTIVE,
+
+		/**
+		 * Augmented-Lagrangian-like penalty step size. The step is equal to a
+		 * penalty parameter eta, which is adapted as in AD3 (Martins et al.,
+		 * ICML-2011) by balancing the primal residual (disagreements between
+		 * the subproblems) and the dual residual (changes in the parse tree
+		 * between consecutive steps).
+		 */
+		AUGMENTED_LAGRANGIAN
+	}
+
 	/**
 	 * Chu-Liu-Edmonds algoritmo to maximum branching.
 	 */
@@ -133,6 +169,53 @@ public class DPGSDualInference implements Inference {
 	private int numSubGradSteps;
 	public boolean provedOtimo;
 
+	/**
+	 * Pruner used to discard unlikely arcs based on the edge factor weights.
+	 * Grandparent and siblings factors of pruned arcs are not scored. If
+	 * <code>null</code>, no pruning is performed.
+	 */
+	private DPGSArcPruner arcPruner;
+
+	/**
+	 * Arcs that survived pruning in the current inference, indexed by
+	 * (idxHead, idxModifier). It is <code>null</code> when pruning is off.
+	 */
+	private boolean[][] allowedArcs;
+
+	/**
+	 * Strategy used to set the step size in each subgradient step.
+	 */
+	private StepSizeStrategy stepSizeStrategy;
+
+	/**
+	 * The subgradient method stops whenever the duality gap (the dual
+	 * objective minus the weight of the best parse found so far) is not larger
+	 * than this tolerance. A zero value disables this stopping criterion.
+	 */
+	private double gapTolerance;
+
+	/**
+	 * Factor multiplied to the step size by the <code>ADAPTIVE</code>
+	 * strategy whenever the dual objective does not improve.
+	 */
+	private double stepDecreaseFactor;
+
+	/**
+	 * Number of predictions stopped by an optimality certificate (agreement
+	 * between the subproblems).
+	 */
+	private int numOptimumCertificates;
+
+	/**
+	 * Number of predictions stopped by the duality gap tolerance.
+	 */
+	private int numGapStops;
+
+	/**
+	 * Sum of the final duality gaps of all predictions.
+	 */
+	private double sumDualityGaps;
+
 	/**
 	 * Create a grandparent/sibling inference object that allocates the internal
 	 * data structures to support the given maximum number of tokens.
@@ -162,6 +245,10 @@ public class DPGSDualInference implements Inference {
 
 		maxNumberOfSubgradientSteps = 2;
 		maxBranchAlgorithm.setOnlyPositiveEdges(false);
+
+		stepSizeStrategy = StepSizeStrategy.DUAL_INCREMENTS;
+		gapTolerance = 0d;
+		stepDecreaseFactor = 0.5d;
 	}
 
 	/**
@@ -170,6 +257,7 @@ public class DPGSDualInference implements Inference {
 	 * 
 	 * @param maxNumberOfTokens
 	 */
+	@Override
 	public void realloc(int maxNumberOfTokens) {
 		// Maximum branching algorithm.
 		maxBranchAlgorithm.realloc(maxNumberOfTokens);
@@ -186,6 +274,24 @@ public class DPGSDualInference implements Inference {
 		// Dual variables.
 		dualGrandparentVariables = new double[maxNumberOfTokens][maxNumberOfTokens];
 		dualModifierVariables = new double[maxNumberOfTokens][maxNumberOfTokens];
+		// Pruning matrix is reallocated on demand.
+		allowedArcs = null;
+	}
+
+	@Override
+	public int getNumberOfTokens(ExampleInput input) {
+		return ((DPGSInput) input).size();
+	}
+
+	/**
+	 * Enlarge the internal data structures if the given number of tokens does
+	 * not fit in them.
+	 * 
+	 * @param numberOfTokens
+	 */
+	private void ensureCapacity(int numberOfTokens) {
+		if (edgeFactorWeights.length < numberOfTokens)
+			realloc(numberOfTokens);
 	}
 
 	/**
@@ -201,11 +307,17 @@ public class DPGSDualInference implements Inference {
 	 *            structure.
 	 */
 	public void inference(DPGSModel model, DPGSInput input, DPGSOutput output) {
+		ensureCapacity(input.size());
+
+		// Derived features may be generated on demand.
+		model.ensureDerivedFeatures(input);
+
 		// Clear dual variables.
 		clearDualVars(input.size());
 
 		// Generate inference problem for the given input.
 		fillEdgeFactorWeights(model, input);
+		pruneArcs(input.size(), null);
 		fillGraph(input.size());
 		copyGraph();
 		fillGrandparentFactorWeights(model, input, null, 0d);
@@ -229,11 +341,17 @@ public class DPGSDualInference implements Inference {
 	public void lossAugmentedInference(DPGSModel model, DPGSInput input,
 			DPGSOutput referenceOutput, DPGSOutput predictedOutput,
 			double lossWeight) {
+		ensureCapacity(input.size());
+
+		// Derived features may be generated on demand.
+		model.ensureDerivedFeatures(input, referenceOutput);
+
 		// Clear dual variables.
 		clearDualVars(input.size());
 
 		// Generate loss-augmented inference problem for the given input.
 		fillEdgeFactorWeights(model, input);
+		pruneArcs(input.size(), referenceOutput);
 		fillGraph(input.size());
 		fillGrandparentFactorWeights(model, input, referenceOutput, lossWeight);
 		fillSiblingsFactorWeights(model, input);
@@ -318,13 +436,65 @@ public class DPGSDualInference implements Inference {
 		double outputWeight = treeWeight;
 		this.provedOtimo = false;
 
+		// Step size used by the ADAPTIVE and AUGMENTED_LAGRANGIAN strategies.
+		double currentStepSize = lambda;
+		// Parse tree in the previous step (AUGMENTED_LAGRANGIAN strategy).
+		int[] prevHeads = output.getHeads().clone();
+		// Number of heads that changed in the last step.
+		int numChangedHeads = 0;
+
 		for (step = 0; step < maxNumberOfSubgradientSteps; ++step) {
 
+			// Stop if the duality gap is small enough.
+			if (gapTolerance > 0d
+					&& dualObjectiveValue - bestOutputWeight <= gapTolerance) {
+				++numGapStops;
+				LOG.info(String.format(
+						"Duality gap %f within tolerance at step %d",
+						dualObjectiveValue - bestOutputWeight, step));
+				break;
+			}
+
 			// Number of subgradient steps performed.
 			++numSubGradSteps;
 
+			// Squared norm of the current subgradient.
+			int numDisagreements = countDisagreements(output, numTkns);
+
 			// Step size.
-			double stepSize = lambda / (1 + numDualObjectiveIncrements);
+			double stepSize;
+			switch (stepSizeStrategy) {
+			case POLYAK:
+				stepSize = (dualObjectiveValue - bestOutputWeight)
+						/ Math.max(1, numDisagreements);
+				if (stepSize <= 0d)
+					// Numerical issues: fallback to the original rule.
+					stepSize = lambda / (1 + numDualObjectiveIncrements);
+				break;
+			case ADAPTIVE:
+				stepSize = currentStepSize;
+				break;
+			case AUGMENTED_LAGRANGIAN:
+				if (step > 0) {
+					/*
+					 * Residual balancing: increase the penalty when the
+					 * subproblems disagree much more than the parse changes
+					 * and decrease it in the opposite case.
+					 */
+					double primalResidual = Math.sqrt(numDisagreements);
+					double dualResidual = currentStepSize
+							* Math.sqrt(numChangedHeads);
+					if (primalResidual > 10 * dualResidual)
+						currentStepSize *= 2;
+					else if (dualResidual > 10 * primalResidual)
+						currentStepSize /= 2;
+				}
+				stepSize = currentStepSize;
+				break;
+			default:
+				stepSize = lambda / (1 + numDualObjectiveIncrements);
+				break;
+			}
 
 			// Update dual variables.
 			boolean updated = false;
@@ -368,6 +538,7 @@ public class DPGSDualInference implements Inference {
 
 			if (!updated) {
 				this.provedOtimo = true;
+				++numOptimumCertificates;
 				
 				if (Math.abs(dualObjectiveValue - outputWeight) > 1.0e-8) {
 					LOG.error("A arvore foram consideradas iguais, porém possuem pesos diferentes." + "Dual objective : " + dualObjectiveValue
@@ -418,8 +589,13 @@ public class DPGSDualInference implements Inference {
 			copyGraph();
 
 			// Fill the maximum branching for the current dual values.
+			System.arraycopy(output.getHeads(), 0, prevHeads, 0, numTkns);
 			maxBranchAlgorithm.findMaxBranching(numTkns, graph,
 					output.getHeads());
+			numChangedHeads = 0;
+			for (int tkn = 0; tkn < numTkns; ++tkn)
+				if (prevHeads[tkn] != output.getHead(tkn))
+					++numChangedHeads;
 
 			dualObjectiveValue = getGraphWeight(output, numTkns);
 
@@ -471,6 +647,11 @@ public class DPGSDualInference implements Inference {
 				 */
 				++numDualObjectiveIncrements;
 
+			if (stepSizeStrategy == StepSizeStrategy.ADAPTIVE
+					&& dualObjectiveValue >= prevDualObjectiveValue)
+				// The dual objective did not improve: decrease step size.
+				currentStepSize *= stepDecreaseFactor;
+
 			// Store the dual objective value for the previous solution.
 			prevDualObjectiveValue = dualObjectiveValue;
 
@@ -485,11 +666,37 @@ public class DPGSDualInference implements Inference {
 						grandparentFactorWeights, siblingsFactorWeights, null,
 						null)));
 
+		// Accumulate the final duality gap.
+		sumDualityGaps += Math.max(0d, dualObjectiveValue - bestOutputWeight);
+
 		// Copy the best parse tree to the output structure.
 		for (int tkn = 0; tkn < numTkns; ++tkn)
 			output.setHead(tkn, bestOutput[tkn]);
 	}
 
+	/**
+	 * Count the number of edge variables whose values differ between the parse
+	 * structure and the grandparent/siblings structures. This is the squared
+	 * norm of the current subgradient.
+	 * 
+	 * @param output
+	 * @param numTkns
+	 * @return
+	 */
+	private int countDisagreements(DPGSOutput output, int numTkns) {
+		int count = 0;
+		for (int idxHead = 0; idxHead < numTkns; ++idxHead) {
+			for (int idxModifier = 0; idxModifier < numTkns; ++idxModifier) {
+				boolean isBranching = (output.getHead(idxModifier) == idxHead);
+				if ((output.getGrandparent(idxModifier) == idxHead) != isBranching)
+					++count;
+				if (output.isModifier(idxHead, idxModifier) != isBranching)
+					++count;
+			}
+		}
+		return count;
+	}
+
 	private void copyGraph() {
 		// Copy Graph Values
 		for (int i = 0; i < graph.length; i++) {
@@ -541,11 +748,11 @@ public class DPGSDualInference implements Inference {
 		int numTkns = input.size();
 		for (int idxHead = 0; idxHead < numTkns; ++idxHead)
 			for (int idxModifier = 0; idxModifier < numTkns; ++idxModifier) {
-				int[] ftrs = input.getEdgeFeatures(idxHead, idxModifier);
+				int factor = input.getEdgeFactor(idxHead, idxModifier);
 
-				if (ftrs != null)
+				if (factor >= 0)
 					edgeFactorWeights[idxHead][idxModifier] = convertNan(model
-							.getFeatureListScore(ftrs));
+							.getFeatureListScore(input, factor));
 				else
 					edgeFactorWeights[idxHead][idxModifier] = convertNan(Double.NaN);
 			}
@@ -602,15 +809,22 @@ public class DPGSDualInference implements Inference {
 				double lossWeightEdge = 0d;
 				if (loss && correct.getHead(idxModifier) != idxHead)
 					lossWeightEdge = lossWeight;
+				// Pruned edge.
+				boolean allowed = DPGSArcPruner.isAllowed(allowedArcs,
+						numTkns, idxHead, idxModifier);
 				// Fill factor weights for each grandparent.
 				for (int idxGrandparent = 0; idxGrandparent < numTkns; ++idxGrandparent) {
 					// Get list of features for the current siblings factor.
-					int[] ftrs = input.getGrandparentFeatures(idxHead,
-							idxModifier, idxGrandparent);
-					if (ftrs != null) {
+					int factor = -1;
+					if (allowed
+							&& DPGSArcPruner.isAllowed(allowedArcs, numTkns,
+									idxGrandparent, idxHead))
+						factor = input.getGrandparentFactor(idxHead,
+								idxModifier, idxGrandparent);
+					if (factor >= 0) {
 						// Sum feature weights to achieve the factor weight.
 						grandparentFactorWeightsHeadModifier[idxGrandparent] = convertNan(model
-								.getFeatureListScore(ftrs));
+								.getFeatureListScore(input, factor));
 						// Loss value for the current edge.
 						grandparentFactorWeightsHeadModifier[idxGrandparent] += convertNan(lossWeightEdge);
 					} else
@@ -647,12 +861,19 @@ public class DPGSDualInference implements Inference {
 				 * (idxHead).
 				 */
 				int firstModifier = (idxModifier <= idxHead ? 0 : idxHead + 1);
+				// Pruned edge.
+				boolean allowed = DPGSArcPruner.isAllowed(allowedArcs,
+						numTkns, idxHead, idxModifier);
 				for (int idxPreviousModifier = firstModifier; idxPreviousModifier < idxModifier; ++idxPreviousModifier) {
-					int[] ftrs = input.getSiblingsFeatures(idxHead,
-							idxModifier, idxPreviousModifier);
-					if (ftrs != null)
+					int factor = -1;
+					if (allowed
+							&& DPGSArcPruner.isAllowed(allowedArcs, numTkns,
+									idxHead, idxPreviousModifier))
+						factor = input.getSiblingsFactor(idxHead, idxModifier,
+								idxPreviousModifier);
+					if (factor >= 0)
 						siblingsFactorWeightsHeadModifier[idxPreviousModifier] = convertNan(model
-								.getFeatureListScore(ftrs));
+								.getFeatureListScore(input, factor));
 					else
 						siblingsFactorWeightsHeadModifier[idxPreviousModifier] = convertNan(Double.NaN);
 				}
@@ -668,11 +889,13 @@ public class DPGSDualInference implements Inference {
 				 * it is numTkns) of the current head (idxHead).
 				 */
 				int idxSTART = (idxModifier <= idxHead ? idxHead : numTkns);
-				int[] ftrs = input.getSiblingsFeatures(idxHead, idxModifier,
-						idxSTART);
-				if (ftrs != null)
+				int factor = -1;
+				if (allowed)
+					factor = input.getSiblingsFactor(idxHead, idxModifier,
+							idxSTART);
+				if (factor >= 0)
 					siblingsFactorWeightsHeadModifier[idxSTART] = convertNan(model
-							.getFeatureListScore(ftrs));
+							.getFeatureListScore(input, factor));
 				else
 					siblingsFactorWeightsHeadModifier[idxSTART] = convertNan(Double.NaN);
 			}
@@ -682,6 +905,36 @@ public class DPGSDualInference implements Inference {
 		siblingsFactorWeights[0][0][0] = 0.0d;
 	}
 
+	/**
+	 * Set the pruner used to discard unlikely arcs before scoring the
+	 * grandparent and siblings factors. A <code>null</code> value turns
+	 * pruning off.
+	 * 
+	 * @param arcPruner
+	 */
+	public void setArcPruner(DPGSArcPruner arcPruner) {
+		this.arcPruner = arcPruner;
+		this.allowedArcs = null;
+	}
+
+	/**
+	 * Prune the arcs of the current input according to the edge factor
+	 * weights, if an arc pruner is set. The arcs of the given correct output,
+	 * if any, are never pruned.
+	 * 
+	 * @param numTkns
+	 * @param correct
+	 *            correct output during training or <code>null</code>.
+	 */
+	private void pruneArcs(int numTkns, DPGSOutput correct) {
+		if (arcPruner == null)
+			return;
+		if (allowedArcs == null || allowedArcs.length < numTkns)
+			allowedArcs = new boolean[edgeFactorWeights.length][edgeFactorWeights.length];
+		arcPruner.pruneEdgeFactorWeights(numTkns, edgeFactorWeights,
+				allowedArcs, correct == null ? null : correct.getHeads());
+	}
+
 	/**
 	 * Clear the values of the dual variables.
 	 * 
@@ -762,9 +1015,85 @@ public class DPGSDualInference implements Inference {
 	}
 
 	public double getAverageSubGradStepsPerPrediction() {
+		if (numPredictions == 0)
+			return 0d;
 		return ((double) numSubGradSteps) / ((double) numPredictions);
 	}
 
+	/**
+	 * Return the average duality gap at the end of the predictions, or zero
+	 * if no prediction has been performed.
+	 * 
+	 * @return
+	 */
+	public double getAverageDualityGap() {
+		if (numPredictions == 0)
+			return 0d;
+		return sumDualityGaps / numPredictions;
+	}
+
+	/**
+	 * Log the convergence statistics of the predictions performed so far.
+	 */
+	public void logStatistics() {
+		LOG.info(String
+				.format("Step size %s: %d predictions, %f steps per prediction, "
+						+ "%d optimum certificates, %d gap stops, "
+						+ "average duality gap %f", stepSizeStrategy,
+						numPredictions, getAverageSubGradStepsPerPrediction(),
+						numOptimumCertificates, numGapStops,
+						getAverageDualityGap()));
+	}
+
+	/**
+	 * Clear the convergence statistics.
+	 */
+	public void resetStatistics() {
+		numPredictions = 0;
+		numSubGradSteps = 0;
+		numOptimumCertificates = 0;
+		numGapStops = 0;
+		sumDualityGaps = 0d;
+	}
+
+	public StepSizeStrategy getStepSizeStrategy() {
+		return stepSizeStrategy;
+	}
+
+	/**
+	 * Set the strategy used to set the step size of the subgradient method.
+	 * 
+	 * @param stepSizeStrategy
+	 */
+	public void setStepSizeStrategy(StepSizeStrategy stepSizeStrategy) {
+		this.stepSizeStrategy = stepSizeStrategy;
+	}
+
+	public double getGapTolerance() {
+		return gapTolerance;
+	}
+
+	/**
+	 * Set the duality gap tolerance. The subgradient method stops as soon as
+	 * the difference between the dual objective and the best primal solution
+	 * is not larger than this value. Zero disables this criterion.
+	 * 
+	 * @param gapTolerance
+	 */
+	public void setGapTolerance(double gapTolerance) {
+		this.gapTolerance = gapTolerance;
+	}
+
+	/**
+	 * Set the factor used by the <code>ADAPTIVE</code> strategy to decrease
+	 * the step size whenever the dual objective does not improve.
+	 * 
+	 * @param stepDecreaseFactor
+	 */
+	public void setStepDecreaseFactor(double stepDecreaseFactor) {
+		this.stepDecreaseFactor = stepDecreaseFactor;
+	}
+
 	/**
 	 * Test code.
 	 * 
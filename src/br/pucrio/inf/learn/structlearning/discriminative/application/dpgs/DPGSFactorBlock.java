@@ -0,0 +1,408 @@
+package br.pucrio.inf.learn.structlearning.discriminative.application.dpgs;
+
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import br.pucrio.inf.learn.structlearning.discriminative.data.DatasetException;
+
+/**
+ * Factors of one example of a factor file (edge, grandparent or siblings),
+ * as parsed from its lines but before the encoding of feature values. An
+ * example is a block of non-blank lines (see
+ * <code>DPGSDataset.parseExample(...)</code> for the format).
+ *
+ * Parsing is independent of the dataset state, so that blocks can be parsed
+ * concurrently (see <code>DPGSFactorFileReader</code>) and encoded later in
+ * the file order. Lines are tokenized by hand, without regular expressions.
+ *
+ * @author eraldo
+ *
+ */
+public class DPGSFactorBlock {
+
+	/**
+	 * Maximum token index referenced by the factors of this block or -1 if
+	 * the block is empty.
+	 */
+	private int maxTokenIndex;
+
+	/**
+	 * Number of factors.
+	 */
+	private int numberOfFactors;
+
+	/**
+	 * Parameters of each factor: type, idx1, idx2 and idx3.
+	 */
+	private int[][] params;
+
+	/**
+	 * Basic feature values of each factor. Each feature comprises one or more
+	 * values (multi-valued features).
+	 */
+	private String[][][] values;
+
+	/**
+	 * Whether each factor is part of the correct structure.
+	 */
+	private boolean[] correct;
+
+	/**
+	 * Parse the given lines of one example.
+	 *
+	 * @param lines
+	 *            non-blank (trimmed) lines of the example.
+	 * @param index
+	 *            index of the block in the file (used in error messages).
+	 * @param multiValued
+	 *            which features (columns) are multi-valued.
+	 * @param separator
+	 *            literal separator of values in multi-valued features, or
+	 *            <code>null</code> if it is not a literal.
+	 * @param separatorPattern
+	 *            separator of values in multi-valued features, used when it is
+	 *            not a literal.
+	 * @throws DatasetException
+	 */
+	public DPGSFactorBlock(List<String> lines, int index,
+			boolean[] multiValued, String separator, Pattern separatorPattern)
+			throws DatasetException {
+		this.maxTokenIndex = -1;
+		int numLines = lines.size();
+		params = new int[numLines][];
+		values = new String[numLines][][];
+		correct = new boolean[numLines];
+
+		int numFeatures = -1;
+		String[] ftrValues = null;
+		for (String line : lines) {
+			// Split factor in feature values.
+			int numValues = countFields(line);
+			if (numFeatures == -1) {
+				numFeatures = numValues;
+				ftrValues = new String[numFeatures];
+			} else if (numFeatures != numValues)
+				throw new DatasetException(
+						String.format(
+								"Number of features in example %d is equal to %d but should be %d",
+								index, numValues, numFeatures));
+			splitFields(line, ftrValues);
+
+			// Factor ID: type and parameters (index).
+			int[] idFactor = parseId(ftrValues[0]);
+
+			if (idFactor[0] == -1) {
+				/*
+				 * For LEN factors, all parameters are equal to the sentence
+				 * length.
+				 */
+				if (idFactor[1] - 1 > maxTokenIndex)
+					maxTokenIndex = idFactor[1] - 1;
+				// LEN factor is useful only to indicate the sentence length.
+				continue;
+			} else if (idFactor[0] == 0) {
+				// For E factors, the last parameter is the sentence length.
+				if (idFactor[3] - 1 > maxTokenIndex)
+					maxTokenIndex = idFactor[3] - 1;
+			} else if (idFactor[0] == 1) {
+				// For G factors, all parameters are ordinary token indexes.
+				maxTokenIndex = Math.max(maxTokenIndex, Math.max(idFactor[1],
+						Math.max(idFactor[2], idFactor[3])));
+			} else {
+				/*
+				 * For S factors, the first parameter is an ordinary token index
+				 * but the remaining parameters can be equal to the sentence
+				 * lenght.
+				 */
+				maxTokenIndex = Math.max(maxTokenIndex, Math.max(idFactor[1],
+						Math.max(idFactor[2] - 1, idFactor[3] - 1)));
+			}
+
+			// Basic features (the last value is the correct factor flag).
+			String[][] factorValues = new String[numFeatures - 2][];
+			for (int idxFtr = 1; idxFtr < numFeatures - 1; ++idxFtr) {
+				String str = ftrValues[idxFtr];
+				String[] vals;
+				if (idxFtr < multiValued.length && multiValued[idxFtr])
+					vals = splitValues(str, separator, separatorPattern);
+				else
+					vals = new String[] { str };
+				for (int idxVal = 0; idxVal < vals.length; ++idxVal) {
+					/*
+					 * Detach the value from the line and compute its hash code
+					 * here, so that the (sequential) encoding of values just
+					 * looks them up.
+					 */
+					vals[idxVal] = new String(vals[idxVal]);
+					vals[idxVal].hashCode();
+				}
+				factorValues[idxFtr - 1] = vals;
+			}
+
+			// The last value is the correct factor flag: Y or N.
+			String isCorrect = ftrValues[numFeatures - 1];
+			boolean isY = isCorrect.length() == 1 && isCorrect.charAt(0) == 'Y';
+			if (!isY
+					&& !(isCorrect.length() == 1 && isCorrect.charAt(0) == 'N'))
+				throw new DatasetException(String.format(
+						"Last feature value must be Y or N to indicate "
+								+ "the correct edge. However, for factor "
+								+ " %s this feature value is %s ",
+						ftrValues[0], isCorrect));
+
+			params[numberOfFactors] = idFactor;
+			values[numberOfFactors] = factorValues;
+			correct[numberOfFactors] = isY;
+			++numberOfFactors;
+		}
+	}
+
+	/**
+	 * Return whether this block has no factor, i.e., it does not define an
+	 * example.
+	 *
+	 * @return
+	 */
+	public boolean isEmpty() {
+		return maxTokenIndex == -1;
+	}
+
+	/**
+	 * Return the maximum token index referenced by the factors of this block.
+	 *
+	 * @return
+	 */
+	public int getMaxTokenIndex() {
+		return maxTokenIndex;
+	}
+
+	/**
+	 * Return the number of factors (LEN factors excluded).
+	 *
+	 * @return
+	 */
+	public int getNumberOfFactors() {
+		return numberOfFactors;
+	}
+
+	/**
+	 * Return the parameters (type, idx1, idx2, idx3) of the given factor.
+	 *
+	 * @param factor
+	 * @return
+	 */
+	public int[] getParams(int factor) {
+		return params[factor];
+	}
+
+	/**
+	 * Return the basic feature values of the given factor. Values are
+	 * detached from the file lines and have their hash codes computed.
+	 *
+	 * @param factor
+	 * @return
+	 */
+	public String[][] getValues(int factor) {
+		return values[factor];
+	}
+
+	/**
+	 * Return whether the given factor is part of the correct structure.
+	 *
+	 * @param factor
+	 * @return
+	 */
+	public boolean isCorrect(int factor) {
+		return correct[factor];
+	}
+
+	/**
+	 * Return the number of space-separated fields in the given line.
+	 * Consecutive spaces delimit empty fields.
+	 *
+	 * @param line
+	 * @return
+	 */
+	private static int countFields(String line) {
+		int count = 1;
+		int length = line.length();
+		for (int idx = 0; idx < length; ++idx)
+			if (line.charAt(idx) == ' ')
+				++count;
+		return count;
+	}
+
+	/**
+	 * Split the given line by spaces into the given array, which must have
+	 * the number of fields of the line.
+	 *
+	 * @param line
+	 * @param fields
+	 */
+	private static void splitFields(String line, String[] fields) {
+		int begin = 0;
+		int idxField = 0;
+		int length = line.length();
+		for (int idx = 0; idx < length; ++idx) {
+			if (line.charAt(idx) == ' ') {
+				fields[idxField++] = line.substring(begin, idx);
+				begin = idx + 1;
+			}
+		}
+		fields[idxField] = line.substring(begin);
+	}
+
+	/**
+	 * Split the given multi-valued feature. The result is the same as
+	 * <code>String.split(...)</code>, i.e., trailing empty values are
+	 * removed.
+	 *
+	 * @param str
+	 * @param separator
+	 * @param separatorPattern
+	 * @return
+	 */
+	private static String[] splitValues(String str, String separator,
+			Pattern separatorPattern) {
+		if (separator == null)
+			return separatorPattern.split(str);
+		int pos = str.indexOf(separator);
+		if (pos < 0)
+			return new String[] { str };
+
+		// Count values, ignoring trailing empty ones.
+		int sepLength = separator.length();
+		int count = 0;
+		int numNonEmpty = 0;
+		int begin = 0;
+		while (true) {
+			int end = pos < 0 ? str.length() : pos;
+			++count;
+			if (end > begin)
+				numNonEmpty = count;
+			if (pos < 0)
+				break;
+			begin = pos + sepLength;
+			pos = str.indexOf(separator, begin);
+		}
+
+		String[] vals = new String[numNonEmpty];
+		begin = 0;
+		for (int idx = 0; idx < numNonEmpty; ++idx) {
+			int end = str.indexOf(separator, begin);
+			if (end < 0)
+				end = str.length();
+			vals[idx] = str.substring(begin, end);
+			begin = end + sepLength;
+		}
+		return vals;
+	}
+
+	/**
+	 * Parse a factor ID of the form TYPE(IDX1,IDX2,IDX3), where TYPE is E, G,
+	 * S or LEN, and return an array with the factor type (0, 1, 2 or -1,
+	 * respectively) and the three indexes.
+	 *
+	 * @param id
+	 * @return
+	 * @throws DatasetException
+	 */
+	private static int[] parseId(String id) throws DatasetException {
+		int[] idFactor = new int[4];
+		int open = id.indexOf('(');
+		if (open == 1 && id.charAt(0) == 'E')
+			idFactor[0] = 0;
+		else if (open == 1 && id.charAt(0) == 'G')
+			idFactor[0] = 1;
+		else if (open == 1 && id.charAt(0) == 'S')
+			idFactor[0] = 2;
+		else if (open == 3 && id.startsWith("LEN"))
+			idFactor[0] = -1;
+		else
+			throw idFormatException(id);
+
+		int pos = open + 1;
+		for (int idxParam = 1; idxParam <= 3; ++idxParam) {
+			char delimiter = idxParam < 3 ? ',' : ')';
+			long value = 0;
+			int begin = pos;
+			while (pos < id.length()) {
+				char c = id.charAt(pos);
+				if (c < '0' || c > '9')
+					break;
+				value = 10 * value + (c - '0');
+				if (value > Integer.MAX_VALUE)
+					throw idFormatException(id);
+				++pos;
+			}
+			if (pos == begin || pos == id.length()
+					|| id.charAt(pos) != delimiter)
+				throw idFormatException(id);
+			idFactor[idxParam] = (int) value;
+			++pos;
+		}
+		if (pos != id.length())
+			throw idFormatException(id);
+		return idFactor;
+	}
+
+	/**
+	 * Create the exception for an ill-formed factor ID.
+	 *
+	 * @param id
+	 * @return
+	 */
+	private static DatasetException idFormatException(String id) {
+		return new DatasetException(String.format(
+				"ID (%s) of the factor does not match "
+						+ "expected format which is TYPE(IDX1,IDX2,IDX3)", id));
+	}
+
+	/**
+	 * Return an array of flags indicating which features are multi-valued.
+	 *
+	 * @param multiValuedFeatureIndexes
+	 * @return
+	 */
+	public static boolean[] toFlags(Set<Integer> multiValuedFeatureIndexes) {
+		int maxIndex = 0;
+		for (int idx : multiValuedFeatureIndexes)
+			if (idx > maxIndex)
+				maxIndex = idx;
+		boolean[] multiValued = new boolean[maxIndex + 1];
+		for (int idx : multiValuedFeatureIndexes)
+			if (idx >= 0)
+				multiValued[idx] = true;
+		return multiValued;
+	}
+
+	/**
+	 * Return the literal string matched by the given regular expression, or
+	 * <code>null</code> if it is not a literal (escaped metacharacters are
+	 * accepted).
+	 *
+	 * @param regex
+	 * @return
+	 */
+	public static String toLiteral(String regex) {
+		StringBuilder literal = new StringBuilder(regex.length());
+		for (int idx = 0; idx < regex.length(); ++idx) {
+			char c = regex.charAt(idx);
+			if (c == '\\') {
+				if (idx + 1 == regex.length())
+					return null;
+				char next = regex.charAt(++idx);
+				if (Character.isLetterOrDigit(next))
+					return null;
+				literal.append(next);
+			} else if (".$|()[]{}^?*+".indexOf(c) >= 0)
+				return null;
+			else
+				literal.append(c);
+		}
+		if (literal.length() == 0)
+			return null;
+		return literal.toString();
+	}
+}
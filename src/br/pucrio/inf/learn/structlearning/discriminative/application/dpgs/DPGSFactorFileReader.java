@@ -0,0 +1,270 @@
+package br.pucrio.inf.learn.structlearning.discriminative.application.dpgs;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.regex.Pattern;
+
+import br.pucrio.inf.learn.structlearning.discriminative.data.DatasetException;
+
+/**
+ * Read the examples (blocks of factors) of a factor file in parallel. A
+ * reader thread splits the file in chunks of blocks and submits each chunk to
+ * be parsed by the given executor. Parsed blocks are returned by
+ * <code>next()</code> in the file order.
+ *
+ * The number of chunks that are read ahead of the consumer is bounded, so
+ * that memory usage does not depend on the file size.
+ *
+ * @author eraldo
+ *
+ */
+public class DPGSFactorFileReader {
+
+	/**
+	 * Number of blocks in each chunk submitted to the executor.
+	 */
+	private static final int CHUNK_SIZE = 32;
+
+	/**
+	 * Parsed chunks in the file order. The end of the file is indicated by a
+	 * chunk whose result is <code>null</code>.
+	 */
+	private final BlockingQueue<Future<DPGSFactorBlock[]>> chunks;
+
+	/**
+	 * Thread that reads the file and submits chunks.
+	 */
+	private final Thread readerThread;
+
+	/**
+	 * Current chunk.
+	 */
+	private DPGSFactorBlock[] chunk;
+
+	/**
+	 * Index of the next block within the current chunk.
+	 */
+	private int idxBlock;
+
+	/**
+	 * Whether the end of the file has been reached by the consumer.
+	 */
+	private boolean finished;
+
+	/**
+	 * Start reading the given file. The reader must be positioned at the
+	 * first example (i.e., the header must be already consumed).
+	 *
+	 * @param reader
+	 * @param multiValuedFeatureIndexes
+	 *            which features are multi-valued features.
+	 * @param separatorFeatureValues
+	 *            regular expression that separates values within a
+	 *            multi-valued feature.
+	 * @param executor
+	 *            executor used to parse chunks.
+	 * @param maxPendingChunks
+	 *            maximum number of chunks read ahead of the consumer.
+	 */
+	public DPGSFactorFileReader(final BufferedReader reader,
+			Set<Integer> multiValuedFeatureIndexes,
+			String separatorFeatureValues, final ExecutorService executor,
+			int maxPendingChunks) {
+		final boolean[] multiValued = DPGSFactorBlock
+				.toFlags(multiValuedFeatureIndexes);
+
+		// Most separators are literals and do not need a regex.
+		final String separator = DPGSFactorBlock
+				.toLiteral(separatorFeatureValues);
+		final Pattern separatorPattern = Pattern
+				.compile(separatorFeatureValues);
+
+		chunks = new ArrayBlockingQueue<Future<DPGSFactorBlock[]>>(Math.max(
+				1, maxPendingChunks));
+		readerThread = new Thread("DPGSFactorFileReader") {
+			@Override
+			public void run() {
+				try {
+					readChunks(reader, multiValued, separator,
+							separatorPattern, executor);
+				} catch (InterruptedException e) {
+					// Closed before the end of the file.
+				}
+			}
+		};
+		readerThread.setDaemon(true);
+		readerThread.start();
+	}
+
+	/**
+	 * Read the file and submit its chunks. Executed by the reader thread.
+	 *
+	 * @param reader
+	 * @param multiValued
+	 * @param separator
+	 * @param separatorPattern
+	 * @param executor
+	 * @throws InterruptedException
+	 */
+	private void readChunks(BufferedReader reader, boolean[] multiValued,
+			String separator, Pattern separatorPattern,
+			ExecutorService executor) throws InterruptedException {
+		int idxFirstBlock = 0;
+		boolean eof = false;
+		while (!eof) {
+			final List<List<String>> blocks = new ArrayList<List<String>>(
+					CHUNK_SIZE);
+			try {
+				while (!eof && blocks.size() < CHUNK_SIZE) {
+					// Read lines up to a blank line.
+					List<String> lines = new ArrayList<String>();
+					String line;
+					while ((line = reader.readLine()) != null) {
+						line = line.trim();
+						if (line.length() == 0)
+							break;
+						lines.add(line);
+					}
+					eof = (line == null);
+					blocks.add(lines);
+				}
+			} catch (final IOException e) {
+				chunks.put(done(new Callable<DPGSFactorBlock[]>() {
+					@Override
+					public DPGSFactorBlock[] call() throws Exception {
+						throw e;
+					}
+				}));
+				return;
+			}
+
+			chunks.put(executor.submit(new ChunkParser(blocks, idxFirstBlock,
+					multiValued, separator, separatorPattern)));
+			idxFirstBlock += blocks.size();
+		}
+
+		// End of file.
+		chunks.put(done(new Callable<DPGSFactorBlock[]>() {
+			@Override
+			public DPGSFactorBlock[] call() throws Exception {
+				return null;
+			}
+		}));
+	}
+
+	/**
+	 * Return a future that is already done with the result of the given
+	 * callable.
+	 *
+	 * @param callable
+	 * @return
+	 */
+	private static Future<DPGSFactorBlock[]> done(
+			Callable<DPGSFactorBlock[]> callable) {
+		FutureTask<DPGSFactorBlock[]> future = new FutureTask<DPGSFactorBlock[]>(
+				callable);
+		future.run();
+		return future;
+	}
+
+	/**
+	 * Return the next block of the file or <code>null</code> if the end of
+	 * the file has been reached.
+	 *
+	 * @return
+	 * @throws IOException
+	 *             if there is a problem reading the file.
+	 * @throws DatasetException
+	 *             if there is a syntax issue.
+	 */
+	public DPGSFactorBlock next() throws IOException, DatasetException {
+		if (finished)
+			return null;
+		if (chunk == null || idxBlock == chunk.length) {
+			try {
+				chunk = chunks.take().get();
+			} catch (InterruptedException e) {
+				throw new IOException("Interrupted while reading factors", e);
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof DatasetException)
+					throw (DatasetException) cause;
+				if (cause instanceof IOException)
+					throw (IOException) cause;
+				throw new RuntimeException(cause);
+			}
+			idxBlock = 0;
+			if (chunk == null) {
+				finished = true;
+				return null;
+			}
+		}
+		return chunk[idxBlock++];
+	}
+
+	/**
+	 * Stop reading the file and discard pending chunks. The underlying reader
+	 * is not closed.
+	 */
+	public void close() {
+		finished = true;
+		readerThread.interrupt();
+		try {
+			readerThread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		Future<DPGSFactorBlock[]> future;
+		while ((future = chunks.poll()) != null)
+			future.cancel(false);
+	}
+
+	/**
+	 * Parse a chunk of blocks.
+	 */
+	private static class ChunkParser implements Callable<DPGSFactorBlock[]> {
+
+		private final List<List<String>> blocks;
+
+		private final int idxFirstBlock;
+
+		private final boolean[] multiValued;
+
+		private final String separator;
+
+		private final Pattern separatorPattern;
+
+		public ChunkParser(List<List<String>> blocks, int idxFirstBlock,
+				boolean[] multiValued, String separator,
+				Pattern separatorPattern) {
+			this.blocks = blocks;
+			this.idxFirstBlock = idxFirstBlock;
+			this.multiValued = multiValued;
+			this.separator = separator;
+			this.separatorPattern = separatorPattern;
+		}
+
+		@Override
+		public DPGSFactorBlock[] call() throws Exception {
+			int numBlocks = blocks.size();
+			DPGSFactorBlock[] parsed = new DPGSFactorBlock[numBlocks];
+			for (int idx = 0; idx < numBlocks; ++idx) {
+				parsed[idx] = new DPGSFactorBlock(blocks.get(idx),
+						idxFirstBlock + idx, multiValued, separator, separatorPattern);
+				// Release lines as soon as possible.
+				blocks.set(idx, null);
+			}
+			return parsed;
+		}
+	}
+}
@@ -0,0 +1,304 @@
+package br.pucrio.inf.learn.structlearning.discriminative.application.dpgs;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Arrays;
+
+import br.pucrio.inf.learn.util.BinaryInput;
+import br.pucrio.inf.learn.util.BinaryOutput;
+
+/**
+ * Sparse index of factors identified by a pair (row, column).
+ *
+ * Factors are added in any order and, after compaction, they are stored in a
+ * CSR-like (compressed sparse row) structure: an array of row offsets and an
+ * array of sorted column indexes. Each factor is then identified by its
+ * position within this structure, which can be used to index arrays of
+ * factor data (feature codes, for instance).
+ *
+ * For grandparent factors, for instance, the row is given by (idxHead,
+ * idxModifier) and the column is idxGrandparent.
+ *
+ * @author eraldo
+ *
+ */
+public class DPGSFactorIndex implements Serializable {
+
+	/**
+	 * Auto-generated serial version ID.
+	 */
+	private static final long serialVersionUID = -3529718846733216544L;
+
+	/**
+	 * Number of rows.
+	 */
+	private int numRows;
+
+	/**
+	 * Rows of the factors added since the last compaction (insertion order).
+	 */
+	private int[] addedRows;
+
+	/**
+	 * Columns of the factors added since the last compaction (insertion
+	 * order).
+	 */
+	private int[] addedColumns;
+
+	/**
+	 * Number of factors added since the last compaction.
+	 */
+	private int numAdded;
+
+	/**
+	 * Offset of each row within <code>columns</code>. The factors of row
+	 * <code>r</code> are in the interval
+	 * <code>[rowOffsets[r], rowOffsets[r+1])</code>.
+	 */
+	private int[] rowOffsets;
+
+	/**
+	 * Sorted column indexes of the factors within each row.
+	 */
+	private int[] columns;
+
+	/**
+	 * Row of a duplicated factor found in the last compaction, or -1.
+	 */
+	private int duplicatedRow;
+
+	/**
+	 * Column of a duplicated factor found in the last compaction, or -1.
+	 */
+	private int duplicatedColumn;
+
+	/**
+	 * Create an empty index with the given number of rows.
+	 *
+	 * @param numRows
+	 */
+	public DPGSFactorIndex(int numRows) {
+		this.numRows = numRows;
+		this.addedRows = new int[16];
+		this.addedColumns = new int[16];
+		this.rowOffsets = new int[numRows + 1];
+		this.columns = new int[0];
+		this.duplicatedRow = -1;
+		this.duplicatedColumn = -1;
+	}
+
+	/**
+	 * Add the given factor to this index and return its insertion number
+	 * (since the last compaction). The factor can only be found after the
+	 * next compaction.
+	 *
+	 * @param row
+	 * @param column
+	 * @return
+	 */
+	public int add(int row, int column) {
+		if (numAdded == addedRows.length) {
+			addedRows = Arrays.copyOf(addedRows, 2 * numAdded);
+			addedColumns = Arrays.copyOf(addedColumns, 2 * numAdded);
+		}
+		addedRows[numAdded] = row;
+		addedColumns[numAdded] = column;
+		return numAdded++;
+	}
+
+	/**
+	 * Return whether there are factors added since the last compaction.
+	 *
+	 * @return
+	 */
+	public boolean needsCompaction() {
+		return numAdded > 0;
+	}
+
+	/**
+	 * Merge the factors added since the last compaction into the compact
+	 * structure. If a factor is added more than once (or it already exists),
+	 * the last addition is kept and it is recorded as duplicated.
+	 *
+	 * The returned array gives, for each position in the new compact
+	 * structure, the previous position of the factor (if it is non-negative)
+	 * or the insertion number of the factor (encoded as
+	 * <code>-(insertion + 1)</code>). This array allows one to reorganize the
+	 * factor data accordingly.
+	 *
+	 * @return
+	 */
+	public int[] compact() {
+		duplicatedRow = -1;
+		duplicatedColumn = -1;
+
+		int numOld = columns.length;
+		int total = numOld + numAdded;
+
+		// Count factors per row (old and added ones).
+		int[] counts = new int[numRows + 1];
+		for (int row = 0; row < numRows; ++row)
+			counts[row + 1] = rowOffsets[row + 1] - rowOffsets[row];
+		for (int idx = 0; idx < numAdded; ++idx)
+			++counts[addedRows[idx] + 1];
+		for (int row = 0; row < numRows; ++row)
+			counts[row + 1] += counts[row];
+
+		// Stable placement: old factors first, then added ones.
+		int[] newColumns = new int[total];
+		int[] source = new int[total];
+		int[] next = Arrays.copyOf(counts, numRows);
+		for (int row = 0; row < numRows; ++row) {
+			for (int pos = rowOffsets[row]; pos < rowOffsets[row + 1]; ++pos) {
+				int dst = next[row]++;
+				newColumns[dst] = columns[pos];
+				source[dst] = pos;
+			}
+		}
+		for (int idx = 0; idx < numAdded; ++idx) {
+			int dst = next[addedRows[idx]]++;
+			newColumns[dst] = addedColumns[idx];
+			source[dst] = -(idx + 1);
+		}
+
+		// Sort each row by column (stable insertion sort, rows are short).
+		for (int row = 0; row < numRows; ++row) {
+			int begin = counts[row];
+			int end = counts[row + 1];
+			for (int i = begin + 1; i < end; ++i) {
+				int col = newColumns[i];
+				int src = source[i];
+				int j = i - 1;
+				while (j >= begin && newColumns[j] > col) {
+					newColumns[j + 1] = newColumns[j];
+					source[j + 1] = source[j];
+					--j;
+				}
+				newColumns[j + 1] = col;
+				source[j + 1] = src;
+			}
+		}
+
+		// Remove duplicates keeping the last addition.
+		int numUnique = 0;
+		int[] newOffsets = new int[numRows + 1];
+		for (int row = 0; row < numRows; ++row) {
+			int end = counts[row + 1];
+			for (int i = counts[row]; i < end; ++i) {
+				if (i + 1 < end && newColumns[i + 1] == newColumns[i]) {
+					duplicatedRow = row;
+					duplicatedColumn = newColumns[i];
+					continue;
+				}
+				newColumns[numUnique] = newColumns[i];
+				source[numUnique] = source[i];
+				++numUnique;
+			}
+			newOffsets[row + 1] = numUnique;
+		}
+
+		columns = Arrays.copyOf(newColumns, numUnique);
+		rowOffsets = newOffsets;
+		numAdded = 0;
+		addedRows = new int[16];
+		addedColumns = new int[16];
+		return Arrays.copyOf(source, numUnique);
+	}
+
+	/**
+	 * Return the position of the given factor in the compact structure or -1
+	 * if it does not exist.
+	 *
+	 * @param row
+	 * @param column
+	 * @return
+	 */
+	public int find(int row, int column) {
+		int begin = rowOffsets[row];
+		int end = rowOffsets[row + 1];
+		// Rows are short, thus linear search is usually faster.
+		for (int pos = begin; pos < end; ++pos) {
+			int col = columns[pos];
+			if (col == column)
+				return pos;
+			if (col > column)
+				break;
+		}
+		return -1;
+	}
+
+	/**
+	 * Return the number of factors in the compact structure.
+	 *
+	 * @return
+	 */
+	public int size() {
+		return columns.length;
+	}
+
+	/**
+	 * Return the row of a duplicated factor found in the last compaction, or
+	 * -1 if there was no duplicated factor.
+	 *
+	 * @return
+	 */
+	public int getDuplicatedRow() {
+		return duplicatedRow;
+	}
+
+	/**
+	 * Return the column of a duplicated factor found in the last compaction,
+	 * or -1 if there was no duplicated factor.
+	 *
+	 * @return
+	 */
+	public int getDuplicatedColumn() {
+		return duplicatedColumn;
+	}
+
+	/**
+	 * Write the compact structure of this index to the given output. Each row
+	 * is written as its number of factors followed by its (sorted) columns
+	 * delta-coded. The index must not have pending factors.
+	 *
+	 * @param out
+	 * @throws IOException
+	 *             if there are factors added since the last compaction.
+	 */
+	public void write(BinaryOutput out) throws IOException {
+		if (numAdded > 0)
+			throw new IOException("Factor index has not been compacted");
+		out.writeVarInt(numRows);
+		for (int row = 0; row < numRows; ++row) {
+			int begin = rowOffsets[row];
+			int length = rowOffsets[row + 1] - begin;
+			out.writeVarInt(length);
+			out.writeDeltaCodes(columns, begin, length);
+		}
+	}
+
+	/**
+	 * Read an index written by <code>write(BinaryOutput)</code>.
+	 *
+	 * @param in
+	 * @return
+	 * @throws IOException
+	 */
+	public static DPGSFactorIndex read(BinaryInput in) throws IOException {
+		int numRows = in.readVarInt();
+		DPGSFactorIndex index = new DPGSFactorIndex(numRows);
+		int[] rowOffsets = index.rowOffsets;
+		int[] columns = new int[16];
+		for (int row = 0; row < numRows; ++row) {
+			int length = in.readVarInt();
+			int begin = rowOffsets[row];
+			if (begin + length > columns.length)
+				columns = Arrays.copyOf(columns,
+						Math.max(begin + length, 2 * columns.length));
+			in.readDeltaCodes(columns, begin, length);
+			rowOffsets[row + 1] = begin + length;
+		}
+		index.columns = Arrays.copyOf(columns, rowOffsets[numRows]);
+		return index;
+	}
+}
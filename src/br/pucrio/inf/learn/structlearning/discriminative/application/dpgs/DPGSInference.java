@@ -15,8 +15,8 @@ import br.pucrio.inf.learn.structlearning.discriminative.algorithm.passiveagress
 import br.pucrio.inf.learn.structlearning.discriminative.application.sequence.AveragedParameter;
 import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleInput;
 import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleOutput;
-import br.pucrio.inf.learn.structlearning.discriminative.task.Inference;
 import br.pucrio.inf.learn.structlearning.discriminative.task.Model;
+import br.pucrio.inf.learn.structlearning.discriminative.task.WorkspaceInference;
 import br.pucrio.inf.learn.util.gsmaxbranching.MaximumGrandparentSiblingsAlgorithm;
 
 /**
@@ -29,7 +29,7 @@ import br.pucrio.inf.learn.util.gsmaxbranching.MaximumGrandparentSiblingsAlgorit
  * @author eraldo
  * 
  */
-public class DPGSInference implements Inference {
+public class DPGSInference implements WorkspaceInference {
 
 	/**
 	 * Logging object.
@@ -76,6 +76,19 @@ public class DPGSInference implements Inference {
 	 */
 	private boolean copyPredictionToParse;
 
+	/**
+	 * Pruner used to discard unlikely arcs based on the edge factor weights.
+	 * Grandparent and siblings factors of pruned arcs are not scored. If
+	 * <code>null</code>, no pruning is performed.
+	 */
+	private DPGSArcPruner arcPruner;
+
+	/**
+	 * Arcs that survived pruning in the current inference, indexed by
+	 * (idxHead, idxModifier). It is <code>null</code> when pruning is off.
+	 */
+	private boolean[][] allowedArcs;
+
 	private ExecutorService executor;
 	private int numberThreadsToFillWeight;
 
@@ -206,12 +219,20 @@ public class DPGSInference implements Inference {
 			 */
 			int firstModifier = (idxModifier <= idxHead ? 0 : idxHead + 1);
 
+			// Pruned edge.
+			boolean allowed = DPGSArcPruner.isAllowed(allowedArcs,
+					numberTokens, idxHead, idxModifier);
+
 			for (int idxPreviousModifier = firstModifier; idxPreviousModifier < idxModifier; ++idxPreviousModifier) {
-				int[] ftrs = input.getSiblingsFeatures(idxHead, idxModifier,
-						idxPreviousModifier);
-				if (ftrs != null)
+				int factor = -1;
+				if (allowed
+						&& DPGSArcPruner.isAllowed(allowedArcs, numberTokens,
+								idxHead, idxPreviousModifier))
+					factor = input.getSiblingsFactor(idxHead, idxModifier,
+							idxPreviousModifier);
+				if (factor >= 0)
 					siblingsFactorWeightsHeadModifier[idxPreviousModifier] = model
-							.getFeatureListScore(ftrs)
+							.getFeatureListScore(input, factor)
 							+ siblingWeightLoss
 							* getLossWeight(idxHead, idxModifier,
 									idxPreviousModifier, loss);
@@ -230,11 +251,12 @@ public class DPGSInference implements Inference {
 			 * numTkns) of the current head (idxHead).
 			 */
 			int idxSTART = (idxModifier <= idxHead ? idxHead : numberTokens);
-			int[] ftrs = input.getSiblingsFeatures(idxHead, idxModifier,
-					idxSTART);
-			if (ftrs != null)
+			int factor = -1;
+			if (allowed)
+				factor = input.getSiblingsFactor(idxHead, idxModifier, idxSTART);
+			if (factor >= 0)
 				siblingsFactorWeightsHeadModifier[idxSTART] = model
-						.getFeatureListScore(ftrs)
+						.getFeatureListScore(input, factor)
 						+ siblingWeightLoss
 						* getLossWeight(idxHead, idxModifier, idxSTART, loss);
 			else
@@ -268,19 +290,27 @@ public class DPGSInference implements Inference {
 				boolean loss) {
 			double[] grandparentFactorWeightsHeadModifier = grandparentFactorWeights[idxHead][idxModifier];
 
+			// Pruned edge.
+			boolean allowed = DPGSArcPruner.isAllowed(allowedArcs,
+					numberTokens, idxHead, idxModifier);
+
 			// Fill factor weights for each grandparent.
 			for (int idxGrandparent = 0; idxGrandparent < numberTokens; ++idxGrandparent) {
 				// Get list of features for the current siblings
 				// factor.
-				int[] ftrs = input.getGrandparentFeatures(idxHead, idxModifier,
-						idxGrandparent);
-
-				if (ftrs != null) {
+				int factor = -1;
+				if (allowed
+						&& DPGSArcPruner.isAllowed(allowedArcs, numberTokens,
+								idxGrandparent, idxHead))
+					factor = input.getGrandparentFactor(idxHead, idxModifier,
+							idxGrandparent);
+
+				if (factor >= 0) {
 					// Sum feature weights to achieve the factor
 					// weight.
 
 					grandparentFactorWeightsHeadModifier[idxGrandparent] = model
-							.getFeatureListScore(ftrs);
+							.getFeatureListScore(input, factor);
 					// Loss value for the current edge.
 					grandparentFactorWeightsHeadModifier[idxGrandparent] += grandparentWeightLoss
 							* getLossWeight(idxHead, idxModifier,
@@ -321,10 +351,10 @@ public class DPGSInference implements Inference {
 		protected void fill(int numberTokens, int idxHead, int idxModifier,
 				boolean loss) {
 
-			int[] ftrs = input.getEdgeFeatures(idxHead, idxModifier);
-			if (ftrs != null) {
+			int factor = input.getEdgeFactor(idxHead, idxModifier);
+			if (factor >= 0) {
 				edgeFactorWeights[idxHead][idxModifier] = model
-						.getFeatureListScore(ftrs)
+						.getFeatureListScore(input, factor)
 						+ edgeWeightLoss
 						* getLossWeight(idxHead, idxModifier, loss);
 			} else {
@@ -360,17 +390,66 @@ public class DPGSInference implements Inference {
 		copyPredictionToParse = val;
 	}
 
+	/**
+	 * Set the pruner used to discard unlikely arcs before scoring the
+	 * grandparent and siblings factors. A <code>null</code> value turns
+	 * pruning off.
+	 * 
+	 * @param arcPruner
+	 */
+	public void setArcPruner(DPGSArcPruner arcPruner) {
+		this.arcPruner = arcPruner;
+		this.allowedArcs = null;
+	}
+
+	/**
+	 * Prune the arcs of the current input according to the edge factor
+	 * weights, if an arc pruner is set. The arcs of the given correct output,
+	 * if any, are never pruned.
+	 * 
+	 * @param numTkns
+	 * @param correct
+	 *            correct output during training or <code>null</code>.
+	 */
+	private void pruneArcs(int numTkns, DPGSOutput correct) {
+		if (arcPruner == null)
+			return;
+		if (allowedArcs == null || allowedArcs.length < numTkns)
+			allowedArcs = new boolean[edgeFactorWeights.length][edgeFactorWeights.length];
+		arcPruner.pruneEdgeFactorWeights(numTkns, edgeFactorWeights,
+				allowedArcs, correct == null ? null : correct.getHeads());
+	}
+
 	/**
 	 * Realloc the internal data structures to support the given maximum number
 	 * of tokens.
 	 * 
 	 * @param maxNumberOfTokens
 	 */
+	@Override
 	public void realloc(int maxNumberOfTokens) {
 		maxGSAlgorithm.realloc(maxNumberOfTokens);
 		edgeFactorWeights = new double[maxNumberOfTokens][maxNumberOfTokens];
 		grandparentFactorWeights = new double[maxNumberOfTokens][maxNumberOfTokens][maxNumberOfTokens];
 		siblingsFactorWeights = new double[maxNumberOfTokens][maxNumberOfTokens + 1][maxNumberOfTokens + 1];
+		// Pruning matrix is reallocated on demand.
+		allowedArcs = null;
+	}
+
+	@Override
+	public int getNumberOfTokens(ExampleInput input) {
+		return ((DPGSInput) input).size();
+	}
+
+	/**
+	 * Enlarge the internal data structures if the given number of tokens does
+	 * not fit in them.
+	 * 
+	 * @param numberOfTokens
+	 */
+	private void ensureCapacity(int numberOfTokens) {
+		if (edgeFactorWeights.length < numberOfTokens)
+			realloc(numberOfTokens);
 	}
 
 	/**
@@ -386,8 +465,13 @@ public class DPGSInference implements Inference {
 	 *            structure.
 	 */
 	public void inference(DPGSModel model, DPGSInput input, DPGSOutput output) {
+		ensureCapacity(input.size());
+
+		// Derived features may be generated on demand.
+		model.ensureDerivedFeatures(input);
 
 		fillEdgeFactorWeights(model, input, null, 0d);
+		pruneArcs(input.size(), null);
 		fillGrandparentFactorWeights(model, input, null, 0d);
 		fillSiblingsFactorWeights(model, input, null, 0d);
 
@@ -417,8 +501,14 @@ public class DPGSInference implements Inference {
 	public void lossAugmentedInference(DPGSModel model, DPGSInput input,
 			DPGSOutput referenceOutput, DPGSOutput predictedOutput,
 			double lossWeight) {
+		ensureCapacity(input.size());
+
+		// Derived features may be generated on demand.
+		model.ensureDerivedFeatures(input, referenceOutput);
+
 		// Generate loss-augmented inference problem for the given input.
 		fillEdgeFactorWeights(model, input, referenceOutput, lossWeight);
+		pruneArcs(input.size(), referenceOutput);
 
 		// lossWeight = 0.0d;
 
@@ -1,11 +1,17 @@
 package br.pucrio.inf.learn.structlearning.discriminative.application.dpgs;
 
+import java.io.IOException;
 import java.io.Serializable;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
 
 import sun.reflect.generics.reflectiveObjects.NotImplementedException;
 import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleInput;
+import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleInputCodec;
+import br.pucrio.inf.learn.util.BinaryInput;
+import br.pucrio.inf.learn.util.BinaryOutput;
+import br.pucrio.inf.learn.util.IntArrayList;
 
 /**
  * Input structure for dependency parsing with grandparent and sibling features.
@@ -20,6 +26,11 @@ import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleInput;
  * Derived features are the features used by models to index parameters
  * (weights).
  * 
+ * Factors are stored sparsely: each factor type has a CSR-like index (see
+ * <code>DPGSFactorIndex</code>) and the derived feature codes of all factors
+ * are kept in one contiguous pool. Thus, memory is proportional to the
+ * number of existing factors instead of the cube of the sentence length.
+ * 
  * @author eraldo
  * 
  */
@@ -28,7 +39,24 @@ public class DPGSInput implements ExampleInput, Serializable {
 	/**
 	 * Auto-generated serial version ID.
 	 */
-	private static final long serialVersionUID = 3675190616084423770L;
+	private static final long serialVersionUID = -2106347207417382715L;
+
+	/**
+	 * Binary codec of this input type (see <code>write(BinaryOutput)</code>).
+	 */
+	public static final ExampleInputCodec CODEC = new ExampleInputCodec(
+			ExampleInputCodec.TYPE_DPGS) {
+		@Override
+		public void encode(ExampleInput input, BinaryOutput out)
+				throws IOException {
+			((DPGSInput) input).write(out);
+		}
+
+		@Override
+		public ExampleInput decode(BinaryInput in) throws IOException {
+			return read(in);
+		}
+	};
 
 	/**
 	 * Index within the training dataset.
@@ -46,51 +74,89 @@ public class DPGSInput implements ExampleInput, Serializable {
 	private int numberOfTokens;
 
 	/**
-	 * Basic (column-based) features for edge factors. Such factors are
-	 * identified by an index of the form (idxHead, idxModifier).
+	 * Factor type of edge factors.
+	 */
+	private static final int EDGE = 0;
+
+	/**
+	 * Factor type of grandparent factors.
+	 */
+	private static final int GRANDPARENT = 1;
+
+	/**
+	 * Factor type of siblings factors.
+	 */
+	private static final int SIBLINGS = 2;
+
+	/**
+	 * Sparse indexes of basic (column-based) features for each factor type
+	 * (EDGE, GRANDPARENT and SIBLINGS). Edge factors are identified by an
+	 * index of the form (idxHead, idxModifier), grandparent factors by
+	 * (idxHead, idxModifier, idxGrandparent) and siblings factors by (idxHead,
+	 * idxModifier, idxPreviousModifier). Each factor has a list (columns) of
+	 * features and each feature value can comprise one or more values. Most
+	 * features have only one value, but there can be some multi-valued
+	 * features that comprise a list of values.
+	 */
+	private DPGSFactorIndex[] basicIndexes;
+
+	/**
+	 * Basic features of each factor type in the order given by
+	 * <code>basicIndexes</code>.
+	 */
+	private int[][][][] basicFeatures;
+
+	/**
+	 * Basic features of each factor type added since the last compaction of
+	 * the corresponding index.
+	 */
+	private int[][][][] pendingBasicFeatures;
+
+	/**
+	 * Sparse indexes of derived features for each factor type (EDGE,
+	 * GRANDPARENT and SIBLINGS). Derived features are generated from
+	 * templates. Edge templates involve two parameters: head and modifier.
+	 * Grandparent templates involve three parameters: head, modifier and
+	 * granparent (head of the head). Sibling templates involve three
+	 * parameters: head, modifier and closest sibling before the modifier.
+	 */
+	private DPGSFactorIndex[] derivedIndexes;
+
+	/**
+	 * Contiguous pool with the derived feature codes of all factors. The
+	 * factors of each type are stored consecutively: edge factors first, then
+	 * grandparent factors and finally siblings factors.
 	 */
-	private int[][][][] basicEdgeFeatures;
+	private int[] features;
 
 	/**
-	 * Basic (column-based) features for grandparent factors. Each factor is
-	 * identified by an index of the form (idxHead, idxModifier,
-	 * idxGrandparent). Each factor has a list (columns) of features and each
-	 * feature value can comprise one or more values. Most features have only
-	 * one value, but there can be some multi-valued features that comprise a
-	 * list of values.
+	 * Offsets of each factor within <code>features</code>. The features of
+	 * factor <code>f</code> are in the interval
+	 * <code>[featureOffsets[f], featureOffsets[f+1])</code>.
 	 */
-	private int[][][][][] basicGrandparentFeatures;
+	private int[] featureOffsets;
 
 	/**
-	 * Basic (column-based) features for grandparent factors. Each factor is
-	 * identified by an index of the form (idxHead, idxModifier,
-	 * idxPreviousModifier). Each factor has a list (columns) of features and
-	 * each feature value can comprise one or more values. Most features have
-	 * only one value, but there can be some multi-valued features that comprise
-	 * a list of values.
+	 * First factor of each type in <code>featureOffsets</code>.
 	 */
-	private int[][][][][] basicSiblingsFeatures;
+	private int[] factorBases;
 
 	/**
-	 * Derived features from edge templates. These templates involve two
-	 * parameters: head and modifier.
+	 * Codes of the derived features set since the last compaction.
 	 */
-	private int[][][] edgeFeatures;
+	private transient IntArrayList pendingFeatures;
 
 	/**
-	 * Derived features from grandparent templates. These templates involve
-	 * three parameters: head, modifier and granparent (head of the head).
+	 * For each factor type, pairs (begin, end) within
+	 * <code>pendingFeatures</code> of each factor set since the last
+	 * compaction (in insertion order).
 	 */
-	private int[][][][] grandparentFeatures;
+	private transient IntArrayList[] pendingOffsets;
 
 	/**
-	 * Derived features from sibling templates. These templates involve three
-	 * parameters: head, modifier and closest sibling before the modifier. These
-	 * features comprise left and right sibling features. During feature
-	 * generation, features are differentiated according to the relative
-	 * position of modifiers in relation to the head token.
+	 * Whether there are derived features that have not been compacted yet.
 	 */
-	private int[][][][] siblingsFeatures;
+	private volatile boolean pendingCompaction;
 
 	/**
 	 * Create an empty input structure with the given length.
@@ -104,21 +170,22 @@ public class DPGSInput implements ExampleInput, Serializable {
 		this.id = id;
 		this.numberOfTokens = numberOfTokens;
 
-		// Arrays for basic features.
-		this.basicEdgeFeatures = new int[numberOfTokens][numberOfTokens][][];
-		this.basicGrandparentFeatures = new int[numberOfTokens][numberOfTokens][numberOfTokens][][];
-		this.basicSiblingsFeatures = new int[numberOfTokens][numberOfTokens + 1][numberOfTokens + 1][][];
+		// Basic features.
+		this.basicIndexes = createIndexes(numberOfTokens);
+		this.basicFeatures = new int[3][0][][];
+		this.pendingBasicFeatures = new int[3][16][][];
 
-		// Arrays for derived features.
-		this.edgeFeatures = new int[numberOfTokens][numberOfTokens][];
-		this.grandparentFeatures = new int[numberOfTokens][numberOfTokens][numberOfTokens][];
-		this.siblingsFeatures = new int[numberOfTokens][numberOfTokens + 1][numberOfTokens + 1][];
+		// Derived features.
+		this.derivedIndexes = createIndexes(numberOfTokens);
+		this.features = new int[0];
+		this.featureOffsets = new int[1];
+		this.factorBases = new int[3];
 	}
 
 	/**
 	 * Create a new grandparent/siblings input structure using the given feature
-	 * arrays as underlying features. The given arrays are not copied, that is
-	 * they are used as is and must not be modified after this method is called.
+	 * arrays as underlying features. The given arrays are only used to fill
+	 * the sparse representation and can be discarded afterwards.
 	 * 
 	 * @param edgeFeatures
 	 * @param grandparentFeatures
@@ -127,15 +194,78 @@ public class DPGSInput implements ExampleInput, Serializable {
 	 */
 	public DPGSInput(int[][][] edgeFeatures, int[][][][] grandparentFeatures,
 			int[][][][] siblingsFeatures) throws DPGSException {
+		this(null, grandparentFeatures.length);
+
 		// All three arrays must have the same dimension.
 		if (grandparentFeatures.length != siblingsFeatures.length
 				|| edgeFeatures.length != siblingsFeatures.length)
 			throw new DPGSException("Feature array have different length");
 
-		this.numberOfTokens = grandparentFeatures.length;
-		this.edgeFeatures = edgeFeatures;
-		this.grandparentFeatures = grandparentFeatures;
-		this.siblingsFeatures = siblingsFeatures;
+		for (int idxHead = 0; idxHead < edgeFeatures.length; ++idxHead) {
+			for (int idxModifier = 0; idxModifier < edgeFeatures[idxHead].length; ++idxModifier)
+				if (edgeFeatures[idxHead][idxModifier] != null)
+					setEdgeFeatures(idxHead, idxModifier,
+							edgeFeatures[idxHead][idxModifier]);
+			for (int idxModifier = 0; idxModifier < grandparentFeatures[idxHead].length; ++idxModifier)
+				for (int idxGrandparent = 0; idxGrandparent < grandparentFeatures[idxHead][idxModifier].length; ++idxGrandparent)
+					if (grandparentFeatures[idxHead][idxModifier][idxGrandparent] != null)
+						setGrandparentFeatures(idxHead, idxModifier,
+								idxGrandparent,
+								grandparentFeatures[idxHead][idxModifier][idxGrandparent]);
+			for (int idxModifier = 0; idxModifier < siblingsFeatures[idxHead].length; ++idxModifier)
+				for (int idxPrevModifier = 0; idxPrevModifier < siblingsFeatures[idxHead][idxModifier].length; ++idxPrevModifier)
+					if (siblingsFeatures[idxHead][idxModifier][idxPrevModifier] != null)
+						setSiblingsFeatures(idxHead, idxModifier,
+								idxPrevModifier,
+								siblingsFeatures[idxHead][idxModifier][idxPrevModifier]);
+		}
+
+		compactFeatures();
+	}
+
+	/**
+	 * Create one empty factor index for each factor type.
+	 * 
+	 * @param numTkns
+	 * @return
+	 */
+	private static DPGSFactorIndex[] createIndexes(int numTkns) {
+		return new DPGSFactorIndex[] { new DPGSFactorIndex(numTkns),
+				new DPGSFactorIndex(numTkns * numTkns),
+				new DPGSFactorIndex(numTkns * (numTkns + 1)) };
+	}
+
+	/**
+	 * Return the row of the given factor within its factor index. Edge factors
+	 * are indexed by the head only, while grandparent and siblings factors are
+	 * indexed by (idxHead, idxModifier).
+	 * 
+	 * @param type
+	 * @param idxHead
+	 * @param idxModifier
+	 * @return
+	 */
+	private int row(int type, int idxHead, int idxModifier) {
+		switch (type) {
+		case EDGE:
+			return idxHead;
+		case GRANDPARENT:
+			return idxHead * numberOfTokens + idxModifier;
+		default:
+			return idxHead * (numberOfTokens + 1) + idxModifier;
+		}
+	}
+
+	/**
+	 * Return the column of the given factor within its factor index.
+	 * 
+	 * @param type
+	 * @param idxModifier
+	 * @param idxThird
+	 * @return
+	 */
+	private static int column(int type, int idxModifier, int idxThird) {
+		return type == EDGE ? idxModifier : idxThird;
 	}
 
 	/**
@@ -171,63 +301,31 @@ public class DPGSInput implements ExampleInput, Serializable {
 			 * idxModifier, idxGrandparent/idxPrevModifier).
 			 */
 			int[] params = it.next();
+			int type = params[0];
 
-			/*
-			 * For both types of factor, the second and third parameter are the
-			 * head index and the modifier index.
-			 */
-			int idxHead = params[1];
-			int idxModifier = params[2];
-
-			// Columns for the current factor.
-			int[][] columns;
+			if (type < EDGE || type > SIBLINGS)
+				throw new DPGSException(
+						String.format(
+								"Incorrect factor type %d in example %s with params (%d,%d,%d)",
+								params[0], id, params[1], params[2], params[3]));
 
 			// Number of basic features in this factor.
 			int numberOfColumns = factor.size() - 1;
 
+			// Columns for the current factor.
+			int[][] columns = new int[numberOfColumns][];
+
 			/*
-			 * Alloc memory for the factor columns and store in the correct
-			 * place with the underlying GS structures.
+			 * For both types of factor, the second and third parameter are the
+			 * head index and the modifier index.
 			 */
-			switch (params[0]) {
-			case 0:
-				// EDGE factor.
-				columns = new int[numberOfColumns][];
-				if (basicEdgeFeatures[idxHead][idxModifier] != null)
-					throw new DPGSException(
-							String.format(
-									"Factor E(%d,%d,%d) in example %s is already filled",
-									idxHead, idxModifier, params[3], id));
-				basicEdgeFeatures[idxHead][idxModifier] = columns;
-				break;
-			case 1:
-				// GRANDPARENT factor.
-				int idxGrandparent = params[3];
-				columns = new int[numberOfColumns][];
-				if (basicGrandparentFeatures[idxHead][idxModifier][idxGrandparent] != null)
-					throw new DPGSException(
-							String.format(
-									"Factor G(%d,%d,%d) in example %s is already filled",
-									idxHead, idxModifier, idxGrandparent, id));
-				basicGrandparentFeatures[idxHead][idxModifier][idxGrandparent] = columns;
-				break;
-			case 2:
-				// SIBLINGS factor.
-				int idxPrevModifier = params[3];
-				columns = new int[numberOfColumns][];
-				if (basicSiblingsFeatures[idxHead][idxModifier][idxPrevModifier] != null)
-					throw new DPGSException(
-							String.format(
-									"Factor S(%d,%d,%d) in example %s is already filled",
-									idxHead, idxModifier, idxPrevModifier, id));
-				basicSiblingsFeatures[idxHead][idxModifier][idxPrevModifier] = columns;
-				break;
-			default:
-				throw new DPGSException(
-						String.format(
-								"Incorrect factor type %d in example %s with params (%d,%d,%d)",
-								params[0], id, params[1], params[2], params[3]));
-			}
+			int idxPending = basicIndexes[type].add(
+					row(type, params[1], params[2]),
+					column(type, params[2], params[3]));
+			if (idxPending == pendingBasicFeatures[type].length)
+				pendingBasicFeatures[type] = Arrays.copyOf(
+						pendingBasicFeatures[type], 2 * idxPending);
+			pendingBasicFeatures[type][idxPending] = columns;
 
 			// Just fill the columns array.
 			int idx = 0;
@@ -240,6 +338,187 @@ public class DPGSInput implements ExampleInput, Serializable {
 								"Incorrect number of features in the factor (%d,%d,%d) of type %d from example %s",
 								params[1], params[2], params[3], params[0], id));
 		}
+
+		// Merge the new factors into the sparse structures.
+		for (int type = EDGE; type <= SIBLINGS; ++type)
+			compactBasicFeatures(type);
+	}
+
+	/**
+	 * Merge the basic features added since the last compaction of the given
+	 * factor type into the sparse structure.
+	 * 
+	 * @param type
+	 * @throws DPGSException
+	 *             if some factor has been added more than once.
+	 */
+	private void compactBasicFeatures(int type) throws DPGSException {
+		DPGSFactorIndex index = basicIndexes[type];
+		if (!index.needsCompaction())
+			return;
+
+		int[] order = index.compact();
+		int[][][] columns = new int[order.length][][];
+		for (int pos = 0; pos < order.length; ++pos) {
+			int src = order[pos];
+			if (src >= 0)
+				columns[pos] = basicFeatures[type][src];
+			else
+				columns[pos] = pendingBasicFeatures[type][-src - 1];
+		}
+		basicFeatures[type] = columns;
+		pendingBasicFeatures[type] = new int[16][][];
+
+		int dupRow = index.getDuplicatedRow();
+		if (dupRow >= 0) {
+			int dupCol = index.getDuplicatedColumn();
+			switch (type) {
+			case EDGE:
+				throw new DPGSException(String.format(
+						"Factor E(%d,%d,%d) in example %s is already filled",
+						dupRow, dupCol, 0, id));
+			case GRANDPARENT:
+				throw new DPGSException(String.format(
+						"Factor G(%d,%d,%d) in example %s is already filled",
+						dupRow / numberOfTokens, dupRow % numberOfTokens,
+						dupCol, id));
+			default:
+				throw new DPGSException(String.format(
+						"Factor S(%d,%d,%d) in example %s is already filled",
+						dupRow / (numberOfTokens + 1), dupRow
+								% (numberOfTokens + 1), dupCol, id));
+			}
+		}
+	}
+
+	/**
+	 * Store the given derived features for the given factor. The features are
+	 * only visible after the next compaction, which is performed
+	 * automatically whenever needed.
+	 * 
+	 * @param type
+	 * @param idxHead
+	 * @param idxModifier
+	 * @param idxThird
+	 * @param vals
+	 * @param offset
+	 * @param length
+	 */
+	private void setFeatures(int type, int idxHead, int idxModifier,
+			int idxThird, int[] vals, int offset, int length) {
+		if (pendingFeatures == null) {
+			// Transient buffers are not restored by deserialization.
+			pendingFeatures = new IntArrayList(256);
+			pendingOffsets = new IntArrayList[] { new IntArrayList(),
+					new IntArrayList(), new IntArrayList() };
+		}
+		derivedIndexes[type].add(row(type, idxHead, idxModifier),
+				column(type, idxModifier, idxThird));
+		pendingOffsets[type].add(pendingFeatures.size());
+		pendingFeatures.addAll(vals, offset, length);
+		pendingOffsets[type].add(pendingFeatures.size());
+		pendingCompaction = true;
+	}
+
+	/**
+	 * Merge all pending derived features into the contiguous pool of feature
+	 * codes. This method is automatically called when necessary, but it is
+	 * cheaper to call it once after setting all derived features.
+	 */
+	public synchronized void compactFeatures() {
+		if (!pendingCompaction)
+			return;
+
+		// New order of the factors of each type.
+		int[][] orders = new int[3][];
+		int numFactors = 0;
+		for (int type = EDGE; type <= SIBLINGS; ++type) {
+			orders[type] = derivedIndexes[type].compact();
+			numFactors += orders[type].length;
+		}
+
+		// Compute the new offsets.
+		int[] newOffsets = new int[numFactors + 1];
+		int[] newBases = new int[3];
+		int factor = 0;
+		for (int type = EDGE; type <= SIBLINGS; ++type) {
+			newBases[type] = factor;
+			for (int src : orders[type]) {
+				int len;
+				if (src >= 0)
+					len = featureOffsets[factorBases[type] + src + 1]
+							- featureOffsets[factorBases[type] + src];
+				else
+					len = pendingOffsets[type].get(-2 * src - 1)
+							- pendingOffsets[type].get(-2 * src - 2);
+				newOffsets[factor + 1] = newOffsets[factor] + len;
+				++factor;
+			}
+		}
+
+		// Copy the feature codes to the new pool.
+		int[] newFeatures = new int[newOffsets[numFactors]];
+		factor = 0;
+		for (int type = EDGE; type <= SIBLINGS; ++type) {
+			for (int src : orders[type]) {
+				if (src >= 0) {
+					int begin = featureOffsets[factorBases[type] + src];
+					int end = featureOffsets[factorBases[type] + src + 1];
+					System.arraycopy(features, begin, newFeatures,
+							newOffsets[factor], end - begin);
+				} else {
+					int begin = pendingOffsets[type].get(-2 * src - 2);
+					int end = pendingOffsets[type].get(-2 * src - 1);
+					System.arraycopy(pendingFeatures.getArray(), begin,
+							newFeatures, newOffsets[factor], end - begin);
+				}
+				++factor;
+			}
+		}
+
+		// Release the pending buffers.
+		pendingFeatures = null;
+		pendingOffsets = null;
+
+		features = newFeatures;
+		featureOffsets = newOffsets;
+		factorBases = newBases;
+		pendingCompaction = false;
+	}
+
+	/**
+	 * Return the identifier of the given factor, that can be used to access
+	 * its features in the pool (<code>getFeatures()</code>), or -1 if this
+	 * factor does not exist.
+	 * 
+	 * @param type
+	 * @param idxHead
+	 * @param idxModifier
+	 * @param idxThird
+	 * @return
+	 */
+	private int getFactor(int type, int idxHead, int idxModifier, int idxThird) {
+		if (pendingCompaction)
+			compactFeatures();
+		int pos = derivedIndexes[type].find(row(type, idxHead, idxModifier),
+				column(type, idxModifier, idxThird));
+		if (pos < 0)
+			return -1;
+		return factorBases[type] + pos;
+	}
+
+	/**
+	 * Return a copy of the features of the given factor or <code>null</code>
+	 * if the factor does not exist.
+	 * 
+	 * @param factor
+	 * @return
+	 */
+	private int[] copyFeatures(int factor) {
+		if (factor < 0)
+			return null;
+		return Arrays.copyOfRange(features, featureOffsets[factor],
+				featureOffsets[factor + 1]);
 	}
 
 	@Override
@@ -253,19 +532,95 @@ public class DPGSInput implements ExampleInput, Serializable {
 	}
 
 	/**
-	 * Return the list of feature codes in the given edge factor (idxHead,
-	 * idxModifier).
+	 * Return the identifier of the edge factor (idxHead, idxModifier) or -1 if
+	 * it does not exist. The features of a factor are given by
+	 * <code>getFeatures()</code>, <code>getFeaturesBegin(factor)</code> and
+	 * <code>getFeaturesEnd(factor)</code>.
+	 * 
+	 * @param idxHead
+	 * @param idxModifier
+	 * @return
+	 */
+	public int getEdgeFactor(int idxHead, int idxModifier) {
+		return getFactor(EDGE, idxHead, idxModifier, 0);
+	}
+
+	/**
+	 * Return the identifier of the given grandparent factor or -1 if it does
+	 * not exist.
+	 * 
+	 * @param idxHead
+	 * @param idxModifier
+	 * @param idxGrandparent
+	 * @return
+	 */
+	public int getGrandparentFactor(int idxHead, int idxModifier,
+			int idxGrandparent) {
+		return getFactor(GRANDPARENT, idxHead, idxModifier, idxGrandparent);
+	}
+
+	/**
+	 * Return the identifier of the given siblings factor or -1 if it does not
+	 * exist.
+	 * 
+	 * @param idxHead
+	 * @param idxModifier
+	 * @param idxSibling
+	 * @return
+	 */
+	public int getSiblingsFactor(int idxHead, int idxModifier, int idxSibling) {
+		return getFactor(SIBLINGS, idxHead, idxModifier, idxSibling);
+	}
+
+	/**
+	 * Return the pool of derived feature codes of all factors. This array
+	 * must not be modified.
+	 * 
+	 * @return
+	 */
+	public int[] getFeatures() {
+		if (pendingCompaction)
+			compactFeatures();
+		return features;
+	}
+
+	/**
+	 * Return the index (in <code>getFeatures()</code>) of the first feature
+	 * of the given factor.
+	 * 
+	 * @param factor
+	 * @return
+	 */
+	public int getFeaturesBegin(int factor) {
+		return featureOffsets[factor];
+	}
+
+	/**
+	 * Return the index (in <code>getFeatures()</code>) after the last feature
+	 * of the given factor.
+	 * 
+	 * @param factor
+	 * @return
+	 */
+	public int getFeaturesEnd(int factor) {
+		return featureOffsets[factor + 1];
+	}
+
+	/**
+	 * Return a copy of the list of feature codes in the given edge factor
+	 * (idxHead, idxModifier).
 	 * 
 	 * @param idxHead
 	 * @param idxModifier
 	 * @return
 	 */
 	public int[] getEdgeFeatures(int idxHead, int idxModifier) {
-		return edgeFeatures[idxHead][idxModifier];
+		return copyFeatures(getEdgeFactor(idxHead, idxModifier));
 	}
 
 	/**
-	 * Return the list of feature codes in the given grandparent factor.
+	 * Return a copy of the list of feature codes in the given grandparent
+	 * factor.
 	 * 
 	 * @param idxHead
 	 * @param idxModifier
@@ -274,11 +629,13 @@ public class DPGSInput implements ExampleInput, Serializable {
 	 */
 	public int[] getGrandparentFeatures(int idxHead, int idxModifier,
 			int idxGrandparent) {
-		return grandparentFeatures[idxHead][idxModifier][idxGrandparent];
+		return copyFeatures(getGrandparentFactor(idxHead, idxModifier,
+				idxGrandparent));
 	}
 
 	/**
-	 * Return the list of feature codes in the given modifiers factor.
+	 * Return a copy of the list of feature codes in the given modifiers
+	 * factor.
 	 * 
 	 * @param idxHead
 	 * @param idxModifier
@@ -287,21 +644,67 @@ public class DPGSInput implements ExampleInput, Serializable {
 	 */
 	public int[] getSiblingsFeatures(int idxHead, int idxModifier,
 			int idxSibling) {
-		return siblingsFeatures[idxHead][idxModifier][idxSibling];
+		return copyFeatures(getSiblingsFactor(idxHead, idxModifier, idxSibling));
 	}
 
 	public void setEdgeFeatures(int idxHead, int idxModifier, int[] vals) {
-		edgeFeatures[idxHead][idxModifier] = vals;
+		setFeatures(EDGE, idxHead, idxModifier, 0, vals, 0, vals.length);
 	}
 
 	public void setGrandparentFeatures(int idxHead, int idxModifier,
 			int idxGrandparent, int[] vals) {
-		grandparentFeatures[idxHead][idxModifier][idxGrandparent] = vals;
+		setFeatures(GRANDPARENT, idxHead, idxModifier, idxGrandparent, vals, 0,
+				vals.length);
 	}
 
 	public void setSiblingsFeatures(int idxHead, int idxModifier,
 			int idxPrevModifier, int[] vals) {
-		siblingsFeatures[idxHead][idxModifier][idxPrevModifier] = vals;
+		setFeatures(SIBLINGS, idxHead, idxModifier, idxPrevModifier, vals, 0,
+				vals.length);
+	}
+
+	/**
+	 * Set the features of the given edge factor as the codes in the given
+	 * buffer. The codes are copied, so the buffer can be reused.
+	 * 
+	 * @param idxHead
+	 * @param idxModifier
+	 * @param codes
+	 */
+	public void setEdgeFeatures(int idxHead, int idxModifier,
+			IntArrayList codes) {
+		setFeatures(EDGE, idxHead, idxModifier, 0, codes.getArray(), 0,
+				codes.size());
+	}
+
+	/**
+	 * Set the features of the given grandparent factor as the codes in the
+	 * given buffer. The codes are copied, so the buffer can be reused.
+	 * 
+	 * @param idxHead
+	 * @param idxModifier
+	 * @param idxGrandparent
+	 * @param codes
+	 */
+	public void setGrandparentFeatures(int idxHead, int idxModifier,
+			int idxGrandparent, IntArrayList codes) {
+		setFeatures(GRANDPARENT, idxHead, idxModifier, idxGrandparent,
+				codes.getArray(), 0, codes.size());
+	}
+
+	/**
+	 * Set the features of the given siblings factor as the codes in the given
+	 * buffer. The codes are copied, so the buffer can be reused.
+	 * 
+	 * @param idxHead
+	 * @param idxModifier
+	 * @param idxPrevModifier
+	 * @param codes
+	 */
+	public void setSiblingsFeatures(int idxHead, int idxModifier,
+			int idxPrevModifier, IntArrayList codes) {
+		setFeatures(SIBLINGS, idxHead, idxModifier, idxPrevModifier,
+				codes.getArray(), 0, codes.size());
 	}
 
 	@Override
@@ -328,6 +731,25 @@ public class DPGSInput implements ExampleInput, Serializable {
 		return numberOfTokens;
 	}
 
+	/**
+	 * Return the column-based features of the given factor or
+	 * <code>null</code> if it does not exist.
+	 * 
+	 * @param type
+	 * @param idxHead
+	 * @param idxModifier
+	 * @param idxThird
+	 * @return
+	 */
+	private int[][] getBasicFeatures(int type, int idxHead, int idxModifier,
+			int idxThird) {
+		int pos = basicIndexes[type].find(row(type, idxHead, idxModifier),
+				column(type, idxModifier, idxThird));
+		if (pos < 0)
+			return null;
+		return basicFeatures[type][pos];
+	}
+
 	/**
 	 * Return the column-based features for the given edge factor (idxHead,
 	 * idxModifier).
@@ -337,7 +759,7 @@ public class DPGSInput implements ExampleInput, Serializable {
 	 * @return
 	 */
 	public int[][] getBasicEdgeFeatures(int idxHead, int idxModifier) {
-		return basicEdgeFeatures[idxHead][idxModifier];
+		return getBasicFeatures(EDGE, idxHead, idxModifier, 0);
 	}
 
 	/**
@@ -351,7 +773,8 @@ public class DPGSInput implements ExampleInput, Serializable {
 	 */
 	public int[][] getBasicGrandparentFeatures(int idxHead, int idxModifier,
 			int idxGrandparent) {
-		return basicGrandparentFeatures[idxHead][idxModifier][idxGrandparent];
+		return getBasicFeatures(GRANDPARENT, idxHead, idxModifier,
+				idxGrandparent);
 	}
 
 	/**
@@ -365,13 +788,129 @@ public class DPGSInput implements ExampleInput, Serializable {
 	 */
 	public int[][] getBasicSiblingsFeatures(int idxHead, int idxModifier,
 			int idxPrevModifier) {
-		return basicSiblingsFeatures[idxHead][idxModifier][idxPrevModifier];
-	}
-	
-	
-	public void cleanBasicFeatures(){
-		basicEdgeFeatures = null;
-		basicGrandparentFeatures = null;
-		basicSiblingsFeatures = null;
+		return getBasicFeatures(SIBLINGS, idxHead, idxModifier,
+				idxPrevModifier);
+	}
+
+	/**
+	 * Discard the basic features, which are only necessary to generate the
+	 * derived features, and compact the derived features.
+	 */
+	public void cleanBasicFeatures() {
+		basicIndexes = null;
+		basicFeatures = null;
+		pendingBasicFeatures = null;
+		compactFeatures();
+	}
+
+	/**
+	 * Discard the derived features of this input. The basic features are kept
+	 * (if they have not been cleaned), so the derived features can be
+	 * generated again later. This is used when derived features are generated
+	 * on demand and only the ones of recently used inputs are kept.
+	 */
+	public synchronized void cleanDerivedFeatures() {
+		derivedIndexes = createIndexes(numberOfTokens);
+		features = new int[0];
+		featureOffsets = new int[1];
+		factorBases = new int[3];
+		pendingFeatures = null;
+		pendingOffsets = null;
+		pendingCompaction = false;
+	}
+
+	/**
+	 * Write this input to the given output. Factor indexes are written row by
+	 * row with delta-coded columns, and the derived features of each factor
+	 * are written as delta-coded codes after the lengths of all factors.
+	 *
+	 * @param out
+	 * @throws IOException
+	 */
+	public synchronized void write(BinaryOutput out) throws IOException {
+		compactFeatures();
+
+		out.writeSignedVarInt(trainingIndex);
+		out.writeString(id);
+		out.writeVarInt(numberOfTokens);
+
+		// Basic features (they can have been cleaned).
+		out.writeBoolean(basicIndexes != null);
+		if (basicIndexes != null) {
+			for (int type = EDGE; type <= SIBLINGS; ++type) {
+				DPGSFactorIndex index = basicIndexes[type];
+				index.write(out);
+				int[][][] columns = basicFeatures[type];
+				for (int pos = 0; pos < index.size(); ++pos) {
+					out.writeVarInt(columns[pos].length);
+					for (int[] values : columns[pos])
+						out.writeCodes(values);
+				}
+			}
+		}
+
+		// Derived features.
+		for (int type = EDGE; type <= SIBLINGS; ++type)
+			derivedIndexes[type].write(out);
+		int numFactors = featureOffsets.length - 1;
+		for (int factor = 0; factor < numFactors; ++factor)
+			out.writeVarInt(featureOffsets[factor + 1]
+					- featureOffsets[factor]);
+		for (int factor = 0; factor < numFactors; ++factor)
+			out.writeDeltaCodes(features, featureOffsets[factor],
+					featureOffsets[factor + 1] - featureOffsets[factor]);
+	}
+
+	/**
+	 * Read an input written by <code>write(BinaryOutput)</code>.
+	 *
+	 * @param in
+	 * @return
+	 * @throws IOException
+	 */
+	public static DPGSInput read(BinaryInput in) throws IOException {
+		int trainingIndex = in.readSignedVarInt();
+		String id = in.readString();
+		int numberOfTokens = in.readVarInt();
+		DPGSInput input = new DPGSInput(id, numberOfTokens);
+		input.trainingIndex = trainingIndex;
+
+		// Basic features.
+		if (in.readBoolean()) {
+			for (int type = EDGE; type <= SIBLINGS; ++type) {
+				DPGSFactorIndex index = DPGSFactorIndex.read(in);
+				int[][][] columns = new int[index.size()][][];
+				for (int pos = 0; pos < columns.length; ++pos) {
+					int[][] factorColumns = new int[in.readVarInt()][];
+					for (int col = 0; col < factorColumns.length; ++col)
+						factorColumns[col] = in.readCodes();
+					columns[pos] = factorColumns;
+				}
+				input.basicIndexes[type] = index;
+				input.basicFeatures[type] = columns;
+			}
+		} else {
+			input.basicIndexes = null;
+			input.basicFeatures = null;
+			input.pendingBasicFeatures = null;
+		}
+
+		// Derived features.
+		int numFactors = 0;
+		for (int type = EDGE; type <= SIBLINGS; ++type) {
+			input.derivedIndexes[type] = DPGSFactorIndex.read(in);
+			input.factorBases[type] = numFactors;
+			numFactors += input.derivedIndexes[type].size();
+		}
+		int[] offsets = new int[numFactors + 1];
+		for (int factor = 0; factor < numFactors; ++factor)
+			offsets[factor + 1] = offsets[factor] + in.readVarInt();
+		int[] codes = new int[offsets[numFactors]];
+		for (int factor = 0; factor < numFactors; ++factor)
+			in.readDeltaCodes(codes, offsets[factor], offsets[factor + 1]
+					- offsets[factor]);
+		input.featureOffsets = offsets;
+		input.features = codes;
+		return input;
 	}
 }
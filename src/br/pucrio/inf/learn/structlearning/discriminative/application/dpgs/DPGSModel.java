@@ -13,7 +13,7 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -31,6 +31,7 @@ import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleInputArray;
 import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleOutput;
 import br.pucrio.inf.learn.structlearning.discriminative.data.encoding.MapEncoding;
 import br.pucrio.inf.learn.structlearning.discriminative.task.Model;
+import br.pucrio.inf.learn.util.IntArrayList;
 
 /**
  * Represent a dependecy parsing model with gradparent and modifiers paramenters
@@ -102,6 +103,49 @@ public class DPGSModel implements Model {
 	 */
 	protected DPGSTemplate[] grandparentTemplates;
 
+	/**
+	 * Pruner used to skip the generation of higher-order features for
+	 * unlikely arcs. If <code>null</code>, features are generated for every
+	 * factor.
+	 */
+	protected DPGSArcPruner arcPruner;
+
+	/**
+	 * Model that gives the edge scores used by <code>arcPruner</code>.
+	 */
+	protected DPGSModel arcFilterModel;
+
+	/**
+	 * When derived features are generated on demand (lazy mode), this map
+	 * keeps the inputs whose derived features are currently resident, in
+	 * access order. The derived features of the least recently used input are
+	 * discarded when the map exceeds <code>lazyCacheSize</code>. It is
+	 * <code>null</code> when all derived features are generated up front.
+	 */
+	protected LinkedHashMap<DPGSInput, Boolean> lazyFeatureCache;
+
+	/**
+	 * Maximum number of inputs whose derived features are kept in lazy mode.
+	 */
+	protected int lazyCacheSize;
+
+	/**
+	 * Reusable buffer of derived feature codes used during template
+	 * instantiation.
+	 */
+	protected IntArrayList featureBuffer;
+
+	/**
+	 * Number of inference/update calls whose input had its derived features
+	 * in the lazy cache.
+	 */
+	protected long numLazyCacheHits;
+
+	/**
+	 * Number of inputs whose derived features were generated on demand.
+	 */
+	protected long numLazyCacheMisses;
+
 	/**
 	 * Create a new model with the given root node.
 	 * 
@@ -115,6 +159,7 @@ public class DPGSModel implements Model {
 		this.parameters = new HashMap<Integer, AveragedParameter>();
 		this.updatedParameters = new HashSet<AveragedParameter>();
 		this.explicitEncoding = new MapEncoding<Feature>();
+		this.featureBuffer = new IntArrayList();
 	}
 
 	/**
@@ -141,11 +186,133 @@ public class DPGSModel implements Model {
 
 		// Explicit encoding just references the other one.
 		this.explicitEncoding = other.explicitEncoding;
+		this.featureBuffer = new IntArrayList();
 
 		// Templates.
+		this.edgeTemplates = other.edgeTemplates;
 		this.grandparentTemplates = other.grandparentTemplates;
 		this.leftSiblingsTemplates = other.leftSiblingsTemplates;
 		this.rightSiblingsTemplates = other.rightSiblingsTemplates;
+
+		// Feature generation options.
+		this.arcPruner = other.arcPruner;
+		this.arcFilterModel = other.arcFilterModel;
+
+		/*
+		 * The lazy cache is shared since the resident derived features belong
+		 * to the inputs and not to the model.
+		 */
+		this.lazyFeatureCache = other.lazyFeatureCache;
+		this.lazyCacheSize = other.lazyCacheSize;
+	}
+
+	/**
+	 * Enable lazy generation of derived features. In this mode, the dataset
+	 * keeps only basic features and the derived features of an input are
+	 * generated when it is first used by inference or update. Only the
+	 * derived features of the <code>cacheSize</code> most recently used inputs
+	 * are kept in memory, which trades some CPU time for a much smaller
+	 * working set.
+	 * 
+	 * @param cacheSize
+	 */
+	@SuppressWarnings("serial")
+	public void setLazyFeatureGeneration(int cacheSize) {
+		this.lazyCacheSize = Math.max(1, cacheSize);
+		this.lazyFeatureCache = new LinkedHashMap<DPGSInput, Boolean>(16,
+				0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(
+					Entry<DPGSInput, Boolean> eldest) {
+				if (size() <= lazyCacheSize)
+					return false;
+				eldest.getKey().cleanDerivedFeatures();
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * Return whether derived features are generated on demand.
+	 * 
+	 * @return
+	 */
+	public boolean isLazyFeatureGeneration() {
+		return lazyFeatureCache != null;
+	}
+
+	/**
+	 * Guarantee that the derived features of the given input are available.
+	 * When derived features are generated up front, this method does nothing.
+	 * Otherwise, generate them if the input is not in the lazy cache.
+	 * 
+	 * @param input
+	 */
+	public void ensureDerivedFeatures(DPGSInput input) {
+		ensureDerivedFeatures(input, null);
+	}
+
+	/**
+	 * Guarantee that the derived features of the given input are available,
+	 * including the features of the arcs in <code>correct</code> (if it is
+	 * not <code>null</code>) even when the arc pruner would prune them. If the
+	 * resident features were generated without the correct arcs, they are
+	 * generated again.
+	 * 
+	 * @param input
+	 * @param correct
+	 */
+	public void ensureDerivedFeatures(DPGSInput input, DPGSOutput correct) {
+		if (lazyFeatureCache == null)
+			return;
+		synchronized (lazyFeatureCache) {
+			/*
+			 * The cached value indicates whether the features of the correct
+			 * arcs are present. Without arc pruning, all arcs are present.
+			 */
+			Boolean withCorrect = lazyFeatureCache.get(input);
+			if (withCorrect != null
+					&& (withCorrect || correct == null || arcPruner == null)) {
+				++numLazyCacheHits;
+				return;
+			}
+			++numLazyCacheMisses;
+			if (withCorrect != null)
+				input.cleanDerivedFeatures();
+			generateFeaturesOneInput(input, correct);
+			input.compactFeatures();
+			lazyFeatureCache.put(input, correct != null || arcPruner == null);
+		}
+	}
+
+	/**
+	 * Forget the given input in the lazy cache, if it is there. This must be
+	 * called when the dataset discards the input object (e.g., when a cached
+	 * input array evicts it), so that the lazy cache does not keep it alive.
+	 * A new object of the same example is a miss, since it does not hold
+	 * derived features.
+	 * 
+	 * @param input
+	 */
+	public void releaseDerivedFeatures(DPGSInput input) {
+		if (lazyFeatureCache == null)
+			return;
+		synchronized (lazyFeatureCache) {
+			lazyFeatureCache.remove(input);
+		}
+	}
+
+	/**
+	 * Return the fraction of uses of inputs whose derived features were
+	 * already resident in the lazy cache.
+	 * 
+	 * @return
+	 */
+	public double getLazyCacheHitRatio() {
+		long total = numLazyCacheHits + numLazyCacheMisses;
+		if (total == 0)
+			return 0d;
+		return ((double) numLazyCacheHits) / total;
 	}
 
 	/**
@@ -176,6 +343,95 @@ public class DPGSModel implements Model {
 		return score;
 	}
 
+	/**
+	 * Return the sum of the scores of the features of the given factor
+	 * (identifier within the feature pool of the given input) or
+	 * <code>NaN</code> if the factor does not exist (negative identifier).
+	 * 
+	 * @param input
+	 * @param factor
+	 * @return
+	 */
+	public double getFeatureListScore(DPGSInput input, int factor) {
+		if (factor < 0)
+			return Double.NaN;
+		int[] ftrs = input.getFeatures();
+		int end = input.getFeaturesEnd(factor);
+		double score = 0d;
+		for (int idx = input.getFeaturesBegin(factor); idx < end; ++idx) {
+			AveragedParameter param = parameters.get(ftrs[idx]);
+			if (param != null)
+				score += param.get();
+		}
+		return score;
+	}
+
+	/**
+	 * Return the score of the edge factor (idxHead, idxModifier) by
+	 * instantiating this model edge templates over the basic features of the
+	 * given input. The explicit encoding of this model is not modified, i.e.,
+	 * unseen features are ignored. Return <code>NaN</code> if the edge factor
+	 * does not exist.
+	 * 
+	 * @param input
+	 * @param idxHead
+	 * @param idxModifier
+	 * @return
+	 */
+	public double getEdgeScoreFromBasicFeatures(DPGSInput input, int idxHead,
+			int idxModifier) {
+		if (input.getBasicEdgeFeatures(idxHead, idxModifier) == null)
+			return Double.NaN;
+		explicitEncoding.setReadOnly(true);
+		IntArrayList ftrs = featureBuffer;
+		ftrs.clear();
+		for (int idxTpl = 0; idxTpl < edgeTemplates.length; ++idxTpl) {
+			DPEdgeTemplate tpl = (DPEdgeTemplate) edgeTemplates[idxTpl];
+			try {
+				tpl.instantiateEdgeDerivedFeatures(input, ftrs,
+						explicitEncoding, idxHead, idxModifier);
+			} catch (CloneNotSupportedException e) {
+				LOG.error("Instantiating feature", e);
+			}
+		}
+		double score = 0d;
+		int numFtrs = ftrs.size();
+		for (int idxFtr = 0; idxFtr < numFtrs; ++idxFtr) {
+			AveragedParameter param = parameters.get(ftrs.get(idxFtr));
+			if (param != null)
+				score += param.get();
+		}
+		return score;
+	}
+
+	/**
+	 * Set an arc pruner that is used to avoid the generation of grandparent
+	 * and siblings features for arcs that are unlikely according to the edge
+	 * scores of the given filter model. The filter model must be based on the
+	 * same basic feature encoding of the datasets given to this model.
+	 * 
+	 * @param arcPruner
+	 * @param arcFilterModel
+	 */
+	public void setArcPruning(DPGSArcPruner arcPruner, DPGSModel arcFilterModel) {
+		this.arcPruner = arcPruner;
+		this.arcFilterModel = arcFilterModel;
+	}
+
+	/**
+	 * Return the score of the edge factor specified by the given parameters.
+	 * 
+	 * @param input
+	 * @param idxHead
+	 * @param idxModifier
+	 * @return
+	 */
+	public double getEdgeFactorScore(DPGSInput input, int idxHead,
+			int idxModifier) {
+		return getFeatureListScore(input,
+				input.getEdgeFactor(idxHead, idxModifier));
+	}
+
 	/**
 	 * Return the score of the grandparent factor specified by the given
 	 * parameters.
@@ -188,7 +444,7 @@ public class DPGSModel implements Model {
 	 */
 	public double getGrandparentFactorScore(DPGSInput input, int idxHead,
 			int idxModifier, int idxGrandparent) {
-		return getFeatureListScore(input.getGrandparentFeatures(idxHead,
+		return getFeatureListScore(input, input.getGrandparentFactor(idxHead,
 				idxModifier, idxGrandparent));
 	}
 
@@ -204,8 +460,8 @@ public class DPGSModel implements Model {
 	 */
 	public double getSiblingsFactorScore(DPGSInput input, int idxHead,
 			int idxModifier, int idxSibling) {
-		return getFeatureListScore(input.getSiblingsFeatures(idxHead,
-				idxModifier, idxSibling));
+		return getFeatureListScore(input,
+				input.getSiblingsFactor(idxHead, idxModifier, idxSibling));
 	}
 
 	@Override
@@ -232,6 +488,9 @@ public class DPGSModel implements Model {
 	 */
 	protected double update(DPGSInput input, DPGSOutput outputCorrect,
 			DPGSOutput outputPredicted, double learningRate) {
+		// Derived features may have been evicted since inference.
+		ensureDerivedFeatures(input, outputCorrect);
+
 		// Per-factor loss value for this example.
 		double loss = 0d;
 
@@ -431,12 +690,8 @@ public class DPGSModel implements Model {
 	 */
 	protected void updateEdgeFactorParams(DPGSInput input, int idxHead,
 			int idxModifier, double learnRate) {
-		int[] ftrs = input.getEdgeFeatures(idxHead, idxModifier);
-		if (ftrs == null)
-			// Inexistent factor. Do nothing.
-			return;
-		for (int idxFtr = 0; idxFtr < ftrs.length; ++idxFtr)
-			updateFeatureParam(ftrs[idxFtr], learnRate);
+		updateFactorParams(input, input.getEdgeFactor(idxHead, idxModifier),
+				learnRate);
 	}
 
 	/**
@@ -450,14 +705,8 @@ public class DPGSModel implements Model {
 	 */
 	protected void updateGrandparentFactorParams(DPGSInput input, int idxHead,
 			int idxModifier, int idxGrandparent, double learnRate) {
-		int[] ftrs = input.getGrandparentFeatures(idxHead, idxModifier,
-				idxGrandparent);
-		if (ftrs == null)
-			// Inexistent factor. Do nothing.
-			return;
-		for (int idxFtr = 0; idxFtr < ftrs.length; ++idxFtr)
-			updateFeatureParam(ftrs[idxFtr], learnRate);
-
+		updateFactorParams(input, input.getGrandparentFactor(idxHead,
+				idxModifier, idxGrandparent), learnRate);
 	}
 
 	/**
@@ -471,13 +720,28 @@ public class DPGSModel implements Model {
 	 */
 	protected void updateSiblingsFactorParams(DPGSInput input, int idxHead,
 			int idxModifier, int idxSibling, double learnRate) {
-		int[] ftrs = input
-				.getSiblingsFeatures(idxHead, idxModifier, idxSibling);
-		if (ftrs == null)
-			// Inexistent factor.
+		updateFactorParams(input,
+				input.getSiblingsFactor(idxHead, idxModifier, idxSibling),
+				learnRate);
+	}
+
+	/**
+	 * Update all feature parameters in the given factor (identifier within the
+	 * feature pool of the given input).
+	 * 
+	 * @param input
+	 * @param factor
+	 * @param learnRate
+	 */
+	protected void updateFactorParams(DPGSInput input, int factor,
+			double learnRate) {
+		if (factor < 0)
+			// Inexistent factor. Do nothing.
 			return;
-		for (int idxFtr = 0; idxFtr < ftrs.length; ++idxFtr)
-			updateFeatureParam(ftrs[idxFtr], learnRate);
+		int[] ftrs = input.getFeatures();
+		int end = input.getFeaturesEnd(factor);
+		for (int idx = input.getFeaturesBegin(factor); idx < end; ++idx)
+			updateFeatureParam(ftrs[idx], learnRate);
 	}
 
 	/**
@@ -672,15 +936,25 @@ public class DPGSModel implements Model {
 		reader.close();
 	}
 
-	protected void instantiateSiblingsFeatures(DPGSInput input, int idxHead,
-			int idxModifier, int idxPrevModifier) {
+	protected void instantiateSiblingsFeatures(DPGSInput input,
+			boolean[][] allowedArcs, int idxHead, int idxModifier,
+			int idxPrevModifier) {
 		// Skip non-existent edges.
 		if (input.getBasicSiblingsFeatures(idxHead, idxModifier,
 				idxPrevModifier) == null)
 			return;
 
+		// Skip pruned edges.
+		int numTkns = input.size();
+		if (!DPGSArcPruner.isAllowed(allowedArcs, numTkns, idxHead,
+				idxModifier)
+				|| !DPGSArcPruner.isAllowed(allowedArcs, numTkns, idxHead,
+						idxPrevModifier))
+			return;
+
 		// List of generated features for the current factor.
-		LinkedList<Integer> ftrs = new LinkedList<Integer>();
+		IntArrayList ftrs = featureBuffer;
+		ftrs.clear();
 
 		/*
 		 * Instantiate edge features and add them to active features list.
@@ -696,13 +970,7 @@ public class DPGSModel implements Model {
 		}
 
 		// Set feature vector of this input.
-		int numFtrs = ftrs.size();
-		int[] ftrVals = new int[numFtrs];
-		Iterator<Integer> itFtrVals = ftrs.iterator();
-		for (int idxFtr = 0; idxFtr < numFtrs; ++idxFtr)
-			ftrVals[idxFtr] = itFtrVals.next();
-		input.setSiblingsFeatures(idxHead, idxModifier, idxPrevModifier,
-				ftrVals);
+		input.setSiblingsFeatures(idxHead, idxModifier, idxPrevModifier, ftrs);
 	}
 
 	/**
@@ -740,20 +1008,46 @@ public class DPGSModel implements Model {
 	}
 
 	public void generateFeaturesOneInput(DPGSInput input) {
+		generateFeaturesOneInput(input, null);
+	}
+
+	/**
+	 * Generate the derived features of the given input. If the arc pruner is
+	 * set, the features of pruned arcs are not generated, except for the arcs
+	 * of <code>correct</code> (when it is not <code>null</code>). Training
+	 * inputs must give their correct output, otherwise the correct structure
+	 * may become unreachable.
+	 * 
+	 * @param input
+	 * @param correct
+	 */
+	public void generateFeaturesOneInput(DPGSInput input, DPGSOutput correct) {
 		// // TODO test
 		// DPGSOutput output = dataset.getOutput(idxEx);
 
 		// Number of tokens within the current input.
 		int numTkns = input.size();
 
+		// Arcs that survive pruning (null means no pruning).
+		boolean[][] allowedArcs = null;
+		if (arcPruner != null)
+			allowedArcs = arcPruner.prune(arcFilterModel, input,
+					correct == null ? null : correct.getHeads());
+
 		for (int idxHead = 0; idxHead < numTkns; ++idxHead) {
 			for (int idxModifier = 0; idxModifier < numTkns; ++idxModifier) {
+				// Skip pruned edges and their higher-order factors.
+				if (!DPGSArcPruner.isAllowed(allowedArcs, numTkns, idxHead,
+						idxModifier))
+					continue;
+
 				//
 				// Edge features.
 				//
 				if (input.getBasicEdgeFeatures(idxHead, idxModifier) != null) {
 					// List of generated features for the current factor.
-					LinkedList<Integer> ftrs = new LinkedList<Integer>();
+					IntArrayList ftrs = featureBuffer;
+					ftrs.clear();
 
 					/*
 					 * Instantiate edge features and add them to active features
@@ -769,15 +1063,8 @@ public class DPGSModel implements Model {
 						}
 					}
 
-					// Convert the list of feature codes to an array.
-					int numFtrs = ftrs.size();
-					int[] ftrVals = new int[numFtrs];
-					Iterator<Integer> itFtrVals = ftrs.iterator();
-					for (int idxFtr = 0; idxFtr < numFtrs; ++idxFtr)
-						ftrVals[idxFtr] = itFtrVals.next();
-
 					// Set feature vector of this input.
-					input.setEdgeFeatures(idxHead, idxModifier, ftrVals);
+					input.setEdgeFeatures(idxHead, idxModifier, ftrs);
 
 					// // TODO test
 					// if (output.getHead(idxModifier) == idxHead)
@@ -795,8 +1082,14 @@ public class DPGSModel implements Model {
 							idxGrandparent) == null)
 						continue;
 
+					// Skip pruned grandparent edges.
+					if (!DPGSArcPruner.isAllowed(allowedArcs, numTkns,
+							idxGrandparent, idxHead))
+						continue;
+
 					// List of generated features for the current factor.
-					LinkedList<Integer> ftrs = new LinkedList<Integer>();
+					IntArrayList ftrs = featureBuffer;
+					ftrs.clear();
 
 					/*
 					 * Instantiate edge features and add them to active features
@@ -814,13 +1107,8 @@ public class DPGSModel implements Model {
 					}
 
 					// Set feature vector of this input.
-					int numFtrs = ftrs.size();
-					int[] ftrVals = new int[numFtrs];
-					Iterator<Integer> itFtrVals = ftrs.iterator();
-					for (int idxFtr = 0; idxFtr < numFtrs; ++idxFtr)
-						ftrVals[idxFtr] = itFtrVals.next();
 					input.setGrandparentFeatures(idxHead, idxModifier,
-							idxGrandparent, ftrVals);
+							idxGrandparent, ftrs);
 
 					// // TODO test
 					// if (output.getHead(idxModifier) == idxHead
@@ -842,8 +1130,8 @@ public class DPGSModel implements Model {
 
 			for (int idxModifier = 0; idxModifier <= idxHead; ++idxModifier) {
 				// Special factors: (idxHead, idxModifier, START).
-				instantiateSiblingsFeatures(input, idxHead, idxModifier,
-						idxHead);
+				instantiateSiblingsFeatures(input, allowedArcs, idxHead,
+						idxModifier, idxHead);
 
 				// // TODO test
 				// boolean isModifier = (idxModifier == idxHead || output
@@ -857,8 +1145,8 @@ public class DPGSModel implements Model {
 
 				// Remaining factors.
 				for (int idxPrevModifier = 0; idxPrevModifier < idxModifier; ++idxPrevModifier) {
-					instantiateSiblingsFeatures(input, idxHead, idxModifier,
-							idxPrevModifier);
+					instantiateSiblingsFeatures(input, allowedArcs, idxHead,
+							idxModifier, idxPrevModifier);
 
 					// // TODO test
 					// if (isModifier
@@ -884,8 +1172,8 @@ public class DPGSModel implements Model {
 
 			for (int idxModifier = idxHead + 1; idxModifier <= numTkns; ++idxModifier) {
 				// Special factors: (idxHead, idxModifier, START).
-				instantiateSiblingsFeatures(input, idxHead, idxModifier,
-						numTkns);
+				instantiateSiblingsFeatures(input, allowedArcs, idxHead,
+						idxModifier, numTkns);
 
 				// // TODO test
 				// boolean isModifier = (idxModifier == numTkns || output
@@ -899,8 +1187,8 @@ public class DPGSModel implements Model {
 
 				// Remaining factors.
 				for (int idxPrevModifier = idxHead + 1; idxPrevModifier < idxModifier; ++idxPrevModifier) {
-					instantiateSiblingsFeatures(input, idxHead, idxModifier,
-							idxPrevModifier);
+					instantiateSiblingsFeatures(input, allowedArcs, idxHead,
+							idxModifier, idxPrevModifier);
 
 					// // TODO test
 					// if (isModifier
@@ -1,11 +1,11 @@
 package br.pucrio.inf.learn.structlearning.discriminative.application.dpgs;
 
 import java.io.Serializable;
-import java.util.List;
 
 import br.pucrio.inf.learn.structlearning.discriminative.application.dp.Feature;
 import br.pucrio.inf.learn.structlearning.discriminative.data.encoding.FeatureEncoding;
 import br.pucrio.inf.learn.structlearning.discriminative.data.encoding.MapEncoding;
+import br.pucrio.inf.learn.util.IntArrayList;
 
 /**
  * Feature template that conjoins a given set of basic features.
@@ -46,30 +46,37 @@ public class DPGSTemplate implements Serializable {
 	/**
 	 * Instantiate derived features based on this template and the given array
 	 * of basic features. New derived features are encoded by the given encoding
-	 * and the resulting code is inserted in the <code>derivedFeatures</code>
-	 * list.
+	 * and the resulting code is appended to the <code>derivedFeatures</code>
+	 * buffer.
+	 * 
+	 * The values of the derived feature are written in the temporary feature,
+	 * which is used to look up the encoding. Thus, a new feature object is
+	 * only allocated when an unseen feature is inserted in the encoding.
+	 * Unseen features are skipped when the encoding is read-only.
 	 * 
 	 * @param basicFeatures
 	 * @param idxFtrInTemplate
 	 * @param derivedFeatures
 	 * @param encoding
-	 * @param currentValues
 	 * @throws CloneNotSupportedException
 	 */
 	protected void instantiateDerivedFeatures(int[][] basicFeatures,
-			int idxFtrInTemplate, List<Integer> derivedFeatures,
+			int idxFtrInTemplate, IntArrayList derivedFeatures,
 			MapEncoding<Feature> encoding) throws CloneNotSupportedException {
 		int[] ftrs = basicFeatures[featureIndexes[idxFtrInTemplate]];
 		int numFtrs = ftrs.length;
+		boolean last = (idxFtrInTemplate == featureIndexes.length - 1);
 
 		for (int idxFtr = 0; idxFtr < numFtrs; ++idxFtr) {
-			int ftrVal = ftrs[idxFtr];
-			tempFeature.setValue(idxFtrInTemplate, ftrVal);
-			if (idxFtrInTemplate == featureIndexes.length - 1) {
+			tempFeature.setValue(idxFtrInTemplate, ftrs[idxFtr]);
+			if (last) {
 				int code = encoding.getCodeByValue(tempFeature);
-				if (code == FeatureEncoding.UNSEEN_VALUE_CODE)
+				if (code == FeatureEncoding.UNSEEN_VALUE_CODE) {
+					if (encoding.isReadOnly())
+						continue;
 					// Unseen feature. Create a new instance.
 					code = encoding.put(tempFeature.clone());
+				}
 				derivedFeatures.add(code);
 			} else {
 				instantiateDerivedFeatures(basicFeatures, idxFtrInTemplate + 1,
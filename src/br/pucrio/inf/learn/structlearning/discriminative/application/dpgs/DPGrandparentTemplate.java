@@ -1,9 +1,8 @@
 package br.pucrio.inf.learn.structlearning.discriminative.application.dpgs;
 
-import java.util.List;
-
 import br.pucrio.inf.learn.structlearning.discriminative.application.dp.Feature;
 import br.pucrio.inf.learn.structlearning.discriminative.data.encoding.MapEncoding;
+import br.pucrio.inf.learn.util.IntArrayList;
 
 /**
  * Feature template that conjoins a given set of basic features.
@@ -41,7 +40,7 @@ public class DPGrandparentTemplate extends DPGSTemplate {
 	 * @throws CloneNotSupportedException
 	 */
 	public void instantiateGrandparentDerivedFeatures(DPGSInput input,
-			List<Integer> derivedFeatures, MapEncoding<Feature> encoding,
+			IntArrayList derivedFeatures, MapEncoding<Feature> encoding,
 			int idxHead, int idxModifier, int idxGrandparent)
 			throws CloneNotSupportedException {
 		int[][] basicFeatures = input.getBasicGrandparentFeatures(idxHead,
@@ -1,9 +1,8 @@
 package br.pucrio.inf.learn.structlearning.discriminative.application.dpgs;
 
-import java.util.List;
-
 import br.pucrio.inf.learn.structlearning.discriminative.application.dp.Feature;
 import br.pucrio.inf.learn.structlearning.discriminative.data.encoding.MapEncoding;
+import br.pucrio.inf.learn.util.IntArrayList;
 
 public class DPSiblingsTemplate extends DPGSTemplate {
 
@@ -38,7 +37,7 @@ public class DPSiblingsTemplate extends DPGSTemplate {
 	 * @throws CloneNotSupportedException
 	 */
 	public void instantiateSiblingsDerivedFeatures(DPGSInput input,
-			List<Integer> derivedFeatures, MapEncoding<Feature> encoding,
+			IntArrayList derivedFeatures, MapEncoding<Feature> encoding,
 			int idxHead, int idxModifier, int idxGrandparent)
 			throws CloneNotSupportedException {
 		int[][] basicFeatures = input.getBasicSiblingsFeatures(idxHead,
@@ -1,9 +1,13 @@
 package br.pucrio.inf.learn.structlearning.discriminative.application.pq.data;
 
+import java.io.IOException;
 import java.util.Collection;
 import java.util.Iterator;
 
 import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleInput;
+import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleInputCodec;
+import br.pucrio.inf.learn.util.BinaryInput;
+import br.pucrio.inf.learn.util.BinaryOutput;
 
 /**
  * Person-Quotation input structure.
@@ -13,6 +17,23 @@ import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleInput;
  */
 public class PQInput2 implements ExampleInput {
 
+	/**
+	 * Binary codec of this input type (see <code>write(BinaryOutput)</code>).
+	 */
+	public static final ExampleInputCodec CODEC = new ExampleInputCodec(
+			ExampleInputCodec.TYPE_PQ) {
+		@Override
+		public void encode(ExampleInput input, BinaryOutput out)
+				throws IOException {
+			((PQInput2) input).write(out);
+		}
+
+		@Override
+		public ExampleInput decode(BinaryInput in) throws IOException {
+			return read(in);
+		}
+	};
+
 	/**
 	 * Identifier of the document that this example belongs to.
 	 */
@@ -31,6 +52,13 @@ public class PQInput2 implements ExampleInput {
 	 */
 	private int[][][] features;
 
+	/**
+	 * Create an empty input structure to be filled by
+	 * <code>read(BinaryInput)</code>.
+	 */
+	private PQInput2() {
+	}
+
 	/**
 	 * Create a new PQ input using the given docID and the given list of feature
 	 * codes.
@@ -187,4 +215,67 @@ public class PQInput2 implements ExampleInput {
 
 	}
 
+	/**
+	 * Write this input to the given output. Each quotation is written as its
+	 * indexes, the indexes of its coreferences and one array of delta-coded
+	 * feature codes per coreference.
+	 * 
+	 * @param out
+	 */
+	public void write(BinaryOutput out) {
+		out.writeString(docId);
+		out.writeVarInt(quotationIndexes.length);
+		for (Quotation quotation : quotationIndexes) {
+			int[] quotationIndex = quotation.getQuotationIndex();
+			out.writeSignedVarInt(quotationIndex[0]);
+			out.writeSignedVarInt(quotationIndex[1]);
+			int numCorefs = quotation.getNumberOfCoreferences();
+			out.writeVarInt(numCorefs);
+			for (int coref = 0; coref < numCorefs; ++coref) {
+				int[] corefIndex = quotation.getCoreferenceIndex(coref);
+				out.writeSignedVarInt(corefIndex[0]);
+				out.writeSignedVarInt(corefIndex[1]);
+			}
+		}
+		out.writeVarInt(features.length);
+		for (int[][] quotation : features) {
+			out.writeVarInt(quotation.length);
+			for (int[] coref : quotation)
+				out.writeCodes(coref);
+		}
+	}
+
+	/**
+	 * Read an input written by <code>write(BinaryOutput)</code>.
+	 * 
+	 * @param in
+	 * @return
+	 * @throws IOException
+	 */
+	public static PQInput2 read(BinaryInput in) throws IOException {
+		PQInput2 input = new PQInput2();
+		input.docId = in.readString();
+		input.quotationIndexes = new Quotation[in.readVarInt()];
+		for (int idx = 0; idx < input.quotationIndexes.length; ++idx) {
+			int quotationStart = in.readSignedVarInt();
+			int quotationEnd = in.readSignedVarInt();
+			Quotation quotation = new Quotation(in.readVarInt());
+			quotation.setQuotationIndex(quotationStart, quotationEnd);
+			int numCorefs = quotation.getNumberOfCoreferences();
+			for (int coref = 0; coref < numCorefs; ++coref) {
+				int corefStart = in.readSignedVarInt();
+				int corefEnd = in.readSignedVarInt();
+				quotation.setCoreferenceIndex(coref, corefStart, corefEnd);
+			}
+			input.quotationIndexes[idx] = quotation;
+		}
+		input.features = new int[in.readVarInt()][][];
+		for (int idx = 0; idx < input.features.length; ++idx) {
+			int[][] quotation = new int[in.readVarInt()][];
+			for (int coref = 0; coref < quotation.length; ++coref)
+				quotation[coref] = in.readCodes();
+			input.features[idx] = quotation;
+		}
+		return input;
+	}
 }
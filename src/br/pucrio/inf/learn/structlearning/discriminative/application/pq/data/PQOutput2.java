@@ -1,11 +1,15 @@
 package br.pucrio.inf.learn.structlearning.discriminative.application.pq.data;
 
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collection;
 
 import sun.reflect.generics.reflectiveObjects.NotImplementedException;
 import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleInput;
 import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleOutput;
+import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleOutputCodec;
+import br.pucrio.inf.learn.util.BinaryInput;
+import br.pucrio.inf.learn.util.BinaryOutput;
 
 /**
  * Output structure for person-quotation. A vector of people, one for each
@@ -15,6 +19,35 @@ import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleOutput;
  * 
  */
 public class PQOutput2 implements ExampleOutput {
+	/**
+	 * Binary codec of this output type. The authors are written as
+	 * variable-length integers.
+	 */
+	public static final ExampleOutputCodec CODEC = new ExampleOutputCodec(
+			ExampleOutputCodec.TYPE_PQ) {
+		@Override
+		public void encode(ExampleOutput output, BinaryOutput out) {
+			int[] values = ((PQOutput2) output).authors;
+			out.writeVarInt(values.length);
+			for (int value : values)
+				out.writeSignedVarInt(value);
+		}
+
+		@Override
+		public ExampleOutput decode(BinaryInput in) throws IOException {
+			PQOutput2 output = new PQOutput2(in.readVarInt());
+			int[] values = output.authors;
+			for (int idx = 0; idx < values.length; ++idx)
+				values[idx] = in.readSignedVarInt();
+			return output;
+		}
+
+		@Override
+		public int size(ExampleOutput output) {
+			return ((PQOutput2) output).authors.length;
+		}
+	};
+
 	/*
 	 * Author indexes.
 	 */
@@ -1,11 +1,15 @@
 package br.pucrio.inf.learn.structlearning.discriminative.application.rank;
 
+import java.io.IOException;
 import java.util.Collection;
 import java.util.Iterator;
 
 import sun.reflect.generics.reflectiveObjects.NotImplementedException;
 import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleInput;
 import br.pucrio.inf.learn.structlearning.discriminative.data.DatasetException;
+import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleInputCodec;
+import br.pucrio.inf.learn.util.BinaryInput;
+import br.pucrio.inf.learn.util.BinaryOutput;
 
 /**
  * Ranking input structure. It prepresents a query and a list of items
@@ -16,6 +20,23 @@ import br.pucrio.inf.learn.structlearning.discriminative.data.DatasetException;
  */
 public class RankInput implements ExampleInput {
 
+	/**
+	 * Binary codec of this input type (see <code>write(BinaryOutput)</code>).
+	 */
+	public static final ExampleInputCodec CODEC = new ExampleInputCodec(
+			ExampleInputCodec.TYPE_RANK) {
+		@Override
+		public void encode(ExampleInput input, BinaryOutput out)
+				throws IOException {
+			((RankInput) input).write(out);
+		}
+
+		@Override
+		public ExampleInput decode(BinaryInput in) throws IOException {
+			return read(in);
+		}
+	};
+
 	/**
 	 * Query id.
 	 */
@@ -33,6 +54,13 @@ public class RankInput implements ExampleInput {
 	 */
 	private int[][] features;
 
+	/**
+	 * Create an empty input structure to be filled by
+	 * <code>read(BinaryInput)</code>.
+	 */
+	private RankInput() {
+	}
+
 	/**
 	 * Create a new rank input using the given query ID and the list of items
 	 * features.
@@ -154,4 +182,43 @@ public class RankInput implements ExampleInput {
 	public long getQueryId() {
 		return queryId;
 	}
+
+	/**
+	 * Write this input to the given output. Feature arrays are written as
+	 * delta-coded codes.
+	 * 
+	 * @param out
+	 */
+	public void write(BinaryOutput out) {
+		out.writeVarLong(queryId);
+		out.writeVarInt(basicFeatures.length);
+		for (int[] ftrs : basicFeatures)
+			out.writeCodes(ftrs);
+		out.writeBoolean(features != null);
+		if (features != null)
+			for (int[] ftrs : features)
+				out.writeCodes(ftrs);
+	}
+
+	/**
+	 * Read an input written by <code>write(BinaryOutput)</code>.
+	 * 
+	 * @param in
+	 * @return
+	 * @throws IOException
+	 */
+	public static RankInput read(BinaryInput in) throws IOException {
+		RankInput input = new RankInput();
+		input.queryId = in.readVarLong();
+		int numItems = in.readVarInt();
+		input.basicFeatures = new int[numItems][];
+		for (int item = 0; item < numItems; ++item)
+			input.basicFeatures[item] = in.readCodes();
+		if (in.readBoolean()) {
+			input.features = new int[numItems][];
+			for (int item = 0; item < numItems; ++item)
+				input.features[item] = in.readCodes();
+		}
+		return input;
+	}
 }
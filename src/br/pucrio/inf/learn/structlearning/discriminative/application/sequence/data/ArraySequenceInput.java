@@ -1,11 +1,16 @@
 package br.pucrio.inf.learn.structlearning.discriminative.application.sequence.data;
 
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.Iterator;
 
+import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleInput;
+import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleInputCodec;
 import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleOutput;
+import br.pucrio.inf.learn.util.BinaryInput;
+import br.pucrio.inf.learn.util.BinaryOutput;
 
 /**
  * Input sequence structure.
@@ -21,6 +26,23 @@ import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleOutput;
  */
 public class ArraySequenceInput implements SequenceInput {
 
+	/**
+	 * Binary codec of this input type (see <code>write(BinaryOutput)</code>).
+	 */
+	public static final ExampleInputCodec CODEC = new ExampleInputCodec(
+			ExampleInputCodec.TYPE_SEQUENCE) {
+		@Override
+		public void encode(ExampleInput input, BinaryOutput out)
+				throws IOException {
+			((ArraySequenceInput) input).write(out);
+		}
+
+		@Override
+		public ExampleInput decode(BinaryInput in) throws IOException {
+			return read(in);
+		}
+	};
+
 	/**
 	 * Identifier of this input example.
 	 */
@@ -43,6 +65,13 @@ public class ArraySequenceInput implements SequenceInput {
 	 */
 	private double[][] featureWeights;
 
+	/**
+	 * Create an empty input structure to be filled by
+	 * <code>read(BinaryInput)</code>.
+	 */
+	private ArraySequenceInput() {
+	}
+
 	/**
 	 * Create a new sequence using the given ID and the given list of feature
 	 * codes. The feature weights are assumed to be one for features present in
@@ -251,4 +280,56 @@ public class ArraySequenceInput implements SequenceInput {
 			return 0;
 		}
 	}
+
+	/**
+	 * Write this input to the given output. Each token is written as an array
+	 * of delta-coded feature codes followed by the feature weights, unless all
+	 * of them are equal to one (the usual case).
+	 * 
+	 * @param out
+	 */
+	public void write(BinaryOutput out) {
+		out.writeSignedVarInt(trainingIndex);
+		out.writeString(id);
+		out.writeVarInt(featureCodes.length);
+		for (int tkn = 0; tkn < featureCodes.length; ++tkn) {
+			out.writeCodes(featureCodes[tkn]);
+			double[] weights = featureWeights[tkn];
+			boolean unitWeights = true;
+			for (int ftr = 0; unitWeights && ftr < weights.length; ++ftr)
+				unitWeights = (weights[ftr] == 1d);
+			out.writeBoolean(unitWeights);
+			if (!unitWeights)
+				for (double weight : weights)
+					out.writeDouble(weight);
+		}
+	}
+
+	/**
+	 * Read an input written by <code>write(BinaryOutput)</code>.
+	 * 
+	 * @param in
+	 * @return
+	 * @throws IOException
+	 */
+	public static ArraySequenceInput read(BinaryInput in) throws IOException {
+		ArraySequenceInput input = new ArraySequenceInput();
+		input.trainingIndex = in.readSignedVarInt();
+		input.id = in.readString();
+		int numTokens = in.readVarInt();
+		input.featureCodes = new int[numTokens][];
+		input.featureWeights = new double[numTokens][];
+		for (int tkn = 0; tkn < numTokens; ++tkn) {
+			int[] codes = in.readCodes();
+			double[] weights = new double[codes.length];
+			if (in.readBoolean())
+				Arrays.fill(weights, 1d);
+			else
+				for (int ftr = 0; ftr < weights.length; ++ftr)
+					weights[ftr] = in.readDouble();
+			input.featureCodes[tkn] = codes;
+			input.featureWeights[tkn] = weights;
+		}
+		return input;
+	}
 }
@@ -1,11 +1,15 @@
 package br.pucrio.inf.learn.structlearning.discriminative.application.sequence.data;
 
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collection;
 
 import sun.reflect.generics.reflectiveObjects.NotImplementedException;
 import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleInput;
 import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleOutput;
+import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleOutputCodec;
+import br.pucrio.inf.learn.util.BinaryInput;
+import br.pucrio.inf.learn.util.BinaryOutput;
 
 /**
  * Sequence of labels for an input sequence.
@@ -15,6 +19,35 @@ import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleOutput;
  */
 public class ArraySequenceOutput implements SequenceOutput {
 
+	/**
+	 * Binary codec of this output type. The labels are written as
+	 * variable-length integers.
+	 */
+	public static final ExampleOutputCodec CODEC = new ExampleOutputCodec(
+			ExampleOutputCodec.TYPE_SEQUENCE) {
+		@Override
+		public void encode(ExampleOutput output, BinaryOutput out) {
+			int[] values = ((ArraySequenceOutput) output).labels;
+			out.writeVarInt(values.length);
+			for (int value : values)
+				out.writeSignedVarInt(value);
+		}
+
+		@Override
+		public ExampleOutput decode(BinaryInput in) throws IOException {
+			ArraySequenceOutput output = new ArraySequenceOutput(in.readVarInt());
+			int[] values = output.labels;
+			for (int idx = 0; idx < values.length; ++idx)
+				values[idx] = in.readSignedVarInt();
+			return output;
+		}
+
+		@Override
+		public int size(ExampleOutput output) {
+			return ((ArraySequenceOutput) output).labels.length;
+		}
+	};
+
 	/**
 	 * Sequence of labels.
 	 */
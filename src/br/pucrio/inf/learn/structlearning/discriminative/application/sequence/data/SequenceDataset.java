@@ -2,10 +2,8 @@ package br.pucrio.inf.learn.structlearning.discriminative.application.sequence.d
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.PrintStream;
 import java.util.Collection;
@@ -19,8 +17,10 @@ import br.pucrio.inf.learn.structlearning.discriminative.data.Dataset;
 import br.pucrio.inf.learn.structlearning.discriminative.data.DatasetException;
 import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleInputArray;
 import br.pucrio.inf.learn.structlearning.discriminative.data.SimpleExampleInputArray;
+import br.pucrio.inf.learn.structlearning.discriminative.data.encoding.ByteSliceEncoding;
 import br.pucrio.inf.learn.structlearning.discriminative.data.encoding.FeatureEncoding;
 import br.pucrio.inf.learn.structlearning.discriminative.data.encoding.StringMapEncoding;
+import br.pucrio.inf.learn.util.ByteTokenizer;
 
 /**
  * Represent a textual dataset whose examples are sequence of tokens.
@@ -279,9 +279,9 @@ public class SequenceDataset implements Dataset {
 	 * @throws DatasetException
 	 */
 	public void load(String fileName) throws IOException, DatasetException {
-		BufferedReader reader = new BufferedReader(new FileReader(fileName));
-		load(reader);
-		reader.close();
+		ByteTokenizer tokenizer = new ByteTokenizer(fileName);
+		load(tokenizer);
+		tokenizer.close();
 	}
 
 	/**
@@ -293,8 +293,7 @@ public class SequenceDataset implements Dataset {
 	 * @throws IOException
 	 */
 	public void load(InputStream is) throws IOException, DatasetException {
-		BufferedReader reader = new BufferedReader(new InputStreamReader(is));
-		load(reader);
+		load(new ByteTokenizer(is));
 	}
 
 	/**
@@ -319,6 +318,50 @@ public class SequenceDataset implements Dataset {
 			++numTotal;
 		}
 
+		setExamples(inputSequences, outputSequences, numTotal, numAdded);
+	}
+
+	/**
+	 * Load a dataset from the given tokenizer. Feature values and labels are
+	 * encoded from the file bytes, without creating strings, when the
+	 * encodings support it (see <code>ByteSliceEncoding</code>).
+	 * 
+	 * @param tokenizer
+	 * @throws IOException
+	 * @throws DatasetException
+	 */
+	public void load(ByteTokenizer tokenizer) throws IOException,
+			DatasetException {
+		LinkedList<ArraySequenceInput> inputSequences = new LinkedList<ArraySequenceInput>();
+		LinkedList<ArraySequenceOutput> outputSequences = new LinkedList<ArraySequenceOutput>();
+
+		// Parse each example.
+		int numTotal = 0;
+		int numAdded = 0;
+		while (tokenizer.nextDataLine()) {
+			if (parseExample(inputSequences, outputSequences, tokenizer))
+				++numAdded;
+			++numTotal;
+		}
+
+		setExamples(inputSequences, outputSequences, numTotal, numAdded);
+	}
+
+	/**
+	 * Set the loaded examples as the examples of this dataset.
+	 * 
+	 * @param inputSequences
+	 * @param outputSequences
+	 * @param numTotal
+	 *            number of parsed examples.
+	 * @param numAdded
+	 *            number of parsed examples that were not skipped.
+	 * @throws IOException
+	 * @throws DatasetException
+	 */
+	private void setExamples(LinkedList<ArraySequenceInput> inputSequences,
+			LinkedList<ArraySequenceOutput> outputSequences, int numTotal,
+			int numAdded) throws IOException, DatasetException {
 		LOG.info("Skipped " + (numTotal - numAdded) + " examples of "
 				+ numTotal + " (" + (numTotal - numAdded) * 100d / numTotal
 				+ "%)");
@@ -480,6 +523,153 @@ public class SequenceDataset implements Dataset {
 		return false;
 	}
 
+	/**
+	 * Parse the current line of the given tokenizer and load an example. The
+	 * result is the same of <code>parseExample(..., String)</code>, but
+	 * feature values and labels are encoded directly from the line bytes.
+	 * 
+	 * @param sequenceInputs
+	 * @param sequenceOutputs
+	 * @param tokenizer
+	 *            a tokenizer whose current line contains an example.
+	 * 
+	 * @return <code>true</code> if the current line is a valid example.
+	 * 
+	 * @throws DatasetException
+	 *             if there is some format problem with the current line.
+	 */
+	public boolean parseExample(Collection<ArraySequenceInput> sequenceInputs,
+			Collection<ArraySequenceOutput> sequenceOutputs,
+			ByteTokenizer tokenizer) throws DatasetException {
+		byte[] line = tokenizer.getArray();
+
+		// Split tokens.
+		ByteTokenizer.Fields tokens = new ByteTokenizer.Fields();
+		int numTokens = tokenizer.split((byte) '\t', tokens);
+
+		if (numTokens == 0)
+			return false;
+
+		// The first field is the sentence id.
+		String id = tokenizer.toString(tokens.begin(0), tokens.end(0));
+
+		if (id.trim().length() == 0)
+			return false;
+
+		// Special label as bytes.
+		byte[] nonAnnotatedLabel = null;
+		if (nonAnnotatedStateLabel != null)
+			nonAnnotatedLabel = nonAnnotatedStateLabel
+					.getBytes(ByteTokenizer.CHARSET);
+
+		LinkedList<LinkedList<Integer>> sequenceInputAsList = new LinkedList<LinkedList<Integer>>();
+		LinkedList<Integer> sequenceOutputAsList = new LinkedList<Integer>();
+
+		boolean someAnnotatedToken = false;
+
+		ByteTokenizer.Fields features = new ByteTokenizer.Fields();
+		for (int idxTkn = 1; idxTkn < numTokens; ++idxTkn) {
+			// Parse the token features.
+			int numFeatures = features.split(line, tokens.begin(idxTkn),
+					tokens.end(idxTkn), (byte) ' ');
+			int numEmissionFeatures = 0;
+			LinkedList<Integer> featureList = new LinkedList<Integer>();
+			for (int idxFtr = 0; idxFtr < numFeatures - 1; ++idxFtr) {
+				++numEmissionFeatures;
+				int code = put(featureEncoding, line, features.begin(idxFtr),
+						features.length(idxFtr));
+				if (code >= 0)
+					featureList.add(code);
+			}
+
+			if (numEmissionFeatures > maxNumberOfEmissionFeatures)
+				maxNumberOfEmissionFeatures = numEmissionFeatures;
+
+			// The last feature is the token label.
+			int idxLabel = numFeatures - 1;
+			int labelBegin = features.begin(idxLabel);
+			int labelLength = features.length(idxLabel);
+			if (nonAnnotatedLabel != null
+					&& equals(nonAnnotatedLabel, line, labelBegin, labelLength))
+				// Non-annotated token (see parseExample(..., String)).
+				sequenceOutputAsList.add(NON_ANNOTATED_STATE_CODE);
+			else {
+				int code = put(stateEncoding, line, labelBegin, labelLength);
+				if (code < 0)
+					LOG.warn("Unknown label ("
+							+ tokenizer.toString(labelBegin,
+									features.end(idxLabel)) + ") in token "
+							+ (idxTkn - 1) + " of example " + id
+							+ " is unknown");
+				sequenceOutputAsList.add(code);
+				someAnnotatedToken = true;
+			}
+
+			sequenceInputAsList.add(featureList);
+		}
+
+		// Store the loaded example.
+		if (!skipCompletelyNonAnnotatedExamples || someAnnotatedToken) {
+			if (training) {
+				/*
+				 * Training examples must store internally their indexes in the
+				 * array of training examples.
+				 */
+				sequenceInputs.add(new ArraySequenceInput(id, sequenceInputs
+						.size(), sequenceInputAsList));
+				sequenceOutputs.add(new ArraySequenceOutput(
+						sequenceOutputAsList, sequenceOutputAsList.size()));
+			} else {
+				sequenceInputs.add(new ArraySequenceInput(id,
+						sequenceInputAsList));
+				sequenceOutputs.add(new ArraySequenceOutput(
+						sequenceOutputAsList, sequenceOutputAsList.size()));
+			}
+			return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Put the value given by the interval of a byte array in the given
+	 * encoding. A string is created only if the encoding does not support byte
+	 * values.
+	 * 
+	 * @param encoding
+	 * @param bytes
+	 * @param offset
+	 * @param length
+	 * @return
+	 */
+	private static int put(FeatureEncoding<String> encoding, byte[] bytes,
+			int offset, int length) {
+		if (encoding instanceof ByteSliceEncoding)
+			return ((ByteSliceEncoding) encoding).put(bytes, offset, length);
+		return encoding.put(new String(bytes, offset, length,
+				ByteTokenizer.CHARSET));
+	}
+
+	/**
+	 * Return whether the given array is equal to the given interval of
+	 * another array.
+	 * 
+	 * @param value
+	 * @param bytes
+	 * @param offset
+	 * @param length
+	 * @return
+	 */
+	private static boolean equals(byte[] value, byte[] bytes, int offset,
+			int length) {
+		if (value.length != length)
+			return false;
+		for (int idx = 0; idx < length; ++idx)
+			if (value[idx] != bytes[offset + idx])
+				return false;
+		return true;
+	}
+
 	/**
 	 * Save this dataset in the given file.
 	 * 
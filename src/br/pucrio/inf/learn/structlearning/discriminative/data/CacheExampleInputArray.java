@@ -1,366 +1,751 @@
 package br.pucrio.inf.learn.structlearning.discriminative.data;
 
-import java.io.BufferedInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
-import java.nio.channels.Channels;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
-import java.util.ArrayList;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedDeque;
-import java.util.concurrent.ConcurrentSkipListSet;
-
-public class CacheExampleInputArray implements ExampleInputArray {	
-	private static final int initialCapacity = 100;
-	// private static final long MAX_SIZE = 0X000800000L;// 0X100000000L;// 8GB
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import br.pucrio.inf.learn.util.BinaryOutput;
+
+/**
+ * Array of examples stored in a disk file and accessed through a bounded
+ * in-memory cache.
+ *
+ * Examples are encoded by an <code>ExampleInputCodec</code> (optionally with
+ * block compression) and appended to the file by <code>put</code> methods.
+ * The file starts with the codec header. Reads go
+ * through memory-mapped segments of the file, so that no system call or
+ * stream is needed per example. A single background thread prefetches
+ * examples following the order given to <code>load(int[])</code>, staying at
+ * most <code>lookAhead</code> examples ahead of the consumer.
+ *
+ * The cache is limited by the total size (in bytes) of the stored examples
+ * and uses the clock algorithm for eviction. Prefetched examples that were
+ * not consumed yet are pinned and are never evicted. Cache hits do not take
+ * any lock. When an example is not in cache, <code>get</code> decodes it
+ * directly from the mapped file instead of waiting for the prefetcher.
+ *
+ * @author eraldo
+ *
+ */
+public class CacheExampleInputArray implements ExampleInputArray {
+
+	/**
+	 * Logging object.
+	 */
+	private static final Log LOG = LogFactory
+			.getLog(CacheExampleInputArray.class);
 
-	private FileChannel channel;
-	private List<long[]> positionInFileOfExamples;
-	private int numberExamples;
+	/**
+	 * Initial capacity of the example index.
+	 */
+	private static final int INITIAL_CAPACITY = 100;
+
+	/**
+	 * Default number of examples that the prefetcher loads ahead of the
+	 * consumer.
+	 */
+	public static final int DEFAULT_LOOK_AHEAD = 64;
+
+	/**
+	 * Maximum size of a mapped segment. Examples never cross segment
+	 * boundaries.
+	 */
+	private static final long MAX_SEGMENT_SIZE = Integer.MAX_VALUE;
+
+	/**
+	 * Flag of a cache entry that was recently accessed (clock algorithm).
+	 */
+	private static final int REFERENCED = 1;
+
+	/**
+	 * Flag of a cache entry that was prefetched and not consumed yet.
+	 */
+	private static final int PINNED = 2;
+
+	/**
+	 * Codec used to encode the examples in the file.
+	 */
+	private final ExampleInputCodec codec;
+
+	/**
+	 * Whether the records are compressed.
+	 */
+	private final boolean compressed;
+
+	/**
+	 * File that stores the examples.
+	 */
 	private File file;
-	private final long CACHE_SIZE;
-
-	private Map<Integer, ExampleInput> cacheDPGSInput = new ConcurrentHashMap<Integer, ExampleInput>();
-	private long numberMemoryLoad;
-	private ConcurrentLinkedDeque<Integer> indexToLoad;
-	private ConcurrentSkipListSet<Integer> indexLoaded;
-	private Set<Integer> indexRemoved;
-	private Thread producerThread;
-	private Object notifyConsumer;
-	private Object notifyProducer;
-	private boolean continueProducing;
-	
-
-	private class DPGSInputRunnable implements Runnable {
+
+	/**
+	 * Channel used to append examples to the file and to map it.
+	 */
+	private FileChannel channel;
+
+	/**
+	 * Offset of each example within its segment.
+	 */
+	private long[] offsets;
+
+	/**
+	 * Size in bytes of each example (record) in the file.
+	 */
+	private int[] sizes;
+
+	/**
+	 * Segment of each example.
+	 */
+	private int[] segmentOfExample;
+
+	/**
+	 * Number of examples.
+	 */
+	private volatile int numberExamples;
+
+	/**
+	 * Start position of each segment in the file.
+	 */
+	private long[] segmentStarts;
+
+	/**
+	 * Number of bytes written in each segment.
+	 */
+	private long[] segmentLengths;
+
+	/**
+	 * Number of segments.
+	 */
+	private int numberSegments;
+
+	/**
+	 * Mapped view of each segment. A segment is (re)mapped when an example
+	 * beyond its mapped length is requested.
+	 */
+	private volatile MappedByteBuffer[] segments;
+
+	/**
+	 * Maximum total size (in bytes) of the cached examples. The size of an
+	 * example is given by its record in the file.
+	 */
+	private final long cacheSize;
+
+	/**
+	 * Number of examples that the prefetcher loads ahead of the consumer.
+	 */
+	private final int lookAhead;
+
+	/**
+	 * Cached examples and their clock flags.
+	 */
+	private volatile Cache cache;
+
+	/**
+	 * Guard cache insertions and evictions, segment mapping and cache
+	 * resizing. Cache hits do not acquire this lock.
+	 */
+	private final ReentrantLock lock;
+
+	/**
+	 * Current prefetching order (given by the last call to
+	 * <code>load(int[])</code>).
+	 */
+	private volatile int[] order;
+
+	/**
+	 * Position in <code>order</code> of the next example that the consumer is
+	 * expected to request.
+	 */
+	private volatile int consumerPosition;
+
+	/**
+	 * Prefetching thread. It is created on the first call to
+	 * <code>load(int[])</code> and lives until <code>close()</code>.
+	 */
+	private volatile Thread prefetcher;
+
+	/**
+	 * Whether this array was closed.
+	 */
+	private volatile boolean closed;
+
+	/**
+	 * Listener notified of evicted examples or <code>null</code>.
+	 */
+	private volatile EvictionListener evictionListener;
+
+	/**
+	 * Listener of examples evicted from the cache. An evicted example is
+	 * decoded again (as a new object) if it is requested later, so any state
+	 * associated with the evicted object should be discarded.
+	 */
+	public interface EvictionListener {
+		/**
+		 * Called when the given example is evicted from the cache. It is
+		 * called while holding the internal lock of the array, so it must not
+		 * access the array.
+		 *
+		 * @param index
+		 * @param input
+		 */
+		void evicted(int index, ExampleInput input);
+	}
+
+	/**
+	 * Cached examples, indexed by example index, along with clock flags.
+	 */
+	private static class Cache {
+		/**
+		 * Cached example of each index.
+		 */
+		final AtomicReferenceArray<ExampleInput> inputs;
+
+		/**
+		 * Clock flags of each index.
+		 */
+		final AtomicIntegerArray flags;
+
+		/**
+		 * Total size of the cached examples. Guarded by <code>lock</code>.
+		 */
+		long usedSize;
+
+		/**
+		 * Clock hand. Guarded by <code>lock</code>.
+		 */
+		int hand;
+
+		Cache(int capacity) {
+			inputs = new AtomicReferenceArray<ExampleInput>(capacity);
+			flags = new AtomicIntegerArray(capacity);
+		}
+
+		Cache(Cache other, int capacity) {
+			this(capacity);
+			for (int idx = 0; idx < other.inputs.length(); ++idx) {
+				inputs.set(idx, other.inputs.get(idx));
+				flags.set(idx, other.flags.get(idx));
+			}
+			usedSize = other.usedSize;
+			hand = other.hand;
+		}
+
+		void setFlag(int index, int flag) {
+			int old;
+			do {
+				old = flags.get(index);
+				if ((old & flag) == flag)
+					return;
+			} while (!flags.compareAndSet(index, old, old | flag));
+		}
+
+		void clearFlag(int index, int flag) {
+			int old;
+			do {
+				old = flags.get(index);
+				if ((old & flag) == 0)
+					return;
+			} while (!flags.compareAndSet(index, old, old & ~flag));
+		}
+	}
+
+	/**
+	 * Prefetch examples following the current order. The thread parks when
+	 * it is <code>lookAhead</code> examples ahead of the consumer or when the
+	 * cache is full of pinned examples.
+	 */
+	private class Prefetcher implements Runnable {
 		@Override
 		public void run() {
-			synchronized (notifyProducer) {
-				while (continueProducing) {
-					while (!indexToLoad.isEmpty()) {
-						Integer i = indexToLoad.poll();
-
-						if (!cacheDPGSInput.containsKey(i)) {
-							long[] positionAndSize = getPositionAndSizeDPGSInput(i
-									.intValue());
-							ObjectInputStream ois = null;
-							InputStream in = null;
-
-							try {
-								channel.position(positionAndSize[0]);
-								in = Channels.newInputStream(channel);
-								ois = new ObjectInputStream(
-										new BufferedInputStream(in));
-
-								/*
-								 * System.out .println("Cache " +
-								 * cacheDPGSInput.size() + " Tamanho do cache "
-								 * + numberMemoryLoad +
-								 * " Tamanho do novo cache " + (numberMemoryLoad
-								 * + positionAndSize[1]));
-								 */
-								synchronized (indexLoaded) {
-
-									while (numberMemoryLoad
-											+ positionAndSize[1] > CACHE_SIZE) {
-
-										Set<Entry<Integer, ExampleInput>> set = cacheDPGSInput
-												.entrySet();
-
-										Integer key;
-
-										for (Iterator iterator = set.iterator(); iterator
-												.hasNext();) {
-											Entry<Integer, ExampleInput> entry = (Entry<Integer, ExampleInput>) iterator
-													.next();
-
-											key = entry.getKey();
-
-											if (indexLoaded.contains(key)){
-												continue;
-											}
-
-											long[] positionAndSize2 = positionInFileOfExamples
-													.get(key.intValue());
-
-											iterator.remove();
-											numberMemoryLoad -= positionAndSize2[1];
-
-											if (numberMemoryLoad
-													+ positionAndSize[1] <= CACHE_SIZE) {
-												break;
-											}
-
-										}
-
-										if (numberMemoryLoad
-												+ positionAndSize[1] > CACHE_SIZE) {
-											try {
-												indexLoaded.wait();
-											} catch (InterruptedException e) {
-											}
-										}
-									}
-								}
-
-								/*
-								 * System.out .println("Cache " +
-								 * cacheDPGSInput.size() + " Tamanho do cache "
-								 * + numberMemoryLoad +
-								 * " Tamanho do novo cache " + (numberMemoryLoad
-								 * + positionAndSize[1]));
-								 */
-
-								numberMemoryLoad += positionAndSize[1];
-								cacheDPGSInput.put(i,
-										(ExampleInput) ois.readObject());
-							} catch (IOException e) {
-								// TODO Auto-generated catch block
-								e.printStackTrace();
-							} catch (ClassNotFoundException e) {
-								// TODO Auto-generated catch block
-								e.printStackTrace();
-							} finally {
-								/*
-								 * if (in != null) try { in.close(); } catch
-								 * (IOException e) { e.printStackTrace(); } if
-								 * (ois != null) try { ois.close(); } catch
-								 * (IOException e) { // TODO Auto-generated
-								 * catch block e.printStackTrace(); }
-								 */
-							}
-						}
-
-						/*
-						 * System.out.println("Memory Used: " +
-						 * (numberMemoryLoad/(Math.pow(2, 30)))+" GB" +
-						 * " Max size memory: " + (CACHE_SIZE/(Math.pow(2,
-						 * 30)))+" GB");
-						 */
-						
-						synchronized(indexRemoved){
-							if(!indexRemoved.remove(i)){
-								indexLoaded.add(i);
-							}
-						}
+			int[] currentOrder = null;
+			int position = 0;
+			while (!closed) {
+				int[] ord = order;
+				if (ord != currentOrder) {
+					/*
+					 * New order: examples pinned for the previous one may never
+					 * be consumed. Only this thread pins examples, so no stale
+					 * pin survives. Then restart from the consumer position.
+					 */
+					unpinAll();
+					currentOrder = ord;
+					position = 0;
+				}
+				int consumer = consumerPosition;
+				if (position < consumer)
+					position = consumer;
+				if (currentOrder == null || position >= currentOrder.length
+						|| position >= consumer + lookAhead) {
+					LockSupport.park(this);
+					continue;
+				}
 
-						synchronized (notifyConsumer) {
-							notifyConsumer.notifyAll();
+				int index = currentOrder[position];
+				try {
+					Cache c = getCache(index);
+					if (c.inputs.get(index) != null) {
+						c.setFlag(index, PINNED);
+					} else {
+						ExampleInput input = decode(index);
+						if (!insert(c, index, input, true)) {
+							// Cache is full of pinned examples.
+							LockSupport.park(this);
+							continue;
 						}
 					}
-					try {
-						notifyProducer.wait();
-					} catch (InterruptedException e) {
-					}
+					if (consumerPosition > position)
+						// The consumer may have taken it before it was pinned.
+						getCache(index).clearFlag(index, PINNED);
+					++position;
+				} catch (Exception e) {
+					LOG.error("Error prefetching example " + index, e);
+					++position;
 				}
 			}
 		}
 	}
 
-	public CacheExampleInputArray(long cacheSize, String fileName) throws IOException {
-		positionInFileOfExamples = new ArrayList<long[]>(initialCapacity);
-		numberExamples = 0;
-		producerThread = new Thread(new DPGSInputRunnable());
-		indexToLoad = new ConcurrentLinkedDeque<Integer>();
-		indexLoaded = new ConcurrentSkipListSet<Integer>();
-		indexRemoved = new HashSet<Integer>();
-		notifyProducer = new Object();
-		notifyConsumer = new Object();
-		this.CACHE_SIZE = cacheSize;
+	/**
+	 * Clear the pinned flag of all cached examples. It is called by the
+	 * prefetcher when the order changes.
+	 */
+	private void unpinAll() {
+		// Enlarge the cache first, so that it is not copied concurrently.
+		Cache c = getCache(numberExamples - 1);
+		for (int idx = 0; idx < c.flags.length(); ++idx)
+			c.clearFlag(idx, PINNED);
+	}
+
+	/**
+	 * Create an empty array that stores examples in the given file using Java
+	 * serialization.
+	 *
+	 * @param cacheSize
+	 *            maximum total size (in bytes) of the cached examples.
+	 * @param fileName
+	 * @throws IOException
+	 */
+	public CacheExampleInputArray(long cacheSize, String fileName)
+			throws IOException {
+		this(cacheSize, fileName, DEFAULT_LOOK_AHEAD);
+	}
 
-		// CREATE FILE
-		this.file = new File(fileName);
+	/**
+	 * Create an empty array that stores examples in the given file using Java
+	 * serialization.
+	 *
+	 * @param cacheSize
+	 *            maximum total size (in bytes) of the cached examples.
+	 * @param fileName
+	 * @param lookAhead
+	 *            number of examples that are prefetched ahead of the
+	 *            consumer.
+	 * @throws IOException
+	 */
+	public CacheExampleInputArray(long cacheSize, String fileName,
+			int lookAhead) throws IOException {
+		this(cacheSize, fileName, lookAhead, ExampleInputCodec.SERIALIZATION,
+				false);
+	}
 
+	/**
+	 * Create an empty array that stores examples in the given file.
+	 *
+	 * @param cacheSize
+	 *            maximum total size (in bytes) of the cached examples.
+	 * @param fileName
+	 * @param lookAhead
+	 *            number of examples that are prefetched ahead of the
+	 *            consumer.
+	 * @param codec
+	 *            codec used to encode the examples.
+	 * @param compressed
+	 *            whether to compress the examples.
+	 * @throws IOException
+	 */
+	public CacheExampleInputArray(long cacheSize, String fileName,
+			int lookAhead, ExampleInputCodec codec, boolean compressed)
+			throws IOException {
+		this.codec = codec;
+		this.compressed = compressed;
+		this.cacheSize = cacheSize;
+		this.lookAhead = Math.max(1, lookAhead);
+		offsets = new long[INITIAL_CAPACITY];
+		sizes = new int[INITIAL_CAPACITY];
+		segmentOfExample = new int[INITIAL_CAPACITY];
+		segmentStarts = new long[] { ExampleInputCodec.HEADER_SIZE };
+		segmentLengths = new long[1];
+		numberSegments = 1;
+		segments = new MappedByteBuffer[1];
+		cache = new Cache(INITIAL_CAPACITY);
+		lock = new ReentrantLock();
+
+		file = new File(fileName);
 		RandomAccessFile rAccessFile = new RandomAccessFile(file, "rw");
 		rAccessFile.setLength(0);
-		// INSTANCE CHANNEL
 		channel = rAccessFile.getChannel();
-		
-		this.continueProducing = true;
 
-		producerThread.start();
+		BinaryOutput header = new BinaryOutput(ExampleInputCodec.HEADER_SIZE);
+		codec.writeHeader(header, compressed);
+		channel.write(ByteBuffer.wrap(header.toByteArray()), 0);
 	}
 
-	private long[] getPositionAndSizeDPGSInput(int i) {
-		return positionInFileOfExamples.get(i);
+	/**
+	 * Set the listener notified of evicted examples. A <code>null</code>
+	 * value removes the current listener.
+	 *
+	 * @param evictionListener
+	 */
+	public void setEvictionListener(EvictionListener evictionListener) {
+		this.evictionListener = evictionListener;
 	}
 
+	@Override
 	public ExampleInput get(int index) {
-		ExampleInput input;
-		boolean addToQueue = true;
+		advanceConsumer(index);
+		Cache c = getCache(index);
+		ExampleInput input = c.inputs.get(index);
+		if (input != null) {
+			c.clearFlag(index, PINNED);
+			c.setFlag(index, REFERENCED);
+			return input;
+		}
 
-		synchronized (notifyConsumer) {
-			do {
-				input = cacheDPGSInput.get(new Integer(index));
-
-				if (input != null) {
-					
-					synchronized(indexRemoved){
-						Integer indexObj = new Integer(index);
-						if(!indexLoaded.remove(indexObj)){
-							indexRemoved.add(indexObj);
-						}
-					}
-					
-					new Thread(new Runnable() {
-
-						@Override
-						public void run() {
-							synchronized (indexLoaded) {
-								indexLoaded.notify();
-							}
-						}
-					}).start();
+		// Miss: decode it directly from the mapped file.
+		if (closed)
+			throw new IllegalStateException("Example " + index
+					+ " is not cached and " + file + " was closed");
+		try {
+			input = decode(index);
+		} catch (IOException e) {
+			throw new IllegalStateException("Error reading example " + index
+					+ " from " + file, e);
+		}
+		insert(c, index, input, false);
+		return input;
+	}
 
-					return input;
-				}
-				
+	/**
+	 * Advance the consumer position if the given index is the next one in the
+	 * current order (or within the prefetching window), and wake up the
+	 * prefetcher.
+	 *
+	 * @param index
+	 */
+	private void advanceConsumer(int index) {
+		int[] ord = order;
+		if (ord == null)
+			return;
+		int pos = consumerPosition;
+		int end = Math.min(ord.length, pos + lookAhead);
+		for (int p = pos; p < end; ++p) {
+			if (ord[p] == index) {
+				consumerPosition = p + 1;
+				if (prefetcher != null)
+					LockSupport.unpark(prefetcher);
+				return;
+			}
+		}
+	}
 
-				/*
-				 * // TODO - Add index to load when using get if (addToQueue) {
-				 * load(new int[] { index }); addToQueue = false; }
-				 */
+	/**
+	 * Return the current cache, enlarging it if it does not include the given
+	 * index.
+	 *
+	 * @param index
+	 * @return
+	 */
+	private Cache getCache(int index) {
+		Cache c = cache;
+		if (index < c.inputs.length())
+			return c;
+		lock.lock();
+		try {
+			c = cache;
+			if (index >= c.inputs.length()) {
+				int capacity = Math.max(numberExamples, index + 1);
+				c = new Cache(c, Math.max(capacity, 2 * c.inputs.length()));
+				cache = c;
+			}
+			return c;
+		} finally {
+			lock.unlock();
+		}
+	}
 
-				try {
-					notifyConsumer.wait();
-				} catch (InterruptedException e) {
-				}
-			} while (true);
+	/**
+	 * Insert the given example in the cache, evicting unpinned examples by the
+	 * clock algorithm if necessary.
+	 *
+	 * @param c
+	 * @param index
+	 * @param input
+	 * @param pin
+	 *            whether the inserted example must be pinned until it is
+	 *            consumed.
+	 * @return <code>false</code> if there is not enough room for the example.
+	 */
+	private boolean insert(Cache c, int index, ExampleInput input, boolean pin) {
+		long size = sizes[index];
+		lock.lock();
+		try {
+			if (c != cache) {
+				// Cache was enlarged concurrently.
+				c = cache;
+			}
+			if (c.inputs.get(index) != null)
+				return true;
+			if (!evict(c, size))
+				return false;
+			c.flags.set(index, pin ? PINNED : REFERENCED);
+			c.inputs.set(index, input);
+			c.usedSize += size;
+			return true;
+		} finally {
+			lock.unlock();
 		}
+	}
 
+	/**
+	 * Evict examples until there is room for the given size. Must be called
+	 * while holding <code>lock</code>.
+	 *
+	 * @param c
+	 * @param size
+	 * @return <code>false</code> if the remaining examples are all pinned.
+	 */
+	private boolean evict(Cache c, long size) {
+		int capacity = c.inputs.length();
+		// Two rounds clear all reference bits. A third one is needed to find a
+		// victim among them.
+		int steps = 0;
+		while (c.usedSize + size > cacheSize) {
+			if (steps++ > 3 * capacity)
+				return false;
+			int idx = c.hand;
+			c.hand = (idx + 1) % capacity;
+			if (c.inputs.get(idx) == null)
+				continue;
+			int flags = c.flags.get(idx);
+			if ((flags & PINNED) != 0)
+				continue;
+			if ((flags & REFERENCED) != 0) {
+				c.clearFlag(idx, REFERENCED);
+				continue;
+			}
+			ExampleInput victim = c.inputs.get(idx);
+			c.inputs.set(idx, null);
+			c.usedSize -= sizes[idx];
+			EvictionListener listener = evictionListener;
+			if (listener != null)
+				listener.evicted(idx, victim);
+		}
+		return true;
 	}
-	
+
+	/**
+	 * Decode the given example from the mapped file.
+	 *
+	 * @param index
+	 * @return
+	 * @throws IOException
+	 */
+	private ExampleInput decode(int index) throws IOException {
+		ByteBuffer buffer = getSegment(segmentOfExample[index],
+				offsets[index] + sizes[index]).duplicate();
+		buffer.position((int) offsets[index]);
+		byte[] record = new byte[sizes[index]];
+		buffer.get(record);
+		return codec.decodeRecord(record, 0, record.length, compressed);
+	}
+
+	/**
+	 * Return a mapped view of the given segment that covers at least the given
+	 * number of bytes.
+	 *
+	 * @param segment
+	 * @param length
+	 * @return
+	 * @throws IOException
+	 */
+	private MappedByteBuffer getSegment(int segment, long length)
+			throws IOException {
+		MappedByteBuffer[] segs = segments;
+		MappedByteBuffer buffer = segs[segment];
+		if (buffer != null && buffer.capacity() >= length)
+			return buffer;
+		lock.lock();
+		try {
+			segs = segments;
+			buffer = segs[segment];
+			if (buffer == null || buffer.capacity() < length) {
+				buffer = channel.map(MapMode.READ_ONLY,
+						segmentStarts[segment], segmentLengths[segment]);
+				segs = Arrays.copyOf(segs, Math.max(segs.length,
+						numberSegments));
+				segs[segment] = buffer;
+				segments = segs;
+			}
+			return buffer;
+		} finally {
+			lock.unlock();
+		}
+	}
+
 	@Override
 	public void put(ExampleInputArray input) throws IOException,
 			DatasetException {
 		input.loadInOrder();
-		
+
 		for (int i = 0; i < input.getNumberExamples(); i++) {
 			put(input.get(i));
 		}
 	}
 
+	@Override
 	public void put(ExampleInput input) throws IOException, DatasetException {
+		BinaryOutput record = new BinaryOutput();
+		codec.encodeRecord(input, compressed, record);
+		byte[] bytes = record.getArray();
+		int size = record.size();
+
+		if (size > cacheSize) {
+			throw new DatasetException(
+					"The sample size is larger than cache size."
+							+ " Sample size : " + size + ", Cache size: "
+							+ cacheSize);
+		}
 
-		ByteArrayOutputStream byteOutputStream = null;
-		ObjectOutputStream objOutputStream = null;
-		long position = channel.size();
-		long size = 0;
-
+		lock.lock();
 		try {
-			byteOutputStream = new ByteArrayOutputStream();
-			objOutputStream = new ObjectOutputStream(byteOutputStream);
-			objOutputStream.writeObject(input);
-			objOutputStream.flush();
-
-			byte[] postingBytes = byteOutputStream.toByteArray();
-
-			size = postingBytes.length;
-
-			if (size > CACHE_SIZE) {
-				throw new DatasetException(
-						"The sample size is larger than cache size."
-								+ " Sample size : " + size + ", Cache size: "
-								+ CACHE_SIZE);
+			// Start a new segment if the example does not fit in the current.
+			int segment = numberSegments - 1;
+			if (segmentLengths[segment] + size > MAX_SEGMENT_SIZE) {
+				segment = numberSegments++;
+				if (segment == segmentStarts.length) {
+					segmentStarts = Arrays.copyOf(segmentStarts,
+							2 * segment);
+					segmentLengths = Arrays.copyOf(segmentLengths,
+							2 * segment);
+				}
+				segmentStarts[segment] = segmentStarts[segment - 1]
+						+ segmentLengths[segment - 1];
+				segmentLengths[segment] = 0;
+				segments = Arrays.copyOf(segments, numberSegments);
 			}
 
-			ByteBuffer buffer = ByteBuffer.allocate(postingBytes.length);
-			// prepare buffer to fill with data.
-			buffer.clear();
-			// write the bytes
-			buffer.put(postingBytes);
-			// prepare for writing
-			buffer.flip();
-
-			// Save input at end of file
-			channel.position(position);
-			channel.write(buffer);
-		} finally {
-			if (objOutputStream != null) {
-				objOutputStream.close();
-			}
-			if (byteOutputStream != null) {
-				byteOutputStream.close();
+			// Save input at end of file.
+			long position = segmentStarts[segment] + segmentLengths[segment];
+			ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, size);
+			while (buffer.hasRemaining())
+				position += channel.write(buffer, position);
+
+			int index = numberExamples;
+			if (index == offsets.length) {
+				offsets = Arrays.copyOf(offsets, 2 * index);
+				sizes = Arrays.copyOf(sizes, 2 * index);
+				segmentOfExample = Arrays.copyOf(segmentOfExample, 2 * index);
 			}
+			offsets[index] = segmentLengths[segment];
+			sizes[index] = size;
+			segmentOfExample[index] = segment;
+			segmentLengths[segment] += size;
+			numberExamples = index + 1;
+		} finally {
+			lock.unlock();
 		}
+	}
 
-		positionInFileOfExamples.add(numberExamples, new long[] { position,
-				size });
-		numberExamples++;
+	@Override
+	public void put(Collection<ExampleInput> inputs) throws IOException,
+			DatasetException {
+		for (ExampleInput exampleInput : inputs) {
+			put(exampleInput);
+		}
 	}
 
+	@Override
 	public int getNumberExamples() {
 		return numberExamples;
 	}
 
+	/**
+	 * Set the order in which examples will be requested. It replaces any
+	 * previous order. Examples are prefetched in this order, and the examples
+	 * pinned for the previous order are released by the prefetcher when it
+	 * sees the new one.
+	 */
+	@Override
 	public void load(int[] index) {
-		boolean insertNewIndex = false;
-
-		for (int i : index) {
-			Integer newIndex = new Integer(i);
-
-			if (!indexToLoad.contains(newIndex)) {
-				indexToLoad.offer(new Integer(i));
-				insertNewIndex = true;
-			}
-		}
-		
-		if (insertNewIndex) {
-			new Thread(new Runnable() {
-				@Override
-				public void run() {
-					synchronized (notifyProducer) {
-						notifyProducer.notify();
-					}
+		if (closed)
+			return;
+		consumerPosition = 0;
+		order = index.clone();
+		if (prefetcher == null) {
+			synchronized (this) {
+				if (prefetcher == null) {
+					prefetcher = new Thread(new Prefetcher(),
+							"CacheExampleInputArray prefetcher");
+					prefetcher.setDaemon(true);
+					prefetcher.start();
 				}
-			}).start();
+			}
 		}
+		LockSupport.unpark(prefetcher);
 	}
-	
+
+	@Override
 	public void loadInOrder() {
-		int [] array = new int[getNumberExamples()];
-		
+		int[] array = new int[getNumberExamples()];
+
 		for (int i = 0; i < array.length; i++) {
 			array[i] = i;
 		}
-		
+
 		load(array);
 	}
 
+	/**
+	 * Stop the prefetching thread and release the file. Cached examples are
+	 * still accessible through <code>get</code>, but requesting any other
+	 * example is an error.
+	 */
 	@Override
-	public void put(Collection<ExampleInput> inputs) throws IOException,
-			DatasetException {
-		for (ExampleInput exampleInput : inputs) {
-			put(exampleInput);
+	public void close() {
+		if (closed)
+			return;
+		closed = true;
+		Thread thread = prefetcher;
+		if (thread != null) {
+			LockSupport.unpark(thread);
+			try {
+				// The prefetcher may be decoding an example from the file.
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
 		}
-		
-	}
-	
-	public void close(){
-		synchronized (notifyProducer) {
-			this.continueProducing = false;
-			notifyProducer.notify();
+
+		lock.lock();
+		try {
+			segments = new MappedByteBuffer[segments.length];
+			channel.close();
+		} catch (IOException e) {
+			LOG.warn("Error closing " + file, e);
+		} finally {
+			lock.unlock();
 		}
 	}
-
-	/*
-	 * public void printLoad(){ System.out.println(indexToLoad); }
-	 * 
-	 * public void printLoaded(){ System.out.println(indexLoaded); }
-	 * 
-	 * public void printCacheKeys(){
-	 * System.out.println(cacheDPGSInput.keySet().toString()); }
-	 */
 }
@@ -0,0 +1,262 @@
+package br.pucrio.inf.learn.structlearning.discriminative.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import br.pucrio.inf.learn.util.BinaryInput;
+import br.pucrio.inf.learn.util.BinaryOutput;
+import br.pucrio.inf.learn.util.BlockCompressor;
+
+/**
+ * Binary encoding of input structures. Each input type provides its own codec
+ * (e.g., <code>DPInput.CODEC</code>), which writes the input arrays directly
+ * with variable-length and delta-coded integers, avoiding the class
+ * descriptors and per-array headers of Java serialization.
+ *
+ * This class also defines the layout shared by binary example files: a
+ * versioned header (see <code>writeHeader(...)</code>) and records that
+ * contain one encoded input each, optionally compressed by
+ * <code>BlockCompressor</code>. How records are delimited is up to the file
+ * (e.g., an offset index or a length prefix).
+ *
+ * @author eraldo
+ *
+ */
+public abstract class ExampleInputCodec {
+
+	/**
+	 * Magic number at the beginning of binary example files.
+	 */
+	public static final int MAGIC = 0x534C4558;
+
+	/**
+	 * Version of the binary format.
+	 */
+	public static final int FORMAT_VERSION = 1;
+
+	/**
+	 * Size in bytes of the header: magic, version, codec type and flags.
+	 */
+	public static final int HEADER_SIZE = 7;
+
+	/**
+	 * Header flag indicating that records are compressed.
+	 */
+	private static final int FLAG_COMPRESSED = 1;
+
+	/**
+	 * Codec type of <code>SERIALIZATION</code>.
+	 */
+	public static final int TYPE_SERIALIZATION = 0;
+
+	/**
+	 * Codec type of <code>DPInput</code>.
+	 */
+	public static final int TYPE_DP = 1;
+
+	/**
+	 * Codec type of <code>DPGSInput</code>.
+	 */
+	public static final int TYPE_DPGS = 2;
+
+	/**
+	 * Codec type of <code>ArraySequenceInput</code>.
+	 */
+	public static final int TYPE_SEQUENCE = 3;
+
+	/**
+	 * Codec type of <code>RankInput</code>.
+	 */
+	public static final int TYPE_RANK = 4;
+
+	/**
+	 * Codec type of <code>BisectionInput</code>.
+	 */
+	public static final int TYPE_BISECTION = 5;
+
+	/**
+	 * Codec type of <code>PQInput2</code>.
+	 */
+	public static final int TYPE_PQ = 6;
+
+	/**
+	 * Codec that uses Java serialization. It works for any serializable input
+	 * type and is used when there is no specific codec.
+	 */
+	public static final ExampleInputCodec SERIALIZATION = new ExampleInputCodec(
+			TYPE_SERIALIZATION) {
+		@Override
+		public void encode(ExampleInput input, BinaryOutput out)
+				throws IOException {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			ObjectOutputStream os = new ObjectOutputStream(bytes);
+			os.writeObject(input);
+			os.close();
+			out.writeBytes(bytes.toByteArray(), 0, bytes.size());
+		}
+
+		@Override
+		public ExampleInput decode(BinaryInput in) throws IOException {
+			byte[] bytes = new byte[in.remaining()];
+			in.readBytes(bytes, 0, bytes.length);
+			ObjectInputStream is = new ObjectInputStream(
+					new ByteArrayInputStream(bytes));
+			try {
+				return (ExampleInput) is.readObject();
+			} catch (ClassNotFoundException e) {
+				throw new IOException(e);
+			} finally {
+				is.close();
+			}
+		}
+	};
+
+	/**
+	 * Compressors are not thread safe, thus each thread has its own one.
+	 */
+	private static final ThreadLocal<BlockCompressor> compressor = new ThreadLocal<BlockCompressor>() {
+		@Override
+		protected BlockCompressor initialValue() {
+			return new BlockCompressor();
+		}
+	};
+
+	/**
+	 * Type of this codec, stored in file headers.
+	 */
+	private final int type;
+
+	/**
+	 * Create a codec of the given type.
+	 *
+	 * @param type
+	 */
+	protected ExampleInputCodec(int type) {
+		this.type = type;
+	}
+
+	/**
+	 * Return the type of this codec.
+	 *
+	 * @return
+	 */
+	public int getType() {
+		return type;
+	}
+
+	/**
+	 * Append the encoding of the given input to the given output.
+	 *
+	 * @param input
+	 * @param out
+	 * @throws IOException
+	 */
+	public abstract void encode(ExampleInput input, BinaryOutput out)
+			throws IOException;
+
+	/**
+	 * Decode an input from the given binary input. The input must contain
+	 * exactly one encoded example.
+	 *
+	 * @param in
+	 * @return
+	 * @throws IOException
+	 */
+	public abstract ExampleInput decode(BinaryInput in) throws IOException;
+
+	/**
+	 * Append a file header for this codec to the given output.
+	 *
+	 * @param out
+	 * @param compressed
+	 *            whether the records of the file are compressed.
+	 */
+	public void writeHeader(BinaryOutput out, boolean compressed) {
+		out.writeInt(MAGIC);
+		out.writeByte(FORMAT_VERSION);
+		out.writeByte(type);
+		out.writeByte(compressed ? FLAG_COMPRESSED : 0);
+	}
+
+	/**
+	 * Read a file header and check that it is compatible with this codec.
+	 *
+	 * @param in
+	 * @return whether the records of the file are compressed.
+	 * @throws IOException
+	 *             if the header is invalid or it was written by another codec
+	 *             or format version.
+	 */
+	public boolean readHeader(BinaryInput in) throws IOException {
+		if (in.readInt() != MAGIC)
+			throw new IOException("Not a binary example file");
+		int version = in.readByte();
+		if (version != FORMAT_VERSION)
+			throw new IOException("Unsupported binary example format version "
+					+ version);
+		int fileType = in.readByte();
+		if (fileType != type)
+			throw new IOException("Binary example file of type " + fileType
+					+ " cannot be read by codec of type " + type);
+		return (in.readByte() & FLAG_COMPRESSED) != 0;
+	}
+
+	/**
+	 * Append a record with the given input to the given output.
+	 *
+	 * A compressed record starts with the length of the encoded input (or
+	 * zero if compression did not pay off, in which case the encoded input
+	 * follows as is).
+	 *
+	 * @param input
+	 * @param compressed
+	 * @param out
+	 * @throws IOException
+	 */
+	public void encodeRecord(ExampleInput input, boolean compressed,
+			BinaryOutput out) throws IOException {
+		if (!compressed) {
+			encode(input, out);
+			return;
+		}
+		BinaryOutput raw = new BinaryOutput();
+		encode(input, raw);
+		int begin = out.size();
+		out.writeVarInt(raw.size());
+		compressor.get().compress(raw.getArray(), 0, raw.size(), out);
+		if (out.size() - begin > raw.size()) {
+			// Incompressible. Store it as is.
+			out.truncate(begin);
+			out.writeVarInt(0);
+			out.writeBytes(raw.getArray(), 0, raw.size());
+		}
+	}
+
+	/**
+	 * Decode the record in the given interval of an array.
+	 *
+	 * @param record
+	 * @param offset
+	 * @param length
+	 * @param compressed
+	 * @return
+	 * @throws IOException
+	 */
+	public ExampleInput decodeRecord(byte[] record, int offset, int length,
+			boolean compressed) throws IOException {
+		if (!compressed)
+			return decode(new BinaryInput(record, offset, length));
+		BinaryInput in = new BinaryInput(record, offset, length);
+		int rawLength = in.readVarInt();
+		if (rawLength == 0)
+			return decode(in);
+		byte[] raw = new byte[rawLength];
+		int headerLength = in.getPosition() - offset;
+		BlockCompressor.decompress(record, in.getPosition(), length
+				- headerLength, raw);
+		return decode(new BinaryInput(raw));
+	}
+}
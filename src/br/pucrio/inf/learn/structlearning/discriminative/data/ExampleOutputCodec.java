@@ -0,0 +1,125 @@
+package br.pucrio.inf.learn.structlearning.discriminative.data;
+
+import java.io.IOException;
+
+import br.pucrio.inf.learn.util.BinaryInput;
+import br.pucrio.inf.learn.util.BinaryOutput;
+
+/**
+ * Binary encoding of output structures, the counterpart of
+ * <code>ExampleInputCodec</code>. Each output type provides its own codec
+ * (e.g., <code>DPOutput.CODEC</code>). Output files have the same layout as
+ * binary example files (a header followed by one record per example), but
+ * their own magic number and records are never compressed.
+ *
+ * @author eraldo
+ *
+ */
+public abstract class ExampleOutputCodec {
+
+	/**
+	 * Magic number at the beginning of binary output files.
+	 */
+	public static final int MAGIC = 0x534C4F55;
+
+	/**
+	 * Codec type of <code>ArraySequenceOutput</code>.
+	 */
+	public static final int TYPE_SEQUENCE = 1;
+
+	/**
+	 * Codec type of <code>DPOutput</code>.
+	 */
+	public static final int TYPE_DP = 2;
+
+	/**
+	 * Codec type of <code>PQOutput2</code>.
+	 */
+	public static final int TYPE_PQ = 3;
+
+	/**
+	 * Type of this codec, stored in file headers.
+	 */
+	private final int type;
+
+	/**
+	 * Create a codec of the given type.
+	 *
+	 * @param type
+	 */
+	protected ExampleOutputCodec(int type) {
+		this.type = type;
+	}
+
+	/**
+	 * Return the type of this codec.
+	 *
+	 * @return
+	 */
+	public int getType() {
+		return type;
+	}
+
+	/**
+	 * Append the encoding of the given output to the given binary output.
+	 *
+	 * @param output
+	 * @param out
+	 * @throws IOException
+	 */
+	public abstract void encode(ExampleOutput output, BinaryOutput out)
+			throws IOException;
+
+	/**
+	 * Decode an output from the given binary input.
+	 *
+	 * @param in
+	 * @return
+	 * @throws IOException
+	 */
+	public abstract ExampleOutput decode(BinaryInput in) throws IOException;
+
+	/**
+	 * Return the size of the given output (e.g., its number of tokens). Two
+	 * outputs of the same type and size are interchangeable as prediction
+	 * objects (see <code>ExampleOutputPool</code>).
+	 *
+	 * @param output
+	 * @return
+	 */
+	public abstract int size(ExampleOutput output);
+
+	/**
+	 * Append a file header for this codec to the given output.
+	 *
+	 * @param out
+	 */
+	public void writeHeader(BinaryOutput out) {
+		out.writeInt(MAGIC);
+		out.writeByte(ExampleInputCodec.FORMAT_VERSION);
+		out.writeByte(type);
+		out.writeByte(0);
+	}
+
+	/**
+	 * Read a file header and check that it is compatible with this codec.
+	 *
+	 * @param in
+	 * @throws IOException
+	 *             if the header is invalid or it was written by another codec
+	 *             or format version.
+	 */
+	public void readHeader(BinaryInput in) throws IOException {
+		if (in.readInt() != MAGIC)
+			throw new IOException("Not a binary output file");
+		int version = in.readByte();
+		if (version != ExampleInputCodec.FORMAT_VERSION)
+			throw new IOException("Unsupported binary output format version "
+					+ version);
+		int fileType = in.readByte();
+		if (fileType != type)
+			throw new IOException("Binary output file of type " + fileType
+					+ " cannot be read by codec of type " + type);
+		in.readByte();
+	}
+}
@@ -0,0 +1,86 @@
+package br.pucrio.inf.learn.structlearning.discriminative.data;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Pool of prediction objects (outputs used by inference algorithms to store
+ * their predictions). Objects are grouped by size (see
+ * <code>ExampleOutputCodec.size(ExampleOutput)</code>), so that one object can
+ * be reused by any example of the same size instead of keeping one object per
+ * training example.
+ *
+ * This class is not thread-safe.
+ *
+ * @author eraldo
+ *
+ */
+public class ExampleOutputPool {
+
+	/**
+	 * Codec used to compute output sizes.
+	 */
+	private final ExampleOutputCodec codec;
+
+	/**
+	 * Free objects indexed by their size.
+	 */
+	private final HashMap<Integer, List<ExampleOutput>> free;
+
+	/**
+	 * Number of objects created by this pool.
+	 */
+	private int numberOfObjects;
+
+	/**
+	 * Create an empty pool.
+	 *
+	 * @param codec
+	 *            codec of the pooled outputs.
+	 */
+	public ExampleOutputPool(ExampleOutputCodec codec) {
+		this.codec = codec;
+		this.free = new HashMap<Integer, List<ExampleOutput>>();
+	}
+
+	/**
+	 * Return a prediction object compatible with the given gold output. A new
+	 * object is created if there is no free object of the same size.
+	 *
+	 * @param gold
+	 * @return
+	 */
+	public ExampleOutput acquire(ExampleOutput gold) {
+		List<ExampleOutput> list = free.get(codec.size(gold));
+		if (list == null || list.isEmpty()) {
+			++numberOfObjects;
+			return gold.createNewObject();
+		}
+		return list.remove(list.size() - 1);
+	}
+
+	/**
+	 * Give back an object acquired from this pool.
+	 *
+	 * @param output
+	 */
+	public void release(ExampleOutput output) {
+		int size = codec.size(output);
+		List<ExampleOutput> list = free.get(size);
+		if (list == null) {
+			list = new ArrayList<ExampleOutput>();
+			free.put(size, list);
+		}
+		list.add(output);
+	}
+
+	/**
+	 * Return the number of objects created by this pool.
+	 *
+	 * @return
+	 */
+	public int getNumberOfObjects() {
+		return numberOfObjects;
+	}
+}
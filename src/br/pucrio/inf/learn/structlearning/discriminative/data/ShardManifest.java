@@ -0,0 +1,243 @@
+package br.pucrio.inf.learn.structlearning.discriminative.data;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+/**
+ * Manifest of a sharded binary dataset. It is stored as a properties file
+ * with the format version, the codec types, the compression flag and the file
+ * names and number of examples of each shard. Gold outputs are optional and,
+ * when present, each shard has an output file with one record per example.
+ *
+ * @author eraldo
+ *
+ */
+class ShardManifest {
+
+	/**
+	 * Name of the manifest file within the dataset directory.
+	 */
+	static final String FILE_NAME = "manifest";
+
+	/**
+	 * Manifest key of the format version.
+	 */
+	private static final String KEY_VERSION = "version";
+
+	/**
+	 * Manifest key of the input codec type.
+	 */
+	private static final String KEY_CODEC = "codec";
+
+	/**
+	 * Manifest key of the output codec type (optional).
+	 */
+	private static final String KEY_OUTPUT_CODEC = "outputcodec";
+
+	/**
+	 * Manifest key of the compression flag.
+	 */
+	private static final String KEY_COMPRESSED = "compressed";
+
+	/**
+	 * Manifest key of the number of shards.
+	 */
+	private static final String KEY_SHARDS = "shards";
+
+	/**
+	 * Manifest key of the total number of examples.
+	 */
+	private static final String KEY_EXAMPLES = "examples";
+
+	/**
+	 * Prefix of the manifest key of the input file name of each shard.
+	 */
+	private static final String KEY_SHARD = "shard.";
+
+	/**
+	 * Suffix appended to the shard key for its number of examples.
+	 */
+	private static final String KEY_SUFFIX_EXAMPLES = ".examples";
+
+	/**
+	 * Suffix appended to the shard key for its output file name.
+	 */
+	private static final String KEY_SUFFIX_OUTPUTS = ".outputs";
+
+	/**
+	 * Type of the input codec.
+	 */
+	int codecType;
+
+	/**
+	 * Type of the output codec or -1 if there are no outputs.
+	 */
+	int outputCodecType;
+
+	/**
+	 * Whether the input records are compressed.
+	 */
+	boolean compressed;
+
+	/**
+	 * Input file name of each shard.
+	 */
+	String[] inputFileNames;
+
+	/**
+	 * Output file name of each shard (if there are outputs).
+	 */
+	String[] outputFileNames;
+
+	/**
+	 * Index of the first example of each shard. The number of examples is
+	 * stored at the index <code>getNumberOfShards()</code>.
+	 */
+	int[] shardStarts;
+
+	/**
+	 * Return the number of shards.
+	 *
+	 * @return
+	 */
+	int getNumberOfShards() {
+		return inputFileNames.length;
+	}
+
+	/**
+	 * Return the total number of examples.
+	 *
+	 * @return
+	 */
+	int getNumberOfExamples() {
+		return shardStarts[inputFileNames.length];
+	}
+
+	/**
+	 * Load the manifest of the dataset in the given directory.
+	 *
+	 * @param directory
+	 * @return
+	 * @throws IOException
+	 *             if the manifest is missing or invalid.
+	 */
+	static ShardManifest load(File directory) throws IOException {
+		Properties properties = new Properties();
+		InputStream is = new FileInputStream(new File(directory, FILE_NAME));
+		try {
+			properties.load(is);
+		} finally {
+			is.close();
+		}
+
+		int version = getInt(properties, KEY_VERSION);
+		if (version != ExampleInputCodec.FORMAT_VERSION)
+			throw new IOException("Unsupported sharded dataset version "
+					+ version);
+
+		ShardManifest manifest = new ShardManifest();
+		manifest.codecType = getInt(properties, KEY_CODEC);
+		manifest.compressed = Boolean.parseBoolean(getString(properties,
+				KEY_COMPRESSED));
+		boolean hasOutputs = properties.getProperty(KEY_OUTPUT_CODEC) != null;
+		manifest.outputCodecType = hasOutputs ? getInt(properties,
+				KEY_OUTPUT_CODEC) : -1;
+
+		int numShards = getInt(properties, KEY_SHARDS);
+		manifest.inputFileNames = new String[numShards];
+		if (hasOutputs)
+			manifest.outputFileNames = new String[numShards];
+		manifest.shardStarts = new int[numShards + 1];
+		for (int shard = 0; shard < numShards; ++shard) {
+			String key = KEY_SHARD + shard;
+			manifest.inputFileNames[shard] = getString(properties, key);
+			if (hasOutputs)
+				manifest.outputFileNames[shard] = getString(properties, key
+						+ KEY_SUFFIX_OUTPUTS);
+			manifest.shardStarts[shard + 1] = manifest.shardStarts[shard]
+					+ getInt(properties, key + KEY_SUFFIX_EXAMPLES);
+		}
+		if (manifest.getNumberOfExamples() != getInt(properties, KEY_EXAMPLES))
+			throw new IOException("Inconsistent number of examples in "
+					+ "manifest of " + directory);
+		return manifest;
+	}
+
+	/**
+	 * Store this manifest in the given directory.
+	 *
+	 * @param directory
+	 * @throws IOException
+	 */
+	void store(File directory) throws IOException {
+		Properties properties = new Properties();
+		properties.setProperty(KEY_VERSION,
+				String.valueOf(ExampleInputCodec.FORMAT_VERSION));
+		properties.setProperty(KEY_CODEC, String.valueOf(codecType));
+		if (outputFileNames != null)
+			properties.setProperty(KEY_OUTPUT_CODEC,
+					String.valueOf(outputCodecType));
+		properties.setProperty(KEY_COMPRESSED, String.valueOf(compressed));
+		properties.setProperty(KEY_SHARDS,
+				String.valueOf(getNumberOfShards()));
+		properties.setProperty(KEY_EXAMPLES,
+				String.valueOf(getNumberOfExamples()));
+		for (int shard = 0; shard < getNumberOfShards(); ++shard) {
+			String key = KEY_SHARD + shard;
+			properties.setProperty(key, inputFileNames[shard]);
+			if (outputFileNames != null)
+				properties.setProperty(key + KEY_SUFFIX_OUTPUTS,
+						outputFileNames[shard]);
+			properties.setProperty(key + KEY_SUFFIX_EXAMPLES, String
+					.valueOf(shardStarts[shard + 1] - shardStarts[shard]));
+		}
+
+		OutputStream os = new FileOutputStream(new File(directory, FILE_NAME));
+		try {
+			properties.store(os, "Sharded binary dataset");
+		} finally {
+			os.close();
+		}
+	}
+
+	/**
+	 * Return the value of a required manifest key.
+	 *
+	 * @param properties
+	 * @param key
+	 * @return
+	 * @throws IOException
+	 */
+	private static String getString(Properties properties, String key)
+			throws IOException {
+		String value = properties.getProperty(key);
+		if (value == null)
+			throw new IOException("Missing key " + key
+					+ " in sharded dataset manifest");
+		return value.trim();
+	}
+
+	/**
+	 * Return the integer value of a required manifest key.
+	 *
+	 * @param properties
+	 * @param key
+	 * @return
+	 * @throws IOException
+	 */
+	private static int getInt(Properties properties, String key)
+			throws IOException {
+		String value = getString(properties, key);
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			throw new IOException("Invalid value " + value + " for key " + key
+					+ " in sharded dataset manifest");
+		}
+	}
+}
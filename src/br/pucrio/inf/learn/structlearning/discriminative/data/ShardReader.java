@@ -0,0 +1,194 @@
+package br.pucrio.inf.learn.structlearning.discriminative.data;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import br.pucrio.inf.learn.util.BinaryInput;
+
+/**
+ * Sequential reader of the length-prefixed records of a shard file (input or
+ * output file of a sharded dataset).
+ *
+ * @author eraldo
+ *
+ */
+class ShardReader {
+
+	/**
+	 * The shard file.
+	 */
+	private final File file;
+
+	/**
+	 * Buffered stream of the file.
+	 */
+	private final DataInputStream is;
+
+	/**
+	 * Bytes of the current record.
+	 */
+	private byte[] record;
+
+	/**
+	 * Open the given shard file.
+	 *
+	 * @param file
+	 * @throws IOException
+	 */
+	ShardReader(File file) throws IOException {
+		this.file = file;
+		this.is = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(file), 1 << 16));
+		this.record = new byte[64];
+	}
+
+	/**
+	 * Decode the inputs of the given shard file into the given range of an
+	 * array.
+	 *
+	 * @param file
+	 * @param codec
+	 * @param inputs
+	 * @param begin
+	 * @param end
+	 * @throws IOException
+	 */
+	static void readInputs(File file, ExampleInputCodec codec,
+			ExampleInput[] inputs, int begin, int end) throws IOException {
+		ShardReader reader = new ShardReader(file);
+		try {
+			boolean compressed = codec.readHeader(reader
+					.readHeader(ExampleInputCodec.HEADER_SIZE));
+			for (int idx = begin; idx < end; ++idx) {
+				int size = reader.next();
+				inputs[idx] = codec.decodeRecord(reader.getRecord(), 0, size,
+						compressed);
+			}
+			reader.finish();
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Decode the outputs of the given shard file into the given range of an
+	 * array.
+	 *
+	 * @param file
+	 * @param codec
+	 * @param outputs
+	 * @param begin
+	 * @param end
+	 * @throws IOException
+	 */
+	static void readOutputs(File file, ExampleOutputCodec codec,
+			ExampleOutput[] outputs, int begin, int end) throws IOException {
+		ShardReader reader = new ShardReader(file);
+		try {
+			codec.readHeader(reader.readHeader(ExampleInputCodec.HEADER_SIZE));
+			for (int idx = begin; idx < end; ++idx) {
+				int size = reader.next();
+				outputs[idx] = codec.decode(new BinaryInput(reader
+						.getRecord(), 0, size));
+			}
+			reader.finish();
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Read the file header, which has the given size.
+	 *
+	 * @param size
+	 * @return
+	 * @throws IOException
+	 */
+	BinaryInput readHeader(int size) throws IOException {
+		byte[] header = new byte[size];
+		try {
+			is.readFully(header);
+		} catch (EOFException e) {
+			throw new IOException("Shard " + file + " is truncated", e);
+		}
+		return new BinaryInput(header);
+	}
+
+	/**
+	 * Read the next record and return its length. The record bytes are
+	 * available through <code>getRecord()</code> until the next call.
+	 *
+	 * @return
+	 * @throws IOException
+	 *             if the file ended.
+	 */
+	int next() throws IOException {
+		try {
+			int size = readVarInt();
+			if (size > record.length)
+				record = new byte[Math.max(size, 2 * record.length)];
+			is.readFully(record, 0, size);
+			return size;
+		} catch (EOFException e) {
+			throw new IOException("Shard " + file
+					+ " has fewer examples than its manifest entry", e);
+		}
+	}
+
+	/**
+	 * Return the bytes of the current record.
+	 *
+	 * @return
+	 */
+	byte[] getRecord() {
+		return record;
+	}
+
+	/**
+	 * Check that there is no record left and close the file.
+	 *
+	 * @throws IOException
+	 */
+	void finish() throws IOException {
+		try {
+			if (is.read() != -1)
+				throw new IOException("Shard " + file
+						+ " has more examples than its manifest entry");
+		} finally {
+			is.close();
+		}
+	}
+
+	/**
+	 * Close the file.
+	 */
+	void close() {
+		try {
+			is.close();
+		} catch (IOException e) {
+			// Nothing to do.
+		}
+	}
+
+	/**
+	 * Read a variable-length integer (see
+	 * <code>BinaryOutput.writeVarInt(int)</code>).
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	private int readVarInt() throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			int b = is.readByte();
+			value |= (b & 0x7F) << shift;
+			if (b >= 0)
+				return value;
+		}
+		throw new IOException("Malformed variable-length integer");
+	}
+}
@@ -0,0 +1,182 @@
+package br.pucrio.inf.learn.structlearning.discriminative.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Array of examples loaded from a sharded binary dataset. The dataset is a
+ * directory with a manifest (see <code>ShardManifest</code>) and the shard
+ * files written by <code>ShardedExampleWriter</code>.
+ *
+ * Shards are decoded concurrently, one thread per shard (up to the given
+ * number of threads), and the examples are kept in memory in the order they
+ * were written. Each shard is a contiguous range of examples (see
+ * <code>getShardStart(int)</code>), so that shards can also be used as
+ * training partitions.
+ *
+ * This array is read-only.
+ *
+ * @author eraldo
+ *
+ */
+public class ShardedExampleInputArray implements ExampleInputArray {
+
+	/**
+	 * Logging object.
+	 */
+	private static final Log LOG = LogFactory
+			.getLog(ShardedExampleInputArray.class);
+
+	/**
+	 * Decoded examples.
+	 */
+	private ExampleInput[] inputs;
+
+	/**
+	 * Index of the first example of each shard. The number of examples is
+	 * stored at the index <code>numberOfShards</code>.
+	 */
+	private int[] shardStarts;
+
+	/**
+	 * Load the sharded dataset in the given directory using the given codec
+	 * and number of threads.
+	 *
+	 * @param directory
+	 * @param codec
+	 * @param numberOfThreads
+	 * @throws IOException
+	 *             if the manifest or a shard is invalid or it was written by
+	 *             another codec.
+	 */
+	public ShardedExampleInputArray(String directory,
+			final ExampleInputCodec codec, int numberOfThreads)
+			throws IOException {
+		final File dir = new File(directory);
+		final ShardManifest manifest = ShardManifest.load(dir);
+		if (manifest.codecType != codec.getType())
+			throw new IOException("Sharded dataset of type "
+					+ manifest.codecType + " cannot be read by codec of type "
+					+ codec.getType());
+		shardStarts = manifest.shardStarts;
+		inputs = new ExampleInput[manifest.getNumberOfExamples()];
+
+		int numShards = manifest.getNumberOfShards();
+		if (numShards == 0)
+			return;
+
+		// Decode each shard in its own task.
+		numberOfThreads = Math.max(1, Math.min(numberOfThreads, numShards));
+		ExecutorService executor = Executors
+				.newFixedThreadPool(numberOfThreads);
+		try {
+			List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(
+					numShards);
+			for (int shard = 0; shard < numShards; ++shard) {
+				final int idxShard = shard;
+				tasks.add(new Callable<Object>() {
+					@Override
+					public Object call() throws Exception {
+						ShardReader.readInputs(new File(dir,
+								manifest.inputFileNames[idxShard]), codec,
+								inputs, shardStarts[idxShard],
+								shardStarts[idxShard + 1]);
+						return null;
+					}
+				});
+			}
+			for (Future<Object> future : executor.invokeAll(tasks))
+				future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Loading sharded dataset interrupted", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new IOException("Loading sharded dataset", e.getCause());
+		} finally {
+			executor.shutdown();
+		}
+
+		LOG.info(String.format("Loaded %d examples from %d shards",
+				inputs.length, numShards));
+	}
+
+	/**
+	 * Return the number of shards.
+	 *
+	 * @return
+	 */
+	public int getNumberOfShards() {
+		return shardStarts.length - 1;
+	}
+
+	/**
+	 * Return the index of the first example of the given shard. The index
+	 * after the last example of the last shard is returned for
+	 * <code>getNumberOfShards()</code>.
+	 *
+	 * @param shard
+	 * @return
+	 */
+	public int getShardStart(int shard) {
+		return shardStarts[shard];
+	}
+
+	@Override
+	public ExampleInput get(int index) {
+		return inputs[index];
+	}
+
+	@Override
+	public void put(ExampleInput input) throws IOException, DatasetException {
+		throw new UnsupportedOperationException(
+				"Sharded example arrays are read-only");
+	}
+
+	@Override
+	public void put(Collection<ExampleInput> inputs) throws IOException,
+			DatasetException {
+		throw new UnsupportedOperationException(
+				"Sharded example arrays are read-only");
+	}
+
+	@Override
+	public void put(ExampleInputArray input) throws IOException,
+			DatasetException {
+		throw new UnsupportedOperationException(
+				"Sharded example arrays are read-only");
+	}
+
+	@Override
+	public int getNumberExamples() {
+		return inputs.length;
+	}
+
+	@Override
+	public void load(int[] index) {
+		// All examples are in memory.
+	}
+
+	@Override
+	public void loadInOrder() {
+		// All examples are in memory.
+	}
+
+	@Override
+	public void close() {
+		inputs = new ExampleInput[0];
+		shardStarts = new int[1];
+	}
+}
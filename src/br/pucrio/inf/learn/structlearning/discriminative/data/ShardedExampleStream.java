@@ -0,0 +1,175 @@
+package br.pucrio.inf.learn.structlearning.discriminative.data;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Out-of-core access to a sharded binary dataset with gold outputs (see
+ * <code>ShardedExampleWriter</code>). Unlike
+ * <code>ShardedExampleInputArray</code>, examples are not kept in memory: each
+ * shard is a block that is decoded on demand, so that only the blocks being
+ * used need to be resident.
+ *
+ * Different blocks can be read concurrently, since each call to
+ * <code>readBlock(int)</code> opens its own files.
+ *
+ * @author eraldo
+ *
+ */
+public class ShardedExampleStream {
+
+	/**
+	 * Directory of the dataset.
+	 */
+	private final File directory;
+
+	/**
+	 * Manifest of the dataset.
+	 */
+	private final ShardManifest manifest;
+
+	/**
+	 * Codec of the inputs.
+	 */
+	private final ExampleInputCodec codec;
+
+	/**
+	 * Codec of the gold outputs.
+	 */
+	private final ExampleOutputCodec outputCodec;
+
+	/**
+	 * Examples of one block (shard) and their gold outputs.
+	 */
+	public static class Block {
+
+		/**
+		 * Index of the first example of this block within the dataset.
+		 */
+		public final int start;
+
+		/**
+		 * Inputs of this block.
+		 */
+		public final ExampleInput[] inputs;
+
+		/**
+		 * Gold outputs of this block.
+		 */
+		public final ExampleOutput[] outputs;
+
+		/**
+		 * Create an empty block with the given start and size.
+		 *
+		 * @param start
+		 * @param size
+		 */
+		private Block(int start, int size) {
+			this.start = start;
+			this.inputs = new ExampleInput[size];
+			this.outputs = new ExampleOutput[size];
+		}
+	}
+
+	/**
+	 * Open the sharded dataset in the given directory. Only the manifest is
+	 * read.
+	 *
+	 * @param directory
+	 * @param codec
+	 * @param outputCodec
+	 *            codec of the gold outputs. Output types without a codec
+	 *            cannot be streamed.
+	 * @throws IOException
+	 *             if the manifest is invalid, the dataset has no gold outputs
+	 *             or it was written by other codecs.
+	 */
+	public ShardedExampleStream(String directory, ExampleInputCodec codec,
+			ExampleOutputCodec outputCodec) throws IOException {
+		if (outputCodec == null)
+			throw new IllegalArgumentException(
+					"Examples can only be streamed with gold outputs that have "
+							+ "a codec");
+		this.directory = new File(directory);
+		this.manifest = ShardManifest.load(this.directory);
+		this.codec = codec;
+		this.outputCodec = outputCodec;
+		if (manifest.codecType != codec.getType())
+			throw new IOException("Sharded dataset of type "
+					+ manifest.codecType + " cannot be read by codec of type "
+					+ codec.getType());
+		if (manifest.outputFileNames == null)
+			throw new IOException("Sharded dataset " + directory
+					+ " has no gold outputs");
+		if (manifest.outputCodecType != outputCodec.getType())
+			throw new IOException("Sharded outputs of type "
+					+ manifest.outputCodecType
+					+ " cannot be read by codec of type "
+					+ outputCodec.getType());
+	}
+
+	/**
+	 * Return the number of blocks (shards).
+	 *
+	 * @return
+	 */
+	public int getNumberOfBlocks() {
+		return manifest.getNumberOfShards();
+	}
+
+	/**
+	 * Return the total number of examples.
+	 *
+	 * @return
+	 */
+	public int getNumberOfExamples() {
+		return manifest.getNumberOfExamples();
+	}
+
+	/**
+	 * Return the index of the first example of the given block.
+	 *
+	 * @param block
+	 * @return
+	 */
+	public int getBlockStart(int block) {
+		return manifest.shardStarts[block];
+	}
+
+	/**
+	 * Return the number of examples of the given block.
+	 *
+	 * @param block
+	 * @return
+	 */
+	public int getBlockSize(int block) {
+		return manifest.shardStarts[block + 1] - manifest.shardStarts[block];
+	}
+
+	/**
+	 * Return the codec of the gold outputs.
+	 *
+	 * @return
+	 */
+	public ExampleOutputCodec getOutputCodec() {
+		return outputCodec;
+	}
+
+	/**
+	 * Decode the given block.
+	 *
+	 * @param block
+	 * @return
+	 * @throws IOException
+	 */
+	public Block readBlock(int block) throws IOException {
+		int size = getBlockSize(block);
+		Block b = new Block(getBlockStart(block), size);
+		ShardReader.readInputs(new File(directory,
+				manifest.inputFileNames[block]), codec, b.inputs, 0, size);
+		ShardReader.readOutputs(new File(directory,
+				manifest.outputFileNames[block]), outputCodec, b.outputs, 0,
+				size);
+		return b;
+	}
+}
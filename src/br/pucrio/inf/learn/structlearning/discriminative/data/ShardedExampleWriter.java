@@ -0,0 +1,349 @@
+package br.pucrio.inf.learn.structlearning.discriminative.data;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import br.pucrio.inf.learn.util.BinaryOutput;
+
+/**
+ * Write examples to a sharded binary dataset, i.e., a directory with a
+ * manifest (see <code>ShardManifest</code>) and a number of shard files.
+ * Examples are appended in order and each shard stores a contiguous range of
+ * examples.
+ *
+ * Each shard file starts with the codec header and contains one record per
+ * example prefixed by its length. If an output codec is given, the gold
+ * output of each example is stored in a companion output file per shard,
+ * with the same layout.
+ *
+ * @author eraldo
+ *
+ */
+public class ShardedExampleWriter {
+
+	/**
+	 * Size of the write buffer.
+	 */
+	private static final int FLUSH_SIZE = 1 << 20;
+
+	/**
+	 * Directory of the dataset.
+	 */
+	private final File directory;
+
+	/**
+	 * Codec used to encode the examples.
+	 */
+	private final ExampleInputCodec codec;
+
+	/**
+	 * Codec used to encode the gold outputs or <code>null</code> if outputs
+	 * are not stored.
+	 */
+	private final ExampleOutputCodec outputCodec;
+
+	/**
+	 * Whether the records are compressed.
+	 */
+	private final boolean compressed;
+
+	/**
+	 * Maximum number of examples in each shard.
+	 */
+	private final int examplesPerShard;
+
+	/**
+	 * File name of each shard written so far.
+	 */
+	private final List<String> shardFileNames;
+
+	/**
+	 * Output file name of each shard written so far.
+	 */
+	private final List<String> outputFileNames;
+
+	/**
+	 * Number of examples of each shard written so far.
+	 */
+	private final List<Integer> shardSizes;
+
+	/**
+	 * Stream of the current shard or <code>null</code> if no shard is open.
+	 */
+	private OutputStream shard;
+
+	/**
+	 * Pending bytes of the current shard.
+	 */
+	private BinaryOutput buffer;
+
+	/**
+	 * Stream of the outputs of the current shard.
+	 */
+	private OutputStream outputShard;
+
+	/**
+	 * Pending bytes of the outputs of the current shard.
+	 */
+	private BinaryOutput outputBuffer;
+
+	/**
+	 * Encoded record of the current example.
+	 */
+	private BinaryOutput record;
+
+	/**
+	 * Number of examples in the current shard.
+	 */
+	private int shardSize;
+
+	/**
+	 * Create a writer of a sharded dataset in the given directory, which is
+	 * created if it does not exist.
+	 *
+	 * @param directory
+	 * @param codec
+	 * @param compressed
+	 *            whether the records are compressed.
+	 * @param examplesPerShard
+	 *            maximum number of examples in each shard.
+	 * @throws IOException
+	 */
+	public ShardedExampleWriter(String directory, ExampleInputCodec codec,
+			boolean compressed, int examplesPerShard) throws IOException {
+		this(directory, codec, null, compressed, examplesPerShard);
+	}
+
+	/**
+	 * Create a writer of a sharded dataset with gold outputs in the given
+	 * directory, which is created if it does not exist. The manifest of any
+	 * dataset previously written in this directory is deleted, so that it is
+	 * not loadable until the new dataset is complete.
+	 *
+	 * @param directory
+	 * @param codec
+	 * @param outputCodec
+	 *            codec of the gold outputs or <code>null</code> if outputs
+	 *            are not stored.
+	 * @param compressed
+	 *            whether the input records are compressed.
+	 * @param examplesPerShard
+	 *            maximum number of examples in each shard.
+	 * @throws IOException
+	 */
+	public ShardedExampleWriter(String directory, ExampleInputCodec codec,
+			ExampleOutputCodec outputCodec, boolean compressed,
+			int examplesPerShard) throws IOException {
+		if (examplesPerShard <= 0)
+			throw new IllegalArgumentException(
+					"Number of examples per shard must be positive");
+		this.directory = new File(directory);
+		if (!this.directory.isDirectory() && !this.directory.mkdirs())
+			throw new IOException("Cannot create directory " + directory);
+		/*
+		 * A previous dataset in the same directory is invalidated before its
+		 * shards are overwritten.
+		 */
+		File manifest = new File(this.directory, ShardManifest.FILE_NAME);
+		if (manifest.exists() && !manifest.delete())
+			throw new IOException("Cannot delete manifest " + manifest);
+		this.codec = codec;
+		this.outputCodec = outputCodec;
+		this.compressed = compressed;
+		this.examplesPerShard = examplesPerShard;
+		this.shardFileNames = new ArrayList<String>();
+		this.outputFileNames = new ArrayList<String>();
+		this.shardSizes = new ArrayList<Integer>();
+		this.buffer = new BinaryOutput(FLUSH_SIZE + (FLUSH_SIZE >> 2));
+		if (outputCodec != null)
+			this.outputBuffer = new BinaryOutput(FLUSH_SIZE
+					+ (FLUSH_SIZE >> 2));
+		this.record = new BinaryOutput();
+	}
+
+	/**
+	 * Write the given examples to a sharded dataset with the given number of
+	 * shards (of approximately the same number of examples).
+	 *
+	 * @param directory
+	 * @param inputs
+	 * @param codec
+	 * @param compressed
+	 * @param numberOfShards
+	 * @throws IOException
+	 */
+	public static void write(String directory, ExampleInputArray inputs,
+			ExampleInputCodec codec, boolean compressed, int numberOfShards)
+			throws IOException {
+		int numExamples = inputs.getNumberExamples();
+		int examplesPerShard = Math.max(1,
+				(int) ((numExamples + (long) numberOfShards - 1) / numberOfShards));
+		ShardedExampleWriter writer = new ShardedExampleWriter(directory,
+				codec, compressed, examplesPerShard);
+		inputs.loadInOrder();
+		for (int idx = 0; idx < numExamples; ++idx)
+			writer.put(inputs.get(idx));
+		writer.close();
+	}
+
+	/**
+	 * Write the given examples and their gold outputs to a sharded dataset
+	 * with the given number of shards.
+	 *
+	 * @param directory
+	 * @param inputs
+	 * @param outputs
+	 * @param codec
+	 * @param outputCodec
+	 * @param compressed
+	 * @param numberOfShards
+	 * @throws IOException
+	 */
+	public static void write(String directory, ExampleInputArray inputs,
+			ExampleOutput[] outputs, ExampleInputCodec codec,
+			ExampleOutputCodec outputCodec, boolean compressed,
+			int numberOfShards) throws IOException {
+		int numExamples = inputs.getNumberExamples();
+		int examplesPerShard = Math.max(1,
+				(int) ((numExamples + (long) numberOfShards - 1) / numberOfShards));
+		ShardedExampleWriter writer = new ShardedExampleWriter(directory,
+				codec, outputCodec, compressed, examplesPerShard);
+		inputs.loadInOrder();
+		for (int idx = 0; idx < numExamples; ++idx)
+			writer.put(inputs.get(idx), outputs[idx]);
+		writer.close();
+	}
+
+	/**
+	 * Append the given example.
+	 *
+	 * @param input
+	 * @throws IOException
+	 */
+	public void put(ExampleInput input) throws IOException {
+		if (outputCodec != null)
+			throw new IllegalStateException(
+					"The gold output of each example must be given");
+		put(input, null);
+	}
+
+	/**
+	 * Append the given example and its gold output.
+	 *
+	 * @param input
+	 * @param output
+	 * @throws IOException
+	 */
+	public void put(ExampleInput input, ExampleOutput output)
+			throws IOException {
+		if (shard != null && shardSize == examplesPerShard)
+			closeShard();
+		if (shard == null)
+			openShard();
+
+		record.clear();
+		codec.encodeRecord(input, compressed, record);
+		buffer.writeVarInt(record.size());
+		buffer.writeBytes(record.getArray(), 0, record.size());
+		++shardSize;
+
+		if (outputCodec != null) {
+			record.clear();
+			outputCodec.encode(output, record);
+			outputBuffer.writeVarInt(record.size());
+			outputBuffer.writeBytes(record.getArray(), 0, record.size());
+			if (outputBuffer.size() >= FLUSH_SIZE) {
+				outputBuffer.writeTo(outputShard);
+				outputBuffer.clear();
+			}
+		}
+
+		if (buffer.size() >= FLUSH_SIZE) {
+			buffer.writeTo(shard);
+			buffer.clear();
+		}
+	}
+
+	/**
+	 * Finish the current shard and write the manifest. No example can be
+	 * appended after this method.
+	 *
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		if (shard != null)
+			closeShard();
+
+		ShardManifest manifest = new ShardManifest();
+		manifest.codecType = codec.getType();
+		manifest.compressed = compressed;
+		int numShards = shardFileNames.size();
+		manifest.inputFileNames = shardFileNames.toArray(new String[numShards]);
+		if (outputCodec != null) {
+			manifest.outputCodecType = outputCodec.getType();
+			manifest.outputFileNames = outputFileNames
+					.toArray(new String[numShards]);
+		}
+		manifest.shardStarts = new int[numShards + 1];
+		for (int idx = 0; idx < numShards; ++idx)
+			manifest.shardStarts[idx + 1] = manifest.shardStarts[idx]
+					+ shardSizes.get(idx);
+
+		/*
+		 * The manifest is written last, so that an incomplete dataset is never
+		 * taken for a complete one.
+		 */
+		manifest.store(directory);
+	}
+
+	/**
+	 * Create the next shard file and write its header.
+	 *
+	 * @throws IOException
+	 */
+	private void openShard() throws IOException {
+		String fileName = String.format("shard-%05d",
+				shardFileNames.size());
+		shard = new FileOutputStream(new File(directory, fileName + ".bin"));
+		shardFileNames.add(fileName + ".bin");
+		shardSize = 0;
+		buffer.clear();
+		codec.writeHeader(buffer, compressed);
+
+		if (outputCodec != null) {
+			outputShard = new FileOutputStream(new File(directory, fileName
+					+ ".out"));
+			outputFileNames.add(fileName + ".out");
+			outputBuffer.clear();
+			outputCodec.writeHeader(outputBuffer);
+		}
+	}
+
+	/**
+	 * Write the pending bytes and close the current shard.
+	 *
+	 * @throws IOException
+	 */
+	private void closeShard() throws IOException {
+		try {
+			buffer.writeTo(shard);
+			buffer.clear();
+			if (outputShard != null) {
+				outputBuffer.writeTo(outputShard);
+				outputBuffer.clear();
+			}
+		} finally {
+			shard.close();
+			shard = null;
+			if (outputShard != null) {
+				outputShard.close();
+				outputShard = null;
+			}
+		}
+		shardSizes.add(shardSize);
+	}
+}
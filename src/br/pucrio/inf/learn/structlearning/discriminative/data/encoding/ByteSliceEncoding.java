@@ -0,0 +1,28 @@
+package br.pucrio.inf.learn.structlearning.discriminative.data.encoding;
+
+/**
+ * Encoding that can put a value given by its bytes, as read by
+ * <code>ByteTokenizer</code>, without creating a string. The bytes are in the
+ * platform default charset (the same one used by <code>FileReader</code>), so
+ * that the returned code is the same one returned by
+ * <code>FeatureEncoding.put(String)</code> for the corresponding string.
+ *
+ * Implementations can fall back to the string for non-ASCII values, since
+ * the bytes of a decoded string may differ from the original ones.
+ *
+ * @author eraldo
+ *
+ */
+public interface ByteSliceEncoding {
+
+	/**
+	 * Insert the value given by the interval of a byte array and return its
+	 * code. See <code>FeatureEncoding.put(...)</code>.
+	 *
+	 * @param bytes
+	 * @param offset
+	 * @param length
+	 * @return
+	 */
+	public int put(byte[] bytes, int offset, int length);
+}
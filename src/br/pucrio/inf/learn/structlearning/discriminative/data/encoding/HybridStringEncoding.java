@@ -11,6 +11,8 @@ import java.util.Collection;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import br.pucrio.inf.learn.util.ByteTokenizer;
+
 /**
  * Combine a closed encoding with an additional encoding.
  * 
@@ -22,7 +24,8 @@ import org.apache.commons.logging.LogFactory;
  * @author eraldof
  * 
  */
-public class HybridStringEncoding implements FeatureEncoding<String> {
+public class HybridStringEncoding implements FeatureEncoding<String>,
+		ByteSliceEncoding {
 
 	/**
 	 * Logging object.
@@ -77,6 +80,36 @@ public class HybridStringEncoding implements FeatureEncoding<String> {
 		return code;
 	}
 
+	@Override
+	public int put(byte[] bytes, int offset, int length) {
+		int code = put(encodingClosed, bytes, offset, length);
+		if (code < 0) {
+			code = put(encodingAdditional, bytes, offset, length);
+			if (code < 0)
+				return code;
+			code += sizeClosed;
+		}
+		return code;
+	}
+
+	/**
+	 * Put the given bytes in the given encoding, creating a string only if
+	 * the encoding does not support byte values.
+	 * 
+	 * @param encoding
+	 * @param bytes
+	 * @param offset
+	 * @param length
+	 * @return
+	 */
+	private static int put(FeatureEncoding<String> encoding, byte[] bytes,
+			int offset, int length) {
+		if (encoding instanceof ByteSliceEncoding)
+			return ((ByteSliceEncoding) encoding).put(bytes, offset, length);
+		return encoding.put(new String(bytes, offset, length,
+				ByteTokenizer.CHARSET));
+	}
+
 	@Override
 	public int getCodeByValue(String value) {
 		int code = encodingClosed.getCodeByValue(value);
@@ -9,6 +9,9 @@ import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Collection;
 
+import br.pucrio.inf.learn.util.AsciiStringIndex;
+import br.pucrio.inf.learn.util.ByteTokenizer;
+
 /**
  * A string feature encoding based on the default Java hashing function (
  * <code>hashCode</code> method).
@@ -20,7 +23,8 @@ import java.util.Collection;
  * @author eraldof
  * 
  */
-public class JavaHashCodeEncoding implements FeatureEncoding<String> {
+public class JavaHashCodeEncoding implements FeatureEncoding<String>,
+		ByteSliceEncoding {
 
 	/**
 	 * Number of possible (and fixed) codes of this encoding.
@@ -46,6 +50,14 @@ public class JavaHashCodeEncoding implements FeatureEncoding<String> {
 		return Math.abs(value.hashCode()) % size;
 	}
 
+	@Override
+	public int put(byte[] bytes, int offset, int length) {
+		if (!AsciiStringIndex.isAscii(bytes, offset, length))
+			return put(new String(bytes, offset, length, ByteTokenizer.CHARSET));
+		return Math.abs(AsciiStringIndex.hashCode(bytes, offset, length))
+				% size;
+	}
+
 	@Override
 	public String getValueByCode(int code) {
 		return null;
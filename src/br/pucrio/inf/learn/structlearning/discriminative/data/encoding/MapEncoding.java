@@ -194,6 +194,15 @@ public class MapEncoding<ValueType> implements FeatureEncoding<ValueType>, Seria
 		readOnly = b;
 	}
 
+	/**
+	 * Return whether new values can be added to this encoding.
+	 * 
+	 * @return
+	 */
+	public boolean isReadOnly() {
+		return readOnly;
+	}
+
 	/**
 	 * Read values from <code>is</code> and add them to this encoding.
 	 * 
@@ -10,6 +10,8 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Random;
 
+import br.pucrio.inf.learn.util.AsciiStringIndex;
+import br.pucrio.inf.learn.util.ByteTokenizer;
 import br.pucrio.inf.learn.util.Murmur3Hash;
 
 /**
@@ -22,7 +24,8 @@ import br.pucrio.inf.learn.util.Murmur3Hash;
  * @author eraldof
  * 
  */
-public class Murmur3Encoding implements FeatureEncoding<String> {
+public class Murmur3Encoding implements FeatureEncoding<String>,
+		ByteSliceEncoding {
 
 	/**
 	 * This is the only parameter of the Murmur3 hashing function.
@@ -68,6 +71,13 @@ public class Murmur3Encoding implements FeatureEncoding<String> {
 		return Math.abs(Murmur3Hash.hash32(value.getBytes(), seed)) % size;
 	}
 
+	@Override
+	public int put(byte[] bytes, int offset, int length) {
+		if (!AsciiStringIndex.isAscii(bytes, offset, length))
+			return put(new String(bytes, offset, length, ByteTokenizer.CHARSET));
+		return Math.abs(Murmur3Hash.hash32(bytes, offset, length, seed)) % size;
+	}
+
 	@Override
 	public String getValueByCode(int code) {
 		return null;
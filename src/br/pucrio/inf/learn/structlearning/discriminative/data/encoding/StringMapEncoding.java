@@ -7,13 +7,17 @@ import java.io.InputStream;
 import java.io.PrintStream;
 import java.util.HashSet;
 
+import br.pucrio.inf.learn.util.AsciiStringIndex;
+import br.pucrio.inf.learn.util.ByteTokenizer;
+
 /**
  * Encoding for string values.
  * 
  * @author eraldo
  * 
  */
-public class StringMapEncoding extends MapEncoding<String> {
+public class StringMapEncoding extends MapEncoding<String> implements
+		ByteSliceEncoding {
 
 	/**
 	 * Disconsider feature values with low frequency. This only works if each
@@ -22,6 +26,11 @@ public class StringMapEncoding extends MapEncoding<String> {
 	 */
 	private int minFrequency;
 
+	/**
+	 * Index to look up ASCII values by their bytes. It is created on demand.
+	 */
+	private transient AsciiStringIndex asciiIndex;
+
 	public StringMapEncoding() {
 		super();
 	}
@@ -60,6 +69,19 @@ public class StringMapEncoding extends MapEncoding<String> {
 		super(values);
 	}
 
+	@Override
+	public int put(byte[] bytes, int offset, int length) {
+		if (AsciiStringIndex.isAscii(bytes, offset, length)) {
+			if (asciiIndex == null)
+				asciiIndex = new AsciiStringIndex(mapFromCodeToValue);
+			int code = asciiIndex.get(bytes, offset, length);
+			if (code >= 0)
+				return code;
+		}
+		// New (or non-ASCII) value.
+		return put(new String(bytes, offset, length, ByteTokenizer.CHARSET));
+	}
+
 	@Override
 	public void load(BufferedReader reader) throws IOException {
 		String line;
@@ -1,9 +1,19 @@
 package br.pucrio.inf.learn.structlearning.discriminative.driver;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.util.Collection;
+import java.util.LinkedList;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.OptionBuilder;
@@ -15,11 +25,14 @@ import org.apache.commons.logging.LogFactory;
 import org.json.JSONException;
 
 import br.pucrio.inf.learn.structlearning.discriminative.application.coreference.CorefColumnDataset;
+import br.pucrio.inf.learn.structlearning.discriminative.application.coreference.CorefOutput;
 import br.pucrio.inf.learn.structlearning.discriminative.application.coreference.CoreferenceMaxBranchInference;
 import br.pucrio.inf.learn.structlearning.discriminative.application.coreference.CoreferenceMaxBranchInference.InferenceStrategy;
 import br.pucrio.inf.learn.structlearning.discriminative.application.dp.DPModel;
 import br.pucrio.inf.learn.structlearning.discriminative.application.dp.DPTemplateEvolutionModel;
 import br.pucrio.inf.learn.structlearning.discriminative.application.dp.data.DPInput;
+import br.pucrio.inf.learn.structlearning.discriminative.application.dp.FeatureTemplate;
+import br.pucrio.inf.learn.structlearning.discriminative.application.dp.SimpleFeatureTemplate;
 import br.pucrio.inf.learn.structlearning.discriminative.application.dp.data.DPOutput;
 import br.pucrio.inf.learn.structlearning.discriminative.data.DatasetException;
 import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleInput;
@@ -45,6 +58,12 @@ public class ApplyCoreferenceModel implements Command {
 	private static final Log LOG = LogFactory
 			.getLog(ApplyCoreferenceModel.class);
 
+	/**
+	 * Maximum number of documents being decoded (or waiting to be written) per
+	 * thread in streaming mode.
+	 */
+	private static final int PENDING_DOCUMENTS_PER_THREAD = 4;
+
 	@SuppressWarnings("static-access")
 	@Override
 	public void run(String[] args) {
@@ -124,6 +143,22 @@ public class ApplyCoreferenceModel implements Command {
 								+ "to be latent and are predicted using Kruskal "
 								+ "algorithm.").create());
 
+		options.addOption(OptionBuilder
+				.withLongOpt("stream")
+				.withDescription(
+						"Read, decode and write one document at a time "
+								+ "instead of loading the whole test "
+								+ "dataset. Memory usage does not depend "
+								+ "on the number of documents.").create());
+		options.addOption(OptionBuilder
+				.withLongOpt("numthreads")
+				.withArgName("number")
+				.hasArg()
+				.withDescription(
+						"Number of threads used to decode documents in "
+								+ "streaming mode (default: number of "
+								+ "available cores).").create());
+
 		System.out.println();
 
 		// Parse the command-line arguments.
@@ -154,6 +189,9 @@ public class ApplyCoreferenceModel implements Command {
 		String metric = cmdLine.getOptionValue("conllmetric");
 		boolean considerSingletons = !cmdLine.hasOption("nosingletons");
 		boolean outputCorefTrees = cmdLine.hasOption("trees");
+		boolean streaming = cmdLine.hasOption("stream");
+		int numThreads = Integer.parseInt(cmdLine.getOptionValue("numthreads",
+				"" + Runtime.getRuntime().availableProcessors()));
 		// Inference strategy.
 		InferenceStrategy inferenceStrategy = InferenceStrategy.BRANCH;
 		String inferenceStrategyStr = cmdLine.getOptionValue("inference");
@@ -183,6 +221,7 @@ public class ApplyCoreferenceModel implements Command {
 			conllBasePath = new File(scriptBasePathStr);
 
 		CorefColumnDataset testDataset = null;
+		BufferedReader testReader = null;
 		FeatureEncoding<String> featureEncoding = null;
 		try {
 			/*
@@ -216,7 +255,14 @@ public class ApplyCoreferenceModel implements Command {
 			testDataset = new CorefColumnDataset(featureEncoding,
 					(Collection<String>) null);
 			testDataset.setCheckMultipleTrueEdges(false);
-			testDataset.load(testDatasetFileName);
+			if (streaming) {
+				// Only the header is read now.
+				testReader = new BufferedReader(new FileReader(
+						testDatasetFileName));
+				testDataset.openStream(testReader);
+			} else {
+				testDataset.load(testDatasetFileName);
+			}
 
 		} catch (Exception e) {
 			LOG.error("Parsing command-line options", e);
@@ -242,6 +288,64 @@ public class ApplyCoreferenceModel implements Command {
 		// LOG.info("Generating features from templates...");
 		// testDataset.generateFeatures();
 
+		// Predicted test set filename.
+		String testPredictedFileName = outputFileName;
+		File f = new File(new File(testDatasetFileName).getName());
+		if (testPredictedFileName == null)
+			testPredictedFileName = f.getAbsolutePath() + "."
+					+ new Random().nextInt() + ".pred";
+
+		if (streaming) {
+			try {
+				LOG.info("Predicting and saving test file ("
+						+ testPredictedFileName + ") in streaming mode...");
+				int numDocs = predictStreaming(testDataset, testReader, model,
+						inferenceStrategy, testPredictedFileName,
+						outputCorefTrees, numThreads);
+				testReader.close();
+				testDataset.closeStream();
+				LOG.info("Predicted " + numDocs + " documents.");
+			} catch (Exception e) {
+				LOG.error("Predicting in streaming mode", e);
+				System.exit(1);
+			}
+		} else {
+			predict(testDataset, model, inferenceStrategy,
+					testPredictedFileName, outputCorefTrees);
+		}
+
+		if (metric != null) {
+			try {
+				LOG.info("Evaluating model...");
+				TrainCoreference.evaluateWithConllScripts(conllBasePath,
+						testPredictedFileName, conllTestFileName, metric,
+						outputConllFileName, considerSingletons);
+			} catch (Exception e) {
+				LOG.error("Running evaluation scripts", e);
+				System.exit(1);
+			}
+		}
+
+		if (outputFileName == null)
+			// Remove temporary predicted file with mention pairs.
+			new File(testPredictedFileName).delete();
+
+		LOG.info("Model application done!");
+	}
+
+	/**
+	 * Predict the outputs of all documents in the given dataset (already
+	 * loaded) and save the predicted dataset in the given file.
+	 * 
+	 * @param testDataset
+	 * @param model
+	 * @param inferenceStrategy
+	 * @param testPredictedFileName
+	 * @param outputCorefTrees
+	 */
+	private void predict(CorefColumnDataset testDataset, DPModel model,
+			InferenceStrategy inferenceStrategy, String testPredictedFileName,
+			boolean outputCorefTrees) {
 		// Inference algorithm.
 		CoreferenceMaxBranchInference inference = new CoreferenceMaxBranchInference(
 				testDataset.getMaxNumberOfTokens(), 0, inferenceStrategy);
@@ -284,13 +388,6 @@ public class ApplyCoreferenceModel implements Command {
 			}
 		}
 
-		// Predicted test set filename.
-		String testPredictedFileName = outputFileName;
-		File f = new File(new File(testDatasetFileName).getName());
-		if (testPredictedFileName == null)
-			testPredictedFileName = f.getAbsolutePath() + "."
-					+ new Random().nextInt() + ".pred";
-
 		try {
 			if (outputCorefTrees) {
 				LOG.info("Predicting \"golden\" trees for the correct outputs...");
@@ -325,24 +422,174 @@ public class ApplyCoreferenceModel implements Command {
 			LOG.error("Saving predicted file " + testPredictedFileName, e);
 			System.exit(1);
 		}
+	}
 
-		if (metric != null) {
-			try {
-				LOG.info("Evaluating model...");
-				TrainCoreference.evaluateWithConllScripts(conllBasePath,
-						testPredictedFileName, conllTestFileName, metric,
-						outputConllFileName, considerSingletons);
-			} catch (Exception e) {
-				LOG.error("Running evaluation scripts", e);
-				System.exit(1);
+	/**
+	 * Read the documents from the given reader one at a time, decode them by
+	 * means of a pool of threads and write the predicted documents in the
+	 * given file, in the same order they were read. At most
+	 * <code>PENDING_DOCUMENTS_PER_THREAD</code> documents per thread are kept
+	 * in memory.
+	 * 
+	 * The explicit feature encoding is frozen (read-only) so that unseen
+	 * features do not grow the model encoding. Parsing and writing are
+	 * performed in the calling thread, which is the only one that accesses
+	 * the basic feature encoding.
+	 * 
+	 * @param testDataset
+	 *            dataset whose stream is open on the given reader.
+	 * @param reader
+	 * @param model
+	 * @param inferenceStrategy
+	 * @param testPredictedFileName
+	 * @param outputCorefTrees
+	 * @param numThreads
+	 * @return the number of predicted documents.
+	 * @throws IOException
+	 * @throws DatasetException
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	private int predictStreaming(final CorefColumnDataset testDataset,
+			BufferedReader reader, final DPModel model,
+			final InferenceStrategy inferenceStrategy,
+			String testPredictedFileName, final boolean outputCorefTrees,
+			int numThreads) throws IOException, DatasetException,
+			InterruptedException, ExecutionException {
+		// Test features not present in the model are useless.
+		testDataset.getExplicitFeatureEncoding().setReadOnly(true);
+		final FeatureTemplate[] sharedTemplates = testDataset.getTemplates()[0];
+
+		/*
+		 * Templates instantiate features in a shared temporary object, so each
+		 * thread needs its own copies.
+		 */
+		final ThreadLocal<FeatureTemplate[]> templates = new ThreadLocal<FeatureTemplate[]>() {
+			@Override
+			protected FeatureTemplate[] initialValue() {
+				FeatureTemplate[] tpls = new FeatureTemplate[sharedTemplates.length];
+				for (int idxTpl = 0; idxTpl < tpls.length; ++idxTpl)
+					tpls[idxTpl] = new SimpleFeatureTemplate(
+							sharedTemplates[idxTpl].getIndex(),
+							sharedTemplates[idxTpl].getFeatures());
+				return tpls;
 			}
-		}
+		};
 
-		if (outputFileName == null)
-			// Remove temporary predicted file with mention pairs.
-			new File(testPredictedFileName).delete();
+		// Inference objects are not thread-safe.
+		final ThreadLocal<CoreferenceMaxBranchInference> inferences = new ThreadLocal<CoreferenceMaxBranchInference>() {
+			@Override
+			protected CoreferenceMaxBranchInference initialValue() {
+				return new CoreferenceMaxBranchInference(
+						testDataset.getMaxNumberOfTokens(), 0,
+						inferenceStrategy);
+			}
+		};
 
-		LOG.info("Model application done!");
+		ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+		BufferedWriter writer = new BufferedWriter(new FileWriter(
+				testPredictedFileName));
+		try {
+			testDataset.saveHeader(writer);
+
+			// Documents being decoded in reading order.
+			LinkedList<DPInput> pendingInputs = new LinkedList<DPInput>();
+			LinkedList<CorefOutput> pendingCorrects = new LinkedList<CorefOutput>();
+			LinkedList<Future<CorefOutput>> pendingPredicteds = new LinkedList<Future<CorefOutput>>();
+			int maxPending = PENDING_DOCUMENTS_PER_THREAD * numThreads;
+
+			// Auxiliary lists filled by the dataset parser.
+			LinkedList<DPInput> inputList = new LinkedList<DPInput>();
+			LinkedList<DPOutput> outputList = new LinkedList<DPOutput>();
+
+			int numDocs = 0;
+			boolean more = true;
+			while (more) {
+				more = testDataset.readExample(reader, inputList, outputList);
+				if (inputList.isEmpty())
+					continue;
+
+				final DPInput input = inputList.removeFirst();
+				final CorefOutput correct = (CorefOutput) outputList
+						.removeFirst();
+				pendingInputs.add(input);
+				pendingCorrects.add(correct);
+				pendingPredicteds.add(pool.submit(new Callable<CorefOutput>() {
+					@Override
+					public CorefOutput call() throws Exception {
+						CoreferenceMaxBranchInference inference = inferences
+								.get();
+						// Generate derived features from templates.
+						input.allocFeatureMatrix();
+						input.generateFeatures(templates.get(),
+								testDataset.getExplicitFeatureEncoding());
+						// Predict the clustering.
+						CorefOutput predicted = (CorefOutput) input
+								.createOutput();
+						inference.inference(model, input, predicted);
+						if (outputCorefTrees)
+							// Constrained prediction of the "golden" tree.
+							inference.partialInference(model, input,
+									correct, correct);
+						// Free derived feature matrix.
+						input.freeFeatureMatrix();
+						return predicted;
+					}
+				}));
+
+				// Write finished documents to bound memory usage.
+				while (pendingPredicteds.size() >= maxPending)
+					writeNext(testDataset, writer, pendingInputs,
+							pendingCorrects, pendingPredicteds,
+							outputCorefTrees);
+
+				++numDocs;
+				if (numDocs % 100 == 0) {
+					System.out.print(".");
+					System.out.flush();
+				}
+			}
+
+			// Write the remaining documents.
+			while (!pendingPredicteds.isEmpty())
+				writeNext(testDataset, writer, pendingInputs, pendingCorrects,
+						pendingPredicteds, outputCorefTrees);
+			System.out.println();
+
+			return numDocs;
+		} finally {
+			pool.shutdownNow();
+			writer.close();
+		}
+	}
+
+	/**
+	 * Wait for the prediction of the first pending document and write it.
+	 * 
+	 * @param testDataset
+	 * @param writer
+	 * @param pendingInputs
+	 * @param pendingCorrects
+	 * @param pendingPredicteds
+	 * @param outputCorefTrees
+	 * @throws IOException
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	private static void writeNext(CorefColumnDataset testDataset,
+			BufferedWriter writer, LinkedList<DPInput> pendingInputs,
+			LinkedList<CorefOutput> pendingCorrects,
+			LinkedList<Future<CorefOutput>> pendingPredicteds,
+			boolean outputCorefTrees) throws IOException,
+			InterruptedException, ExecutionException {
+		CorefOutput predicted = pendingPredicteds.removeFirst().get();
+		DPInput input = pendingInputs.removeFirst();
+		CorefOutput correct = pendingCorrects.removeFirst();
+		if (outputCorefTrees)
+			testDataset.saveCorefTreesExample(writer, input, correct,
+					predicted, 0, true);
+		else
+			testDataset.saveExample(writer, input, correct, predicted);
 	}
 
 }
@@ -1,5 +1,6 @@
 package br.pucrio.inf.learn.structlearning.discriminative.driver;
 
+import java.io.File;
 import java.io.IOException;
 
 import org.apache.commons.cli.CommandLine;
@@ -9,17 +10,20 @@ import org.apache.commons.cli.ParseException;
 import org.apache.commons.cli.PosixParser;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.json.JSONException;
 
-import br.pucrio.inf.learn.structlearning.discriminative.application.coreference.CorefColumnDataset;
-import br.pucrio.inf.learn.structlearning.discriminative.application.dp.DPTemplateEvolutionModel;
+import br.pucrio.inf.learn.structlearning.discriminative.application.dp.SortedModelFile;
 import br.pucrio.inf.learn.structlearning.discriminative.data.DatasetException;
 import br.pucrio.inf.learn.structlearning.discriminative.driver.Driver.Command;
 import br.pucrio.inf.learn.util.CommandLineOptionsUtil;
 
 /**
  * Driver to build a committee of coreference models. The committee model is
- * just the mean of the given models.
+ * just the weighted sum of the given models.
+ * 
+ * Member models are converted (one at a time) to sorted model files (see
+ * <code>SortedModelFile</code>), unless they are already in this format, and
+ * then merged by a k-way merge that streams the committee model to the output
+ * file. Thus, memory usage is bounded by the size of one member model.
  * 
  * @author eraldo
  * 
@@ -49,6 +53,16 @@ public class BuildCoreferenceCommittee implements Command {
 		options.addOption(OptionBuilder.withLongOpt("output")
 				.withArgName("filename").hasArg().isRequired()
 				.withDescription("Output model file name.").create());
+		options.addOption(OptionBuilder
+				.withLongOpt("sorted")
+				.withDescription(
+						"Save the committee as a sorted model file, which "
+								+ "can be merged again without conversion, "
+								+ "instead of a JSON model.").create());
+		options.addOption(OptionBuilder.withLongOpt("tmpdir")
+				.withArgName("path").hasArg()
+				.withDescription("Directory for temporary sorted models.")
+				.create());
 
 		// Parse the command-line arguments.
 		CommandLine cmdLine = null;
@@ -70,34 +84,64 @@ public class BuildCoreferenceCommittee implements Command {
 		String[] modelFileNames = cmdLine.getOptionValues("model");
 		String outputFileName = cmdLine.getOptionValue("output");
 
-		CorefColumnDataset emptyDataset = new CorefColumnDataset();
-		DPTemplateEvolutionModel finalModel = new DPTemplateEvolutionModel(0);
+		boolean sortedOutput = cmdLine.hasOption("sorted");
+		String tmpDirName = cmdLine.getOptionValue("tmpdir");
+		File tmpDir = null;
+		if (tmpDirName != null)
+			tmpDir = new File(tmpDirName);
+
+		String[] sortedFileNames = new String[modelFileNames.length];
+		double[] weights = new double[modelFileNames.length];
+		File[] tmpFiles = new File[modelFileNames.length];
 		try {
 
-			for (String modelFileName : modelFileNames) {
+			for (int idx = 0; idx < modelFileNames.length; ++idx) {
 				// Model filename and optional weight.
-				String[] fileAndWeight = modelFileName.split(",");
+				String[] fileAndWeight = modelFileNames[idx].split(",");
 				// Optional model weight.
 				double weight = 1d;
 				if (fileAndWeight.length > 1)
 					weight = Double.parseDouble(fileAndWeight[1]);
-				LOG.info(String.format("Loading model '%s' with weight %f...",
-						fileAndWeight[0], weight));
-				DPTemplateEvolutionModel memberModel = new DPTemplateEvolutionModel(
-						fileAndWeight[0], emptyDataset, false);
-				// Include model in the committee.
-				finalModel.sumModel(memberModel, weight);
+				weights[idx] = weight;
+				if (SortedModelFile.isSortedModelFile(fileAndWeight[0])) {
+					LOG.info(String.format(
+							"Using sorted model '%s' with weight %f...",
+							fileAndWeight[0], weight));
+					sortedFileNames[idx] = fileAndWeight[0];
+				} else {
+					LOG.info(String.format(
+							"Sorting model '%s' with weight %f...",
+							fileAndWeight[0], weight));
+					tmpFiles[idx] = File.createTempFile("committee", ".sorted",
+							tmpDir);
+					sortedFileNames[idx] = tmpFiles[idx].getPath();
+					SortedModelFile.convert(fileAndWeight[0],
+							sortedFileNames[idx]);
+				}
 			}
 
-		} catch (JSONException e) {
-			LOG.error("Loading model", e);
-			System.exit(1);
+			LOG.info("Merging models...");
+			SortedModelFile.ParameterWriter writer;
+			if (sortedOutput)
+				writer = new SortedModelFile.SortedWriter(outputFileName);
+			else
+				writer = new SortedModelFile.JSONModelWriter(outputFileName);
+			long numParameters = SortedModelFile.merge(sortedFileNames,
+					weights, writer);
+			LOG.info(String.format("Committee model has %d parameters.",
+					numParameters));
+
 		} catch (IOException e) {
-			LOG.error("Loading model", e);
+			LOG.error("Building committee", e);
 			System.exit(1);
 		} catch (DatasetException e) {
-			LOG.error("Loading model", e);
+			LOG.error("Building committee", e);
 			System.exit(1);
+		} finally {
+			// Remove temporary sorted models.
+			for (File tmpFile : tmpFiles)
+				if (tmpFile != null)
+					tmpFile.delete();
 		}
 
 		LOG.info(String.format("Committee model saved (%s)!", outputFileName));
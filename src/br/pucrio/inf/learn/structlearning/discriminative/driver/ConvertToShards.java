@@ -0,0 +1,264 @@
+package br.pucrio.inf.learn.structlearning.discriminative.driver;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.commons.cli.PosixParser;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import br.pucrio.inf.learn.structlearning.discriminative.application.bisection.BisectionDataset;
+import br.pucrio.inf.learn.structlearning.discriminative.application.bisection.BisectionInput;
+import br.pucrio.inf.learn.structlearning.discriminative.application.dp.Feature;
+import br.pucrio.inf.learn.structlearning.discriminative.application.dp.data.DPBasicDataset;
+import br.pucrio.inf.learn.structlearning.discriminative.application.dp.data.DPColumnDataset;
+import br.pucrio.inf.learn.structlearning.discriminative.application.dp.data.DPInput;
+import br.pucrio.inf.learn.structlearning.discriminative.application.dp.data.DPOutput;
+import br.pucrio.inf.learn.structlearning.discriminative.application.pq.data.PQDataset2;
+import br.pucrio.inf.learn.structlearning.discriminative.application.pq.data.PQInput2;
+import br.pucrio.inf.learn.structlearning.discriminative.application.pq.data.PQOutput2;
+import br.pucrio.inf.learn.structlearning.discriminative.application.rank.RankDataset;
+import br.pucrio.inf.learn.structlearning.discriminative.application.rank.RankInput;
+import br.pucrio.inf.learn.structlearning.discriminative.application.sequence.data.ArraySequenceInput;
+import br.pucrio.inf.learn.structlearning.discriminative.application.sequence.data.ArraySequenceOutput;
+import br.pucrio.inf.learn.structlearning.discriminative.application.sequence.data.SequenceDataset;
+import br.pucrio.inf.learn.structlearning.discriminative.data.Dataset;
+import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleInputArray;
+import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleInputCodec;
+import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleOutput;
+import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleOutputCodec;
+import br.pucrio.inf.learn.structlearning.discriminative.data.ShardedExampleInputArray;
+import br.pucrio.inf.learn.structlearning.discriminative.data.ShardedExampleWriter;
+import br.pucrio.inf.learn.structlearning.discriminative.data.encoding.FeatureEncoding;
+import br.pucrio.inf.learn.structlearning.discriminative.data.encoding.MapEncoding;
+import br.pucrio.inf.learn.structlearning.discriminative.data.encoding.Murmur3Encoding;
+import br.pucrio.inf.learn.structlearning.discriminative.data.encoding.StringMapEncoding;
+import br.pucrio.inf.learn.structlearning.discriminative.driver.Driver.Command;
+import br.pucrio.inf.learn.util.CommandLineOptionsUtil;
+
+/**
+ * Convert a text dataset to the sharded binary format (see
+ * <code>ShardedExampleInputArray</code>). The input structures are encoded
+ * with the codec of the dataset type. Optionally, the gold outputs are also
+ * stored, so that the dataset can be streamed during training (see
+ * <code>ShardedExampleStream</code>).
+ *
+ * @author eraldo
+ *
+ */
+public class ConvertToShards implements Command {
+
+	/**
+	 * Logging object.
+	 */
+	private static final Log LOG = LogFactory.getLog(ConvertToShards.class);
+
+	@SuppressWarnings("static-access")
+	@Override
+	public void run(String[] args) {
+		Options options = new Options();
+		options.addOption(OptionBuilder.withLongOpt("type").isRequired()
+				.withArgName("type").hasArg()
+				.withDescription("Dataset type: sequence, dp, dpbasic "
+						+ "(explicit features), rank, bisection or pq.")
+				.create());
+		options.addOption(OptionBuilder.withLongOpt("in").isRequired()
+				.withArgName("filename").hasArg()
+				.withDescription("Input filename (text format).").create());
+		options.addOption(OptionBuilder.withLongOpt("out").isRequired()
+				.withArgName("directory").hasArg()
+				.withDescription("Output directory.").create());
+		options.addOption(OptionBuilder
+				.withLongOpt("shards")
+				.withArgName("number")
+				.hasArg()
+				.withDescription(
+						"Number of shard files. The default value is the "
+								+ "number of available processors.").create());
+		options.addOption(OptionBuilder
+				.withLongOpt("compress")
+				.withDescription(
+						"Compress the examples. It reduces the file size at"
+								+ " the cost of decompressing each example on"
+								+ " loading.").create());
+		options.addOption(OptionBuilder
+				.withLongOpt("encoding")
+				.withArgName("filename")
+				.hasArg()
+				.withDescription(
+						"Filename that contains a list of considered feature"
+								+ " values. Any feature value not present in"
+								+ " this file is ignored.").create());
+		options.addOption(OptionBuilder
+				.withLongOpt("saveencoding")
+				.withArgName("filename")
+				.hasArg()
+				.withDescription(
+						"Save the feature encoding in the given file. The "
+								+ "encoding is needed to interpret the codes "
+								+ "of a map-based encoding.").create());
+		options.addOption(OptionBuilder
+				.withLongOpt("murmur3")
+				.withArgName("size")
+				.hasArg()
+				.withDescription(
+						"Use a Murmur3 hash function to encode the feature "
+								+ "values. If this number has the suffix 'b' "
+								+ "then it is considered as the number of "
+								+ "bits needed to encode a feature code.")
+				.create());
+		options.addOption(OptionBuilder.withLongOpt("hashseed")
+				.withArgName("seed").hasArg()
+				.withDescription("Seed for the hash-based encodings.").create());
+		options.addOption(OptionBuilder
+				.withLongOpt("outputs")
+				.withDescription(
+						"Store the gold outputs along with the examples. It "
+								+ "is supported by the sequence, dp, dpbasic "
+								+ "and pq types.").create());
+		options.addOption(OptionBuilder
+				.withLongOpt("verify")
+				.withDescription(
+						"Load the written dataset and check the number of "
+								+ "examples.").create());
+
+		// Parse the command-line arguments.
+		CommandLine cmdLine = null;
+		PosixParser parser = new PosixParser();
+		try {
+			cmdLine = parser.parse(options, args);
+		} catch (ParseException e) {
+			System.err.println(e.getMessage());
+			CommandLineOptionsUtil.usage(getClass().getSimpleName(), options);
+		}
+
+		// Print the list of options along the values provided by the user.
+		CommandLineOptionsUtil.printOptionValues(cmdLine, options);
+
+		/*
+		 * Get the options given in the command-line or the corresponding
+		 * default values.
+		 */
+		String type = cmdLine.getOptionValue("type");
+		String inputFilename = cmdLine.getOptionValue("in");
+		String outputDirectory = cmdLine.getOptionValue("out");
+		int numShards = Integer.parseInt(cmdLine.getOptionValue("shards", ""
+				+ Runtime.getRuntime().availableProcessors()));
+		boolean compress = cmdLine.hasOption("compress");
+		String encodingFile = cmdLine.getOptionValue("encoding");
+		String saveEncodingFile = cmdLine.getOptionValue("saveencoding");
+		String murmur3 = cmdLine.getOptionValue("murmur3");
+		String hashSeed = cmdLine.getOptionValue("hashseed");
+		boolean storeOutputs = cmdLine.hasOption("outputs");
+		boolean verify = cmdLine.hasOption("verify");
+
+		try {
+			// Create (or load) the feature value encoding.
+			FeatureEncoding<String> featureEncoding;
+			if (murmur3 != null) {
+				int size = TrainDP.parseValueDirectOrBits(murmur3);
+				if (hashSeed == null)
+					featureEncoding = new Murmur3Encoding(size);
+				else
+					featureEncoding = new Murmur3Encoding(size,
+							Integer.parseInt(hashSeed));
+			} else if (encodingFile != null) {
+				LOG.info("Loading encoding file...");
+				featureEncoding = new StringMapEncoding(encodingFile);
+			} else
+				featureEncoding = new StringMapEncoding();
+
+			// Load the dataset of the given type.
+			LOG.info("Loading input dataset...");
+			ExampleInputArray inputs;
+			ExampleOutput[] outputs = null;
+			ExampleInputCodec codec;
+			ExampleOutputCodec outputCodec = null;
+			if (type.equals("sequence")) {
+				Dataset dataset = new SequenceDataset(featureEncoding,
+						new StringMapEncoding());
+				dataset.load(inputFilename);
+				inputs = dataset.getInputs();
+				outputs = dataset.getOutputs();
+				codec = ArraySequenceInput.CODEC;
+				outputCodec = ArraySequenceOutput.CODEC;
+			} else if (type.equals("dp")) {
+				Dataset dataset = new DPColumnDataset(featureEncoding, null);
+				dataset.load(inputFilename);
+				inputs = dataset.getInputs();
+				outputs = dataset.getOutputs();
+				codec = DPInput.CODEC;
+				outputCodec = DPOutput.CODEC;
+			} else if (type.equals("dpbasic")) {
+				DPBasicDataset dataset = new DPBasicDataset(featureEncoding);
+				dataset.load(inputFilename);
+				inputs = dataset.getInputs();
+				outputs = dataset.getOutputs();
+				codec = DPInput.CODEC;
+				outputCodec = DPOutput.CODEC;
+			} else if (type.equals("rank")) {
+				Dataset dataset = new RankDataset(featureEncoding,
+						new MapEncoding<Feature>());
+				dataset.load(inputFilename);
+				inputs = dataset.getInputs();
+				codec = RankInput.CODEC;
+			} else if (type.equals("bisection")) {
+				Dataset dataset = new BisectionDataset(featureEncoding,
+						new MapEncoding<Feature>());
+				dataset.load(inputFilename);
+				inputs = dataset.getInputs();
+				codec = BisectionInput.CODEC;
+			} else if (type.equals("pq")) {
+				PQDataset2 dataset = new PQDataset2(featureEncoding);
+				dataset.load(inputFilename);
+				inputs = dataset.getInputs();
+				outputs = dataset.getOutputs();
+				codec = PQInput2.CODEC;
+				outputCodec = PQOutput2.CODEC;
+			} else {
+				LOG.error("Unknown dataset type: " + type);
+				System.exit(1);
+				return;
+			}
+
+			int numExamples = inputs.getNumberExamples();
+			LOG.info(String.format("Writing %d examples in %d shards...",
+					numExamples, numShards));
+			if (storeOutputs) {
+				if (outputCodec == null) {
+					LOG.error("Gold outputs are not supported by type " + type);
+					System.exit(1);
+				}
+				ShardedExampleWriter.write(outputDirectory, inputs, outputs,
+						codec, outputCodec, compress, numShards);
+			} else
+				ShardedExampleWriter.write(outputDirectory, inputs, codec,
+						compress, numShards);
+
+			if (saveEncodingFile != null) {
+				LOG.info("Saving feature encoding...");
+				featureEncoding.save(saveEncodingFile);
+			}
+
+			if (verify) {
+				LOG.info("Verifying sharded dataset...");
+				ShardedExampleInputArray shards = new ShardedExampleInputArray(
+						outputDirectory, codec, Runtime.getRuntime()
+								.availableProcessors());
+				if (shards.getNumberExamples() != numExamples) {
+					LOG.error("Sharded dataset has "
+							+ shards.getNumberExamples() + " examples");
+					System.exit(1);
+				}
+				shards.close();
+			}
+
+			LOG.info("Conversion successfully done!");
+
+		} catch (Exception e) {
+			LOG.error("Converting dataset", e);
+			System.exit(1);
+		}
+	}
+}
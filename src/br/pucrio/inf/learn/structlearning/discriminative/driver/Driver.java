@@ -34,10 +34,20 @@ public class Driver {
 				"Train a dependency parser using "
 						+ "a structural perceptron algorithm."));
 
+		// Hyperparameter sweep for dependency parsers.
+		descriptions.add(new CommandDescription(new SweepDP(), "SweepDP",
+				"Train and evaluate many dependency parser "
+						+ "configurations concurrently."));
+
 		// Trainer for dependency parsers.
 		descriptions.add(new CommandDescription(new SerializeDPDataset(),
 				"SerializeDPDataset", "Serialize a DP dataset."));
 
+		// Conversion of text datasets to the sharded binary format.
+		descriptions.add(new CommandDescription(new ConvertToShards(),
+				"ConvertToShards",
+				"Convert a text dataset to the sharded binary format."));
+
 		// Trainer for the Structural Perceptron.
 		descriptions.add(new CommandDescription(new TrainPQ2(), "TrainPQ2",
 				"Train using the Structural Perceptron algorithm."));
@@ -130,6 +130,13 @@ public class SerializeDPDataset implements Command {
 						"Use the default Java hashing function (hashCode method) "
 								+ "to encode feature values.").create());
 
+		options.addOption(OptionBuilder
+				.withLongOpt("compress")
+				.withDescription(
+						"Compress the serialized examples. It reduces the file"
+								+ " size at the cost of decompressing each"
+								+ " example on loading.").create());
+
 		// Parse the command-line arguments.
 		CommandLine cmdLine = null;
 		PosixParser parser = new PosixParser();
@@ -157,6 +164,7 @@ public class SerializeDPDataset implements Command {
 		String murmur2 = cmdLine.getOptionValue("murmur2");
 		String lookup3 = cmdLine.getOptionValue("lookup3");
 		String javaHashSizeStr = cmdLine.getOptionValue("javahash");
+		boolean compress = cmdLine.hasOption("compress");
 
 		DPBasicDataset inDataset = null;
 		FeatureEncoding<String> featureEncoding = null;
@@ -270,6 +278,7 @@ public class SerializeDPDataset implements Command {
 
 			LOG.info("Loading and serializing input dataset...");
 			inDataset = new DPBasicDataset(featureEncoding);
+			inDataset.setSerializationCompression(compress);
 			inDataset.serialize(inputFilename, outputFilename);
 
 			LOG.info("Feature encoding size: " + featureEncoding.size());
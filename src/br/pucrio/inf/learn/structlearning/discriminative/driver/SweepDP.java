@@ -0,0 +1,468 @@
+package br.pucrio.inf.learn.structlearning.discriminative.driver;
+
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.commons.cli.PosixParser;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import br.pucrio.inf.learn.structlearning.discriminative.algorithm.OnlineStructuredAlgorithm.LearnRateUpdateStrategy;
+import br.pucrio.inf.learn.structlearning.discriminative.algorithm.perceptron.LossAugmentedPerceptron;
+import br.pucrio.inf.learn.structlearning.discriminative.algorithm.perceptron.Perceptron;
+import br.pucrio.inf.learn.structlearning.discriminative.application.dp.DPTemplateEvolutionModel;
+import br.pucrio.inf.learn.structlearning.discriminative.application.dp.MaximumBranchingInference;
+import br.pucrio.inf.learn.structlearning.discriminative.application.dp.data.DPColumnDataset;
+import br.pucrio.inf.learn.structlearning.discriminative.application.dp.data.DPOutput;
+import br.pucrio.inf.learn.structlearning.discriminative.application.dp.evaluation.DPEvaluation;
+import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleInputArray;
+import br.pucrio.inf.learn.structlearning.discriminative.data.SimpleExampleInputArray;
+import br.pucrio.inf.learn.structlearning.discriminative.data.encoding.StringMapEncoding;
+import br.pucrio.inf.learn.structlearning.discriminative.driver.Driver.Command;
+import br.pucrio.inf.learn.util.CommandLineOptionsUtil;
+
+/**
+ * Driver to train and evaluate many dependency parser configurations (loss
+ * weight, learning rate and number of epochs) in one JVM. The datasets are
+ * loaded and featurized only once and then the configurations are trained
+ * concurrently. The input structures are read-only during training and
+ * prediction, so they are shared by all configurations, and each
+ * configuration has its own model and inference objects.
+ *
+ * Each configuration is evaluated on the test dataset, if given, or by
+ * k-fold cross-validation on the training dataset. The results are written as
+ * a table (one line per configuration) with tab-separated columns.
+ *
+ * @author eraldo
+ *
+ */
+public class SweepDP implements Command {
+
+	/**
+	 * Logging object.
+	 */
+	private static final Log LOG = LogFactory.getLog(SweepDP.class);
+
+	@SuppressWarnings("static-access")
+	@Override
+	public void run(String[] args) {
+		Options options = new Options();
+		options.addOption(OptionBuilder.withLongOpt("train").isRequired()
+				.withArgName("filename").hasArg()
+				.withDescription("Training dataset file name.").create());
+		options.addOption(OptionBuilder.withLongOpt("templates").isRequired()
+				.withArgName("filename").hasArg()
+				.withDescription("Feature templates file name.").create());
+		options.addOption(OptionBuilder
+				.withLongOpt("test")
+				.withArgName("filename")
+				.hasArg()
+				.withDescription(
+						"Test dataset file name. If not given, "
+								+ "configurations are evaluated by "
+								+ "cross-validation on the training dataset.")
+				.create());
+		options.addOption(OptionBuilder
+				.withLongOpt("folds")
+				.withArgName("number")
+				.hasArg()
+				.withDescription(
+						"Number of cross-validation folds (default: 5). "
+								+ "Ignored when --test is given.").create());
+		options.addOption(OptionBuilder
+				.withLongOpt("alg")
+				.withArgName("perc | loss")
+				.hasArg()
+				.withDescription(
+						"Training algorithm: perc (ordinary Perceptron) "
+								+ "or loss (loss-augmented Perceptron, "
+								+ "default).").create());
+		options.addOption(OptionBuilder
+				.withLongOpt("lossweight")
+				.withArgName("values")
+				.hasArg()
+				.withDescription(
+						"Comma-separated loss weights (default: 0).")
+				.create());
+		options.addOption(OptionBuilder
+				.withLongOpt("learnrate")
+				.withArgName("values")
+				.hasArg()
+				.withDescription(
+						"Comma-separated learning rates (default: 1).")
+				.create());
+		options.addOption(OptionBuilder
+				.withLongOpt("numepochs")
+				.withArgName("values")
+				.hasArg()
+				.withDescription(
+						"Comma-separated numbers of epochs (default: 10).")
+				.create());
+		options.addOption(OptionBuilder
+				.withLongOpt("noavg")
+				.withDescription(
+						"Turn off the weight vector averaging.").create());
+		options.addOption(OptionBuilder.withLongOpt("seed")
+				.withArgName("integer value").hasArg()
+				.withDescription("Random number generator seed.").create());
+		options.addOption(OptionBuilder
+				.withLongOpt("numthreads")
+				.withArgName("number")
+				.hasArg()
+				.withDescription(
+						"Number of configurations trained concurrently "
+								+ "(default: number of available cores).")
+				.create());
+		options.addOption(OptionBuilder
+				.withLongOpt("results")
+				.withArgName("filename")
+				.hasArg()
+				.withDescription(
+						"Results table file name (default: standard output).")
+				.create());
+
+		// Parse the command-line arguments.
+		CommandLine cmdLine = null;
+		PosixParser parser = new PosixParser();
+		try {
+			cmdLine = parser.parse(options, args);
+		} catch (ParseException e) {
+			System.err.println(e.getMessage());
+			CommandLineOptionsUtil.usage(getClass().getSimpleName(), options);
+		}
+
+		// Print the list of options along the values provided by the user.
+		CommandLineOptionsUtil.printOptionValues(cmdLine, options);
+
+		/*
+		 * Get the options given in the command-line or the corresponding
+		 * default values.
+		 */
+		String trainFileName = cmdLine.getOptionValue("train");
+		String templatesFileName = cmdLine.getOptionValue("templates");
+		String testFileName = cmdLine.getOptionValue("test");
+		int numFolds = Integer.parseInt(cmdLine.getOptionValue("folds", "5"));
+		final boolean lossAugmented = !"perc".equals(cmdLine.getOptionValue(
+				"alg", "loss"));
+		double[] lossWeights = parseDoubles(cmdLine.getOptionValue(
+				"lossweight", "0"));
+		double[] learnRates = parseDoubles(cmdLine.getOptionValue(
+				"learnrate", "1"));
+		double[] numsEpochs = parseDoubles(cmdLine.getOptionValue(
+				"numepochs", "10"));
+		final boolean averageWeights = !cmdLine.hasOption("noavg");
+		String seedStr = cmdLine.getOptionValue("seed");
+		int numThreads = Integer.parseInt(cmdLine.getOptionValue("numthreads",
+				"" + Runtime.getRuntime().availableProcessors()));
+		String resultsFileName = cmdLine.getOptionValue("results");
+
+		if (testFileName == null && numFolds < 2) {
+			LOG.error("Cross-validation requires at least two folds");
+			System.exit(1);
+		}
+
+		/*
+		 * Load and featurize the datasets only once. After that, the feature
+		 * encodings are not changed anymore.
+		 */
+		DPColumnDataset trainset = null;
+		DPColumnDataset testset = null;
+		try {
+			LOG.info("Loading edge corpus...");
+			StringMapEncoding featureEncoding = new StringMapEncoding();
+			trainset = new DPColumnDataset(featureEncoding,
+					(Collection<String>) null);
+			trainset.setNumberOfThreads(numThreads);
+			trainset.load(trainFileName);
+			LOG.info("Loading templates and generating features...");
+			trainset.loadTemplates(templatesFileName, true);
+			featureEncoding.setReadOnly(true);
+
+			if (testFileName != null) {
+				LOG.info("Loading and preparing test data...");
+				testset = new DPColumnDataset(trainset);
+				testset.load(testFileName);
+				testset.generateFeatures();
+			}
+		} catch (Exception e) {
+			LOG.error("Loading datasets", e);
+			System.exit(1);
+		}
+
+		/*
+		 * Training and evaluation splits. When using cross-validation, each
+		 * split only references the shared input structures.
+		 */
+		List<Split> splits = new ArrayList<Split>();
+		try {
+			if (testset != null) {
+				splits.add(new Split(trainset.getInputs(), trainset
+						.getOutputs(), testset.getInputs(), testset
+						.getOutputs()));
+			} else {
+				for (int fold = 0; fold < numFolds; ++fold)
+					splits.add(createFold(trainset, fold, numFolds));
+			}
+		} catch (Exception e) {
+			LOG.error("Creating cross-validation folds", e);
+			System.exit(1);
+		}
+
+		// Configurations.
+		List<Configuration> configs = new ArrayList<Configuration>();
+		for (double lossWeight : lossWeights)
+			for (double learnRate : learnRates)
+				for (double numEpochs : numsEpochs)
+					configs.add(new Configuration(lossWeight, learnRate,
+							(int) numEpochs, splits.size()));
+
+		LOG.info(String.format(
+				"Training %d configurations (%d runs) using %d threads...",
+				configs.size(), configs.size() * splits.size(), numThreads));
+
+		final int maxNumberOfTokens = Math.max(
+				trainset.getMaxNumberOfTokens(),
+				testset == null ? 0 : testset.getMaxNumberOfTokens());
+		final Long seed = seedStr == null ? null : Long.parseLong(seedStr);
+		ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		for (final Configuration config : configs) {
+			for (int idxSplit = 0; idxSplit < splits.size(); ++idxSplit) {
+				final int fIdxSplit = idxSplit;
+				final Split split = splits.get(idxSplit);
+				futures.add(pool.submit(new Callable<Object>() {
+					@Override
+					public Object call() throws Exception {
+						config.accuracies[fIdxSplit] = trainAndEvaluate(config,
+								split, maxNumberOfTokens, lossAugmented,
+								averageWeights, seed);
+						LOG.info(String.format("Finished %s (split %d): %.4f",
+								config, fIdxSplit,
+								100 * config.accuracies[fIdxSplit][0]));
+						return null;
+					}
+				}));
+			}
+		}
+
+		try {
+			for (Future<?> future : futures)
+				future.get();
+		} catch (InterruptedException e) {
+			LOG.error("Training configurations", e);
+			System.exit(1);
+		} catch (ExecutionException e) {
+			LOG.error("Training configurations", e.getCause());
+			System.exit(1);
+		} finally {
+			pool.shutdown();
+		}
+
+		// Results table.
+		PrintStream ps = System.out;
+		try {
+			if (resultsFileName != null)
+				ps = new PrintStream(resultsFileName);
+		} catch (FileNotFoundException e) {
+			LOG.error("Opening results file " + resultsFileName, e);
+			System.exit(1);
+		}
+		ps.println("lossweight\tlearnrate\tnumepochs\taverage\texample");
+		Configuration best = null;
+		for (Configuration config : configs) {
+			double[] mean = config.getMeanAccuracies();
+			ps.println(String.format("%s\t%s\t%d\t%.4f\t%.4f",
+					config.lossWeight, config.learnRate, config.numEpochs,
+					100 * mean[0], 100 * mean[1]));
+			if (best == null || mean[0] > best.getMeanAccuracies()[0])
+				best = config;
+		}
+		if (resultsFileName != null)
+			ps.close();
+
+		LOG.info(String.format("Best configuration: %s (%.4f)", best,
+				100 * best.getMeanAccuracies()[0]));
+		LOG.info("Sweep done!");
+	}
+
+	/**
+	 * Train a model with the given configuration on the given split training
+	 * examples and evaluate it on the split evaluation examples.
+	 *
+	 * @param config
+	 * @param split
+	 * @param maxNumberOfTokens
+	 * @param lossAugmented
+	 * @param averageWeights
+	 * @param seed
+	 * @return average and per-example accuracies.
+	 */
+	private static double[] trainAndEvaluate(Configuration config,
+			Split split, int maxNumberOfTokens, boolean lossAugmented,
+			boolean averageWeights, Long seed) {
+		// Model and inference objects are not shared among configurations.
+		DPTemplateEvolutionModel model = new DPTemplateEvolutionModel(0);
+		MaximumBranchingInference inference = new MaximumBranchingInference(
+				maxNumberOfTokens);
+		inference.setCheckUniqueRoot(false);
+
+		Perceptron alg;
+		if (lossAugmented)
+			alg = new LossAugmentedPerceptron(inference, model,
+					config.numEpochs, config.learnRate, config.lossWeight,
+					true, averageWeights, LearnRateUpdateStrategy.NONE);
+		else
+			alg = new Perceptron(inference, model, config.numEpochs,
+					config.learnRate, true, averageWeights,
+					LearnRateUpdateStrategy.NONE);
+		if (seed != null)
+			alg.setSeed(seed);
+
+		alg.train(split.trainInputs, split.trainOutputs);
+
+		// Predict the evaluation examples.
+		ExampleInputArray inputs = split.evalInputs;
+		DPOutput[] predicteds = new DPOutput[inputs.getNumberExamples()];
+		for (int idx = 0; idx < inputs.getNumberExamples(); ++idx) {
+			predicteds[idx] = (DPOutput) inputs.get(idx).createOutput();
+			inference.inference(model, inputs.get(idx), predicteds[idx]);
+		}
+
+		Map<String, Double> results = new DPEvaluation(false)
+				.evaluateExamples(inputs, split.evalOutputs, predicteds);
+		return new double[] { results.get("average"), results.get("example") };
+	}
+
+	/**
+	 * Create the given cross-validation fold of the given dataset. Example
+	 * <code>i</code> is an evaluation example in fold
+	 * <code>i % numFolds</code> and a training example in the remaining
+	 * folds.
+	 *
+	 * @param dataset
+	 * @param fold
+	 * @param numFolds
+	 * @return
+	 * @throws Exception
+	 */
+	private static Split createFold(DPColumnDataset dataset, int fold,
+			int numFolds) throws Exception {
+		ExampleInputArray inputs = dataset.getInputs();
+		DPOutput[] outputs = dataset.getOutputs();
+		int numExs = inputs.getNumberExamples();
+		int numEval = numExs / numFolds + (fold < numExs % numFolds ? 1 : 0);
+		SimpleExampleInputArray trainInputs = new SimpleExampleInputArray(
+				numExs - numEval);
+		SimpleExampleInputArray evalInputs = new SimpleExampleInputArray(
+				numEval);
+		DPOutput[] trainOutputs = new DPOutput[numExs - numEval];
+		DPOutput[] evalOutputs = new DPOutput[numEval];
+		int idxTrain = 0;
+		int idxEval = 0;
+		for (int idx = 0; idx < numExs; ++idx) {
+			if (idx % numFolds == fold) {
+				evalInputs.put(inputs.get(idx));
+				evalOutputs[idxEval++] = outputs[idx];
+			} else {
+				trainInputs.put(inputs.get(idx));
+				trainOutputs[idxTrain++] = outputs[idx];
+			}
+		}
+		return new Split(trainInputs, trainOutputs, evalInputs, evalOutputs);
+	}
+
+	/**
+	 * Parse a list of comma-separated numbers.
+	 *
+	 * @param str
+	 * @return
+	 */
+	private static double[] parseDoubles(String str) {
+		String[] vals = str.split(",");
+		double[] res = new double[vals.length];
+		for (int idx = 0; idx < vals.length; ++idx)
+			res[idx] = Double.parseDouble(vals[idx].trim());
+		return res;
+	}
+
+	/**
+	 * Training and evaluation examples.
+	 */
+	private static class Split {
+
+		public final ExampleInputArray trainInputs;
+
+		public final DPOutput[] trainOutputs;
+
+		public final ExampleInputArray evalInputs;
+
+		public final DPOutput[] evalOutputs;
+
+		public Split(ExampleInputArray trainInputs, DPOutput[] trainOutputs,
+				ExampleInputArray evalInputs, DPOutput[] evalOutputs) {
+			this.trainInputs = trainInputs;
+			this.trainOutputs = trainOutputs;
+			this.evalInputs = evalInputs;
+			this.evalOutputs = evalOutputs;
+		}
+	}
+
+	/**
+	 * Hyperparameter values and their results on each split.
+	 */
+	private static class Configuration {
+
+		public final double lossWeight;
+
+		public final double learnRate;
+
+		public final int numEpochs;
+
+		/**
+		 * Average and per-example accuracies on each split.
+		 */
+		public final double[][] accuracies;
+
+		public Configuration(double lossWeight, double learnRate,
+				int numEpochs, int numSplits) {
+			this.lossWeight = lossWeight;
+			this.learnRate = learnRate;
+			this.numEpochs = numEpochs;
+			this.accuracies = new double[numSplits][];
+		}
+
+		/**
+		 * Return the average and per-example accuracies averaged over all
+		 * splits.
+		 *
+		 * @return
+		 */
+		public double[] getMeanAccuracies() {
+			double[] mean = new double[2];
+			for (double[] acc : accuracies) {
+				mean[0] += acc[0] / accuracies.length;
+				mean[1] += acc[1] / accuracies.length;
+			}
+			return mean;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("lossweight=%s learnrate=%s numepochs=%d",
+					lossWeight, learnRate, numEpochs);
+		}
+	}
+}
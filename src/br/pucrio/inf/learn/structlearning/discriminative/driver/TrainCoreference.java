@@ -5,6 +5,7 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Random;
 
@@ -27,6 +28,7 @@ import br.pucrio.inf.learn.structlearning.discriminative.application.coreference
 import br.pucrio.inf.learn.structlearning.discriminative.application.coreference.CorefUndirectedModel;
 import br.pucrio.inf.learn.structlearning.discriminative.application.coreference.CoreferenceMaxBranchInference;
 import br.pucrio.inf.learn.structlearning.discriminative.application.coreference.CoreferenceMaxBranchInference.InferenceStrategy;
+import br.pucrio.inf.learn.structlearning.discriminative.application.coreference.MentionPairFilter;
 import br.pucrio.inf.learn.structlearning.discriminative.application.dp.DPModel;
 import br.pucrio.inf.learn.structlearning.discriminative.application.dp.DPTemplateEvolutionModel;
 import br.pucrio.inf.learn.structlearning.discriminative.application.dp.MaximumBranchingInference;
@@ -117,6 +119,52 @@ public class TrainCoreference implements Command {
 				.withDescription(
 						"Multiplicative factor to be used for root edges.")
 				.create());
+		options.addOption(OptionBuilder
+				.withLongOpt("numthreads")
+				.withArgName("number")
+				.hasArg()
+				.withDescription(
+						"Number of threads used to generate features "
+								+ "(default: number of available cores).")
+				.create());
+		options.addOption(OptionBuilder
+				.withLongOpt("maxdistance")
+				.withArgName("number of mentions")
+				.hasArg()
+				.withDescription(
+						"Maximum distance between the mentions of a "
+								+ "candidate pair (default: no limit).")
+				.create());
+		options.addOption(OptionBuilder
+				.withLongOpt("blockkeys")
+				.withArgName("label=value,...")
+				.hasArg()
+				.withDescription(
+						"Keep candidate pairs that match some of these keys "
+								+ "(e.g., string match features) beyond "
+								+ "the maximum distance.").create());
+		options.addOption(OptionBuilder
+				.withLongOpt("excludekeys")
+				.withArgName("label=value,...")
+				.hasArg()
+				.withDescription(
+						"Discard candidate pairs that match some of these "
+								+ "keys (e.g., incompatible types).").create());
+		options.addOption(OptionBuilder
+				.withLongOpt("prefilter")
+				.withArgName("filename")
+				.hasArg()
+				.withDescription(
+						"Linear pre-filter model (lines with label=value "
+								+ "and weight) used to discard candidate "
+								+ "pairs.").create());
+		options.addOption(OptionBuilder
+				.withLongOpt("prefilterthreshold")
+				.withArgName("score")
+				.hasArg()
+				.withDescription(
+						"Minimum pre-filter score of a candidate pair "
+								+ "(default: 0).").create());
 		options.addOption(OptionBuilder.withLongOpt("templates").isRequired()
 				.withArgName("filename").hasArg()
 				.withDescription("Feature templates file name.").create());
@@ -216,6 +264,8 @@ public class TrainCoreference implements Command {
 		 */
 		String[] inputCorpusFileNames = cmdLine.getOptionValues("train");
 		String templatesFileName = cmdLine.getOptionValue("templates");
+		int numThreads = Integer.parseInt(cmdLine.getOptionValue("numthreads",
+				"" + Runtime.getRuntime().availableProcessors()));
 		int numEpochs = Integer.parseInt(cmdLine.getOptionValue("numepochs",
 				"10"));
 		String modelFileName = cmdLine.getOptionValue("model");
@@ -252,6 +302,13 @@ public class TrainCoreference implements Command {
 		double rootLossFactor = Double.valueOf(cmdLine.getOptionValue(
 				"rootlossfactor", "-1"));
 		boolean considerSingletons = !cmdLine.hasOption("nosingletons");
+		// Candidate generation.
+		String maxDistanceStr = cmdLine.getOptionValue("maxdistance");
+		String blockKeysStr = cmdLine.getOptionValue("blockkeys");
+		String excludeKeysStr = cmdLine.getOptionValue("excludekeys");
+		String preFilterFileName = cmdLine.getOptionValue("prefilter");
+		double preFilterThreshold = Double.parseDouble(cmdLine.getOptionValue(
+				"prefilterthreshold", "0"));
 
 		/*
 		 * If --test is provided, then --conlltest must be provided (and
@@ -265,7 +322,31 @@ public class TrainCoreference implements Command {
 
 		DPColumnDataset inDataset = null;
 		FeatureEncoding<String> featureEncoding = null;
+		MentionPairFilter candidateFilter = null;
 		try {
+			if (maxDistanceStr != null || blockKeysStr != null
+					|| excludeKeysStr != null || preFilterFileName != null) {
+				if (inferenceStrategy == InferenceStrategy.BRANCH) {
+					LOG.error("Candidate generation options require a "
+							+ "latent inference strategy");
+					System.exit(1);
+				}
+				// Mention 0 is the artificial root.
+				candidateFilter = new MentionPairFilter(0);
+				if (maxDistanceStr != null)
+					candidateFilter.setMaxDistance(Integer
+							.parseInt(maxDistanceStr));
+				if (blockKeysStr != null)
+					candidateFilter.addBlockingKeys(Arrays.asList(blockKeysStr
+							.split(",")));
+				if (excludeKeysStr != null)
+					candidateFilter.addExclusionKeys(Arrays
+							.asList(excludeKeysStr.split(",")));
+				if (preFilterFileName != null)
+					candidateFilter.loadPreFilter(preFilterFileName,
+							preFilterThreshold);
+			}
+
 			/*
 			 * The feature encoding converts textual feature values to integer
 			 * codes. The use has two options: simple encoding and hash
@@ -300,14 +381,23 @@ public class TrainCoreference implements Command {
 						(Collection<String>) null);
 				((CorefColumnDataset) inDataset)
 						.setCheckMultipleTrueEdges(false);
+				((CorefColumnDataset) inDataset)
+						.setCandidateFilter(candidateFilter);
 			} else {
 				// Explicit output structure.
 				inDataset = new DPColumnDataset(featureEncoding,
 						(Collection<String>) null);
 			}
 
+			inDataset.setNumberOfThreads(numThreads);
 			inDataset.load(inputCorpusFileNames[0]);
 
+			if (candidateFilter != null) {
+				LOG.info("Candidate generation on train dataset: "
+						+ candidateFilter);
+				candidateFilter.resetStatistics();
+			}
+
 			LOG.info("Loading templates and generating features...");
 			inDataset.loadTemplates(templatesFileName, true);
 
@@ -467,10 +557,17 @@ public class TrainCoreference implements Command {
 					testset = new CorefColumnDataset(inDataset);
 					((CorefColumnDataset) testset)
 							.setCheckMultipleTrueEdges(false);
+					((CorefColumnDataset) testset)
+							.setCandidateFilter(candidateFilter);
 				} else {
 					testset = new DPColumnDataset(inDataset);
 				}
 				testset.load(testDatasetFileName);
+				if (candidateFilter != null) {
+					LOG.info("Candidate generation on test dataset: "
+							+ candidateFilter);
+					candidateFilter.resetStatistics();
+				}
 				LOG.info("Generating features from templates...");
 				testset.generateFeatures();
 				// Predicted test set filename.
@@ -514,10 +611,17 @@ public class TrainCoreference implements Command {
 					testset = new CorefColumnDataset(inDataset);
 					((CorefColumnDataset) testset)
 							.setCheckMultipleTrueEdges(false);
+					((CorefColumnDataset) testset)
+							.setCandidateFilter(candidateFilter);
 				} else {
 					testset = new DPColumnDataset(inDataset);
 				}
 				testset.load(testDatasetFileName);
+				if (candidateFilter != null) {
+					LOG.info("Candidate generation on test dataset: "
+							+ candidateFilter);
+					candidateFilter.resetStatistics();
+				}
 				LOG.info("Generating features from templates...");
 				testset.generateFeatures();
 
@@ -1,6 +1,7 @@
 package br.pucrio.inf.learn.structlearning.discriminative.driver;
 
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.PrintStream;
 import java.util.Collection;
 import java.util.Map;
@@ -28,9 +29,11 @@ import br.pucrio.inf.learn.structlearning.discriminative.application.dp.MaximumB
 import br.pucrio.inf.learn.structlearning.discriminative.application.dp.data.DPBasicDataset;
 import br.pucrio.inf.learn.structlearning.discriminative.application.dp.data.DPColumnDataset;
 import br.pucrio.inf.learn.structlearning.discriminative.application.dp.data.DPDataset;
+import br.pucrio.inf.learn.structlearning.discriminative.application.dp.data.DPInput;
 import br.pucrio.inf.learn.structlearning.discriminative.application.dp.data.DPOutput;
 import br.pucrio.inf.learn.structlearning.discriminative.application.dp.evaluation.DPEvaluation;
 import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleInputArray;
+import br.pucrio.inf.learn.structlearning.discriminative.data.ShardedExampleStream;
 import br.pucrio.inf.learn.structlearning.discriminative.data.encoding.FeatureEncoding;
 import br.pucrio.inf.learn.structlearning.discriminative.data.encoding.HybridStringEncoding;
 import br.pucrio.inf.learn.structlearning.discriminative.data.encoding.JavaHashCodeEncoding;
@@ -42,9 +45,12 @@ import br.pucrio.inf.learn.structlearning.discriminative.driver.Driver.Command;
 import br.pucrio.inf.learn.structlearning.discriminative.evaluation.AccuracyEvaluation;
 import br.pucrio.inf.learn.structlearning.discriminative.task.DualModel;
 import br.pucrio.inf.learn.structlearning.discriminative.task.Inference;
+import br.pucrio.inf.learn.structlearning.discriminative.task.LengthBucketSchedule;
 import br.pucrio.inf.learn.structlearning.discriminative.task.Model;
+import br.pucrio.inf.learn.structlearning.discriminative.task.WorkspaceInference;
 import br.pucrio.inf.learn.util.CommandLineOptionsUtil;
 import br.pucrio.inf.learn.util.DebugUtil;
+import br.pucrio.inf.learn.util.maxbranching.EisnerAlgorithm;
 
 /**
  * Driver to discriminatively train a dependency parser using perceptron-based
@@ -106,6 +112,31 @@ public class TrainDP implements Command {
 								+ "tobetter (toward-better perceptron), "
 								+ "dual (dual (kernelized) perceptron")
 				.create());
+		options.addOption(OptionBuilder
+				.withLongOpt("decoder")
+				.withArgName("branching | eisner")
+				.hasArg()
+				.withDescription(
+						"The decoding algorithm: "
+								+ "branching (non-projective, Chu-Liu-Edmonds) "
+								+ "or eisner (projective, Eisner's dynamic "
+								+ "programming).").create());
+		options.addOption(OptionBuilder
+				.withLongOpt("scorecache")
+				.withArgName("size")
+				.hasArg()
+				.withDescription(
+						"Cache the edge scores of the given number of "
+								+ "examples and only rescore, in later "
+								+ "epochs, edges whose features have been "
+								+ "updated.").create());
+		options.addOption(OptionBuilder
+				.withLongOpt("benchdecoders")
+				.withDescription(
+						"Compare the running time and the predictions of "
+								+ "both decoders on the test set for "
+								+ "several sentence length buckets.")
+				.create());
 		options.addOption(OptionBuilder.withLongOpt("train").isRequired()
 				.withArgName("filename").hasArg()
 				.withDescription("Training dataset file name.").create());
@@ -125,8 +156,25 @@ public class TrainDP implements Command {
 						"Feature templates file name. Implies that train and "
 								+ "test must be column-format datasets.")
 				.create());
+		options.addOption(OptionBuilder
+				.withLongOpt("numthreads")
+				.withArgName("number")
+				.hasArg()
+				.withDescription(
+						"Number of threads used to generate features "
+								+ "(default: number of available cores).")
+				.create());
 		options.addOption(OptionBuilder.withLongOpt("index")
 				.withDescription("Activate inverted index.").create());
+		options.addOption(OptionBuilder
+				.withLongOpt("indexfile")
+				.withArgName("filename")
+				.hasArg()
+				.withDescription(
+						"Inverted index file. If it exists, the index is "
+								+ "memory-mapped from it. Otherwise, the "
+								+ "index is created and saved in it.")
+				.create());
 		options.addOption(OptionBuilder
 				.withLongOpt("testexplicit")
 				.withDescription(
@@ -137,6 +185,16 @@ public class TrainDP implements Command {
 				.withDescription(
 						"Load the training dataset from a "
 								+ "serialized (binary) file.").create());
+		options.addOption(OptionBuilder
+				.withLongOpt("stream")
+				.withDescription(
+						"Stream the training dataset from a sharded directory "
+								+ "with gold outputs (written by "
+								+ "ConvertToShards --type=dpbasic --outputs), "
+								+ "one shard at a time, instead of loading it "
+								+ "in memory. It requires explicit features "
+								+ "and the encoding used to write the shards.")
+				.create());
 		options.addOption(OptionBuilder
 				.withLongOpt("model")
 				.hasArg()
@@ -259,6 +317,43 @@ public class TrainDP implements Command {
 		options.addOption(OptionBuilder.withLongOpt("seed")
 				.withArgName("integer").hasArg()
 				.withDescription("Random number generator seed.").create());
+		options.addOption(OptionBuilder
+				.withLongOpt("shuffleblock")
+				.withArgName("size")
+				.hasArg()
+				.withDescription(
+						"Shuffle blocks of the given number of consecutive "
+								+ "examples instead of all examples, and "
+								+ "then shuffle examples within a window "
+								+ "(see --shufflewindow). It favors "
+								+ "sequential reads of disk-backed datasets.")
+				.create());
+		options.addOption(OptionBuilder
+				.withLongOpt("shufflewindow")
+				.withArgName("size")
+				.hasArg()
+				.withDescription(
+						"Size of the window within which examples are "
+								+ "shuffled when --shuffleblock is given. "
+								+ "The default value is the block size.")
+				.create());
+		options.addOption(OptionBuilder
+				.withLongOpt("lengthbucket")
+				.withArgName("width")
+				.hasArg()
+				.withDescription(
+						"Group examples by length in buckets of the given "
+								+ "number of consecutive lengths, so that the "
+								+ "inference workspace is sized by the "
+								+ "longest example of each bucket.").create());
+		options.addOption(OptionBuilder
+				.withLongOpt("outlierlength")
+				.withArgName("tokens")
+				.hasArg()
+				.withDescription(
+						"When --lengthbucket is given, examples longer than"
+								+ " this value are processed one at a time "
+								+ "with an exactly sized workspace.").create());
 		options.addOption(OptionBuilder
 				.withLongOpt("lossweight")
 				.withArgName("double")
@@ -318,6 +413,8 @@ public class TrainDP implements Command {
 		String puncFileNameTrain = cmdLine.getOptionValue("trainpunc");
 		String puncFileNameTest = cmdLine.getOptionValue("testpunc");
 		String templatesFileName = cmdLine.getOptionValue("templates");
+		int numThreads = Integer.parseInt(cmdLine.getOptionValue("numthreads",
+				"" + Runtime.getRuntime().availableProcessors()));
 		boolean hasInvertedIndex = cmdLine.hasOption("index");
 		String modelFileName = cmdLine.getOptionValue("model");
 		int numEpochs = Integer.parseInt(cmdLine.getOptionValue("numepochs",
@@ -337,6 +434,14 @@ public class TrainDP implements Command {
 		Double reportProgressRate = Double.parseDouble(cmdLine.getOptionValue(
 				"progress", "0.1"));
 		String seedStr = cmdLine.getOptionValue("seed");
+		int shuffleBlock = Integer.parseInt(cmdLine.getOptionValue(
+				"shuffleblock", "0"));
+		int shuffleWindow = Integer.parseInt(cmdLine.getOptionValue(
+				"shufflewindow", "" + shuffleBlock));
+		int lengthBucket = Integer.parseInt(cmdLine.getOptionValue(
+				"lengthbucket", "0"));
+		int outlierLength = Integer.parseInt(cmdLine.getOptionValue(
+				"outlierlength", "0"));
 		double lossWeight = Double.parseDouble(cmdLine.getOptionValue(
 				"lossweight", "0d"));
 		double lossWeightInc = Double.parseDouble(cmdLine.getOptionValue(
@@ -345,8 +450,30 @@ public class TrainDP implements Command {
 		String lrUpdateStrategy = cmdLine.getOptionValue("lrupdate");
 		boolean debug = cmdLine.hasOption("debug");
 		boolean serialDatasets = cmdLine.hasOption("serial");
+		boolean streamTrain = cmdLine.hasOption("stream");
+
+		if (streamTrain) {
+			if (templatesFileName != null || serialDatasets) {
+				LOG.error("Option --stream is not compatible with "
+						+ "--templates and --serial");
+				System.exit(1);
+			}
+			if (encodingFile == null && murmur == null && murmur3 == null
+					&& murmur2 == null && lookup3 == null
+					&& javaHashSizeStr == null) {
+				LOG.error("Option --stream requires the feature encoding used "
+						+ "to write the shards (--encoding or a hash encoding)");
+				System.exit(1);
+			}
+			if (lengthBucket > 0) {
+				LOG.error("Option --lengthbucket is not compatible with "
+						+ "--stream");
+				System.exit(1);
+			}
+		}
 
 		DPDataset trainset = null;
+		ShardedExampleStream trainStream = null;
 		int sizeEncoding = -1;
 		FeatureEncoding<String> featureEncoding = null;
 		FeatureEncoding<String> additionalFeatureEncoding = null;
@@ -469,7 +596,22 @@ public class TrainDP implements Command {
 						+ featureEncoding.getClass().getSimpleName());
 			}
 
-			if (templatesFileName == null) {
+			if (streamTrain) {
+				// Only the shard manifest is read here.
+				LOG.info("Opening sharded input corpus...");
+				try {
+					trainStream = new ShardedExampleStream(
+							inputCorpusFileNames[0], DPInput.CODEC,
+							DPOutput.CODEC);
+				} catch (IOException e) {
+					LOG.error("Opening sharded dataset "
+							+ inputCorpusFileNames[0], e);
+					System.exit(1);
+				}
+				LOG.info(String.format("Streaming %d examples in %d shards",
+						trainStream.getNumberOfExamples(),
+						trainStream.getNumberOfBlocks()));
+			} else if (templatesFileName == null) {
 				trainset = new DPBasicDataset(featureEncoding);
 				if (serialDatasets) {
 					// Load a serialized dataset.
@@ -488,6 +630,7 @@ public class TrainDP implements Command {
 				LOG.info("Loading edge corpus...");
 				trainset = new DPColumnDataset(featureEncoding,
 						(Collection<String>) null);
+				((DPColumnDataset) trainset).setNumberOfThreads(numThreads);
 				if (puncFileNameTrain != null)
 					((DPColumnDataset) trainset)
 							.setFileNamePunc(puncFileNameTrain);
@@ -543,7 +686,18 @@ public class TrainDP implements Command {
 			model = new DPTemplateModel();
 			// Template-based model with inverted index.
 			LOG.info("Creating inverted index...");
-			((DPColumnDataset) trainset).createInvertedIndex();
+			String indexFileName = cmdLine.getOptionValue("indexfile");
+			if (indexFileName == null)
+				((DPColumnDataset) trainset).createInvertedIndex();
+			else {
+				try {
+					((DPColumnDataset) trainset)
+							.createInvertedIndex(indexFileName);
+				} catch (IOException e) {
+					LOG.error("Loading inverted index " + indexFileName, e);
+					System.exit(1);
+				}
+			}
 			// ((DPTemplateModel) model).init((DPColumnDataset) inDataset);
 		} else {
 			// Template-based model.
@@ -553,11 +707,28 @@ public class TrainDP implements Command {
 			model = new DPTemplateEvolutionModel(0);
 		}
 
-		// Inference algorithm.
-		inference = new MaximumBranchingInference(
-				trainset.getMaxNumberOfTokens());
+		// Inference algorithm (its workspace grows on demand when streaming).
+		int maxNumberOfTokens = (trainset == null ? 1 : trainset
+				.getMaxNumberOfTokens());
+		if (lengthBucket > 0 && outlierLength > 0)
+			// Outliers get their own workspace.
+			maxNumberOfTokens = Math.min(maxNumberOfTokens, outlierLength);
+		String decoder = cmdLine.getOptionValue("decoder", "branching");
+		if (decoder.equals("branching"))
+			inference = new MaximumBranchingInference(maxNumberOfTokens);
+		else if (decoder.equals("eisner"))
+			inference = new MaximumBranchingInference(maxNumberOfTokens,
+					new EisnerAlgorithm(maxNumberOfTokens));
+		else {
+			LOG.error("Unknown decoder: " + decoder);
+			System.exit(1);
+			return;
+		}
 		// TODO test
 		((MaximumBranchingInference) inference).setCheckUniqueRoot(false);
+		if (cmdLine.hasOption("scorecache"))
+			((MaximumBranchingInference) inference).setEdgeScoreCache(Integer
+					.parseInt(cmdLine.getOptionValue("scorecache")));
 
 		// Learning rate update strategy.
 		LearnRateUpdateStrategy learningRateUpdateStrategy = LearnRateUpdateStrategy.NONE;
@@ -637,6 +808,10 @@ public class TrainDP implements Command {
 		 * a dual representation that allows kernel functions.
 		 */
 		case DUAL_PERCEPTRON:
+			if (streamTrain) {
+				LOG.error("Option --stream is not compatible with --alg=dual");
+				System.exit(1);
+			}
 			alg = new DualLossAugmentedPerceptron(inference, (DualModel) model,
 					numEpochs, learningRate, lossWeight, true, averageWeights,
 					learningRateUpdateStrategy);
@@ -648,6 +823,14 @@ public class TrainDP implements Command {
 			// User provided seed to random number generator.
 			alg.setSeed(Long.parseLong(seedStr));
 
+		if (shuffleBlock > 0)
+			// Two-level (block and window) shuffle.
+			alg.setBlockShuffle(shuffleBlock, shuffleWindow);
+
+		if (lengthBucket > 0)
+			// Size the inference workspace by length buckets.
+			alg.setLengthBuckets(lengthBucket, outlierLength);
+
 		if (reportProgressRate != null)
 			// Progress report rate.
 			alg.setReportProgressRate(reportProgressRate);
@@ -677,7 +860,9 @@ public class TrainDP implements Command {
 				LOG.info("Loading and preparing test data...");
 				DPDataset testset;
 				if (templatesFileName == null)
-					testset = new DPBasicDataset(trainset.getFeatureEncoding());
+					testset = new DPBasicDataset(
+							trainset == null ? featureEncoding : trainset
+									.getFeatureEncoding());
 				else {
 					testset = new DPColumnDataset((DPColumnDataset) trainset);
 					if (puncFileNameTest != null)
@@ -693,8 +878,11 @@ public class TrainDP implements Command {
 				if (templatesFileName != null)
 					((DPColumnDataset) testset).generateFeatures();
 
-				alg.setListener(new EvaluateModelListener(eval, trainset,
-						testset, averageWeights, testExplicitFeatures));
+				EvaluateModelListener listener = new EvaluateModelListener(
+						eval, trainset, testset, averageWeights,
+						testExplicitFeatures);
+				listener.setLengthBuckets(lengthBucket, outlierLength);
+				alg.setListener(listener);
 
 			} catch (Exception e) {
 				LOG.error("Loading testset " + testCorpusFileName, e);
@@ -713,7 +901,14 @@ public class TrainDP implements Command {
 
 		LOG.info("Training model...");
 		// Train model.
-		alg.train(trainset.getInputs(), trainset.getOutputs());
+		if (trainStream != null)
+			alg.train(trainStream);
+		else
+			alg.train(trainset.getInputs(), trainset.getOutputs());
+		if (cmdLine.hasOption("scorecache"))
+			LOG.info(String.format("Edge score cache reuse ratio: %.3f",
+					((MaximumBranchingInference) inference)
+							.getEdgeScoreCacheReuseRatio()));
 
 		// Evaluation only for the final model.
 		if (testCorpusFileName != null && !evalPerEpoch) {
@@ -722,7 +917,9 @@ public class TrainDP implements Command {
 				LOG.info("Loading and preparing test data...");
 				DPDataset testset;
 				if (templatesFileName == null)
-					testset = new DPBasicDataset(trainset.getFeatureEncoding());
+					testset = new DPBasicDataset(
+							trainset == null ? featureEncoding : trainset
+									.getFeatureEncoding());
 				else {
 					testset = new DPColumnDataset((DPColumnDataset) trainset);
 					if (puncFileNameTest != null)
@@ -748,12 +945,20 @@ public class TrainDP implements Command {
 				for (int idx = 0; idx < inputs.getNumberExamples(); ++idx)
 					predicteds[idx] = (DPOutput) inputs.get(idx).createOutput();
 				
-				inputs.loadInOrder();
+				if (lengthBucket > 0) {
+					// Predict the examples grouped by length.
+					new LengthBucketSchedule((WorkspaceInference) inference,
+							inputs, lengthBucket, outlierLength).inference(
+							model, inputs, predicteds);
+				} else {
+					inputs.loadInOrder();
 
-				// Fill the list of predicted outputs.
-				for (int idx = 0; idx < inputs.getNumberExamples(); ++idx)
-					// Predict (tag the output sequence).
-					inference.inference(model, inputs.get(idx), predicteds[idx]);
+					// Fill the list of predicted outputs.
+					for (int idx = 0; idx < inputs.getNumberExamples(); ++idx)
+						// Predict (tag the output sequence).
+						inference.inference(model, inputs.get(idx),
+								predicteds[idx]);
+				}
 
 				// Evaluate the sequences.
 				Map<String, Double> results = eval.evaluateExamples(inputs,
@@ -762,6 +967,10 @@ public class TrainDP implements Command {
 				// Write results (precision, recall and F-1) per class.
 				printAccuracyResults("Final performance:", results);
 
+				if (cmdLine.hasOption("benchdecoders"))
+					benchmarkDecoders((DPModel) model, inputs,
+							testset.getMaxNumberOfTokens());
+
 			} catch (Exception e) {
 				LOG.error("Loading testset " + testCorpusFileName, e);
 				System.exit(1);
@@ -789,6 +998,76 @@ public class TrainDP implements Command {
 		LOG.info("Training done!");
 	}
 
+	/**
+	 * Decode the given inputs with the non-projective (Chu-Liu-Edmonds) and
+	 * the projective (Eisner) decoders and report, for each sentence length
+	 * bucket, the average decoding time of each decoder and the fraction of
+	 * tokens whose predicted heads agree.
+	 * 
+	 * @param model
+	 * @param inputs
+	 * @param maxNumberOfTokens
+	 */
+	private static void benchmarkDecoders(DPModel model,
+			ExampleInputArray inputs, int maxNumberOfTokens) {
+		// Upper limits (inclusive) of the sentence length buckets.
+		int[] limits = { 10, 20, 40, Integer.MAX_VALUE };
+		Inference[] decoders = {
+				new MaximumBranchingInference(maxNumberOfTokens),
+				new MaximumBranchingInference(maxNumberOfTokens,
+						new EisnerAlgorithm(maxNumberOfTokens)) };
+		for (Inference decoder : decoders)
+			((MaximumBranchingInference) decoder).setCheckUniqueRoot(false);
+
+		long[][] nanos = new long[decoders.length][limits.length];
+		int[] numSentences = new int[limits.length];
+		long[] numTokens = new long[limits.length];
+		long[] numAgreements = new long[limits.length];
+
+		int numExs = inputs.getNumberExamples();
+		inputs.loadInOrder();
+		for (int idx = 0; idx < numExs; ++idx) {
+			DPInput input = (DPInput) inputs.get(idx);
+			int len = input.getNumberOfTokens();
+			int bucket = 0;
+			while (len > limits[bucket])
+				++bucket;
+
+			DPOutput[] predicteds = new DPOutput[decoders.length];
+			for (int idxDec = 0; idxDec < decoders.length; ++idxDec) {
+				predicteds[idxDec] = input.createOutput();
+				long start = System.nanoTime();
+				decoders[idxDec].inference(model, input, predicteds[idxDec]);
+				nanos[idxDec][bucket] += System.nanoTime() - start;
+			}
+
+			++numSentences[bucket];
+			for (int tkn = 1; tkn < len; ++tkn) {
+				++numTokens[bucket];
+				if (predicteds[0].getHead(tkn) == predicteds[1].getHead(tkn))
+					++numAgreements[bucket];
+			}
+		}
+
+		int lower = 1;
+		for (int bucket = 0; bucket < limits.length; ++bucket) {
+			String range = (limits[bucket] == Integer.MAX_VALUE ? lower + "+"
+					: lower + "-" + limits[bucket]);
+			lower = limits[bucket] + 1;
+			if (numSentences[bucket] == 0)
+				continue;
+			LOG.info(String.format(
+					"Length %s: %d sentences | branching %.3f ms | "
+							+ "eisner %.3f ms | agreement %.4f", range,
+					numSentences[bucket], nanos[0][bucket] / 1e6
+							/ numSentences[bucket], nanos[1][bucket] / 1e6
+							/ numSentences[bucket],
+					numTokens[bucket] == 0 ? 1d
+							: ((double) numAgreements[bucket])
+									/ numTokens[bucket]));
+		}
+	}
+
 	/**
 	 * Convert a string that can specify a value directly or in bits. If the
 	 * string ends with a b, the value is considered to be n=log_2(v), where v
@@ -857,6 +1136,12 @@ public class TrainDP implements Command {
 
 		private boolean explicitFeatures;
 
+		private int lengthBucket;
+
+		private int outlierLength;
+
+		private LengthBucketSchedule lengthBuckets;
+
 		public EvaluateModelListener(AccuracyEvaluation eval,
 				DPDataset trainset, DPDataset testset, boolean averageWeights,
 				boolean explicitFeatures) {
@@ -878,6 +1163,20 @@ public class TrainDP implements Command {
 			}
 		}
 
+		/**
+		 * Predict the test examples grouped by length (see
+		 * <code>LengthBucketSchedule</code>).
+		 * 
+		 * @param bucketWidth
+		 *            zero to predict the examples in storage order.
+		 * @param outlierLength
+		 */
+		public void setLengthBuckets(int bucketWidth, int outlierLength) {
+			this.lengthBucket = bucketWidth;
+			this.outlierLength = outlierLength;
+			this.lengthBuckets = null;
+		}
+
 		@Override
 		public boolean beforeTraining(Inference impl, Model curModel) {
 			return true;
@@ -920,12 +1219,23 @@ public class TrainDP implements Command {
 			if (averageWeights)
 				curModel.average(iteration);
 
-			inputs.loadInOrder();
-			
-			// Fill the list of predicted outputs.
-			for (int idx = 0; idx < inputs.getNumberExamples(); ++idx)
-				// Predict (tag the output sequence).
-				inferenceImpl.inference(curModel, inputs.get(idx), predicteds[idx]);
+			if (lengthBucket > 0
+					&& inferenceImpl instanceof WorkspaceInference) {
+				// Predict the examples grouped by length.
+				if (lengthBuckets == null)
+					lengthBuckets = new LengthBucketSchedule(
+							(WorkspaceInference) inferenceImpl, inputs,
+							lengthBucket, outlierLength);
+				lengthBuckets.inference(curModel, inputs, predicteds);
+			} else {
+				inputs.loadInOrder();
+
+				// Fill the list of predicted outputs.
+				for (int idx = 0; idx < inputs.getNumberExamples(); ++idx)
+					// Predict (tag the output sequence).
+					inferenceImpl.inference(curModel, inputs.get(idx),
+							predicteds[idx]);
+			}
 
 			// Evaluate the sequences.
 			Map<String, Double> results = eval.evaluateExamples(inputs,
@@ -15,6 +15,7 @@ import br.pucrio.inf.learn.structlearning.discriminative.algorithm.passiveagress
 import br.pucrio.inf.learn.structlearning.discriminative.algorithm.passiveagressive.PassiveAgressive2;
 import br.pucrio.inf.learn.structlearning.discriminative.algorithm.perceptron.LossAugmentedPerceptron;
 import br.pucrio.inf.learn.structlearning.discriminative.algorithm.perceptron.Perceptron;
+import br.pucrio.inf.learn.structlearning.discriminative.application.dpgs.DPGSArcPruner;
 import br.pucrio.inf.learn.structlearning.discriminative.application.dpgs.DPGSDataset;
 import br.pucrio.inf.learn.structlearning.discriminative.application.dpgs.DPGSDualInference;
 import br.pucrio.inf.learn.structlearning.discriminative.application.dpgs.DPGSInference;
@@ -30,7 +31,9 @@ import br.pucrio.inf.learn.structlearning.discriminative.data.encoding.FeatureEn
 import br.pucrio.inf.learn.structlearning.discriminative.data.encoding.StringMapEncoding;
 import br.pucrio.inf.learn.structlearning.discriminative.driver.Driver.Command;
 import br.pucrio.inf.learn.structlearning.discriminative.task.Inference;
+import br.pucrio.inf.learn.structlearning.discriminative.task.LengthBucketSchedule;
 import br.pucrio.inf.learn.structlearning.discriminative.task.Model;
+import br.pucrio.inf.learn.structlearning.discriminative.task.WorkspaceInference;
 import br.pucrio.inf.learn.util.CommandLineOptionsUtil;
 
 /**
@@ -143,6 +146,58 @@ public class TrainDPGS implements Command {
 				.withDescription(
 						"Maximum number of steps in the subgradient method.")
 				.create());
+		options.addOption(OptionBuilder
+				.withLongOpt("stepsize")
+				.withArgName("incr | polyak | adaptive | al")
+				.hasArg()
+				.withDescription(
+						"Step size strategy of the subgradient method: "
+								+ "incr (decrease on dual increments), "
+								+ "polyak (Polyak step with the best parse), "
+								+ "adaptive (decrease on non-improvement), "
+								+ "al (augmented-Lagrangian-like penalty).")
+				.create());
+		options.addOption(OptionBuilder
+				.withLongOpt("gaptol")
+				.withArgName("real number")
+				.hasArg()
+				.withDescription(
+						"Stop the subgradient method when the duality gap "
+								+ "is not larger than this value.").create());
+		options.addOption(OptionBuilder
+				.withLongOpt("prunetopk")
+				.withArgName("integer")
+				.hasArg()
+				.withDescription(
+						"Keep only this number of candidate heads per "
+								+ "modifier (according to the edge factor "
+								+ "weights) before scoring grandparent and "
+								+ "siblings factors.").create());
+		options.addOption(OptionBuilder
+				.withLongOpt("prunemargin")
+				.withArgName("real number")
+				.hasArg()
+				.withDescription(
+						"Prune heads whose edge score is smaller than "
+								+ "the best head score minus this margin.")
+				.create());
+		options.addOption(OptionBuilder
+				.withLongOpt("arcfilter")
+				.withArgName("filename")
+				.hasArg()
+				.withDescription(
+						"Model file whose edge scores are used to prune "
+								+ "arcs during feature generation. Its "
+								+ "basic feature encoding is reused.")
+				.create());
+		options.addOption(OptionBuilder
+				.withLongOpt("lazyfeatures")
+				.withArgName("integer")
+				.hasArg()
+				.withDescription(
+						"Generate derived features on demand and keep "
+								+ "only the ones of this number of most "
+								+ "recently used sentences.").create());
 		options.addOption(OptionBuilder
 				.withLongOpt("beta")
 				.withArgName("real number")
@@ -156,6 +211,23 @@ public class TrainDPGS implements Command {
 		options.addOption(OptionBuilder.withLongOpt("seed")
 				.withArgName("integer").hasArg()
 				.withDescription("Random number generator seed.").create());
+		options.addOption(OptionBuilder
+				.withLongOpt("lengthbucket")
+				.withArgName("width")
+				.hasArg()
+				.withDescription(
+						"Group examples by length in buckets of the given "
+								+ "number of consecutive lengths, so that the "
+								+ "inference workspace is sized by the "
+								+ "longest example of each bucket.").create());
+		options.addOption(OptionBuilder
+				.withLongOpt("outlierlength")
+				.withArgName("tokens")
+				.hasArg()
+				.withDescription(
+						"When --lengthbucket is given, examples longer than"
+								+ " this value are processed one at a time "
+								+ "with an exactly sized workspace.").create());
 		options.addOption(OptionBuilder
 				.withLongOpt("lossweight")
 				.withArgName("double")
@@ -178,6 +250,13 @@ public class TrainDPGS implements Command {
 				.withDescription(
 						"Train Cache size of the loaded examples from disk.The default value is 4GB")
 				.create());
+		options.addOption(OptionBuilder
+				.withLongOpt("compresscache")
+				.withDescription(
+						"Compress the examples stored in the disk cache. It"
+								+ " reduces disk usage and I/O at the cost of"
+								+ " decompressing each example on reading.")
+				.create());
 
 		options.addOption(OptionBuilder
 				.withLongOpt("testcachesize")
@@ -194,6 +273,13 @@ public class TrainDPGS implements Command {
 				.withDescription("Model file name to load").create());
 		options.addOption(OptionBuilder.withLongOpt("numthreadtofillweight")
 				.withArgName("int").hasArg().withDescription("").create());
+		options.addOption(OptionBuilder
+				.withLongOpt("loadthreads")
+				.withArgName("int")
+				.hasArg()
+				.withDescription(
+						"Number of threads used to parse the factor files. "
+								+ "The default value is 1.").create());
 		options.addOption(OptionBuilder
 				.withLongOpt("alg")
 				.withArgName(
@@ -262,14 +348,32 @@ public class TrainDPGS implements Command {
 		int maxSubgradientSteps = Integer.valueOf(cmdLine.getOptionValue(
 				"maxsteps", "500"));
 		double beta = Double.valueOf(cmdLine.getOptionValue("beta", "0.001"));
+		double gapTolerance = Double.valueOf(cmdLine.getOptionValue("gaptol",
+				"0"));
+		int pruneTopK = Integer.parseInt(cmdLine.getOptionValue("prunetopk",
+				"0"));
+		double pruneMargin = Double.parseDouble(cmdLine.getOptionValue(
+				"prunemargin", "Infinity"));
+		// Either criterion alone turns pruning on.
+		boolean pruneArcs = (pruneTopK > 0 || !Double
+				.isInfinite(pruneMargin));
+		int pruneHeads = (pruneTopK > 0 ? pruneTopK : Integer.MAX_VALUE);
+		String arcFilterFileName = cmdLine.getOptionValue("arcfilter");
+		int lazyCacheSize = Integer.parseInt(cmdLine.getOptionValue(
+				"lazyfeatures", "0"));
 		double lossWeight = Double.parseDouble(cmdLine.getOptionValue(
 				"lossweight", "0d"));
 		boolean averaged = !cmdLine.hasOption("noavg");
 		String seedStr = cmdLine.getOptionValue("seed");
+		final int lengthBucket = Integer.parseInt(cmdLine.getOptionValue(
+				"lengthbucket", "0"));
+		final int outlierLength = Integer.parseInt(cmdLine.getOptionValue(
+				"outlierlength", "0"));
 		final long trainCacheSize = Long.parseLong(cmdLine.getOptionValue(
 				"traincachesize", "4294967296"));
 		final long testCacheSize = Long.parseLong(cmdLine.getOptionValue(
 				"traincachesize", "4294967296"));
+		boolean compressCache = cmdLine.hasOption("compresscache");
 
 		final String modelFileNameToSave = cmdLine
 				.getOptionValue("modelfiletosave");
@@ -279,6 +383,8 @@ public class TrainDPGS implements Command {
 
 		final int numThreadToFillWeight = Integer.parseInt(cmdLine
 				.getOptionValue("numthreadtofillweight", "1"));
+		int numLoadThreads = Integer.parseInt(cmdLine.getOptionValue(
+				"loadthreads", "1"));
 
 		// Test options.
 		String testConllFileName = cmdLine.getOptionValue("testconll");
@@ -330,6 +436,22 @@ public class TrainDPGS implements Command {
 		else
 			metricType = MetricType.ACCURACY;
 
+		DPGSDualInference.StepSizeStrategy stepSizeStrategy = null;
+		String stepSizeStr = cmdLine.getOptionValue("stepsize", "incr");
+
+		if (stepSizeStr.equals("incr"))
+			stepSizeStrategy = DPGSDualInference.StepSizeStrategy.DUAL_INCREMENTS;
+		else if (stepSizeStr.equals("polyak"))
+			stepSizeStrategy = DPGSDualInference.StepSizeStrategy.POLYAK;
+		else if (stepSizeStr.equals("adaptive"))
+			stepSizeStrategy = DPGSDualInference.StepSizeStrategy.ADAPTIVE;
+		else if (stepSizeStr.equals("al"))
+			stepSizeStrategy = DPGSDualInference.StepSizeStrategy.AUGMENTED_LAGRANGIAN;
+		else {
+			LOG.error("Unknown step size strategy: " + stepSizeStr);
+			System.exit(1);
+		}
+
 		InferenceType inferenceType = null;
 		String inferenceTypeStr = cmdLine.getOptionValue("inferencetest",
 				"dual");
@@ -371,6 +493,16 @@ public class TrainDPGS implements Command {
 				 */
 				featureEncoding = new StringMapEncoding();
 
+				// Model used to prune arcs during feature generation.
+				DPGSModel arcFilterModel = null;
+				if (arcFilterFileName != null) {
+					LOG.info("Loading arc filter model...");
+					DPGSModelLoadReturn r = DPGSModel.load(arcFilterFileName);
+					arcFilterModel = r.getModel();
+					// Basic features must be encoded as in the filter model.
+					featureEncoding = r.getDataset().getFeatureEncoding();
+				}
+
 				trainDataset = new DPGSDataset(new String[] { "bet-postag",
 						"add-head-feats", "add-mod-feats" }, new String[] {
 						"bet-hm-postag", "bet-hg-postag", "add-head-feats",
@@ -378,6 +510,9 @@ public class TrainDPGS implements Command {
 						"bet-hm-postag", "bet-ms-postag", "add-head-feats",
 						"add-mod-feats", "add-sib-feats" }, "\\|",
 						featureEncoding);
+				trainDataset.setCacheCompression(compressCache);
+				trainDataset.setNumberOfLoadThreads(numLoadThreads);
+				trainDataset.setKeepCorrectArcs(true);
 
 				/*
 				 * Grandparent factors shall be the last ones to avoid problems
@@ -389,6 +524,11 @@ public class TrainDPGS implements Command {
 
 				// Model.
 				model = new DPGSModel(0);
+				if (arcFilterModel != null)
+					model.setArcPruning(new DPGSArcPruner(0,
+							pruneHeads, pruneMargin), arcFilterModel);
+				if (lazyCacheSize > 0)
+					model.setLazyFeatureGeneration(lazyCacheSize);
 
 				// Generate derived features from templates.
 				/* model.generateFeatures(trainDataset); */
@@ -402,6 +542,8 @@ public class TrainDPGS implements Command {
 						trainRSDatasetFileName, templatesFilename, model,
 						trainCacheSize, "trainInputs");
 
+				logMemoryUsage("after loading training examples");
+
 				// Set modifier variables in all output structures.
 				trainDataset.setModifierVariables();
 
@@ -409,9 +551,16 @@ public class TrainDPGS implements Command {
 						+ trainDataset.getNumberOfExamples());
 
 				// Inference algorithm for training.
-				Inference inference = new DPGSInference(
-						trainDataset.getMaxNumberOfTokens(),
+				int maxNumberOfTokens = trainDataset.getMaxNumberOfTokens();
+				if (lengthBucket > 0 && outlierLength > 0)
+					// Outliers get their own workspace.
+					maxNumberOfTokens = Math.min(maxNumberOfTokens,
+							outlierLength);
+				DPGSInference inference = new DPGSInference(maxNumberOfTokens,
 						numThreadToFillWeight);
+				if (pruneArcs)
+					inference.setArcPruner(new DPGSArcPruner(0, pruneHeads,
+							pruneMargin));
 
 				// Learning algorithm.
 				Perceptron alg = null;
@@ -449,10 +598,16 @@ public class TrainDPGS implements Command {
 					// User provided seed to random number generator.
 					alg.setSeed(Long.parseLong(seedStr));
 
+				if (lengthBucket > 0)
+					// Size the inference workspace by length buckets.
+					alg.setLengthBuckets(lengthBucket, outlierLength);
+
+				// Test set evaluated during training.
+				DPGSDataset testset = null;
 				if (testConllFileName != null && perNumEpoch > 0) {
 					LOG.info("Loading test factors...");
 
-					DPGSDataset testset = new DPGSDataset(trainDataset);
+					testset = new DPGSDataset(trainDataset);
 					testset.loadExamplesAndGenerate(testEdgeDatasetFilename,
 							testGPDatasetFilename, testLSDatasetFilename,
 							testRSDatasetFilename, model, testCacheSize,
@@ -469,6 +624,11 @@ public class TrainDPGS implements Command {
 						inferenceDual
 								.setMaxNumberOfSubgradientSteps(maxSubgradientSteps);
 						inferenceDual.setBeta(beta);
+						inferenceDual.setStepSizeStrategy(stepSizeStrategy);
+						inferenceDual.setGapTolerance(gapTolerance);
+						if (pruneArcs)
+							inferenceDual.setArcPruner(new DPGSArcPruner(0,
+									pruneHeads, pruneMargin));
 
 						inferenceTest = inferenceDual;
 
@@ -477,6 +637,9 @@ public class TrainDPGS implements Command {
 								testset.getMaxNumberOfTokens(),
 								numThreadToFillWeight);
 						inferenceSimple.setCopyPredictionToParse(true);
+						if (pruneArcs)
+							inferenceSimple.setArcPruner(new DPGSArcPruner(0,
+									pruneHeads, pruneMargin));
 
 						inferenceTest = inferenceSimple;
 
@@ -493,18 +656,36 @@ public class TrainDPGS implements Command {
 					EvaluateModelListener eval = new EvaluateModelListener(
 							metric, testset, averaged, inferenceTest);
 					eval.setNumberEpochsToEvalute(perNumEpoch);
+					eval.setLengthBuckets(lengthBucket, outlierLength);
 					alg.setListener(eval);
 
 				}
 
 				LOG.info("Training model...");
 				// Train model.
+				long startTime = System.currentTimeMillis();
 				alg.train(trainDataset.getDPGSInputArray(),
 						trainDataset.getOutputs());
+				double elapsedSecs = (System.currentTimeMillis() - startTime) / 1000d;
+				LOG.info(String.format(
+						"Training throughput: %.2f examples/s (%s features)",
+						((double) numEpochs)
+								* trainDataset.getNumberOfExamples()
+								/ elapsedSecs, model.isLazyFeatureGeneration() ? "lazy"
+								: "eager"));
+				if (model.isLazyFeatureGeneration())
+					LOG.info(String.format("Lazy feature cache hit ratio: %.4f",
+							model.getLazyCacheHitRatio()));
+				logMemoryUsage("after training");
 
 				LOG.info(String.format("# updated parameters: %d",
 						model.getNumberOfUpdatedParameters()));
 
+				// Release the example files.
+				trainDataset.getDPGSInputArray().close();
+				if (testset != null)
+					testset.getDPGSInputArray().close();
+
 				if (modelFileNameToSave != null) {
 					LOG.info("Saving Model...");
 					model.save(modelFileNameToSave, (Dataset) trainDataset);
@@ -516,6 +697,8 @@ public class TrainDPGS implements Command {
 				LOG.info("Loading Model..");
 				model = r.getModel();
 				trainDataset = r.getDataset();
+				trainDataset.setCacheCompression(compressCache);
+				trainDataset.setNumberOfLoadThreads(numLoadThreads);
 				LOG.info("Model load with successful");
 			}
 
@@ -548,6 +731,11 @@ public class TrainDPGS implements Command {
 					inferenceDual
 							.setMaxNumberOfSubgradientSteps(maxSubgradientSteps);
 					inferenceDual.setBeta(beta);
+					inferenceDual.setStepSizeStrategy(stepSizeStrategy);
+					inferenceDual.setGapTolerance(gapTolerance);
+					if (pruneArcs)
+						inferenceDual.setArcPruner(new DPGSArcPruner(0,
+								pruneHeads, pruneMargin));
 
 					inferenceTest = inferenceDual;
 
@@ -556,6 +744,9 @@ public class TrainDPGS implements Command {
 							testset.getMaxNumberOfTokens(),
 							numThreadToFillWeight);
 					inferenceSimple.setCopyPredictionToParse(true);
+					if (pruneArcs)
+						inferenceSimple.setArcPruner(new DPGSArcPruner(0,
+								pruneHeads, pruneMargin));
 
 					inferenceTest = inferenceSimple;
 				}
@@ -572,7 +763,9 @@ public class TrainDPGS implements Command {
 						testset, false, inferenceTest);
 
 				eval.setQuiet(true);
+				eval.setLengthBuckets(lengthBucket, outlierLength);
 				eval.afterEpoch(inferenceTest, model, -1, -1d, -1);
+				testset.getDPGSInputArray().close();
 			}
 
 			LOG.info("Training done!");
@@ -598,6 +791,22 @@ public class TrainDPGS implements Command {
 
 	
 
+	/**
+	 * Log (in debug level) the amount of heap memory in use after a garbage
+	 * collection. Nothing is done, not even the collection, if debug logging
+	 * is disabled.
+	 * 
+	 * @param phase
+	 */
+	private static void logMemoryUsage(String phase) {
+		if (!LOG.isDebugEnabled())
+			return;
+		Runtime rt = Runtime.getRuntime();
+		System.gc();
+		LOG.debug(String.format("Used memory %s: %d MB", phase,
+				(rt.totalMemory() - rt.freeMemory()) / (1024 * 1024)));
+	}
+
 	/**
 	 * Training listener to evaluate models after each epoch.
 	 * 
@@ -622,6 +831,12 @@ public class TrainDPGS implements Command {
 
 		private DPGSOutput[] outputs;
 
+		private int lengthBucket;
+
+		private int outlierLength;
+
+		private LengthBucketSchedule lengthBuckets;
+
 		public EvaluateModelListener(Metric typeMetric, DPGSDataset testset,
 				boolean averaged, Inference inference) {
 			this.typeMetric = typeMetric;
@@ -647,6 +862,20 @@ public class TrainDPGS implements Command {
 			quiet = val;
 		}
 
+		/**
+		 * Predict the test examples grouped by length (see
+		 * <code>LengthBucketSchedule</code>).
+		 * 
+		 * @param bucketWidth
+		 *            zero to predict the examples in storage order.
+		 * @param outlierLength
+		 */
+		public void setLengthBuckets(int bucketWidth, int outlierLength) {
+			this.lengthBucket = bucketWidth;
+			this.outlierLength = outlierLength;
+			this.lengthBuckets = null;
+		}
+
 		@Override
 		public boolean beforeTraining(Inference impl, Model curModel) {
 			return true;
@@ -706,27 +935,43 @@ public class TrainDPGS implements Command {
 			ExampleInputArray inputs = testset.getDPGSInputArray();
 
 			int numberExamples = inputs.getNumberExamples();
-			int[] inputToLoad = new int[numberExamples];
 
-			for (int i = 0; i < inputToLoad.length; i++) {
-				inputToLoad[i] = i;
-			}
+			if (lengthBucket > 0
+					&& inferenceImpl instanceof WorkspaceInference) {
+				// Predict the examples grouped by length.
+				if (lengthBuckets == null)
+					lengthBuckets = new LengthBucketSchedule(
+							(WorkspaceInference) inferenceImpl, inputs,
+							lengthBucket, outlierLength);
+				lengthBuckets.inference(model, inputs, predicteds);
+			} else {
+				int[] inputToLoad = new int[numberExamples];
+
+				for (int i = 0; i < inputToLoad.length; i++) {
+					inputToLoad[i] = i;
+				}
 
-			inputs.load(inputToLoad);
+				inputs.load(inputToLoad);
 
-			for (int idx = 0; idx < numberExamples; ++idx) {
-				inferenceImpl
-						.inference(model, inputs.get(idx), predicteds[idx]);
+				for (int idx = 0; idx < numberExamples; ++idx) {
+					inferenceImpl.inference(model, inputs.get(idx),
+							predicteds[idx]);
 
-				if ((idx + 1) % 100 == 0) {
-					System.out.print(".");
-					System.out.flush();
+					if ((idx + 1) % 100 == 0) {
+						System.out.print(".");
+						System.out.flush();
+					}
 				}
 			}
 
-			typeMetric.evaluate(epoch, outputs, predicteds);
+			if (inferenceImpl instanceof DPGSDualInference) {
+				// Convergence statistics of the dual decomposition.
+				DPGSDualInference dual = (DPGSDualInference) inferenceImpl;
+				dual.logStatistics();
+				dual.resetStatistics();
+			}
 
-			inputs.close();
+			typeMetric.evaluate(epoch, outputs, predicteds);
 
 			return true;
 		}
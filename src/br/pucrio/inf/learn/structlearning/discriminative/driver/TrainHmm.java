@@ -327,6 +327,26 @@ public class TrainHmm implements Command {
 		options.addOption(OptionBuilder.withLongOpt("seed")
 				.withArgName("integer value").hasArg()
 				.withDescription("Random number generator seed.").create());
+		options.addOption(OptionBuilder
+				.withLongOpt("shuffleblock")
+				.withArgName("size")
+				.hasArg()
+				.withDescription(
+						"Shuffle blocks of the given number of consecutive "
+								+ "examples instead of all examples, and "
+								+ "then shuffle examples within a window "
+								+ "(see --shufflewindow). It favors "
+								+ "sequential reads of disk-backed datasets.")
+				.create());
+		options.addOption(OptionBuilder
+				.withLongOpt("shufflewindow")
+				.withArgName("size")
+				.hasArg()
+				.withDescription(
+						"Size of the window within which examples are "
+								+ "shuffled when --shuffleblock is given. "
+								+ "The default value is the block size.")
+				.create());
 		options.addOption(OptionBuilder
 				.withLongOpt("lossweight")
 				.withArgName("numeric loss weight")
@@ -438,6 +458,10 @@ public class TrainHmm implements Command {
 		Double reportProgressRate = Double.parseDouble(cmdLine.getOptionValue(
 				"progress", "0.1"));
 		String seedStr = cmdLine.getOptionValue("seed");
+		int shuffleBlock = Integer.parseInt(cmdLine.getOptionValue(
+				"shuffleblock", "0"));
+		int shuffleWindow = Integer.parseInt(cmdLine.getOptionValue(
+				"shufflewindow", "" + shuffleBlock));
 		double lossWeight = Double.parseDouble(cmdLine.getOptionValue(
 				"lossweight", "0d"));
 		boolean averageWeights = !cmdLine.hasOption("noavg");
@@ -875,6 +899,10 @@ public class TrainHmm implements Command {
 			// User provided seed to random number generator.
 			alg.setSeed(Long.parseLong(seedStr));
 
+		if (shuffleBlock > 0)
+			// Two-level (block and window) shuffle.
+			alg.setBlockShuffle(shuffleBlock, shuffleWindow);
+
 		if (reportProgressRate != null)
 			// Progress report rate.
 			alg.setReportProgressRate(reportProgressRate);
@@ -0,0 +1,323 @@
+package br.pucrio.inf.learn.structlearning.discriminative.task;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleInputArray;
+import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleOutput;
+
+/**
+ * Schedule of examples grouped by length (number of tokens) that bounds the
+ * workspace of an inference algorithm (see <code>WorkspaceInference</code>).
+ *
+ * Examples with up to <code>outlierThreshold</code> tokens are grouped into
+ * buckets of <code>bucketWidth</code> consecutive lengths. The workspace is
+ * reallocated to the longest example of a bucket when the bucket starts, so
+ * that the workspace of the previous bucket is released. Longer examples
+ * (outliers) are processed in a dedicated bucket, sorted by length, in which
+ * the workspace is reallocated to the exact size of each example. Thus, a few
+ * long examples do not inflate the workspace used by all the others.
+ *
+ * The schedule is bound to one array of examples. Before processing the
+ * example at a given position of the order returned by
+ * <code>order(int[], Random)</code>, one must call <code>prepare(int)</code>
+ * with this position. The workspace is reallocated whenever a bucket starts,
+ * even if its size seems unchanged, since the same inference object may be
+ * shared by other schedules (e.g., training and evaluation).
+ *
+ * @author eraldo
+ *
+ */
+public class LengthBucketSchedule {
+
+	/**
+	 * Logging object.
+	 */
+	private static final Log LOG = LogFactory
+			.getLog(LengthBucketSchedule.class);
+
+	/**
+	 * Inference algorithm whose workspace is managed.
+	 */
+	private final WorkspaceInference inference;
+
+	/**
+	 * Number of tokens of each example.
+	 */
+	private final int[] lengths;
+
+	/**
+	 * Examples of each (non-empty) regular bucket.
+	 */
+	private final int[][] buckets;
+
+	/**
+	 * Workspace size of each regular bucket, i.e., the length of its longest
+	 * example.
+	 */
+	private final int[] bucketSizes;
+
+	/**
+	 * Outlier examples sorted by length.
+	 */
+	private final int[] outliers;
+
+	/**
+	 * Workspace size to be allocated before each position of the last order,
+	 * or zero if the current workspace is kept.
+	 */
+	private int[] workspaceSizes;
+
+	/**
+	 * Group the examples of the given array by length.
+	 *
+	 * @param inference
+	 *            inference algorithm whose workspace is managed.
+	 * @param inputs
+	 * @param bucketWidth
+	 *            number of consecutive lengths within each bucket.
+	 * @param outlierThreshold
+	 *            examples longer than this value are outliers. If this value
+	 *            is not positive, there is no outlier.
+	 */
+	public LengthBucketSchedule(WorkspaceInference inference,
+			ExampleInputArray inputs, int bucketWidth, int outlierThreshold) {
+		if (bucketWidth <= 0)
+			throw new IllegalArgumentException(
+					"Bucket width must be positive");
+		this.inference = inference;
+
+		// Length of each example and number of buckets.
+		int numExamples = inputs.getNumberExamples();
+		lengths = new int[numExamples];
+		int maxBucket = -1;
+		int numOutliers = 0;
+		inputs.loadInOrder();
+		for (int idx = 0; idx < numExamples; ++idx) {
+			int len = inference.getNumberOfTokens(inputs.get(idx));
+			lengths[idx] = len;
+			if (isOutlier(len, outlierThreshold))
+				++numOutliers;
+			else
+				maxBucket = Math.max(maxBucket, bucketOf(len, bucketWidth));
+		}
+
+		// Count the examples of each bucket.
+		int[] counts = new int[maxBucket + 1];
+		for (int len : lengths)
+			if (!isOutlier(len, outlierThreshold))
+				++counts[bucketOf(len, bucketWidth)];
+		int[] bucketIndexes = new int[maxBucket + 1];
+		int numBuckets = 0;
+		for (int bucket = 0; bucket <= maxBucket; ++bucket)
+			bucketIndexes[bucket] = counts[bucket] > 0 ? numBuckets++ : -1;
+
+		// Fill the buckets in storage order.
+		buckets = new int[numBuckets][];
+		bucketSizes = new int[numBuckets];
+		for (int bucket = 0; bucket <= maxBucket; ++bucket)
+			if (counts[bucket] > 0)
+				buckets[bucketIndexes[bucket]] = new int[counts[bucket]];
+		int[] fill = new int[numBuckets];
+		outliers = new int[numOutliers];
+		int numFilledOutliers = 0;
+		for (int idx = 0; idx < numExamples; ++idx) {
+			int len = lengths[idx];
+			if (isOutlier(len, outlierThreshold)) {
+				outliers[numFilledOutliers++] = idx;
+			} else {
+				int bucket = bucketIndexes[bucketOf(len, bucketWidth)];
+				buckets[bucket][fill[bucket]++] = idx;
+				bucketSizes[bucket] = Math.max(bucketSizes[bucket], len);
+			}
+		}
+		sortByLength(outliers);
+
+		LOG.info(String.format("Length buckets: %d buckets and %d outliers"
+				+ " (largest regular workspace: %d tokens)", numBuckets,
+				numOutliers, getMaxRegularSize()));
+	}
+
+	/**
+	 * Return the number of regular buckets.
+	 *
+	 * @return
+	 */
+	public int getNumberOfBuckets() {
+		return buckets.length;
+	}
+
+	/**
+	 * Return the number of outlier examples.
+	 *
+	 * @return
+	 */
+	public int getNumberOfOutliers() {
+		return outliers.length;
+	}
+
+	/**
+	 * Fill the given array with an order of the examples in which each bucket
+	 * is contiguous. If a random-number generator is given, the order of the
+	 * buckets (including the outlier bucket) and the order of the examples
+	 * within each regular bucket are shuffled. Otherwise, buckets are ordered
+	 * by length and examples within a bucket follow the storage order.
+	 *
+	 * @param order
+	 *            array with one position per example.
+	 * @param random
+	 *            random-number generator or <code>null</code>.
+	 * @return the given array.
+	 */
+	public int[] order(int[] order, Random random) {
+		// The outlier bucket is the last one.
+		int numGroups = buckets.length + (outliers.length > 0 ? 1 : 0);
+		int[] groups = new int[numGroups];
+		for (int idx = 0; idx < numGroups; ++idx)
+			groups[idx] = idx;
+		if (random != null)
+			shuffle(groups, 0, groups.length, random);
+
+		workspaceSizes = new int[order.length];
+		int pos = 0;
+		for (int group : groups) {
+			if (group == buckets.length) {
+				// Outliers: one workspace per distinct length.
+				int prevLength = 0;
+				for (int idx : outliers) {
+					if (lengths[idx] != prevLength)
+						workspaceSizes[pos] = lengths[idx];
+					prevLength = lengths[idx];
+					order[pos++] = idx;
+				}
+			} else {
+				int[] bucket = buckets[group];
+				int start = pos;
+				workspaceSizes[pos] = bucketSizes[group];
+				System.arraycopy(bucket, 0, order, pos, bucket.length);
+				pos += bucket.length;
+				if (random != null)
+					shuffle(order, start, pos, random);
+			}
+		}
+		return order;
+	}
+
+	/**
+	 * Reallocate the inference workspace, if needed, before processing the
+	 * example at the given position of the last order.
+	 *
+	 * @param position
+	 */
+	public void prepare(int position) {
+		int size = workspaceSizes[position];
+		if (size > 0)
+			inference.realloc(size);
+	}
+
+	/**
+	 * Release the workspace of the last bucket, keeping a workspace that fits
+	 * the regular buckets.
+	 */
+	public void finish() {
+		int size = getMaxRegularSize();
+		if (size > 0)
+			inference.realloc(size);
+	}
+
+	/**
+	 * Predict the outputs of all examples following this schedule (without
+	 * shuffling).
+	 *
+	 * @param model
+	 * @param inputs
+	 *            the array of examples used to build this schedule.
+	 * @param predicteds
+	 *            output objects to store the predictions.
+	 */
+	public void inference(Model model, ExampleInputArray inputs,
+			ExampleOutput[] predicteds) {
+		int[] order = order(new int[lengths.length], null);
+		inputs.load(order);
+		for (int pos = 0; pos < order.length; ++pos) {
+			prepare(pos);
+			int idx = order[pos];
+			inference.inference(model, inputs.get(idx), predicteds[idx]);
+		}
+		finish();
+	}
+
+	/**
+	 * Return the workspace size of the largest regular bucket.
+	 *
+	 * @return
+	 */
+	private int getMaxRegularSize() {
+		int size = 0;
+		for (int bucketSize : bucketSizes)
+			size = Math.max(size, bucketSize);
+		return size;
+	}
+
+	/**
+	 * Sort the given examples by length (stable).
+	 *
+	 * @param examples
+	 */
+	private void sortByLength(int[] examples) {
+		Integer[] boxed = new Integer[examples.length];
+		for (int idx = 0; idx < examples.length; ++idx)
+			boxed[idx] = examples[idx];
+		Arrays.sort(boxed, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer o1, Integer o2) {
+				return lengths[o1] - lengths[o2];
+			}
+		});
+		for (int idx = 0; idx < examples.length; ++idx)
+			examples[idx] = boxed[idx];
+	}
+
+	/**
+	 * Return whether an example of the given length is an outlier.
+	 *
+	 * @param length
+	 * @param outlierThreshold
+	 * @return
+	 */
+	private static boolean isOutlier(int length, int outlierThreshold) {
+		return outlierThreshold > 0 && length > outlierThreshold;
+	}
+
+	/**
+	 * Return the bucket of the given length.
+	 *
+	 * @param length
+	 * @param bucketWidth
+	 * @return
+	 */
+	private static int bucketOf(int length, int bucketWidth) {
+		return Math.max(0, length - 1) / bucketWidth;
+	}
+
+	/**
+	 * Randomly permute the given range of an array.
+	 *
+	 * @param array
+	 * @param begin
+	 * @param end
+	 * @param random
+	 */
+	private static void shuffle(int[] array, int begin, int end, Random random) {
+		for (int idx = end - 1; idx > begin; --idx) {
+			int idxSwp = begin + random.nextInt(idx - begin + 1);
+			int tmp = array[idxSwp];
+			array[idxSwp] = array[idx];
+			array[idx] = tmp;
+		}
+	}
+}
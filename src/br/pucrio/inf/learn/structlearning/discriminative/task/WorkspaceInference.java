@@ -0,0 +1,34 @@
+package br.pucrio.inf.learn.structlearning.discriminative.task;
+
+import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleInput;
+
+/**
+ * Inference algorithm whose scratch data structures (workspace) are sized by
+ * the number of tokens of the largest input to be handled. The workspace can
+ * be resized between examples, so that a schedule of examples grouped by
+ * length (see <code>LengthBucketSchedule</code>) bounds the memory used by
+ * each group instead of keeping buffers for the longest input ever seen.
+ *
+ * @author eraldo
+ *
+ */
+public interface WorkspaceInference extends Inference {
+
+	/**
+	 * Return the number of tokens of the given input, i.e., the workspace size
+	 * needed to handle it.
+	 *
+	 * @param input
+	 * @return
+	 */
+	int getNumberOfTokens(ExampleInput input);
+
+	/**
+	 * Reallocate the workspace to handle inputs with up to the given number of
+	 * tokens. The previous workspace is released, even if it was larger.
+	 *
+	 * @param maxNumberOfTokens
+	 */
+	void realloc(int maxNumberOfTokens);
+
+}
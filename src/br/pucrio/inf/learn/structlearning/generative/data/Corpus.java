@@ -1,15 +1,16 @@
 package br.pucrio.inf.learn.structlearning.generative.data;
 
 import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.PrintStream;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.Vector;
 
+import br.pucrio.inf.learn.util.ByteTokenizer;
+
 /**
  * Represent a text dataset, i.e., a corpus in column format. The corpus
  * comprises a list of text segments (e.g., sentences) which in turn comprise a
@@ -23,6 +24,10 @@ import java.util.Vector;
  * The feature values are stored as integer. We use a feature-value mapping to
  * encode the string values.
  * 
+ * The encoded values are stored by columns: one primitive array per feature,
+ * indexed by the position of the token in the whole corpus, and an array with
+ * the position of the first token of each example.
+ * 
  */
 public class Corpus implements Iterable<DatasetExample> {
 
@@ -43,9 +48,43 @@ public class Corpus implements Iterable<DatasetExample> {
 	protected Vector<String> exampleIDs;
 
 	/**
-	 * The encoded data, i.e., integer values of the features.
+	 * Value of a feature that has not been set.
+	 */
+	public static final int MISSING_VALUE = -1;
+
+	/**
+	 * Number of examples.
+	 */
+	protected int numberOfExamples;
+
+	/**
+	 * Total number of tokens (in all examples).
+	 */
+	protected int numberOfTokens;
+
+	/**
+	 * Position of the first token of each example within the feature columns.
+	 * The tokens of the example <code>i</code> are in the positions from
+	 * <code>exampleOffsets[i]</code> to <code>exampleOffsets[i+1] - 1</code>.
+	 */
+	protected int[] exampleOffsets;
+
+	/**
+	 * The encoded data, i.e., integer values of the features. There is one
+	 * column per feature, which is indexed by token position.
+	 */
+	protected int[][] columns;
+
+	/**
+	 * Number of columns. It can be larger than the number of features if some
+	 * loaded token has more values than the feature labels.
+	 */
+	protected int numberOfColumns;
+
+	/**
+	 * Length of the columns.
 	 */
-	protected Vector<Vector<Vector<Integer>>> examples;
+	private int tokenCapacity;
 
 	// TODO this prevents the access of different examples at the same time.
 	protected Example tempExample = new Example(0);
@@ -56,8 +95,7 @@ public class Corpus implements Iterable<DatasetExample> {
 	public Corpus() {
 		featureValueEncoding = new FeatureValueEncoding();
 		featureLabels = new Vector<String>();
-		examples = new Vector<Vector<Vector<Integer>>>();
-		exampleIDs = new Vector<String>();
+		initExamples();
 	}
 
 	/**
@@ -68,8 +106,7 @@ public class Corpus implements Iterable<DatasetExample> {
 	public Corpus(FeatureValueEncoding featureValueEncoding) {
 		this.featureValueEncoding = featureValueEncoding;
 		featureLabels = new Vector<String>();
-		examples = new Vector<Vector<Vector<Integer>>>();
-		exampleIDs = new Vector<String>();
+		initExamples();
 	}
 
 	/**
@@ -84,16 +121,14 @@ public class Corpus implements Iterable<DatasetExample> {
 	public Corpus(String fileName) throws IOException, DatasetException {
 		featureValueEncoding = new FeatureValueEncoding();
 		featureLabels = new Vector<String>();
-		examples = new Vector<Vector<Vector<Integer>>>();
-		exampleIDs = new Vector<String>();
+		initExamples();
 		load(fileName);
 	}
 
 	public Corpus(InputStream is) throws IOException, DatasetException {
 		featureValueEncoding = new FeatureValueEncoding();
 		featureLabels = new Vector<String>();
-		examples = new Vector<Vector<Vector<Integer>>>();
-		exampleIDs = new Vector<String>();
+		initExamples();
 		load(is);
 	}
 
@@ -115,8 +150,7 @@ public class Corpus implements Iterable<DatasetExample> {
 			throws IOException, DatasetException {
 		this.featureValueEncoding = featureValueEncoding;
 		featureLabels = new Vector<String>();
-		examples = new Vector<Vector<Vector<Integer>>>();
-		exampleIDs = new Vector<String>();
+		initExamples();
 		load(fileName);
 	}
 
@@ -124,14 +158,140 @@ public class Corpus implements Iterable<DatasetExample> {
 			boolean skipHeader) throws IOException, DatasetException {
 		this.featureValueEncoding = featureValueEncoding;
 		featureLabels = new Vector<String>();
-		examples = new Vector<Vector<Vector<Integer>>>();
-		exampleIDs = new Vector<String>();
+		initExamples();
 		if (skipHeader)
 			loadWithoutHeader(fileName);
 		else
 			load(fileName);
 	}
 
+	/**
+	 * Create an empty storage of examples.
+	 */
+	protected void initExamples() {
+		exampleIDs = new Vector<String>();
+		numberOfExamples = 0;
+		numberOfTokens = 0;
+		exampleOffsets = new int[16];
+		columns = new int[Math.max(4, featureLabels.size())][];
+		numberOfColumns = 0;
+		tokenCapacity = 0;
+		adjustDataShape(0);
+	}
+
+	/**
+	 * Remove all examples, but keep the allocated storage.
+	 */
+	protected void clearExamples() {
+		exampleIDs.clear();
+		numberOfExamples = 0;
+		numberOfTokens = 0;
+	}
+
+	/**
+	 * Append a token to the example that is being created. The values of the
+	 * token must be set in the columns at the returned position. Columns
+	 * beyond the given number of values are set to <code>MISSING_VALUE</code>.
+	 * The example is created by <code>appendExample(...)</code>.
+	 * 
+	 * @param numberOfValues
+	 *            number of feature values of the new token.
+	 * @return the position of the new token within the columns.
+	 */
+	protected int appendToken(int numberOfValues) {
+		ensureColumns(numberOfValues);
+		if (numberOfTokens == tokenCapacity)
+			setTokenCapacity(Math.max(64, 2 * tokenCapacity));
+		int token = numberOfTokens++;
+		for (int ftr = numberOfValues; ftr < numberOfColumns; ++ftr)
+			columns[ftr][token] = MISSING_VALUE;
+		return token;
+	}
+
+	/**
+	 * Create an example with the tokens appended since the last created
+	 * example.
+	 * 
+	 * @param id
+	 *            the identification string of the new example.
+	 */
+	protected void appendExample(String id) {
+		if (numberOfExamples + 2 > exampleOffsets.length)
+			exampleOffsets = Arrays.copyOf(exampleOffsets,
+					2 * exampleOffsets.length);
+		exampleIDs.add(id);
+		++numberOfExamples;
+		exampleOffsets[numberOfExamples] = numberOfTokens;
+	}
+
+	/**
+	 * Guarantee that there are (at least) the given number of columns. New
+	 * columns are filled with <code>MISSING_VALUE</code>.
+	 * 
+	 * @param num
+	 */
+	private void ensureColumns(int num) {
+		if (num <= numberOfColumns)
+			return;
+		if (num > columns.length)
+			columns = Arrays.copyOf(columns, Math.max(num, 2 * columns.length));
+		for (int ftr = numberOfColumns; ftr < num; ++ftr) {
+			int[] column = new int[tokenCapacity];
+			Arrays.fill(column, 0, numberOfTokens, MISSING_VALUE);
+			columns[ftr] = column;
+		}
+		numberOfColumns = num;
+	}
+
+	/**
+	 * Change the length of the columns.
+	 * 
+	 * @param capacity
+	 */
+	private void setTokenCapacity(int capacity) {
+		for (int ftr = 0; ftr < numberOfColumns; ++ftr)
+			columns[ftr] = Arrays.copyOf(columns[ftr], capacity);
+		tokenCapacity = capacity;
+	}
+
+	/**
+	 * Release the unused space of the internal arrays.
+	 */
+	public void trimToSize() {
+		if (tokenCapacity > numberOfTokens)
+			setTokenCapacity(numberOfTokens);
+		if (exampleOffsets.length > numberOfExamples + 1)
+			exampleOffsets = Arrays.copyOf(exampleOffsets,
+					numberOfExamples + 1);
+		exampleIDs.trimToSize();
+	}
+
+	/**
+	 * Return the column of values of the given feature. The values of the
+	 * tokens of an example are in the interval given by
+	 * <code>getExampleOffset(...)</code> and
+	 * <code>getNumberOfTokens(...)</code>.
+	 * 
+	 * The returned array can be replaced when the dataset is modified.
+	 * 
+	 * @param feature
+	 * @return
+	 */
+	public int[] getColumn(int feature) {
+		return columns[feature];
+	}
+
+	/**
+	 * Return the position of the first token of the given example within the
+	 * columns.
+	 * 
+	 * @param idxExample
+	 * @return
+	 */
+	public int getExampleOffset(int idxExample) {
+		return exampleOffsets[idxExample];
+	}
+
 	/**
 	 * Return a stub for the example at the given index.
 	 * 
@@ -178,8 +338,17 @@ public class Corpus implements Iterable<DatasetExample> {
 			throw new DatasetException(
 					"Both datasets need to have the same feature-value encoding.");
 
-		examples.addAll(dataset.examples);
-		exampleIDs.addAll(dataset.exampleIDs);
+		int numExamples = dataset.numberOfExamples;
+		for (int idx = 0; idx < numExamples; ++idx) {
+			int numValues = dataset.numberOfColumns;
+			int end = dataset.exampleOffsets[idx + 1];
+			for (int tkn = dataset.exampleOffsets[idx]; tkn < end; ++tkn) {
+				int token = appendToken(numValues);
+				for (int ftr = 0; ftr < numValues; ++ftr)
+					columns[ftr][token] = dataset.columns[ftr][tkn];
+			}
+			appendExample(dataset.exampleIDs.get(idx));
+		}
 	}
 
 	/**
@@ -188,7 +357,7 @@ public class Corpus implements Iterable<DatasetExample> {
 	 * @return the number of examples within this dataset
 	 */
 	public int getNumberOfExamples() {
-		return examples.size();
+		return numberOfExamples;
 	}
 
 	/**
@@ -219,12 +388,12 @@ public class Corpus implements Iterable<DatasetExample> {
 			throw new DatasetException("Feature " + label
 					+ " already exists in this dataset.");
 
+		// Create a new column.
+		adjustDataShape(1);
+
 		// Add the new feature label to the list.
 		featureLabels.add(label);
 
-		// Create a new element in all token vectors.
-		adjustDataShape(1);
-
 		// Return the new feature index.
 		return featureLabels.size() - 1;
 	}
@@ -245,10 +414,12 @@ public class Corpus implements Iterable<DatasetExample> {
 		// Remove the feature from the label vector.
 		featureLabels.remove(feature);
 
-		// Remove the feature from every token.
-		for (Vector<Vector<Integer>> example : examples)
-			for (Vector<Integer> token : example)
-				token.remove(feature);
+		// Remove the feature column.
+		if (feature < numberOfColumns) {
+			System.arraycopy(columns, feature + 1, columns, feature,
+					numberOfColumns - feature - 1);
+			columns[--numberOfColumns] = null;
+		}
 	}
 
 	/**
@@ -272,7 +443,7 @@ public class Corpus implements Iterable<DatasetExample> {
 						+ " already exists in this dataset.");
 		}
 
-		// Add new elements in all token vectors.
+		// Create new columns.
 		adjustDataShape(labels.length);
 
 		// Add the feature labels.
@@ -287,15 +458,14 @@ public class Corpus implements Iterable<DatasetExample> {
 	}
 
 	/**
-	 * Create new elements in all token vectors to accomodate new features.
+	 * Create new columns to accomodate new features (unless there are extra
+	 * columns already).
 	 * 
 	 * @param numberOfExtraFeatures
 	 *            the number of new features to be created.
 	 */
 	private void adjustDataShape(int numberOfExtraFeatures) {
-		for (Vector<Vector<Integer>> example : examples)
-			for (Vector<Integer> token : example)
-				token.setSize(token.size() + numberOfExtraFeatures);
+		ensureColumns(getNumberOfFeatures() + numberOfExtraFeatures);
 	}
 
 	/**
@@ -320,27 +490,21 @@ public class Corpus implements Iterable<DatasetExample> {
 			Collection<? extends Collection<Integer>> exampleFeatures)
 			throws DatasetException {
 
-		Vector<Vector<Integer>> example = new Vector<Vector<Integer>>(
-				exampleFeatures.size());
-
-		for (Collection<Integer> token : exampleFeatures) {
+		for (Collection<Integer> token : exampleFeatures)
 			if (token.size() != getNumberOfFeatures())
 				throw new DatasetException(
 						"The given example has a different number of features than this dataset.");
 
-			// Create a new vector representing a token and add it to the
-			// example.
-			Vector<Integer> tokenV = new Vector<Integer>(getNumberOfFeatures());
-			example.add(tokenV);
-
+		for (Collection<Integer> token : exampleFeatures) {
 			// Fill the token feature values.
+			int idxToken = appendToken(token.size());
+			int idxFtr = 0;
 			for (int ftr : token)
-				tokenV.add(ftr);
+				columns[idxFtr++][idxToken] = ftr;
 		}
 
 		// Add the example to the dataset.
-		examples.add(example);
-		exampleIDs.add(id);
+		appendExample(id);
 
 		return new Example(getNumberOfExamples() - 1);
 	}
@@ -367,29 +531,22 @@ public class Corpus implements Iterable<DatasetExample> {
 			Collection<? extends Collection<String>> exampleFeatureLabels)
 			throws DatasetException {
 
-		Vector<Vector<Integer>> example = new Vector<Vector<Integer>>(
-				exampleFeatureLabels.size());
-
-		for (Collection<String> token : exampleFeatureLabels) {
+		for (Collection<String> token : exampleFeatureLabels)
 			if (token.size() != getNumberOfFeatures())
 				throw new DatasetException(
 						"The given example has a different number of features than this dataset.");
 
-			// Create a new vector representing a token and add it to the
-			// example.
-			Vector<Integer> tokenV = new Vector<Integer>(getNumberOfFeatures());
-			example.add(tokenV);
-
+		for (Collection<String> token : exampleFeatureLabels) {
 			// Fill the token feature values.
-			for (String ftrLabel : token) {
-				int ftr = featureValueEncoding.putString(ftrLabel);
-				tokenV.add(ftr);
-			}
+			int idxToken = appendToken(token.size());
+			int idxFtr = 0;
+			for (String ftrLabel : token)
+				columns[idxFtr++][idxToken] = featureValueEncoding
+						.putString(ftrLabel);
 		}
 
 		// Add the example to the dataset.
-		examples.add(example);
-		exampleIDs.add(id);
+		appendExample(id);
 
 		return new Example(getNumberOfExamples() - 1);
 	}
@@ -438,9 +595,9 @@ public class Corpus implements Iterable<DatasetExample> {
 	 * @throws DatasetException
 	 */
 	public void load(String fileName) throws IOException, DatasetException {
-		BufferedReader reader = new BufferedReader(new FileReader(fileName));
-		load(reader);
-		reader.close();
+		ByteTokenizer tokenizer = new ByteTokenizer(fileName);
+		load(tokenizer);
+		tokenizer.close();
 	}
 
 	/**
@@ -452,8 +609,7 @@ public class Corpus implements Iterable<DatasetExample> {
 	 * @throws IOException
 	 */
 	public void load(InputStream is) throws IOException, DatasetException {
-		BufferedReader reader = new BufferedReader(new InputStreamReader(is));
-		load(reader);
+		load(new ByteTokenizer(is));
 	}
 
 	/**
@@ -476,24 +632,52 @@ public class Corpus implements Iterable<DatasetExample> {
 		// Parse each example.
 		while ((buff = skipBlanksAndComments(reader)) != null)
 			parseExample(buff);
+
+		trimToSize();
+	}
+
+	/**
+	 * Load a dataset from the given tokenizer. Feature values are encoded
+	 * directly from the file bytes (see
+	 * <code>FeatureValueEncoding.putBytes(...)</code>).
+	 * 
+	 * @param tokenizer
+	 * @throws IOException
+	 * @throws DatasetException
+	 */
+	public void load(ByteTokenizer tokenizer) throws IOException,
+			DatasetException {
+		// Search for the feature labels line.
+		if (!skipBlanksAndComments(tokenizer, "# feature labels"))
+			return;
+
+		// Parse the feature labels.
+		parseFeatureLabels(tokenizer.getLine());
+
+		// Parse each example.
+		while (tokenizer.nextDataLine())
+			parseExample(tokenizer);
+
+		trimToSize();
 	}
 
 	public void loadWithoutHeader(String fileName) throws IOException,
 			DatasetException {
-		BufferedReader reader = new BufferedReader(new FileReader(fileName));
-		loadWithoutHeader(reader);
-		reader.close();
+		ByteTokenizer tokenizer = new ByteTokenizer(fileName);
+		loadWithoutHeader(tokenizer);
+		tokenizer.close();
 	}
 
-	private void loadWithoutHeader(BufferedReader reader)
+	private void loadWithoutHeader(ByteTokenizer tokenizer)
 			throws DatasetException, IOException {
-		String buff;
 		// Parse each example.
-		while ((buff = skipBlanksAndComments(reader)) != null)
-			parseExample(buff);
+		while (tokenizer.nextDataLine())
+			parseExample(tokenizer);
+
+		trimToSize();
 
 		featureLabels = new Vector<String>();
-		int numFeatures = examples.get(0).get(0).size();
+		int numFeatures = numberOfColumns;
 		for (int i = 0; i < numFeatures; ++i)
 			featureLabels.add("ftr" + i);
 	}
@@ -520,6 +704,27 @@ public class Corpus implements Iterable<DatasetExample> {
 		return buff;
 	}
 
+	/**
+	 * Advance the given tokenizer to the line following the (ASCII) line
+	 * <code>stopOnThis</code> or to the first line that is neither blank nor a
+	 * comment, whichever comes first.
+	 * 
+	 * @param tokenizer
+	 * @param stopOnThis
+	 * @return <code>false</code> if the end of the file has been reached.
+	 * @throws IOException
+	 */
+	protected boolean skipBlanksAndComments(ByteTokenizer tokenizer,
+			String stopOnThis) throws IOException {
+		while (tokenizer.nextLine()) {
+			if (tokenizer.lineEquals(stopOnThis))
+				return tokenizer.nextLine();
+			else if (!tokenizer.isBlankLine() && !tokenizer.lineStartsWith("#"))
+				return true;
+		}
+		return false;
+	}
+
 	/**
 	 * Parse the feature labels line.
 	 * 
@@ -562,9 +767,6 @@ public class Corpus implements Iterable<DatasetExample> {
 		if (id.trim().length() == 0)
 			return false;
 
-		Vector<Vector<Integer>> exampleData = new Vector<Vector<Integer>>(
-				tokens.length - 1);
-
 		for (int idxTkn = 1; idxTkn < tokens.length; ++idxTkn) {
 			String token = tokens[idxTkn];
 
@@ -572,17 +774,63 @@ public class Corpus implements Iterable<DatasetExample> {
 			String[] features = token.split("[ ]");
 
 			// Encode the feature values.
-			Vector<Integer> featuresAsVector = new Vector<Integer>(
-					features.length);
-			for (String ftr : features)
-				featuresAsVector.add(featureValueEncoding.putString(ftr));
+			int idxToken = appendToken(features.length);
+			for (int idxFtr = 0; idxFtr < features.length; ++idxFtr)
+				columns[idxFtr][idxToken] = featureValueEncoding
+						.putString(features[idxFtr]);
+		}
+
+		// Store the loaded example.
+		appendExample(id);
 
-			exampleData.add(featuresAsVector);
+		return true;
+	}
+
+	/**
+	 * Parse the current line of the given tokenizer and load an example. The
+	 * result is the same of <code>parseExample(String)</code>, but feature
+	 * values are encoded directly from the line bytes.
+	 * 
+	 * @param tokenizer
+	 *            a tokenizer whose current line contains an example.
+	 * 
+	 * @return <code>true</code> if the current line is a valid example.
+	 * 
+	 * @throws DatasetException
+	 *             if there is some format problem with the current line.
+	 */
+	public boolean parseExample(ByteTokenizer tokenizer)
+			throws DatasetException {
+		byte[] line = tokenizer.getArray();
+
+		// Split tokens.
+		ByteTokenizer.Fields tokens = new ByteTokenizer.Fields();
+		int numTokens = tokenizer.split((byte) '\t', tokens);
+
+		if (numTokens == 0)
+			return false;
+
+		// The first field is the sentence id.
+		String id = tokenizer.toString(tokens.begin(0), tokens.end(0));
+
+		if (id.trim().length() == 0)
+			return false;
+
+		ByteTokenizer.Fields features = new ByteTokenizer.Fields();
+		for (int idxTkn = 1; idxTkn < numTokens; ++idxTkn) {
+			// Split the token into its features.
+			int numFeatures = features.split(line, tokens.begin(idxTkn),
+					tokens.end(idxTkn), (byte) ' ');
+
+			// Encode the feature values.
+			int idxToken = appendToken(numFeatures);
+			for (int idxFtr = 0; idxFtr < numFeatures; ++idxFtr)
+				columns[idxFtr][idxToken] = featureValueEncoding.putBytes(
+						line, features.begin(idxFtr), features.length(idxFtr));
 		}
 
 		// Store the loaded example.
-		exampleIDs.add(id);
-		examples.add(exampleData);
+		appendExample(id);
 
 		return true;
 	}
@@ -687,7 +935,7 @@ public class Corpus implements Iterable<DatasetExample> {
 	 * @return the number of tokens within the given example index.
 	 */
 	public int getNumberOfTokens(int idxExample) {
-		return examples.get(idxExample).size();
+		return exampleOffsets[idxExample + 1] - exampleOffsets[idxExample];
 	}
 
 	/**
@@ -728,7 +976,7 @@ public class Corpus implements Iterable<DatasetExample> {
 
 		@Override
 		public int size() {
-			return examples.get(idxExample).size();
+			return exampleOffsets[idxExample + 1] - exampleOffsets[idxExample];
 		}
 
 		@Override
@@ -743,29 +991,27 @@ public class Corpus implements Iterable<DatasetExample> {
 
 		@Override
 		public void setFeatureValue(int token, int feature, int value) {
-			examples.get(idxExample).get(token).set(feature, value);
+			columns[feature][exampleOffsets[idxExample] + token] = value;
 		}
 
 		@Override
 		public void setFeatureValue(int token, String feature, String value)
 				throws DatasetException {
-			examples.get(idxExample)
-					.get(token)
-					.set(getFeatureIndex(feature),
-							featureValueEncoding.putString(value));
+			setFeatureValue(token, getFeatureIndex(feature),
+					featureValueEncoding.putString(value));
 		}
 
 		@Override
 		public void setFeatureValue(int token, int feature, String value)
 				throws DatasetException {
-			examples.get(idxExample).get(token)
-					.set(feature, featureValueEncoding.putString(value));
+			setFeatureValue(token, feature,
+					featureValueEncoding.putString(value));
 		}
 
 		@Override
 		public int getFeatureValue(int token, int feature) {
-			Integer val = examples.get(idxExample).get(token).get(feature);
-			assert (val != null);
+			int val = columns[feature][exampleOffsets[idxExample] + token];
+			assert (val != MISSING_VALUE);
 			return val;
 		}
 
@@ -0,0 +1,347 @@
+package br.pucrio.inf.learn.structlearning.generative.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Arrays;
+
+import br.pucrio.inf.learn.util.BinaryInput;
+import br.pucrio.inf.learn.util.BinaryOutput;
+
+/**
+ * Binary file of encoded examples of a corpus and the offset index of these
+ * examples. It allows a text corpus to be parsed only once: examples are
+ * appended to this file in the first pass and later passes (and random access)
+ * decode them from a memory-mapped view of the file.
+ *
+ * Each example is a record with its id, its number of tokens, the number of
+ * values per token and the values (as variable-length integers) of each
+ * token. The file is mapped in segments of at most 2GB and records never
+ * cross segment boundaries.
+ *
+ * Examples are appended by a single thread. After <code>finish()</code>, the
+ * file is read-only and each thread can read it through its own
+ * <code>Reader</code>.
+ *
+ * @author eraldo
+ *
+ */
+public class CorpusIndexFile {
+
+	/**
+	 * Maximum size of a mapped segment.
+	 */
+	private static final long MAX_SEGMENT_SIZE = Integer.MAX_VALUE;
+
+	/**
+	 * Size of the write buffer.
+	 */
+	private static final int FLUSH_SIZE = 1 << 20;
+
+	/**
+	 * The underlying file.
+	 */
+	private final File file;
+
+	/**
+	 * Whether the file must be deleted when this object is closed.
+	 */
+	private final boolean temporary;
+
+	/**
+	 * Channel used to write and to map the file.
+	 */
+	private FileChannel channel;
+
+	/**
+	 * Records that were not written yet.
+	 */
+	private BinaryOutput output;
+
+	/**
+	 * Position (in the file) of the first byte of the write buffer.
+	 */
+	private long outputPosition;
+
+	/**
+	 * Position of each record in the file. The position after the last
+	 * record is stored at the index <code>numberOfExamples</code>.
+	 */
+	private long[] offsets;
+
+	/**
+	 * Number of tokens of each example, which is available without decoding
+	 * the records.
+	 */
+	private int[] lengths;
+
+	/**
+	 * Number of examples.
+	 */
+	private int numberOfExamples;
+
+	/**
+	 * Start position of each segment in the file.
+	 */
+	private long[] segmentStarts;
+
+	/**
+	 * Number of segments.
+	 */
+	private int numberOfSegments;
+
+	/**
+	 * Mapped view of each segment, available after <code>finish()</code>.
+	 */
+	private MappedByteBuffer[] segments;
+
+	/**
+	 * Create an empty index stored in the given file. If the given file is
+	 * <code>null</code>, a temporary file is used and deleted on close.
+	 *
+	 * @param file
+	 * @throws IOException
+	 */
+	public CorpusIndexFile(File file) throws IOException {
+		this.temporary = (file == null);
+		if (file == null) {
+			file = File.createTempFile("corpus", ".idx");
+			file.deleteOnExit();
+		}
+		this.file = file;
+		this.channel = new RandomAccessFile(file, "rw").getChannel();
+		this.output = new BinaryOutput(FLUSH_SIZE + (FLUSH_SIZE >> 2));
+		clear();
+	}
+
+	/**
+	 * Discard all examples.
+	 *
+	 * @throws IOException
+	 */
+	public void clear() throws IOException {
+		channel.truncate(0);
+		output.clear();
+		outputPosition = 0;
+		offsets = new long[1024];
+		lengths = new int[1024];
+		numberOfExamples = 0;
+		segmentStarts = new long[4];
+		numberOfSegments = 1;
+		segments = null;
+	}
+
+	/**
+	 * Return whether the index is complete, i.e., <code>finish()</code> has
+	 * been called.
+	 *
+	 * @return
+	 */
+	public boolean isFinished() {
+		return segments != null;
+	}
+
+	/**
+	 * Return the number of examples in the index.
+	 *
+	 * @return
+	 */
+	public int getNumberOfExamples() {
+		return numberOfExamples;
+	}
+
+	/**
+	 * Return the number of tokens of the given example.
+	 *
+	 * @param idxExample
+	 * @return
+	 */
+	public int getNumberOfTokens(int idxExample) {
+		if (idxExample < 0 || idxExample >= numberOfExamples)
+			throw new IndexOutOfBoundsException("Example " + idxExample
+					+ " is not in the index (" + numberOfExamples
+					+ " examples)");
+		return lengths[idxExample];
+	}
+
+	/**
+	 * Return the size of the file in bytes.
+	 *
+	 * @return
+	 */
+	public long getSize() {
+		return offsets[numberOfExamples];
+	}
+
+	/**
+	 * Append the given example of the given corpus.
+	 *
+	 * @param corpus
+	 * @param idxExample
+	 * @throws IOException
+	 */
+	public void append(Corpus corpus, int idxExample) throws IOException {
+		if (isFinished())
+			throw new IllegalStateException("Index is already finished");
+
+		long begin = offsets[numberOfExamples];
+		int beginOutput = output.size();
+
+		// Encode the example.
+		int first = corpus.exampleOffsets[idxExample];
+		int end = corpus.exampleOffsets[idxExample + 1];
+		int numValues = corpus.numberOfColumns;
+		int[][] columns = corpus.columns;
+		output.writeString(corpus.exampleIDs.get(idxExample));
+		output.writeVarInt(end - first);
+		output.writeVarInt(numValues);
+		for (int token = first; token < end; ++token)
+			for (int ftr = 0; ftr < numValues; ++ftr)
+				output.writeVarInt(columns[ftr][token]);
+
+		// Start a new segment if the record does not fit in the current one.
+		long size = output.size() - beginOutput;
+		if (begin + size - segmentStarts[numberOfSegments - 1] > MAX_SEGMENT_SIZE) {
+			if (numberOfSegments == segmentStarts.length)
+				segmentStarts = Arrays.copyOf(segmentStarts,
+						2 * numberOfSegments);
+			segmentStarts[numberOfSegments++] = begin;
+		}
+
+		if (numberOfExamples + 2 > offsets.length) {
+			offsets = Arrays.copyOf(offsets, 2 * offsets.length);
+			lengths = Arrays.copyOf(lengths, offsets.length);
+		}
+		lengths[numberOfExamples] = end - first;
+		++numberOfExamples;
+		offsets[numberOfExamples] = begin + size;
+
+		if (output.size() >= FLUSH_SIZE)
+			flush();
+	}
+
+	/**
+	 * Write the buffered records to the file.
+	 *
+	 * @throws IOException
+	 */
+	private void flush() throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(output.getArray(), 0,
+				output.size());
+		while (buffer.hasRemaining())
+			outputPosition += channel.write(buffer, outputPosition);
+		output.clear();
+	}
+
+	/**
+	 * Write the pending records and map the file. No example can be appended
+	 * after this method.
+	 *
+	 * @throws IOException
+	 */
+	public void finish() throws IOException {
+		flush();
+		offsets = Arrays.copyOf(offsets, numberOfExamples + 1);
+		lengths = Arrays.copyOf(lengths, numberOfExamples);
+		MappedByteBuffer[] segs = new MappedByteBuffer[numberOfSegments];
+		for (int segment = 0; segment < numberOfSegments; ++segment) {
+			long start = segmentStarts[segment];
+			long end = (segment + 1 < numberOfSegments ? segmentStarts[segment + 1]
+					: getSize());
+			segs[segment] = channel.map(MapMode.READ_ONLY, start, end - start);
+		}
+		segments = segs;
+	}
+
+	/**
+	 * Close the file, deleting it if it is temporary.
+	 *
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		segments = null;
+		channel.close();
+		if (temporary)
+			file.delete();
+	}
+
+	/**
+	 * Create a reader of this index. Each thread must use its own reader.
+	 *
+	 * @return
+	 */
+	public Reader newReader() {
+		if (!isFinished())
+			throw new IllegalStateException("Index is not finished");
+		return new Reader();
+	}
+
+	/**
+	 * Decode examples from the mapped file.
+	 */
+	public class Reader {
+
+		/**
+		 * Private views of the segments (positions are not shared).
+		 */
+		private final ByteBuffer[] views;
+
+		/**
+		 * Bytes of the current record.
+		 */
+		private byte[] record;
+
+		/**
+		 * Decoder of the current record.
+		 */
+		private final BinaryInput input;
+
+		private Reader() {
+			views = new ByteBuffer[numberOfSegments];
+			for (int segment = 0; segment < numberOfSegments; ++segment)
+				views[segment] = segments[segment].duplicate();
+			record = new byte[64];
+			input = new BinaryInput(record);
+		}
+
+		/**
+		 * Decode the given example and append it to the given corpus.
+		 *
+		 * @param idxExample
+		 * @param corpus
+		 * @throws IOException
+		 */
+		public void read(int idxExample, Corpus corpus) throws IOException {
+			long begin = offsets[idxExample];
+			int size = (int) (offsets[idxExample + 1] - begin);
+
+			// Find the segment of the record.
+			int segment = Arrays.binarySearch(segmentStarts, 0,
+					numberOfSegments, begin);
+			if (segment < 0)
+				segment = -segment - 2;
+
+			if (size > record.length)
+				record = new byte[Math.max(size, 2 * record.length)];
+			ByteBuffer view = views[segment];
+			view.position((int) (begin - segmentStarts[segment]));
+			view.get(record, 0, size);
+			input.reset(record, 0, size);
+
+			String id = input.readString();
+			int numTokens = input.readVarInt();
+			int numValues = input.readVarInt();
+			for (int idxTkn = 0; idxTkn < numTokens; ++idxTkn) {
+				int token = corpus.appendToken(numValues);
+				int[][] columns = corpus.columns;
+				for (int ftr = 0; ftr < numValues; ++ftr)
+					columns[ftr][token] = input.readVarInt();
+			}
+			corpus.appendExample(id);
+		}
+	}
+}
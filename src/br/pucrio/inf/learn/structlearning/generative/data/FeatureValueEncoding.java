@@ -12,6 +12,9 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.Vector;
 
+import br.pucrio.inf.learn.util.AsciiStringIndex;
+import br.pucrio.inf.learn.util.ByteTokenizer;
+
 /**
  * Encode a set of feature-values as integers to improve algorithm performance.
  * 
@@ -48,6 +51,12 @@ public class FeatureValueEncoding {
 	 */
 	private boolean readOnly;
 
+	/**
+	 * Index to look up ASCII labels by their bytes. It is created on demand
+	 * and discarded when the mapping is cleared.
+	 */
+	private AsciiStringIndex asciiIndex;
+
 	/**
 	 * Default constructor. Create an empty mapping.
 	 */
@@ -154,6 +163,29 @@ public class FeatureValueEncoding {
 		return code;
 	}
 
+	/**
+	 * Put the label given by the interval of a byte array (as read by
+	 * <code>ByteTokenizer</code>) and return its code. The result is the same
+	 * of <code>putString(...)</code>, but a string is created only for new
+	 * (or non-ASCII) labels.
+	 * 
+	 * @param bytes
+	 * @param offset
+	 * @param length
+	 * @return
+	 */
+	public int putBytes(byte[] bytes, int offset, int length) {
+		if (AsciiStringIndex.isAscii(bytes, offset, length)) {
+			if (asciiIndex == null)
+				asciiIndex = new AsciiStringIndex(mapFromCodeToLabel);
+			int code = asciiIndex.get(bytes, offset, length);
+			if (code >= 0)
+				return code;
+		}
+		return putString(new String(bytes, offset, length,
+				ByteTokenizer.CHARSET));
+	}
+
 	/**
 	 * Return the label corresponding to the given code.
 	 * 
@@ -232,6 +264,7 @@ public class FeatureValueEncoding {
 		// Clear the previous values.
 		mapFromCodeToLabel.clear();
 		mapFromLabelToCode.clear();
+		asciiIndex = null;
 
 		String label;
 		while ((label = reader.readLine()) != null) {
@@ -245,6 +278,7 @@ public class FeatureValueEncoding {
 		// Clear the previous values.
 		mapFromCodeToLabel.clear();
 		mapFromLabelToCode.clear();
+		asciiIndex = null;
 
 		int numberOfLabels = 0;
 		String label;
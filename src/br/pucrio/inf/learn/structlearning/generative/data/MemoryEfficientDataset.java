@@ -1,7 +1,7 @@
 package br.pucrio.inf.learn.structlearning.generative.data;
 
 import java.io.BufferedReader;
-import java.io.FileReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintStream;
@@ -13,11 +13,23 @@ import java.util.Vector;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import br.pucrio.inf.learn.util.ByteTokenizer;
+
 /**
  * A dataset class that does not load all the examples in memory. It loads
  * example by example. So, this class implements basically the methods necessary
  * for the iterable interface.
  * 
+ * The text files are parsed only in the first pass, which also writes the
+ * encoded examples to a binary side-file (<code>CorpusIndexFile</code>).
+ * Later passes, random access (<code>getExample(int)</code>) and partitions
+ * (<code>partition(int)</code>), which can be iterated concurrently, decode
+ * the examples from a memory-mapped view of this file. Only the current
+ * example and the offset and length of each example are kept in memory.
+ * 
+ * The first pass must be completed before the dataset is accessed by any other
+ * means, since the side-file is incomplete until then.
+ * 
  * @author eraldof
  * 
  */
@@ -25,13 +37,51 @@ public class MemoryEfficientDataset extends Corpus {
 
 	private static Log LOG = LogFactory.getLog(MemoryEfficientDataset.class);
 
-	protected int lastExampleSize;
-
 	/**
 	 * List of file names to be loaded.
 	 */
 	protected String[] inputFileNames;
 
+	/**
+	 * Name of the binary side-file. If it is <code>null</code>, a temporary
+	 * file is used.
+	 */
+	protected String indexFileName;
+
+	/**
+	 * Encoded examples and their offsets. It is built in the first pass over
+	 * the text files and is shared with partitions of this dataset.
+	 */
+	protected CorpusIndexFile index;
+
+	/**
+	 * Index of the first example of this dataset within the index. It is
+	 * different from zero only for partitions.
+	 */
+	protected int firstExample;
+
+	/**
+	 * Index after the last example of this dataset within the index or -1 if
+	 * it includes all examples of the index.
+	 */
+	protected int endExample = -1;
+
+	/**
+	 * Reader used by <code>getExample(int)</code>.
+	 */
+	private CorpusIndexFile.Reader reader;
+
+	/**
+	 * Whether this dataset is a partition of another one, which owns the
+	 * index.
+	 */
+	private boolean partition;
+
+	/**
+	 * Whether a first pass over the text files is in progress.
+	 */
+	private boolean indexing;
+
 	public MemoryEfficientDataset() {
 		super();
 	}
@@ -45,10 +95,7 @@ public class MemoryEfficientDataset extends Corpus {
 		super();
 		featureValueEncoding = new FeatureValueEncoding();
 		featureLabels = new Vector<String>();
-		examples = new Vector<Vector<Vector<Integer>>>(1);
-		examples.add(new Vector<Vector<Integer>>());
-		exampleIDs = new Vector<String>(1);
-		exampleIDs.add(new String());
+		initExamples();
 		inputFileNames = new String[1];
 		inputFileNames[0] = fileName;
 	}
@@ -56,10 +103,7 @@ public class MemoryEfficientDataset extends Corpus {
 	public MemoryEfficientDataset(String[] fileNames) {
 		featureValueEncoding = new FeatureValueEncoding();
 		featureLabels = new Vector<String>();
-		examples = new Vector<Vector<Vector<Integer>>>(1);
-		examples.add(new Vector<Vector<Integer>>());
-		exampleIDs = new Vector<String>(1);
-		exampleIDs.add(new String());
+		initExamples();
 		inputFileNames = fileNames.clone();
 	}
 
@@ -69,8 +113,131 @@ public class MemoryEfficientDataset extends Corpus {
 		super(fileName, featureValueEncoding);
 	}
 
+	/**
+	 * Create a partition of the given dataset, which must be indexed.
+	 * 
+	 * @param dataset
+	 * @param firstExample
+	 * @param endExample
+	 */
+	private MemoryEfficientDataset(MemoryEfficientDataset dataset,
+			int firstExample, int endExample) {
+		super(dataset.featureValueEncoding);
+		featureLabels = dataset.featureLabels;
+		inputFileNames = dataset.inputFileNames;
+		index = dataset.index;
+		partition = true;
+		this.firstExample = firstExample;
+		this.endExample = endExample;
+	}
+
+	/**
+	 * Set the name of the binary side-file built in the first pass. By
+	 * default, a temporary file is used. It must be called before the first
+	 * pass.
+	 * 
+	 * @param fileName
+	 */
+	public void setIndexFileName(String fileName) {
+		this.indexFileName = fileName;
+	}
+
+	/**
+	 * Return whether the first pass has been completed, i.e., whether the
+	 * examples are read from the binary side-file.
+	 * 
+	 * @return
+	 */
+	public boolean isIndexed() {
+		return index != null && index.isFinished();
+	}
+
+	/**
+	 * Parse the text files and build the binary side-file, unless it has
+	 * already been done.
+	 * 
+	 * @throws IOException
+	 * @throws DatasetException
+	 * @throws IllegalStateException
+	 *             if a first pass is in progress.
+	 */
+	public void buildIndex() throws IOException, DatasetException {
+		if (isIndexed())
+			return;
+		checkNotIndexing();
+		MemoryEfficientDatasetIterator it = new MemoryEfficientDatasetIterator();
+		while (it.hasNext())
+			it.advance();
+	}
+
+	/**
+	 * Split this dataset in the given number of partitions of contiguous
+	 * examples. Each partition has its own current example and, thus,
+	 * different partitions can be iterated concurrently (but each partition
+	 * by only one thread). The side-file is built if necessary.
+	 * 
+	 * @param numberOfPartitions
+	 * @return
+	 * @throws IOException
+	 * @throws DatasetException
+	 */
+	public MemoryEfficientDataset[] partition(int numberOfPartitions)
+			throws IOException, DatasetException {
+		buildIndex();
+		int numExamples = getNumberOfExamples();
+		MemoryEfficientDataset[] partitions = new MemoryEfficientDataset[numberOfPartitions];
+		for (int idx = 0; idx < numberOfPartitions; ++idx)
+			partitions[idx] = new MemoryEfficientDataset(this, firstExample
+					+ (int) ((long) numExamples * idx / numberOfPartitions),
+					firstExample
+							+ (int) ((long) numExamples * (idx + 1) / numberOfPartitions));
+		return partitions;
+	}
+
+	/**
+	 * Release the binary side-file (deleting it if it is temporary). The
+	 * partitions of this dataset cannot be used after this. Closing a
+	 * partition only detaches it from the side-file, which is still used by
+	 * the original dataset and the other partitions.
+	 * 
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		if (index != null && !partition)
+			index.close();
+		index = null;
+		reader = null;
+	}
+
+	/**
+	 * Throw an exception if a first pass over the text files is in progress.
+	 * Restarting the side-file would break that pass.
+	 * 
+	 * @throws IllegalStateException
+	 */
+	private void checkNotIndexing() {
+		if (indexing)
+			throw new IllegalStateException(
+					"The first pass over the dataset is in progress and must "
+							+ "be completed before the dataset is indexed");
+	}
+
+	/**
+	 * Return the index after the last example of this dataset within the
+	 * side-file.
+	 * 
+	 * @return
+	 */
+	private int getEndExample() {
+		if (endExample >= 0)
+			return endExample;
+		return index.getNumberOfExamples();
+	}
+
 	@Override
 	public Iterator<DatasetExample> iterator() {
+		if (isIndexed())
+			return new IndexedIterator();
 		try {
 			return new MemoryEfficientDatasetIterator();
 		} catch (IOException e) {
@@ -92,21 +259,8 @@ public class MemoryEfficientDataset extends Corpus {
 		if (id.trim().length() == 0)
 			return false;
 
-		Vector<Vector<Integer>> exampleData = examples.get(0);
-
-		// Adjust the vector to the size of the current example (if it is
-		// needed).
-		int prevSize = exampleData.size();
-		if (prevSize < tokens.length - 1) {
-			exampleData.setSize(tokens.length - 1);
-			for (int idx = prevSize; idx < exampleData.size(); ++idx) {
-				exampleData
-						.set(idx, new Vector<Integer>(getNumberOfFeatures()));
-				exampleData.get(idx).setSize(getNumberOfFeatures());
-			}
-		}
-
-		lastExampleSize = exampleData.size();
+		// Only the current example is kept.
+		clearExamples();
 
 		for (int idxTkn = 1; idxTkn < tokens.length; ++idxTkn) {
 			String token = tokens[idxTkn];
@@ -119,21 +273,84 @@ public class MemoryEfficientDataset extends Corpus {
 								+ buff);
 
 			// Encode the feature values.
-			Vector<Integer> featuresAsVector = exampleData.get(idxTkn - 1);
-			for (int idxFtr = 0; idxFtr < getNumberOfFeatures(); ++idxFtr)
-				featuresAsVector.set(idxFtr,
-						featureValueEncoding.putString(features[idxFtr]));
+			int idxToken = appendToken(features.length);
+			for (int idxFtr = 0; idxFtr < features.length; ++idxFtr)
+				columns[idxFtr][idxToken] = featureValueEncoding
+						.putString(features[idxFtr]);
+		}
+
+		// Store the loaded example.
+		appendExample(id);
+
+		return true;
+	}
+
+	@Override
+	public boolean parseExample(ByteTokenizer tokenizer)
+			throws DatasetException {
+		byte[] line = tokenizer.getArray();
+
+		// Split tokens.
+		ByteTokenizer.Fields tokens = new ByteTokenizer.Fields();
+		int numTokens = tokenizer.split((byte) '\t', tokens);
+
+		if (numTokens == 0)
+			return false;
+
+		// The first field is the sentence id.
+		String id = tokenizer.toString(tokens.begin(0), tokens.end(0));
+
+		if (id.trim().length() == 0)
+			return false;
+
+		// Only the current example is kept.
+		clearExamples();
+
+		ByteTokenizer.Fields features = new ByteTokenizer.Fields();
+		for (int idxTkn = 1; idxTkn < numTokens; ++idxTkn) {
+			// Split the token into its features.
+			int numFeatures = features.split(line, tokens.begin(idxTkn),
+					tokens.end(idxTkn), (byte) ' ');
+			if (numFeatures != getNumberOfFeatures())
+				throw new DatasetException(
+						"Incorrect number of features on the following example:\n"
+								+ tokenizer.getLine());
+
+			// Encode the feature values.
+			int idxToken = appendToken(numFeatures);
+			for (int idxFtr = 0; idxFtr < numFeatures; ++idxFtr)
+				columns[idxFtr][idxToken] = featureValueEncoding.putBytes(line,
+						features.begin(idxFtr), features.length(idxFtr));
 		}
 
 		// Store the loaded example.
-		exampleIDs.set(0, id);
+		appendExample(id);
 
 		return true;
 	}
 
+	/**
+	 * Return the example at the given index. The returned object is the
+	 * current example of this dataset and is replaced by the next call to
+	 * this method or by an iterator of this dataset. The side-file is built
+	 * if necessary.
+	 */
 	@Override
 	public DatasetExample getExample(int index) {
-		throw new UnsupportedOperationException();
+		try {
+			buildIndex();
+			if (reader == null)
+				reader = this.index.newReader();
+			clearExamples();
+			reader.read(firstExample + index, this);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		} catch (DatasetException e) {
+			throw new RuntimeException(e);
+		}
+		IndexedExample example = new IndexedExample();
+		example.index = index;
+		return example;
 	}
 
 	@Override
@@ -141,9 +358,19 @@ public class MemoryEfficientDataset extends Corpus {
 		throw new UnsupportedOperationException();
 	}
 
+	/**
+	 * Return the number of examples. The side-file is built if necessary.
+	 */
 	@Override
 	public int getNumberOfExamples() {
-		throw new UnsupportedOperationException();
+		try {
+			buildIndex();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		} catch (DatasetException e) {
+			throw new RuntimeException(e);
+		}
+		return getEndExample() - firstExample;
 	}
 
 	@Override
@@ -176,6 +403,12 @@ public class MemoryEfficientDataset extends Corpus {
 		throw new UnsupportedOperationException();
 	}
 
+	@Override
+	public void load(ByteTokenizer tokenizer) throws IOException,
+			DatasetException {
+		throw new UnsupportedOperationException();
+	}
+
 	@Override
 	public void save(String fileName) throws IOException {
 		throw new UnsupportedOperationException();
@@ -196,30 +429,44 @@ public class MemoryEfficientDataset extends Corpus {
 		throw new UnsupportedOperationException();
 	}
 
+	/**
+	 * Return the number of tokens of the given example without decoding it.
+	 * The side-file is built if necessary.
+	 */
 	@Override
 	public int getNumberOfTokens(int idxExample) {
-		throw new UnsupportedOperationException();
+		try {
+			buildIndex();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		} catch (DatasetException e) {
+			throw new RuntimeException(e);
+		}
+		return index.getNumberOfTokens(firstExample + idxExample);
 	}
 
-	private class Example extends Corpus.Example {
-
-		protected int size;
+	/**
+	 * Stub for the current example that returns its index in the dataset.
+	 */
+	private class IndexedExample extends Example {
 
-		protected Example(int idxExample) {
-			super(idxExample);
-		}
+		/**
+		 * Index of the example in the dataset.
+		 */
+		private int index;
 
-		protected void setSize(int newSize) {
-			size = newSize;
+		private IndexedExample() {
+			super(0);
 		}
 
-		public int size() {
-			return size;
+		@Override
+		public int getIndex() {
+			return index;
 		}
 	}
 
 	/**
-	 * Iterate over the file list of the dataset.
+	 * Iterate over the file list of the dataset and build the side-file.
 	 * 
 	 * @author eraldof
 	 * 
@@ -228,16 +475,21 @@ public class MemoryEfficientDataset extends Corpus {
 			Iterator<DatasetExample> {
 
 		/**
-		 * Last loaded line. Always load a line in advance, i.e., before the
-		 * <code>next</code> method call.
+		 * Whether there is a loaded line. Always load a line in advance, i.e.,
+		 * before the <code>next</code> method call.
 		 */
-		private String lastLine;
+		private boolean hasLine;
 
 		/**
 		 * Use only one Example object. WARNING! This prevents using multiple
 		 * Example references returned by the iterator.
 		 */
-		private Example curExample;
+		private IndexedExample curExample;
+
+		/**
+		 * Index of the next example.
+		 */
+		private int idxExample;
 
 		/**
 		 * Index within the file names array of the file being processed.
@@ -245,70 +497,115 @@ public class MemoryEfficientDataset extends Corpus {
 		private int curFileIndex;
 
 		/**
-		 * Current file reader, i.e., the file reader that is being loaded.
+		 * Current file tokenizer, i.e., the file that is being loaded.
 		 */
-		private BufferedReader curFileReader;
+		private ByteTokenizer curFileTokenizer;
 
 		public MemoryEfficientDatasetIterator() throws IOException {
-			curExample = new Example(0);
+			checkNotIndexing();
+
+			// Restart the side-file (a previous pass may have failed).
+			if (index == null)
+				index = new CorpusIndexFile(indexFileName == null ? null
+						: new File(indexFileName));
+			else
+				index.clear();
+			reader = null;
+
+			curExample = new IndexedExample();
 			curFileIndex = 0;
-			curFileReader = new BufferedReader(new FileReader(
-					inputFileNames[curFileIndex]));
-			lastLine = skipBlanksAndComments(curFileReader);
+			curFileTokenizer = new ByteTokenizer(inputFileNames[curFileIndex]);
+			hasLine = nextDataLine();
+			indexing = true;
+			if (!hasLine)
+				finishIndex();
 		}
 
 		/**
-		 * Deal with the multiple files (skiping one when it is done).
+		 * Advance to the next data line, dealing with the multiple files
+		 * (skiping one when it is done).
 		 * 
-		 * @param reader
-		 * @return
+		 * @return <code>false</code> if there is no line left.
 		 * @throws IOException
 		 */
-		protected String skipBlanksAndComments(BufferedReader reader)
-				throws IOException {
+		protected boolean nextDataLine() throws IOException {
 			// If there is no remaining file.
 			if (curFileIndex >= inputFileNames.length)
-				return null;
+				return false;
 
-			String buff;
-			while ((buff = MemoryEfficientDataset.this
-					.skipBlanksAndComments(curFileReader)) == null) {
+			while (!curFileTokenizer.nextDataLine()) {
 				// Close the previous file.
-				curFileReader.close();
+				curFileTokenizer.close();
 
 				System.out.print(".");
 
 				// Go to the next file. Stop, if there is no one left.
 				++curFileIndex;
 				if (curFileIndex >= inputFileNames.length)
-					return null;
+					return false;
 
 				// Open the next file.
-				curFileReader = new BufferedReader(new FileReader(
-						inputFileNames[curFileIndex]));
+				curFileTokenizer = new ByteTokenizer(
+						inputFileNames[curFileIndex]);
 			}
 
-			return buff;
+			return true;
 		}
 
 		@Override
 		public boolean hasNext() {
-			return lastLine != null;
+			return hasLine;
 		}
 
-		@Override
-		public DatasetExample next() {
-			if (lastLine == null)
-				throw new NoSuchElementException("No element left");
-
+		/**
+		 * Parse the current line, append the example to the side-file and
+		 * read the next line.
+		 * 
+		 * @throws IOException
+		 * @throws DatasetException
+		 */
+		protected void advance() throws IOException, DatasetException {
 			try {
 				// Parse the previous loaded line.
-				parseExample(lastLine);
+				if (parseExample(curFileTokenizer)) {
+					index.append(MemoryEfficientDataset.this, 0);
+					curExample.index = idxExample++;
+				}
 
 				// Read the next line.
-				lastLine = skipBlanksAndComments(curFileReader);
+				hasLine = nextDataLine();
+			} catch (IOException e) {
+				// This pass cannot continue, so a new one can be started.
+				indexing = false;
+				throw e;
+			} catch (DatasetException e) {
+				indexing = false;
+				throw e;
+			}
 
-				curExample.setSize(lastExampleSize);
+			if (!hasLine)
+				finishIndex();
+		}
+
+		/**
+		 * Complete the side-file at the end of the first pass.
+		 * 
+		 * @throws IOException
+		 */
+		private void finishIndex() throws IOException {
+			indexing = false;
+			index.finish();
+			LOG.info("Indexed " + index.getNumberOfExamples() + " examples ("
+					+ index.getSize() + " bytes)");
+		}
+
+		@Override
+		public DatasetExample next() {
+			if (!hasLine)
+				throw new NoSuchElementException("No element left");
+
+			try {
+				advance();
 
 				// Return the stub for the parsed example.
 				return curExample;
@@ -325,4 +622,64 @@ public class MemoryEfficientDataset extends Corpus {
 			throw new UnsupportedOperationException();
 		}
 	}
+
+	/**
+	 * Iterate over the examples of the side-file.
+	 */
+	private class IndexedIterator implements Iterator<DatasetExample> {
+
+		/**
+		 * Use only one Example object. WARNING! This prevents using multiple
+		 * Example references returned by the iterator.
+		 */
+		private IndexedExample curExample;
+
+		/**
+		 * Reader of the side-file.
+		 */
+		private CorpusIndexFile.Reader indexReader;
+
+		/**
+		 * Index of the next example within the side-file.
+		 */
+		private int next;
+
+		/**
+		 * Index after the last example within the side-file.
+		 */
+		private int end;
+
+		public IndexedIterator() {
+			curExample = new IndexedExample();
+			indexReader = index.newReader();
+			next = firstExample;
+			end = getEndExample();
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next < end;
+		}
+
+		@Override
+		public DatasetExample next() {
+			if (next >= end)
+				throw new NoSuchElementException("No element left");
+
+			try {
+				clearExamples();
+				indexReader.read(next, MemoryEfficientDataset.this);
+			} catch (IOException e) {
+				throw new NoSuchElementException(e.getMessage());
+			}
+			curExample.index = next - firstExample;
+			++next;
+			return curExample;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
 }
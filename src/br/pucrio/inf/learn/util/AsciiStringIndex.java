@@ -0,0 +1,210 @@
+package br.pucrio.inf.learn.util;
+
+import java.util.List;
+
+/**
+ * Index of the ASCII strings of a list of values (code to value mapping of an
+ * encoding) that is looked up by byte intervals, so that feature values read
+ * by <code>ByteTokenizer</code> are encoded without creating strings.
+ *
+ * The index is an open-addressing hash table over the codes. It does not copy
+ * the values and uses <code>String.hashCode()</code> (which, for ASCII
+ * strings, is computed over bytes in the same way). Values appended to the
+ * list after the index creation are indexed on demand. If values are removed
+ * or replaced, the owner must discard the index.
+ *
+ * @author eraldo
+ *
+ */
+public class AsciiStringIndex {
+
+	/**
+	 * Values to be indexed. The index of a value in this list is its code.
+	 */
+	private final List<String> values;
+
+	/**
+	 * Hash table of values. Empty slots are <code>null</code>.
+	 */
+	private String[] keys;
+
+	/**
+	 * Code of the value in each slot.
+	 */
+	private int[] codes;
+
+	/**
+	 * Number of values in the table.
+	 */
+	private int count;
+
+	/**
+	 * Number of values of the list that have already been considered.
+	 */
+	private int indexedSize;
+
+	/**
+	 * Create an index for the given list of values.
+	 *
+	 * @param values
+	 */
+	public AsciiStringIndex(List<String> values) {
+		this.values = values;
+		this.keys = new String[64];
+		this.codes = new int[64];
+	}
+
+	/**
+	 * Return the code of the value equal to the given ASCII bytes or -1 if
+	 * there is no such value.
+	 *
+	 * @param bytes
+	 * @param offset
+	 * @param length
+	 * @return
+	 */
+	public int get(byte[] bytes, int offset, int length) {
+		update();
+		int hash = hashCode(bytes, offset, length);
+		int mask = keys.length - 1;
+		for (int slot = mix(hash) & mask;; slot = (slot + 1) & mask) {
+			String key = keys[slot];
+			if (key == null)
+				return -1;
+			if (key.hashCode() == hash && equals(key, bytes, offset, length))
+				return codes[slot];
+		}
+	}
+
+	/**
+	 * Index the values appended to the list since the last update.
+	 */
+	private void update() {
+		int size = values.size();
+		for (; indexedSize < size; ++indexedSize) {
+			String value = values.get(indexedSize);
+			if (value != null && isAscii(value))
+				insert(value, indexedSize);
+		}
+	}
+
+	/**
+	 * Insert the given value, unless there is an equal value in the table.
+	 *
+	 * @param value
+	 * @param code
+	 */
+	private void insert(String value, int code) {
+		if (2 * (count + 1) > keys.length)
+			rehash();
+		int mask = keys.length - 1;
+		int slot = mix(value.hashCode()) & mask;
+		while (keys[slot] != null) {
+			if (keys[slot].equals(value))
+				return;
+			slot = (slot + 1) & mask;
+		}
+		keys[slot] = value;
+		codes[slot] = code;
+		++count;
+	}
+
+	/**
+	 * Double the table size.
+	 */
+	private void rehash() {
+		String[] oldKeys = keys;
+		int[] oldCodes = codes;
+		keys = new String[2 * oldKeys.length];
+		codes = new int[2 * oldKeys.length];
+		int mask = keys.length - 1;
+		for (int idx = 0; idx < oldKeys.length; ++idx) {
+			String key = oldKeys[idx];
+			if (key == null)
+				continue;
+			int slot = mix(key.hashCode()) & mask;
+			while (keys[slot] != null)
+				slot = (slot + 1) & mask;
+			keys[slot] = key;
+			codes[slot] = oldCodes[idx];
+		}
+	}
+
+	/**
+	 * Spread the bits of a string hash code, whose low bits are poor for
+	 * short strings.
+	 *
+	 * @param hash
+	 * @return
+	 */
+	private static int mix(int hash) {
+		hash *= 0x9E3779B9;
+		return hash ^ (hash >>> 16);
+	}
+
+	/**
+	 * Return whether the given string contains only ASCII characters.
+	 *
+	 * @param str
+	 * @return
+	 */
+	public static boolean isAscii(String str) {
+		int length = str.length();
+		for (int idx = 0; idx < length; ++idx)
+			if (str.charAt(idx) >= 0x80)
+				return false;
+		return true;
+	}
+
+	/**
+	 * Return whether the given interval contains only ASCII bytes.
+	 *
+	 * @param bytes
+	 * @param offset
+	 * @param length
+	 * @return
+	 */
+	public static boolean isAscii(byte[] bytes, int offset, int length) {
+		int end = offset + length;
+		for (int idx = offset; idx < end; ++idx)
+			if (bytes[idx] < 0)
+				return false;
+		return true;
+	}
+
+	/**
+	 * Return the hash code of the string with the given ASCII bytes, i.e.,
+	 * the same value returned by <code>String.hashCode()</code>.
+	 *
+	 * @param bytes
+	 * @param offset
+	 * @param length
+	 * @return
+	 */
+	public static int hashCode(byte[] bytes, int offset, int length) {
+		int hash = 0;
+		int end = offset + length;
+		for (int idx = offset; idx < end; ++idx)
+			hash = 31 * hash + bytes[idx];
+		return hash;
+	}
+
+	/**
+	 * Return whether the given string is equal to the given ASCII bytes.
+	 *
+	 * @param str
+	 * @param bytes
+	 * @param offset
+	 * @param length
+	 * @return
+	 */
+	private static boolean equals(String str, byte[] bytes, int offset,
+			int length) {
+		if (str.length() != length)
+			return false;
+		for (int idx = 0; idx < length; ++idx)
+			if (str.charAt(idx) != bytes[offset + idx])
+				return false;
+		return true;
+	}
+}
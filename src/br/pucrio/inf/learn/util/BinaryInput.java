@@ -0,0 +1,276 @@
+package br.pucrio.inf.learn.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+
+/**
+ * Read values written by <code>BinaryOutput</code> from an interval of a byte
+ * array.
+ *
+ * @author eraldo
+ *
+ */
+public class BinaryInput {
+
+	/**
+	 * Underlying buffer.
+	 */
+	private byte[] buffer;
+
+	/**
+	 * Position of the next byte to be read.
+	 */
+	private int position;
+
+	/**
+	 * Position after the last valid byte.
+	 */
+	private int limit;
+
+	/**
+	 * Create an input that reads the whole given array.
+	 *
+	 * @param buffer
+	 */
+	public BinaryInput(byte[] buffer) {
+		this(buffer, 0, buffer.length);
+	}
+
+	/**
+	 * Create an input that reads the given interval of an array.
+	 *
+	 * @param buffer
+	 * @param offset
+	 * @param length
+	 */
+	public BinaryInput(byte[] buffer, int offset, int length) {
+		reset(buffer, offset, length);
+	}
+
+	/**
+	 * Read from the given interval of an array from now on.
+	 *
+	 * @param buffer
+	 * @param offset
+	 * @param length
+	 */
+	public void reset(byte[] buffer, int offset, int length) {
+		this.buffer = buffer;
+		this.position = offset;
+		this.limit = offset + length;
+	}
+
+	/**
+	 * Return the position of the next byte to be read.
+	 *
+	 * @return
+	 */
+	public int getPosition() {
+		return position;
+	}
+
+	/**
+	 * Return the number of bytes that remain to be read.
+	 *
+	 * @return
+	 */
+	public int remaining() {
+		return limit - position;
+	}
+
+	/**
+	 * Check that the given number of bytes can be read.
+	 *
+	 * @param length
+	 * @throws EOFException
+	 */
+	private void require(int length) throws EOFException {
+		if (limit - position < length)
+			throw new EOFException("Unexpected end of binary data");
+	}
+
+	/**
+	 * Read one byte as an unsigned value.
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	public int readByte() throws IOException {
+		require(1);
+		return buffer[position++] & 0xFF;
+	}
+
+	/**
+	 * Read the given number of bytes into the given array.
+	 *
+	 * @param bytes
+	 * @param offset
+	 * @param length
+	 * @throws IOException
+	 */
+	public void readBytes(byte[] bytes, int offset, int length)
+			throws IOException {
+		require(length);
+		System.arraycopy(buffer, position, bytes, offset, length);
+		position += length;
+	}
+
+	/**
+	 * Read a boolean value.
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	public boolean readBoolean() throws IOException {
+		return readByte() != 0;
+	}
+
+	/**
+	 * Read a variable-length integer.
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	public int readVarInt() throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			if (position == limit)
+				throw new EOFException("Unexpected end of binary data");
+			int b = buffer[position++];
+			value |= (b & 0x7F) << shift;
+			if (b >= 0)
+				return value;
+		}
+		throw new IOException("Malformed variable-length integer");
+	}
+
+	/**
+	 * Read a zigzag-encoded variable-length integer.
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	public int readSignedVarInt() throws IOException {
+		int value = readVarInt();
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/**
+	 * Read a variable-length long integer.
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	public long readVarLong() throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 70; shift += 7) {
+			if (position == limit)
+				throw new EOFException("Unexpected end of binary data");
+			int b = buffer[position++];
+			value |= (long) (b & 0x7F) << shift;
+			if (b >= 0)
+				return value;
+		}
+		throw new IOException("Malformed variable-length integer");
+	}
+
+	/**
+	 * Read a four-byte integer.
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	public int readInt() throws IOException {
+		require(4);
+		int value = ((buffer[position] & 0xFF) << 24)
+				| ((buffer[position + 1] & 0xFF) << 16)
+				| ((buffer[position + 2] & 0xFF) << 8)
+				| (buffer[position + 3] & 0xFF);
+		position += 4;
+		return value;
+	}
+
+	/**
+	 * Read an eight-byte double value.
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	public double readDouble() throws IOException {
+		long high = readInt() & 0xFFFFFFFFL;
+		long low = readInt() & 0xFFFFFFFFL;
+		return Double.longBitsToDouble((high << 32) | low);
+	}
+
+	/**
+	 * Read a string (that can be <code>null</code>).
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	public String readString() throws IOException {
+		int length = readVarInt() - 1;
+		if (length < 0)
+			return null;
+		require(length);
+		String value = new String(buffer, position, length, BinaryOutput.UTF8);
+		position += length;
+		return value;
+	}
+
+	/**
+	 * Read delta-coded codes into the given interval of an array.
+	 *
+	 * @param codes
+	 * @param offset
+	 * @param length
+	 * @throws IOException
+	 */
+	public void readDeltaCodes(int[] codes, int offset, int length)
+			throws IOException {
+		int previous = 0;
+		int end = offset + length;
+		for (int idx = offset; idx < end; ++idx) {
+			previous += readSignedVarInt();
+			codes[idx] = previous;
+		}
+	}
+
+	/**
+	 * Read an array of codes (that can be <code>null</code>) written by
+	 * <code>BinaryOutput.writeCodes(int[])</code>.
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	public int[] readCodes() throws IOException {
+		int length = readVarInt() - 1;
+		if (length < 0)
+			return null;
+		// Each code takes at least one byte.
+		require(length);
+		int[] codes = new int[length];
+		readDeltaCodes(codes, 0, length);
+		return codes;
+	}
+
+	/**
+	 * Read an array of doubles (that can be <code>null</code>) written by
+	 * <code>BinaryOutput.writeDoubles(double[])</code>.
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	public double[] readDoubles() throws IOException {
+		int length = readVarInt() - 1;
+		if (length < 0)
+			return null;
+		// Each value takes eight bytes.
+		if (length > remaining() / 8)
+			throw new EOFException("Unexpected end of binary data");
+		double[] values = new double[length];
+		for (int idx = 0; idx < length; ++idx)
+			values[idx] = readDouble();
+		return values;
+	}
+}
@@ -0,0 +1,281 @@
+package br.pucrio.inf.learn.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Growable byte buffer with methods to write primitive values in a compact
+ * binary form. Integers are written as variable-length quantities (7 bits per
+ * byte, least significant group first), so that small values take a single
+ * byte. Signed values are zigzag-encoded before that. The buffer can be
+ * reused (see <code>clear()</code>).
+ *
+ * Values written here are read back by <code>BinaryInput</code>.
+ *
+ * @author eraldo
+ *
+ */
+public class BinaryOutput {
+
+	/**
+	 * Charset used for strings.
+	 */
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Underlying buffer. Only the first <code>size</code> bytes are valid.
+	 */
+	private byte[] buffer;
+
+	/**
+	 * Number of valid bytes.
+	 */
+	private int size;
+
+	/**
+	 * Create an empty buffer with a default initial capacity.
+	 */
+	public BinaryOutput() {
+		this(256);
+	}
+
+	/**
+	 * Create an empty buffer with the given initial capacity.
+	 *
+	 * @param initialCapacity
+	 */
+	public BinaryOutput(int initialCapacity) {
+		buffer = new byte[Math.max(16, initialCapacity)];
+	}
+
+	/**
+	 * Guarantee room for the given number of additional bytes.
+	 *
+	 * @param length
+	 */
+	public void ensureRemaining(int length) {
+		if (size + length > buffer.length)
+			buffer = Arrays.copyOf(buffer,
+					Math.max(size + length, 2 * buffer.length));
+	}
+
+	/**
+	 * Remove all bytes. The underlying buffer is kept.
+	 */
+	public void clear() {
+		size = 0;
+	}
+
+	/**
+	 * Discard the bytes after the given size.
+	 *
+	 * @param newSize
+	 */
+	public void truncate(int newSize) {
+		if (newSize < 0 || newSize > size)
+			throw new IndexOutOfBoundsException("Invalid size " + newSize);
+		size = newSize;
+	}
+
+	/**
+	 * Return the number of bytes written so far.
+	 *
+	 * @return
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Return the underlying buffer. Only the first <code>size()</code> bytes
+	 * are valid.
+	 *
+	 * @return
+	 */
+	public byte[] getArray() {
+		return buffer;
+	}
+
+	/**
+	 * Return a copy of the written bytes.
+	 *
+	 * @return
+	 */
+	public byte[] toByteArray() {
+		return Arrays.copyOf(buffer, size);
+	}
+
+	/**
+	 * Write the content of this buffer to the given stream.
+	 *
+	 * @param out
+	 * @throws IOException
+	 */
+	public void writeTo(OutputStream out) throws IOException {
+		out.write(buffer, 0, size);
+	}
+
+	/**
+	 * Write one byte.
+	 *
+	 * @param value
+	 */
+	public void writeByte(int value) {
+		if (size == buffer.length)
+			ensureRemaining(1);
+		buffer[size++] = (byte) value;
+	}
+
+	/**
+	 * Write the given interval of a byte array.
+	 *
+	 * @param bytes
+	 * @param offset
+	 * @param length
+	 */
+	public void writeBytes(byte[] bytes, int offset, int length) {
+		ensureRemaining(length);
+		System.arraycopy(bytes, offset, buffer, size, length);
+		size += length;
+	}
+
+	/**
+	 * Write a boolean value as one byte.
+	 *
+	 * @param value
+	 */
+	public void writeBoolean(boolean value) {
+		writeByte(value ? 1 : 0);
+	}
+
+	/**
+	 * Write a (non-negative) integer as a variable-length quantity. Negative
+	 * values are written as unsigned integers and thus take five bytes.
+	 *
+	 * @param value
+	 */
+	public void writeVarInt(int value) {
+		ensureRemaining(5);
+		while ((value & ~0x7F) != 0) {
+			buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buffer[size++] = (byte) value;
+	}
+
+	/**
+	 * Write a signed integer as a zigzag-encoded variable-length quantity,
+	 * that is small absolute values take few bytes.
+	 *
+	 * @param value
+	 */
+	public void writeSignedVarInt(int value) {
+		writeVarInt((value << 1) ^ (value >> 31));
+	}
+
+	/**
+	 * Write a (non-negative) long integer as a variable-length quantity.
+	 *
+	 * @param value
+	 */
+	public void writeVarLong(long value) {
+		ensureRemaining(10);
+		while ((value & ~0x7FL) != 0) {
+			buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buffer[size++] = (byte) value;
+	}
+
+	/**
+	 * Write an integer in four bytes (big-endian).
+	 *
+	 * @param value
+	 */
+	public void writeInt(int value) {
+		ensureRemaining(4);
+		buffer[size++] = (byte) (value >>> 24);
+		buffer[size++] = (byte) (value >>> 16);
+		buffer[size++] = (byte) (value >>> 8);
+		buffer[size++] = (byte) value;
+	}
+
+	/**
+	 * Write a double value in eight bytes.
+	 *
+	 * @param value
+	 */
+	public void writeDouble(double value) {
+		long bits = Double.doubleToRawLongBits(value);
+		writeInt((int) (bits >>> 32));
+		writeInt((int) bits);
+	}
+
+	/**
+	 * Write a string in UTF-8 prefixed by its length. The string can be
+	 * <code>null</code>.
+	 *
+	 * @param value
+	 */
+	public void writeString(String value) {
+		if (value == null) {
+			writeVarInt(0);
+			return;
+		}
+		byte[] bytes = value.getBytes(UTF8);
+		writeVarInt(bytes.length + 1);
+		writeBytes(bytes, 0, bytes.length);
+	}
+
+	/**
+	 * Write the given interval of an array of codes. Each code is written as
+	 * its (zigzag-encoded) difference to the previous one, which is cheap for
+	 * sorted or clustered codes. The length is not written.
+	 *
+	 * @param codes
+	 * @param offset
+	 * @param length
+	 */
+	public void writeDeltaCodes(int[] codes, int offset, int length) {
+		int previous = 0;
+		int end = offset + length;
+		for (int idx = offset; idx < end; ++idx) {
+			int code = codes[idx];
+			writeSignedVarInt(code - previous);
+			previous = code;
+		}
+	}
+
+	/**
+	 * Write an array of codes (that can be <code>null</code>) prefixed by its
+	 * length. See <code>writeDeltaCodes(int[], int, int)</code>.
+	 *
+	 * @param codes
+	 */
+	public void writeCodes(int[] codes) {
+		if (codes == null) {
+			writeVarInt(0);
+			return;
+		}
+		writeVarInt(codes.length + 1);
+		writeDeltaCodes(codes, 0, codes.length);
+	}
+
+	/**
+	 * Write an array of doubles (that can be <code>null</code>) prefixed by
+	 * its length.
+	 *
+	 * @param values
+	 */
+	public void writeDoubles(double[] values) {
+		if (values == null) {
+			writeVarInt(0);
+			return;
+		}
+		writeVarInt(values.length + 1);
+		for (double value : values)
+			writeDouble(value);
+	}
+}
@@ -0,0 +1,207 @@
+package br.pucrio.inf.learn.util;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Fast LZ77 block compression with the sequence layout of LZ4: each sequence
+ * comprises a token byte (literal length in the high nibble and match length
+ * minus four in the low nibble, both extended by 255-runs when they are 15),
+ * the literals, a two-byte little-endian match offset and the match length
+ * extension. The last sequence of a block has only literals.
+ *
+ * The compressor is greedy and uses a single hash table of four-byte
+ * sequences. It favors speed over ratio, which is what we want for binary
+ * example files that are read many times.
+ *
+ * @author eraldo
+ *
+ */
+public class BlockCompressor {
+
+	/**
+	 * Minimum match length.
+	 */
+	private static final int MIN_MATCH = 4;
+
+	/**
+	 * The last literals of a block are never part of a match.
+	 */
+	private static final int LAST_LITERALS = 5;
+
+	/**
+	 * Blocks shorter than this are stored as literals only.
+	 */
+	private static final int MIN_LENGTH = 13;
+
+	/**
+	 * Maximum match offset.
+	 */
+	private static final int MAX_OFFSET = 0xFFFF;
+
+	/**
+	 * Number of bits of the hash table size.
+	 */
+	private static final int HASH_BITS = 12;
+
+	/**
+	 * Hash table of positions of four-byte sequences.
+	 */
+	private final int[] table = new int[1 << HASH_BITS];
+
+	/**
+	 * Compress the given interval of a byte array and append the result to
+	 * the given output. The output can be larger than the input for
+	 * incompressible data.
+	 *
+	 * @param src
+	 * @param offset
+	 * @param length
+	 * @param out
+	 */
+	public void compress(byte[] src, int offset, int length, BinaryOutput out) {
+		int end = offset + length;
+		int anchor = offset;
+		if (length >= MIN_LENGTH) {
+			Arrays.fill(table, -1);
+			int matchLimit = end - LAST_LITERALS;
+			int ip = offset;
+			while (ip + MIN_MATCH <= matchLimit) {
+				int seq = readInt(src, ip);
+				int h = (seq * -1640531535) >>> (32 - HASH_BITS);
+				int ref = table[h];
+				table[h] = ip;
+				if (ref < 0 || ip - ref > MAX_OFFSET
+						|| readInt(src, ref) != seq) {
+					++ip;
+					continue;
+				}
+
+				// Extend the match.
+				int len = MIN_MATCH;
+				while (ip + len < matchLimit && src[ref + len] == src[ip + len])
+					++len;
+
+				writeSequence(src, anchor, ip - anchor, ip - ref, len, out);
+				ip += len;
+				anchor = ip;
+			}
+		}
+		writeSequence(src, anchor, end - anchor, 0, 0, out);
+	}
+
+	/**
+	 * Write one sequence. If <code>matchLength</code> is zero, the sequence
+	 * has only literals (last sequence).
+	 *
+	 * @param src
+	 * @param literalOffset
+	 * @param literalLength
+	 * @param matchOffset
+	 * @param matchLength
+	 * @param out
+	 */
+	private static void writeSequence(byte[] src, int literalOffset,
+			int literalLength, int matchOffset, int matchLength,
+			BinaryOutput out) {
+		int matchCode = matchLength == 0 ? 0 : matchLength - MIN_MATCH;
+		out.writeByte((Math.min(literalLength, 15) << 4)
+				| Math.min(matchCode, 15));
+		if (literalLength >= 15)
+			writeLengthExtension(literalLength - 15, out);
+		out.writeBytes(src, literalOffset, literalLength);
+		if (matchLength == 0)
+			return;
+		out.writeByte(matchOffset);
+		out.writeByte(matchOffset >>> 8);
+		if (matchCode >= 15)
+			writeLengthExtension(matchCode - 15, out);
+	}
+
+	/**
+	 * Write a length extension as a run of 255 bytes followed by the rest.
+	 *
+	 * @param value
+	 * @param out
+	 */
+	private static void writeLengthExtension(int value, BinaryOutput out) {
+		while (value >= 255) {
+			out.writeByte(255);
+			value -= 255;
+		}
+		out.writeByte(value);
+	}
+
+	/**
+	 * Decompress a block into the given array, which must have exactly the
+	 * original length.
+	 *
+	 * @param src
+	 * @param offset
+	 * @param length
+	 * @param dst
+	 * @throws IOException
+	 *             if the block is corrupted.
+	 */
+	public static void decompress(byte[] src, int offset, int length,
+			byte[] dst) throws IOException {
+		int ip = offset;
+		int end = offset + length;
+		int op = 0;
+		try {
+			while (true) {
+				int token = src[ip++] & 0xFF;
+
+				// Literals.
+				int literalLength = token >>> 4;
+				if (literalLength == 15) {
+					int b;
+					do {
+						b = src[ip++] & 0xFF;
+						literalLength += b;
+					} while (b == 255);
+				}
+				System.arraycopy(src, ip, dst, op, literalLength);
+				ip += literalLength;
+				op += literalLength;
+				if (ip >= end)
+					break;
+
+				// Match.
+				int matchOffset = (src[ip] & 0xFF) | ((src[ip + 1] & 0xFF) << 8);
+				ip += 2;
+				int matchLength = token & 0x0F;
+				if (matchLength == 15) {
+					int b;
+					do {
+						b = src[ip++] & 0xFF;
+						matchLength += b;
+					} while (b == 255);
+				}
+				matchLength += MIN_MATCH;
+				int ref = op - matchOffset;
+				if (matchOffset == 0 || ref < 0)
+					throw new IOException("Corrupted compressed block");
+				// Byte by byte since the match can overlap the output.
+				for (int idx = 0; idx < matchLength; ++idx)
+					dst[op++] = dst[ref++];
+			}
+		} catch (IndexOutOfBoundsException e) {
+			throw new IOException("Corrupted compressed block", e);
+		}
+		if (op != dst.length || ip != end)
+			throw new IOException("Corrupted compressed block");
+	}
+
+	/**
+	 * Read four bytes as an integer.
+	 *
+	 * @param src
+	 * @param pos
+	 * @return
+	 */
+	private static int readInt(byte[] src, int pos) {
+		return (src[pos] & 0xFF) | ((src[pos + 1] & 0xFF) << 8)
+				| ((src[pos + 2] & 0xFF) << 16) | ((src[pos + 3] & 0xFF) << 24);
+	}
+}
@@ -0,0 +1,424 @@
+package br.pucrio.inf.learn.util;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Read a text file line by line as bytes. Lines and their fields are given as
+ * intervals of an internal buffer, so that feature values can be hashed or
+ * looked up directly from the file bytes (see
+ * <code>ByteSliceEncoding</code>) without creating a <code>String</code> for
+ * each one of them.
+ *
+ * The file is read through a channel into a reusable buffer, which grows only
+ * when a line does not fit in it. The interval of the current line is valid
+ * until the next call to <code>nextLine()</code>.
+ *
+ * Strings, when needed, are decoded with the platform default charset, as
+ * done by <code>FileReader</code>.
+ *
+ * @author eraldo
+ *
+ */
+public class ByteTokenizer {
+
+	/**
+	 * Charset used to decode strings.
+	 */
+	public static final Charset CHARSET = Charset.defaultCharset();
+
+	/**
+	 * Default size of the buffer.
+	 */
+	private static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+
+	/**
+	 * Input channel.
+	 */
+	private ReadableByteChannel channel;
+
+	/**
+	 * Buffer whose array holds the current line. The valid bytes are between
+	 * <code>position</code> and the buffer position.
+	 */
+	private ByteBuffer buffer;
+
+	/**
+	 * Position of the first byte of the buffer that has not been consumed.
+	 */
+	private int position;
+
+	/**
+	 * Whether the end of the input has been reached.
+	 */
+	private boolean eof;
+
+	/**
+	 * First byte of the current line.
+	 */
+	private int lineBegin;
+
+	/**
+	 * Position after the last byte of the current line (excluding line
+	 * terminators).
+	 */
+	private int lineEnd;
+
+	/**
+	 * Number of lines read so far.
+	 */
+	private long lineNumber;
+
+	/**
+	 * Open the given file.
+	 *
+	 * @param fileName
+	 * @throws IOException
+	 */
+	public ByteTokenizer(String fileName) throws IOException {
+		this(new FileInputStream(fileName).getChannel(), DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Read from the given stream.
+	 *
+	 * @param is
+	 */
+	public ByteTokenizer(InputStream is) {
+		this(Channels.newChannel(is), DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Read from the given channel using a buffer of the given initial size.
+	 *
+	 * @param channel
+	 * @param bufferSize
+	 */
+	public ByteTokenizer(ReadableByteChannel channel, int bufferSize) {
+		this.channel = channel;
+		this.buffer = ByteBuffer.allocate(Math.max(16, bufferSize));
+	}
+
+	/**
+	 * Advance to the next line.
+	 *
+	 * @return <code>false</code> if there is no more lines.
+	 * @throws IOException
+	 */
+	public boolean nextLine() throws IOException {
+		byte[] array = buffer.array();
+		int scan = position;
+		while (true) {
+			int limit = buffer.position();
+			for (int idx = scan; idx < limit; ++idx) {
+				if (array[idx] == '\n') {
+					setLine(position, idx);
+					position = idx + 1;
+					return true;
+				}
+			}
+			if (eof) {
+				if (position == limit)
+					return false;
+				// Last line without terminator.
+				setLine(position, limit);
+				position = limit;
+				return true;
+			}
+			scan = limit - position;
+			fill();
+			array = buffer.array();
+			scan += position;
+		}
+	}
+
+	/**
+	 * Set the current line, ignoring a carriage return at its end.
+	 *
+	 * @param begin
+	 * @param end
+	 */
+	private void setLine(int begin, int end) {
+		if (end > begin && buffer.array()[end - 1] == '\r')
+			--end;
+		lineBegin = begin;
+		lineEnd = end;
+		++lineNumber;
+	}
+
+	/**
+	 * Read more bytes from the channel. Unconsumed bytes are moved to the
+	 * beginning of the buffer, which is enlarged if they fill it.
+	 *
+	 * @throws IOException
+	 */
+	private void fill() throws IOException {
+		int remaining = buffer.position() - position;
+		if (position > 0) {
+			System.arraycopy(buffer.array(), position, buffer.array(), 0,
+					remaining);
+			position = 0;
+			buffer.position(remaining);
+		}
+		if (remaining == buffer.capacity()) {
+			// The current line does not fit in the buffer.
+			ByteBuffer larger = ByteBuffer.allocate(2 * buffer.capacity());
+			larger.put(buffer.array(), 0, remaining);
+			buffer = larger;
+		}
+		int n;
+		do {
+			n = channel.read(buffer);
+		} while (n == 0);
+		if (n < 0)
+			eof = true;
+	}
+
+	/**
+	 * Close the underlying channel.
+	 *
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * Return the array that holds the current line.
+	 *
+	 * @return
+	 */
+	public byte[] getArray() {
+		return buffer.array();
+	}
+
+	/**
+	 * Return the position of the first byte of the current line.
+	 *
+	 * @return
+	 */
+	public int getLineBegin() {
+		return lineBegin;
+	}
+
+	/**
+	 * Return the position after the last byte of the current line.
+	 *
+	 * @return
+	 */
+	public int getLineEnd() {
+		return lineEnd;
+	}
+
+	/**
+	 * Return the number of lines read so far.
+	 *
+	 * @return
+	 */
+	public long getLineNumber() {
+		return lineNumber;
+	}
+
+	/**
+	 * Return whether the current line contains only white spaces (as in
+	 * <code>String.trim()</code>).
+	 *
+	 * @return
+	 */
+	public boolean isBlankLine() {
+		byte[] array = buffer.array();
+		for (int idx = lineBegin; idx < lineEnd; ++idx)
+			if ((array[idx] & 0xFF) > ' ')
+				return false;
+		return true;
+	}
+
+	/**
+	 * Return whether the current line starts with the given ASCII string.
+	 *
+	 * @param prefix
+	 * @return
+	 */
+	public boolean lineStartsWith(String prefix) {
+		int length = prefix.length();
+		if (lineEnd - lineBegin < length)
+			return false;
+		byte[] array = buffer.array();
+		for (int idx = 0; idx < length; ++idx)
+			if (array[lineBegin + idx] != prefix.charAt(idx))
+				return false;
+		return true;
+	}
+
+	/**
+	 * Return whether the current line is equal to the given ASCII string.
+	 *
+	 * @param str
+	 * @return
+	 */
+	public boolean lineEquals(String str) {
+		return lineEnd - lineBegin == str.length() && lineStartsWith(str);
+	}
+
+	/**
+	 * Advance to the next line that is neither blank nor a comment (starting
+	 * by #).
+	 *
+	 * @return <code>false</code> if there is no more lines.
+	 * @throws IOException
+	 */
+	public boolean nextDataLine() throws IOException {
+		while (nextLine())
+			if (!isBlankLine() && !lineStartsWith("#"))
+				return true;
+		return false;
+	}
+
+	/**
+	 * Return the current line as a string.
+	 *
+	 * @return
+	 */
+	public String getLine() {
+		return toString(lineBegin, lineEnd);
+	}
+
+	/**
+	 * Decode the given interval of the buffer.
+	 *
+	 * @param begin
+	 * @param end
+	 * @return
+	 */
+	public String toString(int begin, int end) {
+		return new String(buffer.array(), begin, end - begin, CHARSET);
+	}
+
+	/**
+	 * Split the current line by the given delimiter.
+	 *
+	 * @param delimiter
+	 * @param fields
+	 *            where to store the fields.
+	 * @return the number of fields.
+	 */
+	public int split(byte delimiter, Fields fields) {
+		return fields.split(buffer.array(), lineBegin, lineEnd, delimiter);
+	}
+
+	/**
+	 * Intervals of fields of a line (or of a field). Instances are reused for
+	 * each line to avoid allocations.
+	 */
+	public static class Fields {
+
+		/**
+		 * Begin of each field.
+		 */
+		private int[] begins = new int[16];
+
+		/**
+		 * End of each field.
+		 */
+		private int[] ends = new int[16];
+
+		/**
+		 * Number of fields.
+		 */
+		private int size;
+
+		/**
+		 * Split the given interval of an array by the given delimiter. The
+		 * result is the same as <code>String.split(...)</code>, i.e.,
+		 * trailing empty fields are removed, unless there is no delimiter.
+		 *
+		 * @param array
+		 * @param begin
+		 * @param end
+		 * @param delimiter
+		 * @return the number of fields.
+		 */
+		public int split(byte[] array, int begin, int end, byte delimiter) {
+			size = 0;
+			int fieldBegin = begin;
+			boolean found = false;
+			for (int idx = begin; idx < end; ++idx) {
+				if (array[idx] == delimiter) {
+					add(fieldBegin, idx);
+					fieldBegin = idx + 1;
+					found = true;
+				}
+			}
+			add(fieldBegin, end);
+			if (found)
+				// Remove trailing empty fields.
+				while (size > 0 && begins[size - 1] == ends[size - 1])
+					--size;
+			return size;
+		}
+
+		/**
+		 * Append a field.
+		 *
+		 * @param begin
+		 * @param end
+		 */
+		private void add(int begin, int end) {
+			if (size == begins.length) {
+				int[] newBegins = new int[2 * size];
+				int[] newEnds = new int[2 * size];
+				System.arraycopy(begins, 0, newBegins, 0, size);
+				System.arraycopy(ends, 0, newEnds, 0, size);
+				begins = newBegins;
+				ends = newEnds;
+			}
+			begins[size] = begin;
+			ends[size] = end;
+			++size;
+		}
+
+		/**
+		 * Return the number of fields.
+		 *
+		 * @return
+		 */
+		public int size() {
+			return size;
+		}
+
+		/**
+		 * Return the first position of the given field.
+		 *
+		 * @param field
+		 * @return
+		 */
+		public int begin(int field) {
+			return begins[field];
+		}
+
+		/**
+		 * Return the position after the last byte of the given field.
+		 *
+		 * @param field
+		 * @return
+		 */
+		public int end(int field) {
+			return ends[field];
+		}
+
+		/**
+		 * Return the length of the given field.
+		 *
+		 * @param field
+		 * @return
+		 */
+		public int length(int field) {
+			return ends[field] - begins[field];
+		}
+	}
+}
@@ -0,0 +1,155 @@
+package br.pucrio.inf.learn.util;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Growable array of primitive integers. It avoids the boxing overhead of
+ * <code>List&lt;Integer&gt;</code> and can be reused (see <code>clear()</code>)
+ * to avoid allocating a new buffer for each use.
+ *
+ * @author eraldo
+ *
+ */
+public class IntArrayList implements Serializable {
+
+	/**
+	 * Auto-generated serial version ID.
+	 */
+	private static final long serialVersionUID = 6230410927151788409L;
+
+	/**
+	 * Underlying array. Only the first <code>size</code> items are valid.
+	 */
+	private int[] values;
+
+	/**
+	 * Number of valid items.
+	 */
+	private int size;
+
+	/**
+	 * Create an empty list with a default initial capacity.
+	 */
+	public IntArrayList() {
+		this(16);
+	}
+
+	/**
+	 * Create an empty list with the given initial capacity.
+	 *
+	 * @param initialCapacity
+	 */
+	public IntArrayList(int initialCapacity) {
+		values = new int[Math.max(1, initialCapacity)];
+	}
+
+	/**
+	 * Append the given value to the end of this list.
+	 *
+	 * @param value
+	 */
+	public void add(int value) {
+		if (size == values.length)
+			values = Arrays.copyOf(values, 2 * size);
+		values[size++] = value;
+	}
+
+	/**
+	 * Append the given interval of the given array to the end of this list.
+	 *
+	 * @param array
+	 * @param offset
+	 * @param length
+	 */
+	public void addAll(int[] array, int offset, int length) {
+		ensureCapacity(size + length);
+		System.arraycopy(array, offset, values, size, length);
+		size += length;
+	}
+
+	/**
+	 * Guarantee that this list can store the given number of items without
+	 * resizing the underlying array.
+	 *
+	 * @param capacity
+	 */
+	public void ensureCapacity(int capacity) {
+		if (capacity > values.length)
+			values = Arrays.copyOf(values,
+					Math.max(capacity, 2 * values.length));
+	}
+
+	/**
+	 * Return the value at the given position.
+	 *
+	 * @param idx
+	 * @return
+	 */
+	public int get(int idx) {
+		return values[idx];
+	}
+
+	/**
+	 * Set the value at the given position.
+	 *
+	 * @param idx
+	 * @param value
+	 */
+	public void set(int idx, int value) {
+		values[idx] = value;
+	}
+
+	/**
+	 * Return the number of items in this list.
+	 *
+	 * @return
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Remove all items of this list. The underlying array is kept.
+	 */
+	public void clear() {
+		size = 0;
+	}
+
+	/**
+	 * Keep only the first <code>newSize</code> items of this list.
+	 *
+	 * @param newSize
+	 */
+	public void truncate(int newSize) {
+		if (newSize < size)
+			size = newSize;
+	}
+
+	/**
+	 * Return the underlying array. Only the first <code>size()</code> items
+	 * are valid and the array can be replaced by subsequent additions.
+	 *
+	 * @return
+	 */
+	public int[] getArray() {
+		return values;
+	}
+
+	/**
+	 * Return a new array with the items of this list.
+	 *
+	 * @return
+	 */
+	public int[] toArray() {
+		return Arrays.copyOf(values, size);
+	}
+
+	/**
+	 * Release the unused capacity of the underlying array.
+	 */
+	public void trimToSize() {
+		if (values.length > size)
+			values = Arrays.copyOf(values, Math.max(1, size));
+	}
+}
@@ -80,11 +80,23 @@ public class Lookup3Hash {
 	}
 
 	public static int hash32(byte[] key, int seed) {
+		return hash32(key, 0, key.length, seed);
+	}
+
+	/**
+	 * Generate a 32-bit hash value for the given interval of a byte array.
+	 * 
+	 * @param key
+	 * @param offset
+	 * @param length
+	 * @param seed
+	 * @return
+	 */
+	public static int hash32(byte[] key, int offset, int length, int seed) {
 		int a, b, c;
-		int length = key.length;
 		a = b = c = 0xdeadbeef + length + seed;
 
-		int i = 0;
+		int i = offset;
 		while (length >= 12) {
 			a += ((key[i + 0] & 0xFF) << 24) | ((key[i + 1] & 0xFF) << 16)
 					| ((key[i + 2] & 0xFF) << 8) | ((key[i + 3] & 0xFF) << 0);
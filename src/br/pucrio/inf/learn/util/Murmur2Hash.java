@@ -8,18 +8,31 @@ package br.pucrio.inf.learn.util;
 
 public class Murmur2Hash {
 
-	@SuppressWarnings("fallthrough")
 	public static int hash32(byte[] data, int seed) {
+		return hash32(data, 0, data.length, seed);
+	}
+
+	/**
+	 * Generate a 32-bit hash value for the given interval of a byte array.
+	 * 
+	 * @param data
+	 * @param offset
+	 * @param length
+	 * @param seed
+	 * @return
+	 */
+	@SuppressWarnings("fallthrough")
+	public static int hash32(byte[] data, int offset, int length, int seed) {
 		// 'm' and 'r' are mixing constants generated offline.
 		// They're not really 'magic', they just happen to work well.
 		int m = 0x5bd1e995;
 		int r = 24;
 
 		// Initialize the hash to a 'random' value
-		int len = data.length;
+		int len = length;
 		int h = seed ^ len;
 
-		int i = 0;
+		int i = offset;
 		while (len >= 4) {
 			int k = data[i + 0] & 0xFF;
 			k |= (data[i + 1] & 0xFF) << 8;
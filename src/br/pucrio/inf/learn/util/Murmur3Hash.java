@@ -29,16 +29,33 @@ public class Murmur3Hash {
 	 * @return the murmur hash code for the given data chunk.
 	 */
 	public static int hash32(byte[] data, int seed) {
+		return hash32(data, 0, data.length, seed);
+	}
+
+	/**
+	 * Generate a 32-bit hash value for the given interval of a byte array.
+	 * 
+	 * @param data
+	 *            a block of data in bytes.
+	 * @param offset
+	 *            the first byte of the interval.
+	 * @param length
+	 *            the number of bytes of the interval.
+	 * @param seed
+	 *            the seed.
+	 * @return the murmur hash code for the given data chunk.
+	 */
+	public static int hash32(byte[] data, int offset, int length, int seed) {
 		int c1 = 0xcc9e2d51;
 		int c2 = 0x1b873593;
 
 		/*
 		 * Process body: full 4-byte blocks.
 		 */
-		int i = 0;
+		int i = offset;
 		int h1 = seed;
-		int len = data.length;
-		while (i <= len - 4) {
+		int end = offset + length;
+		while (i <= end - 4) {
 			int k1 = data[i + 0] & 0xFF;
 			k1 |= (data[i + 1] & 0xFF) << 8;
 			k1 |= (data[i + 2] & 0xFF) << 16;
@@ -59,7 +76,7 @@ public class Murmur3Hash {
 		 * Process tail: last block smaller than 4 bytes.
 		 */
 		int k1 = 0;
-		switch (len - i) {
+		switch (end - i) {
 		case 3:
 			k1 ^= data[i + 2] << 16;
 		case 2:
@@ -75,7 +92,7 @@ public class Murmur3Hash {
 		/*
 		 * Finalization.
 		 */
-		h1 ^= len;
+		h1 ^= length;
 		// BEGIN: h1 = fmix(h1);
 		h1 ^= h1 >>> 16;
 		h1 *= 0x85ebca6b;
@@ -0,0 +1,142 @@
+package br.pucrio.inf.learn.util.maxbranching;
+
+/**
+ * Maximum branching algorithm that chooses, for each instance, between the
+ * dense (<code>DirectedMaxBranchAlgorithm</code>) and the sparse
+ * (<code>SparseMaxBranchAlgorithm</code>) implementations of Tarjan's
+ * algorithm according to the arc density of the given graph. Pruned graphs,
+ * whose non-existing edges are <code>NaN</code>, are usually much sparser
+ * than complete graphs and are better solved by the sparse implementation.
+ *
+ * @author eraldo
+ *
+ */
+public class AdaptiveMaxBranchAlgorithm implements MaximumBranchingAlgorithm {
+
+	/**
+	 * Default maximum density (number of edges over n*(n-1)) of a graph to be
+	 * solved by the sparse implementation.
+	 */
+	public static final double DEFAULT_DENSITY_THRESHOLD = 0.25;
+
+	/**
+	 * Implementation for dense graphs.
+	 */
+	private DirectedMaxBranchAlgorithm denseAlgorithm;
+
+	/**
+	 * Implementation for sparse graphs.
+	 */
+	private SparseMaxBranchAlgorithm sparseAlgorithm;
+
+	/**
+	 * Graphs whose density is below this threshold are solved by the sparse
+	 * implementation.
+	 */
+	private double densityThreshold;
+
+	/**
+	 * Number of instances solved by the sparse implementation.
+	 */
+	private long numberOfSparseInstances;
+
+	/**
+	 * Total number of solved instances.
+	 */
+	private long numberOfInstances;
+
+	/**
+	 * Allocate both implementations to deal with the given maximum number of
+	 * nodes.
+	 *
+	 * @param maxNumberOfNodes
+	 */
+	public AdaptiveMaxBranchAlgorithm(int maxNumberOfNodes) {
+		this(maxNumberOfNodes, DEFAULT_DENSITY_THRESHOLD);
+	}
+
+	/**
+	 * Allocate both implementations to deal with the given maximum number of
+	 * nodes and use the given density threshold.
+	 *
+	 * @param maxNumberOfNodes
+	 * @param densityThreshold
+	 */
+	public AdaptiveMaxBranchAlgorithm(int maxNumberOfNodes,
+			double densityThreshold) {
+		denseAlgorithm = new DirectedMaxBranchAlgorithm(maxNumberOfNodes);
+		sparseAlgorithm = new SparseMaxBranchAlgorithm(maxNumberOfNodes);
+		this.densityThreshold = densityThreshold;
+	}
+
+	@Override
+	public double findMaxBranching(int numberOfNodes, double[][] graph,
+			int[] invertedMaxBranching) {
+		++numberOfInstances;
+		double numberOfArcs = (double) numberOfNodes * (numberOfNodes - 1);
+		if (numberOfArcs > 0d
+				&& SparseMaxBranchAlgorithm.countEdges(numberOfNodes, graph) < densityThreshold
+						* numberOfArcs) {
+			++numberOfSparseInstances;
+			return sparseAlgorithm.findMaxBranching(numberOfNodes, graph,
+					invertedMaxBranching);
+		}
+		return denseAlgorithm.findMaxBranching(numberOfNodes, graph,
+				invertedMaxBranching);
+	}
+
+	@Override
+	public void realloc(int maxNumberOfNodes) {
+		denseAlgorithm.realloc(maxNumberOfNodes);
+		sparseAlgorithm.realloc(maxNumberOfNodes);
+	}
+
+	/**
+	 * Set the maximum density of a graph to be solved by the sparse
+	 * implementation. Use zero to always use the dense implementation and a
+	 * value greater than one to always use the sparse one.
+	 *
+	 * @param densityThreshold
+	 */
+	public void setDensityThreshold(double densityThreshold) {
+		this.densityThreshold = densityThreshold;
+	}
+
+	public double getDensityThreshold() {
+		return densityThreshold;
+	}
+
+	/**
+	 * Return the fraction of instances that have been solved by the sparse
+	 * implementation.
+	 *
+	 * @return
+	 */
+	public double getSparseRatio() {
+		if (numberOfInstances == 0)
+			return 0d;
+		return (double) numberOfSparseInstances / numberOfInstances;
+	}
+
+	@Override
+	public void setCheckUniqueRoot(boolean check) {
+		denseAlgorithm.setCheckUniqueRoot(check);
+		sparseAlgorithm.setCheckUniqueRoot(check);
+	}
+
+	@Override
+	public boolean isCheckUniqueRoot() {
+		return denseAlgorithm.isCheckUniqueRoot();
+	}
+
+	@Override
+	public void setOnlyPositiveEdges(boolean val) {
+		denseAlgorithm.setOnlyPositiveEdges(val);
+		sparseAlgorithm.setOnlyPositiveEdges(val);
+	}
+
+	@Override
+	public boolean isOnlyPositiveEdges() {
+		return denseAlgorithm.isOnlyPositiveEdges();
+	}
+}
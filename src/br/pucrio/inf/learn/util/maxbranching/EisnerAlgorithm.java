@@ -0,0 +1,278 @@
+package br.pucrio.inf.learn.util.maxbranching;
+
+import java.util.Arrays;
+
+/**
+ * Eisner's dynamic programming algorithm for finding a maximum projective
+ * spanning tree rooted at node zero. It runs in O(n^3) time and uses O(n^2)
+ * memory, where n is the number of nodes.
+ *
+ * Edges whose weight is <code>NaN</code> do not exist. If no projective tree
+ * can be built with the existing edges, the returned weight is
+ * <code>-Infinity</code>.
+ *
+ * Like <code>DirectedMaxBranchAlgorithm</code>, this implementation is
+ * optimized to solve a long sequence of instances with a bounded dimension:
+ * the charts are flat primitive arrays that are reused across instances and
+ * only reallocated when a larger instance is given.
+ *
+ * @author eraldo
+ *
+ */
+public class EisnerAlgorithm implements MaximumBranchingAlgorithm {
+
+	/**
+	 * Direction of spans whose head is the right-most node.
+	 */
+	private static final int LEFT = 0;
+
+	/**
+	 * Direction of spans whose head is the left-most node.
+	 */
+	private static final int RIGHT = 1;
+
+	/**
+	 * Complete spans chart indexed by <code>index(s, t, direction)</code>.
+	 */
+	private double[] complete;
+
+	/**
+	 * Incomplete spans chart indexed by <code>index(s, t, direction)</code>.
+	 */
+	private double[] incomplete;
+
+	/**
+	 * Best split point of each complete span.
+	 */
+	private int[] completeSplit;
+
+	/**
+	 * Best split point of each incomplete span.
+	 */
+	private int[] incompleteSplit;
+
+	/**
+	 * Number of nodes in the current instance (stride of the charts).
+	 */
+	private int numberOfNodes;
+
+	/**
+	 * If <code>true</code>, the root node must have exactly one child.
+	 */
+	private boolean checkUniqueRoot;
+
+	/**
+	 * Projective trees span all nodes, so this flag is only stored to comply
+	 * with the interface. Negative edges are never avoided.
+	 */
+	private boolean onlyPositiveEdges;
+
+	/**
+	 * Allocate charts for instances with at most the given number of nodes.
+	 *
+	 * @param maxNumberOfNodes
+	 */
+	public EisnerAlgorithm(int maxNumberOfNodes) {
+		realloc(maxNumberOfNodes);
+	}
+
+	@Override
+	public void realloc(int maxNumberOfNodes) {
+		int size = maxNumberOfNodes * maxNumberOfNodes * 2;
+		complete = new double[size];
+		incomplete = new double[size];
+		completeSplit = new int[size];
+		incompleteSplit = new int[size];
+	}
+
+	/**
+	 * Return the chart index of the span (s, t) with the given direction.
+	 *
+	 * @param s
+	 * @param t
+	 * @param direction
+	 * @return
+	 */
+	private int index(int s, int t, int direction) {
+		return ((s * numberOfNodes + t) << 1) + direction;
+	}
+
+	/**
+	 * Return the weight of the given edge or <code>-Infinity</code> if it
+	 * does not exist.
+	 *
+	 * @param graph
+	 * @param from
+	 * @param to
+	 * @return
+	 */
+	private static double weight(double[][] graph, int from, int to) {
+		double w = graph[from][to];
+		if (Double.isNaN(w))
+			return Double.NEGATIVE_INFINITY;
+		return w;
+	}
+
+	@Override
+	public double findMaxBranching(int numberOfNodes, double[][] graph,
+			int[] invertedMaxBranching) {
+		if (numberOfNodes * numberOfNodes * 2 > complete.length)
+			realloc(numberOfNodes);
+		this.numberOfNodes = numberOfNodes;
+
+		Arrays.fill(invertedMaxBranching, 0, numberOfNodes, -1);
+		if (numberOfNodes <= 1)
+			return 0d;
+
+		// Single-node spans.
+		for (int s = 0; s < numberOfNodes; ++s) {
+			complete[index(s, s, LEFT)] = 0d;
+			complete[index(s, s, RIGHT)] = 0d;
+		}
+
+		for (int len = 1; len < numberOfNodes; ++len) {
+			for (int s = 0; s + len < numberOfNodes; ++s) {
+				int t = s + len;
+
+				/*
+				 * Incomplete spans: both directions share the same best split
+				 * since they only differ by the weight of the new edge.
+				 */
+				double best = Double.NEGATIVE_INFINITY;
+				int bestSplit = s;
+				for (int r = s; r < t; ++r) {
+					double score = complete[index(s, r, RIGHT)]
+							+ complete[index(r + 1, t, LEFT)];
+					if (score > best) {
+						best = score;
+						bestSplit = r;
+					}
+				}
+				// Edge t -> s (the root node has no head).
+				int idx = index(s, t, LEFT);
+				incomplete[idx] = (s == 0 ? Double.NEGATIVE_INFINITY : best
+						+ weight(graph, t, s));
+				incompleteSplit[idx] = bestSplit;
+				// Edge s -> t.
+				idx = index(s, t, RIGHT);
+				incomplete[idx] = best + weight(graph, s, t);
+				incompleteSplit[idx] = bestSplit;
+
+				// Complete span headed by t.
+				best = Double.NEGATIVE_INFINITY;
+				bestSplit = s;
+				for (int r = s; r < t; ++r) {
+					double score = complete[index(s, r, LEFT)]
+							+ incomplete[index(r, t, LEFT)];
+					if (score > best) {
+						best = score;
+						bestSplit = r;
+					}
+				}
+				idx = index(s, t, LEFT);
+				complete[idx] = best;
+				completeSplit[idx] = bestSplit;
+
+				// Complete span headed by s.
+				best = Double.NEGATIVE_INFINITY;
+				bestSplit = t;
+				for (int r = s + 1; r <= t; ++r) {
+					double score = incomplete[index(s, r, RIGHT)]
+							+ complete[index(r, t, RIGHT)];
+					if (score > best) {
+						best = score;
+						bestSplit = r;
+					}
+				}
+				idx = index(s, t, RIGHT);
+				complete[idx] = best;
+				completeSplit[idx] = bestSplit;
+			}
+		}
+
+		int last = numberOfNodes - 1;
+		if (!checkUniqueRoot) {
+			backtrackComplete(0, last, RIGHT, invertedMaxBranching);
+			return complete[index(0, last, RIGHT)];
+		}
+
+		/*
+		 * The root node has only one child r, whose subtree spans the
+		 * remaining nodes: a complete span (1, r) headed by r and a complete
+		 * span (r, last) headed by r.
+		 */
+		double best = Double.NEGATIVE_INFINITY;
+		int bestChild = 1;
+		for (int r = 1; r <= last; ++r) {
+			double score = complete[index(1, r, LEFT)]
+					+ complete[index(r, last, RIGHT)] + weight(graph, 0, r);
+			if (score > best) {
+				best = score;
+				bestChild = r;
+			}
+		}
+		invertedMaxBranching[bestChild] = 0;
+		backtrackComplete(1, bestChild, LEFT, invertedMaxBranching);
+		backtrackComplete(bestChild, last, RIGHT, invertedMaxBranching);
+		return best;
+	}
+
+	/**
+	 * Fill the heads of the nodes within the given complete span.
+	 *
+	 * @param s
+	 * @param t
+	 * @param direction
+	 * @param heads
+	 */
+	private void backtrackComplete(int s, int t, int direction, int[] heads) {
+		if (s == t)
+			return;
+		int r = completeSplit[index(s, t, direction)];
+		if (direction == LEFT) {
+			backtrackComplete(s, r, LEFT, heads);
+			backtrackIncomplete(r, t, LEFT, heads);
+		} else {
+			backtrackIncomplete(s, r, RIGHT, heads);
+			backtrackComplete(r, t, RIGHT, heads);
+		}
+	}
+
+	/**
+	 * Fill the heads of the nodes within the given incomplete span.
+	 *
+	 * @param s
+	 * @param t
+	 * @param direction
+	 * @param heads
+	 */
+	private void backtrackIncomplete(int s, int t, int direction, int[] heads) {
+		if (direction == LEFT)
+			heads[s] = t;
+		else
+			heads[t] = s;
+		int r = incompleteSplit[index(s, t, direction)];
+		backtrackComplete(s, r, RIGHT, heads);
+		backtrackComplete(r + 1, t, LEFT, heads);
+	}
+
+	@Override
+	public void setCheckUniqueRoot(boolean check) {
+		checkUniqueRoot = check;
+	}
+
+	@Override
+	public boolean isCheckUniqueRoot() {
+		return checkUniqueRoot;
+	}
+
+	@Override
+	public void setOnlyPositiveEdges(boolean val) {
+		onlyPositiveEdges = val;
+	}
+
+	@Override
+	public boolean isOnlyPositiveEdges() {
+		return onlyPositiveEdges;
+	}
+}
@@ -1,9 +1,6 @@
 package br.pucrio.inf.learn.util.maxbranching;
 
-import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.LinkedList;
 
 /**
@@ -21,7 +18,7 @@ public class KruskalAlgorithm {
 	/**
 	 * List of all edges.
 	 */
-	private ArrayList<SimpleWeightedEdge> edges;
+	private WeightedEdgeArray edges;
 
 	/**
 	 * Whether to avoid negative-weight edges.
@@ -33,20 +30,6 @@ public class KruskalAlgorithm {
 	 */
 	private int minComponents;
 
-	/**
-	 * Simple edge comparator.
-	 */
-	public final static Comparator<SimpleWeightedEdge> comp = new Comparator<SimpleWeightedEdge>() {
-		@Override
-		public int compare(SimpleWeightedEdge o1, SimpleWeightedEdge o2) {
-			if (o1.weight > o2.weight)
-				return -1;
-			if (o1.weight < o2.weight)
-				return 1;
-			return 0;
-		}
-	};
-
 	/**
 	 * Create a undirected maximum branching algorithm (Kruskal) that is able to
 	 * handle graphs with up to the given <code>maxNumberOfNodes</code> nodes.
@@ -91,12 +74,16 @@ public class KruskalAlgorithm {
 					// Skip negative edges, when required so.
 					continue;
 				// Feasible edge.
-				edges.add(new SimpleWeightedEdge(from, to, graph[from][to]));
+				edges.add(from, to, graph[from][to]);
 			}
 		}
 
-		// Sort edges in the inverse order of their weights.
-		Collections.sort(edges, comp);
+		/*
+		 * Sort edges in the inverse order of their weights. Only the heaviest
+		 * edges are sorted at first, since the algorithm usually reaches the
+		 * required number of components before consuming all edges.
+		 */
+		edges.sortNext(numberOfNodes);
 
 		// Initialize the disjoint sets (one component for each node).
 		partition.clear(numberOfNodes);
@@ -104,16 +91,24 @@ public class KruskalAlgorithm {
 		// Greedily select edges while avoiding cycles.
 		double totalWeight = 0d;
 		int numComponents = numberOfNodes;
-		for (SimpleWeightedEdge edge : edges) {
+		int numEdges = edges.size();
+		for (int pos = 0; pos < numEdges; ++pos) {
+			if (pos == edges.getNumberOfSorted())
+				// Double the sorted prefix.
+				edges.sortNext(pos);
+			int edge = edges.getSorted(pos);
+			int from = edges.getFrom(edge);
+			int to = edges.getTo(edge);
 			/*
 			 * If edge connects two components, merge them and add this edge to
 			 * the MST.
 			 */
-			if (partition.unionElements(edge.from, edge.to)) {
+			if (partition.unionElements(from, to)) {
+				double weight = edges.getWeight(edge);
 				// Add edge to the tree.
-				mst.add(edge);
+				mst.add(new SimpleWeightedEdge(from, to, weight));
 				// Account for its weight.
-				totalWeight += edge.weight;
+				totalWeight += weight;
 				// Decrement number of components.
 				--numComponents;
 				// Stop, if achieved the required number of components.
@@ -133,9 +128,9 @@ public class KruskalAlgorithm {
 	 */
 	public void realloc(int maxNumberOfNodes) {
 		if (edges != null)
-			edges.ensureCapacity(maxNumberOfNodes);
+			edges.ensureCapacity(maxNumberOfNodes * (maxNumberOfNodes - 1));
 		else
-			edges = new ArrayList<SimpleWeightedEdge>(maxNumberOfNodes
+			edges = new WeightedEdgeArray(maxNumberOfNodes
 					* (maxNumberOfNodes - 1));
 	}
 
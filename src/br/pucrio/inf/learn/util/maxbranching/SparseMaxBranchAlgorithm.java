@@ -0,0 +1,522 @@
+package br.pucrio.inf.learn.util.maxbranching;
+
+import java.util.Arrays;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Chu-Liu-Edmonds' algorithm for finding a maximum branching in a directed
+ * graph. Contrary to <code>DirectedMaxBranchAlgorithm</code>, this
+ * implementation is optimized for sparse graphs, i.e., graphs whose number of
+ * edges m is much smaller than n*n, where n is the number of nodes. Edges
+ * whose weight is <code>NaN</code> do not exist.
+ *
+ * This implementation follows the same steps of Tarjan's algorithm performed
+ * by <code>DirectedMaxBranchAlgorithm</code>, but the incoming edges of each
+ * SCC are kept in a mergeable priority queue (leftist heap with lazy weight
+ * increments) as suggested by Gabow et al. ('Efficient algorithms for finding
+ * minimum spanning trees in undirected and directed graphs'). Thus, it runs
+ * in O(m log n) time after the edges have been collected, instead of O(n*n).
+ *
+ * All data structures are primitive arrays that are reused across instances.
+ *
+ * @author eraldo
+ *
+ */
+public class SparseMaxBranchAlgorithm implements MaximumBranchingAlgorithm {
+	/**
+	 * Logging object.
+	 */
+	private final static Log LOG = LogFactory
+			.getLog(SparseMaxBranchAlgorithm.class);
+
+	/**
+	 * Union-find data structure to store the partition of the strongly
+	 * connected components (SCCs).
+	 */
+	private DisjointSets sPartition;
+
+	/**
+	 * Union-find data structure to store the partition of the weakly connected
+	 * components (WCCs).
+	 */
+	private DisjointSets wPartition;
+
+	/**
+	 * Number of edges in the current instance.
+	 */
+	private int numberOfEdges;
+
+	/**
+	 * Origin node of each edge.
+	 */
+	private int[] edgeFrom;
+
+	/**
+	 * Destin node of each edge.
+	 */
+	private int[] edgeTo;
+
+	/**
+	 * Current (reduced) weight of each edge. Pending increments of an edge
+	 * subtree are stored in <code>lazy</code>.
+	 */
+	private double[] key;
+
+	/**
+	 * Pending weight increment of each heap subtree.
+	 */
+	private double[] lazy;
+
+	/**
+	 * Left child of each edge in its heap.
+	 */
+	private int[] left;
+
+	/**
+	 * Right child of each edge in its heap.
+	 */
+	private int[] right;
+
+	/**
+	 * Null path length of each edge in its heap (leftist heap property).
+	 */
+	private int[] rank;
+
+	/**
+	 * Root edge of the heap of incoming edges of each SCC (or -1).
+	 */
+	private int[] heap;
+
+	/**
+	 * Edge entering each SCC in the current branching (or -1).
+	 */
+	private int[] enter;
+
+	/**
+	 * Weight of the entering edge of each SCC at the moment it was chosen.
+	 */
+	private double[] enterWeight;
+
+	/**
+	 * For each SCC, store the destin node whose incoming edge has the minimum
+	 * weight within the current branching (see
+	 * <code>DirectedMaxBranchAlgorithm</code>).
+	 */
+	private int[] min;
+
+	/**
+	 * Edges included in the branching. It may include additional edges that
+	 * form cycles but those are removed when one walks through the branching
+	 * by always starting from <code>min</code> nodes.
+	 */
+	private int[] chosen;
+
+	/**
+	 * Number of items in <code>chosen</code>.
+	 */
+	private int numberOfChosen;
+
+	/**
+	 * Queue of root components (circular buffer).
+	 */
+	private int[] queue;
+
+	/**
+	 * Root components with no available incoming edges.
+	 */
+	private int[] doneRootComponents;
+
+	/**
+	 * Offsets of the outgoing chosen edges of each node (CSR).
+	 */
+	private int[] outOffsets;
+
+	/**
+	 * Destin nodes of the outgoing chosen edges of each node (CSR).
+	 */
+	private int[] outNodes;
+
+	/**
+	 * Next free position of each node in <code>outNodes</code> (used to build
+	 * the CSR representation).
+	 */
+	private int[] nextOut;
+
+	/**
+	 * Auxiliar array to graph search.
+	 */
+	private boolean[] visited;
+
+	/**
+	 * If <code>true</code>, then emit a warn whenever the predicted branching
+	 * comprises more than one root node.
+	 */
+	private boolean checkUniqueRoot;
+
+	/**
+	 * Specify whether negative edges are included when no other option exists.
+	 */
+	private boolean onlyPositiveEdges;
+
+	/**
+	 * Allocate data structures to deal with the given maximum number of nodes.
+	 *
+	 * @param maxNumberOfNodes
+	 */
+	public SparseMaxBranchAlgorithm(int maxNumberOfNodes) {
+		realloc(maxNumberOfNodes);
+		reallocEdges(4 * maxNumberOfNodes);
+		checkUniqueRoot = true;
+	}
+
+	@Override
+	public void realloc(int maxNumberOfNodes) {
+		sPartition = new DisjointSets(maxNumberOfNodes);
+		wPartition = new DisjointSets(maxNumberOfNodes);
+		heap = new int[maxNumberOfNodes];
+		enter = new int[maxNumberOfNodes];
+		enterWeight = new double[maxNumberOfNodes];
+		min = new int[maxNumberOfNodes];
+		queue = new int[maxNumberOfNodes];
+		doneRootComponents = new int[maxNumberOfNodes];
+		outOffsets = new int[maxNumberOfNodes + 1];
+		nextOut = new int[maxNumberOfNodes];
+		visited = new boolean[maxNumberOfNodes];
+	}
+
+	/**
+	 * Realloc the edge arrays to store the given number of edges.
+	 *
+	 * @param maxNumberOfEdges
+	 */
+	private void reallocEdges(int maxNumberOfEdges) {
+		edgeFrom = new int[maxNumberOfEdges];
+		edgeTo = new int[maxNumberOfEdges];
+		key = new double[maxNumberOfEdges];
+		lazy = new double[maxNumberOfEdges];
+		left = new int[maxNumberOfEdges];
+		right = new int[maxNumberOfEdges];
+		rank = new int[maxNumberOfEdges];
+		chosen = new int[maxNumberOfEdges];
+		outNodes = new int[maxNumberOfEdges];
+	}
+
+	/**
+	 * Return the number of existing (non-<code>NaN</code> and non-autocycle)
+	 * edges of the given graph.
+	 *
+	 * @param numberOfNodes
+	 * @param graph
+	 * @return
+	 */
+	public static int countEdges(int numberOfNodes, double[][] graph) {
+		int count = 0;
+		for (int from = 0; from < numberOfNodes; ++from) {
+			double[] out = graph[from];
+			for (int to = 0; to < numberOfNodes; ++to)
+				if (from != to && !Double.isNaN(out[to]))
+					++count;
+		}
+		return count;
+	}
+
+	/**
+	 * Apply the pending increment of the given heap node to its children.
+	 *
+	 * @param e
+	 */
+	private void push(int e) {
+		double inc = lazy[e];
+		if (inc == 0d)
+			return;
+		int l = left[e];
+		if (l != -1) {
+			key[l] += inc;
+			lazy[l] += inc;
+		}
+		int r = right[e];
+		if (r != -1) {
+			key[r] += inc;
+			lazy[r] += inc;
+		}
+		lazy[e] = 0d;
+	}
+
+	/**
+	 * Return whether edge <code>a</code> has priority over edge
+	 * <code>b</code>. Ties are broken by the origin node, as in
+	 * <code>DirectedMaxBranchAlgorithm</code>.
+	 *
+	 * @param a
+	 * @param b
+	 * @return
+	 */
+	private boolean before(int a, int b) {
+		if (key[a] != key[b])
+			return key[a] > key[b];
+		return edgeFrom[a] < edgeFrom[b];
+	}
+
+	/**
+	 * Merge the two given leftist heaps and return the root of the result.
+	 *
+	 * @param a
+	 * @param b
+	 * @return
+	 */
+	private int merge(int a, int b) {
+		if (a == -1)
+			return b;
+		if (b == -1)
+			return a;
+		if (before(b, a)) {
+			int tmp = a;
+			a = b;
+			b = tmp;
+		}
+		push(a);
+		right[a] = merge(right[a], b);
+		int l = left[a];
+		int r = right[a];
+		if (l == -1 || rank[l] < rank[r]) {
+			left[a] = r;
+			right[a] = l;
+		}
+		rank[a] = (right[a] == -1 ? 0 : rank[right[a]] + 1);
+		return a;
+	}
+
+	/**
+	 * Add the given increment to all edges of the given heap.
+	 *
+	 * @param root
+	 * @param inc
+	 */
+	private void addToHeap(int root, double inc) {
+		if (root == -1)
+			return;
+		key[root] += inc;
+		lazy[root] += inc;
+	}
+
+	@Override
+	public double findMaxBranching(int numberOfNodes, double[][] graph,
+			int[] invertedMaxBranching) {
+		if (numberOfNodes > heap.length)
+			realloc(numberOfNodes);
+
+		// Collect the existing edges.
+		int numEdges = countEdges(numberOfNodes, graph);
+		if (numEdges > edgeFrom.length)
+			reallocEdges(numEdges);
+		numberOfEdges = 0;
+		for (int from = 0; from < numberOfNodes; ++from) {
+			double[] out = graph[from];
+			for (int to = 0; to < numberOfNodes; ++to) {
+				if (from == to || Double.isNaN(out[to]))
+					continue;
+				int e = numberOfEdges++;
+				edgeFrom[e] = from;
+				edgeTo[e] = to;
+				key[e] = out[to];
+				lazy[e] = 0d;
+				left[e] = -1;
+				right[e] = -1;
+				rank[e] = 0;
+			}
+		}
+
+		// Partitions initially comprise isolated nodes.
+		sPartition.clear(numberOfNodes);
+		wPartition.clear(numberOfNodes);
+
+		// Initially, every SCC (node) is a root component.
+		int queueHead = 0;
+		int queueSize = 0;
+		for (int scc = 0; scc < numberOfNodes; ++scc) {
+			queue[queueSize++] = scc;
+			min[scc] = scc;
+			enter[scc] = -1;
+			heap[scc] = -1;
+		}
+
+		// Build the heap of incoming edges of each node.
+		for (int e = 0; e < numberOfEdges; ++e)
+			heap[edgeTo[e]] = merge(heap[edgeTo[e]], e);
+
+		numberOfChosen = 0;
+		int numDone = 0;
+		while (queueSize > 0) {
+			// Get some arbitrary root component.
+			int sccTo = queue[queueHead];
+			queueHead = (queueHead + 1) % queue.length;
+			--queueSize;
+
+			// Find the maximum edge entering the component 'sccTo'.
+			int maxEdge = heap[sccTo];
+			if (maxEdge == -1 || (onlyPositiveEdges && key[maxEdge] < 0d)) {
+				// No edge left to consider in this component. So, it is done.
+				doneRootComponents[numDone++] = sccTo;
+				continue;
+			}
+
+			// Remove the selected edge from the SCC priority queue.
+			push(maxEdge);
+			heap[sccTo] = merge(left[maxEdge], right[maxEdge]);
+			double maxEdgeWeight = key[maxEdge];
+			int maxEdgeFrom = edgeFrom[maxEdge];
+
+			// SCC component of the start node of the maximum edge.
+			int sccFrom = sPartition.find(maxEdgeFrom);
+
+			if (sccFrom == sccTo) {
+				/*
+				 * Intern edge. Disconsider this edge but add its component to
+				 * be considered again later.
+				 */
+				queue[(queueHead + queueSize) % queue.length] = sccTo;
+				++queueSize;
+				continue;
+			}
+
+			// Include the selected edge in the current branching.
+			chosen[numberOfChosen++] = maxEdge;
+
+			// WCC components of the start and end nodes.
+			int wssFrom = wPartition.find(maxEdgeFrom);
+			int wssTo = wPartition.find(edgeTo[maxEdge]);
+
+			// Edge connects two different WCCs.
+			if (wssFrom != wssTo) {
+				wPartition.union(wssFrom, wssTo);
+				enter[sccTo] = maxEdge;
+				enterWeight[sccTo] = maxEdgeWeight;
+				continue;
+			}
+
+			/*
+			 * Edge is within the same WCC, thus its inclusion creates a cycle.
+			 * Find the minimum edge to be removed among all SCCs in the cycle.
+			 */
+			double minEdgeWeight = maxEdgeWeight;
+			int minScc = sccTo;
+			int scc = sccFrom;
+			while (enter[scc] != -1) {
+				if (enterWeight[scc] < minEdgeWeight) {
+					minEdgeWeight = enterWeight[scc];
+					minScc = scc;
+				}
+				scc = sPartition.find(edgeFrom[enter[scc]]);
+			}
+
+			// Set the head of the current SCC.
+			min[sccTo] = min[minScc];
+
+			// Increment incoming edges weights.
+			addToHeap(heap[sccTo], minEdgeWeight - maxEdgeWeight);
+
+			// Include all SCCs of the cycle in the current SCC 'sccTo'.
+			scc = sccFrom;
+			while (enter[scc] != -1) {
+				int next = sPartition.find(edgeFrom[enter[scc]]);
+				addToHeap(heap[scc], minEdgeWeight - enterWeight[scc]);
+				heap[sccTo] = merge(heap[sccTo], heap[scc]);
+				enter[scc] = -1;
+				sPartition.union(sccTo, scc);
+				scc = next;
+			}
+
+			// Include the new SCC to be considered in the future.
+			queue[(queueHead + queueSize) % queue.length] = sccTo;
+			++queueSize;
+		}
+
+		if (checkUniqueRoot && !onlyPositiveEdges && numDone > 1)
+			LOG.warn("Final root components list contains more than one element");
+
+		return invertBranching(numberOfNodes, graph, numDone,
+				invertedMaxBranching);
+	}
+
+	/**
+	 * Walk through the chosen edges from the <code>min</code> node of each
+	 * done root component and store the inverted branching in
+	 * <code>invertedMaxBranching</code>. The chosen edges can include cycles,
+	 * which are broken by skipping already visited nodes.
+	 *
+	 * @param numberOfNodes
+	 * @param graph
+	 * @param numDone
+	 * @param invertedMaxBranching
+	 * @return the weight of the branching.
+	 */
+	private double invertBranching(int numberOfNodes, double[][] graph,
+			int numDone, int[] invertedMaxBranching) {
+		// Outgoing chosen edges of each node sorted by destin node.
+		Arrays.fill(outOffsets, 0, numberOfNodes + 1, 0);
+		for (int idx = 0; idx < numberOfChosen; ++idx)
+			++outOffsets[edgeFrom[chosen[idx]] + 1];
+		for (int node = 0; node < numberOfNodes; ++node)
+			outOffsets[node + 1] += outOffsets[node];
+		// Edges are collected in order of (from, to), so sort them by id.
+		Arrays.sort(chosen, 0, numberOfChosen);
+		System.arraycopy(outOffsets, 0, nextOut, 0, numberOfNodes);
+		for (int idx = 0; idx < numberOfChosen; ++idx) {
+			int e = chosen[idx];
+			outNodes[nextOut[edgeFrom[e]]++] = edgeTo[e];
+		}
+
+		double weight = 0d;
+		Arrays.fill(visited, 0, numberOfNodes, false);
+		Arrays.fill(invertedMaxBranching, 0, numberOfNodes, -1);
+		for (int idxDone = 0; idxDone < numDone; ++idxDone)
+			weight += invertBranching(graph, min[doneRootComponents[idxDone]],
+					invertedMaxBranching);
+		return weight;
+	}
+
+	/**
+	 * Depth-first walk from the given node through the outgoing chosen edges.
+	 *
+	 * @param graph
+	 * @param from
+	 * @param invertedBranching
+	 * @return the weight of the subtree under <code>from</code>.
+	 */
+	private double invertBranching(double[][] graph, int from,
+			int[] invertedBranching) {
+		double weight = 0d;
+		visited[from] = true;
+		for (int idx = outOffsets[from]; idx < outOffsets[from + 1]; ++idx) {
+			int to = outNodes[idx];
+			if (visited[to])
+				continue;
+			invertedBranching[to] = from;
+			weight += graph[from][to];
+			weight += invertBranching(graph, to, invertedBranching);
+		}
+		return weight;
+	}
+
+	@Override
+	public void setCheckUniqueRoot(boolean check) {
+		checkUniqueRoot = check;
+	}
+
+	@Override
+	public boolean isCheckUniqueRoot() {
+		return checkUniqueRoot;
+	}
+
+	@Override
+	public void setOnlyPositiveEdges(boolean val) {
+		onlyPositiveEdges = val;
+	}
+
+	@Override
+	public boolean isOnlyPositiveEdges() {
+		return onlyPositiveEdges;
+	}
+}
@@ -1,9 +1,6 @@
 package br.pucrio.inf.learn.util.maxbranching;
 
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.Comparator;
 
 /**
  * Implement a maximum branching algorithm for undirected graphs. A directed
@@ -20,7 +17,7 @@ public class UndirectedMaxBranchAlgorithm implements MaximumBranchingAlgorithm {
 	/**
 	 * List of all edges.
 	 */
-	private ArrayList<SimpleWeightedEdge> edges;
+	private WeightedEdgeArray edges;
 
 	/**
 	 * Used to walk through the spanning tree.
@@ -43,20 +40,6 @@ public class UndirectedMaxBranchAlgorithm implements MaximumBranchingAlgorithm {
 	 */
 	private boolean onlyPositiveEdges;
 
-	/**
-	 * Simple edge comparator.
-	 */
-	private final static Comparator<SimpleWeightedEdge> comp = new Comparator<SimpleWeightedEdge>() {
-		@Override
-		public int compare(SimpleWeightedEdge o1, SimpleWeightedEdge o2) {
-			if (o1.weight > o2.weight)
-				return -1;
-			if (o1.weight < o2.weight)
-				return 1;
-			return 0;
-		}
-	};
-
 	/**
 	 * Create a undirected maximum branching algorithm (Kruskal) that is able to
 	 * handle graphs with up to the given <code>maxNumberOfNodes</code> nodes.
@@ -80,11 +63,14 @@ public class UndirectedMaxBranchAlgorithm implements MaximumBranchingAlgorithm {
 					continue;
 				if (!Double.isNaN(graph[from][to])
 						&& (!onlyPositiveEdges || graph[from][to] >= 0d))
-					edges.add(new SimpleWeightedEdge(from, to, graph[from][to]));
+					edges.add(from, to, graph[from][to]);
 			}
 		}
-		// Sort edges by weight.
-		Collections.sort(edges, comp);
+		/*
+		 * Sort edges by weight. Only the heaviest edges are sorted at first,
+		 * since the tree is usually completed before consuming all edges.
+		 */
+		edges.sortNext(numberOfNodes);
 
 		// Initialize the disjoint sets (one component for each node).
 		partition.clear(numberOfNodes);
@@ -94,19 +80,28 @@ public class UndirectedMaxBranchAlgorithm implements MaximumBranchingAlgorithm {
 
 		// Greedily select edges while avoiding cycles.
 		double weight = 0d;
-		for (SimpleWeightedEdge edge : edges) {
+		int numComponents = numberOfNodes;
+		int numEdges = edges.size();
+		for (int pos = 0; pos < numEdges && numComponents > 1; ++pos) {
+			if (pos == edges.getNumberOfSorted())
+				// Double the sorted prefix.
+				edges.sortNext(pos);
+			int edge = edges.getSorted(pos);
+			int from = edges.getFrom(edge);
+			int to = edges.getTo(edge);
 			// Component id of the source node.
-			int pFrom = partition.find(edge.from);
+			int pFrom = partition.find(from);
 			// Component id of the target node.
-			int pTo = partition.find(edge.to);
+			int pTo = partition.find(to);
 			// Add edge if it does not create a cycle.
 			if (pFrom != pTo) {
 				// Connect the two components.
 				partition.union(pFrom, pTo);
 				// Add edge to the tree.
-				incidence[edge.from][edge.to] = true;
+				incidence[from][to] = true;
 				// Account for its weight.
-				weight += edge.weight;
+				weight += edges.getWeight(edge);
+				--numComponents;
 			}
 		}
 
@@ -169,7 +164,7 @@ public class UndirectedMaxBranchAlgorithm implements MaximumBranchingAlgorithm {
 		if (visited != null && visited.length >= maxNumberOfNodes)
 			return;
 		partition = new DisjointSets(maxNumberOfNodes);
-		edges = new ArrayList<SimpleWeightedEdge>(maxNumberOfNodes
+		edges = new WeightedEdgeArray(maxNumberOfNodes
 				* (maxNumberOfNodes - 1));
 		visited = new boolean[maxNumberOfNodes];
 		incidence = new boolean[maxNumberOfNodes][maxNumberOfNodes];
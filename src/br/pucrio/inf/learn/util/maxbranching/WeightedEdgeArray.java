@@ -0,0 +1,315 @@
+package br.pucrio.inf.learn.util.maxbranching;
+
+import java.util.Arrays;
+
+/**
+ * List of weighted edges stored in parallel primitive arrays. It replaces
+ * lists of <code>SimpleWeightedEdge</code> objects in Kruskal-like algorithms,
+ * avoiding the allocation of O(n*n) objects per graph. The arrays are reused
+ * across graphs (see <code>clear()</code>).
+ *
+ * Edges are sorted by decreasing weight through an index array. Ties are
+ * broken by insertion order, so the resulting order is the same as a stable
+ * sort of the edges. The order can be computed incrementally (see
+ * <code>sortNext(int)</code>), so that algorithms that stop early do not need
+ * to sort all edges.
+ *
+ * @author eraldo
+ *
+ */
+public class WeightedEdgeArray {
+
+	/**
+	 * Below this size, ranges are sorted by insertion sort.
+	 */
+	private static final int INSERTION_SORT_THRESHOLD = 16;
+
+	/**
+	 * Origin node of each edge.
+	 */
+	private int[] from;
+
+	/**
+	 * Destin node of each edge.
+	 */
+	private int[] to;
+
+	/**
+	 * Weight of each edge.
+	 */
+	private double[] weight;
+
+	/**
+	 * Edge indexes in decreasing order of weight. Only the first
+	 * <code>numberOfSorted</code> positions are guaranteed to be sorted.
+	 */
+	private int[] order;
+
+	/**
+	 * Number of edges.
+	 */
+	private int size;
+
+	/**
+	 * Number of positions of <code>order</code> that are already sorted.
+	 */
+	private int numberOfSorted;
+
+	/**
+	 * Create an empty array with the given initial capacity.
+	 *
+	 * @param capacity
+	 */
+	public WeightedEdgeArray(int capacity) {
+		capacity = Math.max(1, capacity);
+		from = new int[capacity];
+		to = new int[capacity];
+		weight = new double[capacity];
+		order = new int[capacity];
+	}
+
+	/**
+	 * Remove all edges. The underlying arrays are kept.
+	 */
+	public void clear() {
+		size = 0;
+		numberOfSorted = 0;
+	}
+
+	/**
+	 * Guarantee that this array can store the given number of edges without
+	 * resizing.
+	 *
+	 * @param capacity
+	 */
+	public void ensureCapacity(int capacity) {
+		if (capacity <= from.length)
+			return;
+		capacity = Math.max(capacity, 2 * from.length);
+		from = Arrays.copyOf(from, capacity);
+		to = Arrays.copyOf(to, capacity);
+		weight = Arrays.copyOf(weight, capacity);
+		order = Arrays.copyOf(order, capacity);
+	}
+
+	/**
+	 * Append the given edge.
+	 *
+	 * @param fromNode
+	 * @param toNode
+	 * @param w
+	 */
+	public void add(int fromNode, int toNode, double w) {
+		if (size == from.length)
+			ensureCapacity(size + 1);
+		from[size] = fromNode;
+		to[size] = toNode;
+		weight[size] = w;
+		order[size] = size;
+		++size;
+		numberOfSorted = 0;
+	}
+
+	/**
+	 * Return the number of edges.
+	 *
+	 * @return
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Return the origin node of the given edge.
+	 *
+	 * @param edge
+	 * @return
+	 */
+	public int getFrom(int edge) {
+		return from[edge];
+	}
+
+	/**
+	 * Return the destin node of the given edge.
+	 *
+	 * @param edge
+	 * @return
+	 */
+	public int getTo(int edge) {
+		return to[edge];
+	}
+
+	/**
+	 * Return the weight of the given edge.
+	 *
+	 * @param edge
+	 * @return
+	 */
+	public double getWeight(int edge) {
+		return weight[edge];
+	}
+
+	/**
+	 * Return the edge at the given position of the decreasing-weight order.
+	 * The position must be less than the number of sorted positions.
+	 *
+	 * @param position
+	 * @return
+	 */
+	public int getSorted(int position) {
+		return order[position];
+	}
+
+	/**
+	 * Return the number of positions that are already sorted.
+	 *
+	 * @return
+	 */
+	public int getNumberOfSorted() {
+		return numberOfSorted;
+	}
+
+	/**
+	 * Sort all edges by decreasing weight.
+	 */
+	public void sort() {
+		sortNext(size - numberOfSorted);
+	}
+
+	/**
+	 * Extend the sorted prefix of the order by the given number of positions.
+	 * The remaining edges are first partitioned (quickselect) so that only the
+	 * selected ones need to be sorted.
+	 *
+	 * @param count
+	 * @return the new number of sorted positions.
+	 */
+	public int sortNext(int count) {
+		int begin = numberOfSorted;
+		int end = (int) Math.min((long) begin + count, size);
+		if (end <= begin)
+			return numberOfSorted;
+		if (end < size)
+			select(begin, size - 1, end);
+		quickSort(begin, end - 1);
+		numberOfSorted = end;
+		return numberOfSorted;
+	}
+
+	/**
+	 * Return <code>true</code> if edge <code>a</code> comes before edge
+	 * <code>b</code> in the order.
+	 *
+	 * @param a
+	 * @param b
+	 * @return
+	 */
+	private boolean before(int a, int b) {
+		if (weight[a] != weight[b])
+			return weight[a] > weight[b];
+		return a < b;
+	}
+
+	/**
+	 * Partition the given range of <code>order</code> so that its first
+	 * <code>k - lo</code> positions hold the edges that come first.
+	 *
+	 * @param lo
+	 * @param hi
+	 *            inclusive.
+	 * @param k
+	 */
+	private void select(int lo, int hi, int k) {
+		while (hi - lo > INSERTION_SORT_THRESHOLD) {
+			int p = partition(lo, hi);
+			if (p == k || p == k - 1)
+				return;
+			if (p < k)
+				lo = p + 1;
+			else
+				hi = p - 1;
+		}
+		insertionSort(lo, hi);
+	}
+
+	/**
+	 * Sort the given range of <code>order</code>.
+	 *
+	 * @param lo
+	 * @param hi
+	 *            inclusive.
+	 */
+	private void quickSort(int lo, int hi) {
+		while (hi - lo > INSERTION_SORT_THRESHOLD) {
+			int p = partition(lo, hi);
+			// Recurse on the smaller side to bound the stack depth.
+			if (p - lo < hi - p) {
+				quickSort(lo, p - 1);
+				lo = p + 1;
+			} else {
+				quickSort(p + 1, hi);
+				hi = p - 1;
+			}
+		}
+		insertionSort(lo, hi);
+	}
+
+	/**
+	 * Partition the given range around a median-of-three pivot and return the
+	 * final pivot position.
+	 *
+	 * @param lo
+	 * @param hi
+	 * @return
+	 */
+	private int partition(int lo, int hi) {
+		int mid = (lo + hi) >>> 1;
+		if (before(order[mid], order[lo]))
+			swap(mid, lo);
+		if (before(order[hi], order[lo]))
+			swap(hi, lo);
+		if (before(order[hi], order[mid]))
+			swap(hi, mid);
+		// Median is now at mid. Move it to hi.
+		swap(mid, hi);
+		int pivot = order[hi];
+		int store = lo;
+		for (int idx = lo; idx < hi; ++idx) {
+			if (before(order[idx], pivot))
+				swap(idx, store++);
+		}
+		swap(store, hi);
+		return store;
+	}
+
+	/**
+	 * Sort the given (small) range of <code>order</code>.
+	 *
+	 * @param lo
+	 * @param hi
+	 *            inclusive.
+	 */
+	private void insertionSort(int lo, int hi) {
+		for (int idx = lo + 1; idx <= hi; ++idx) {
+			int edge = order[idx];
+			int pos = idx - 1;
+			while (pos >= lo && before(edge, order[pos])) {
+				order[pos + 1] = order[pos];
+				--pos;
+			}
+			order[pos + 1] = edge;
+		}
+	}
+
+	/**
+	 * Swap two positions of <code>order</code>.
+	 *
+	 * @param i
+	 * @param j
+	 */
+	private void swap(int i, int j) {
+		int tmp = order[i];
+		order[i] = order[j];
+		order[j] = tmp;
+	}
+}